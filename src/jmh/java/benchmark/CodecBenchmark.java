@@ -0,0 +1,198 @@
+package benchmark;
+
+import com.google.gson.JsonObject;
+import common.BufferPool;
+import common.NetworkUtils;
+import common.codec.Codec;
+import common.codec.CodecType;
+import common.codec.MalformedMessageException;
+import common.operation.BatchOperation;
+import common.operation.BulkHypotenuseOperation;
+import common.operation.HypotenuseOperation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class measures every codec, and the framing around it, for messages from a single hypotenuse request
+ * to batches of a thousand requests.
+ * The frames are encoded and decoded in memory, without a socket, so only the codecs and the framing are measured:
+ * <ul>
+ *     <li>{@code encodeFrame} and {@code decode} are what both servers do for every frame,
+ *     see {@link NetworkUtils#toBuffer(Object, Codec)} and {@link NetworkUtils#fromBuffer(ByteBuffer, Codec)}.</li>
+ *     <li>{@code toStream} and {@code fromStream} are the same with the length prefix written to and read from a stream,
+ *     see {@link NetworkUtils#toStream(JsonObject, OutputStream, Codec)} and
+ *     {@link NetworkUtils#fromStream(java.io.InputStream, Codec, int)}.</li>
+ * </ul>
+ * Run it with {@code gradle Jmh -Pbench=CodecBenchmark -PjmhArgs="-prof gc"},
+ * the gc profiler reports the bytes allocated for every operation as {@code gc.alloc.rate.norm}.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CodecBenchmark {
+    // The largest frame that fromStream accepts, large enough for every message.
+    private static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * This method measures encoding a message into a whole frame, in a buffer leased from the pool.
+     *
+     * @param state The codec and the message.
+     * @return The size of the frame, so that encoding it can not be optimised away.
+     */
+    @Benchmark
+    public int encodeFrame( Frames state ) {
+        ByteBuffer frame = NetworkUtils.toBuffer(state.message, state.codec);
+        int size = frame.remaining();
+        BufferPool.releaseBuffer(frame);
+        return size;
+    }
+
+    /**
+     * This method measures decoding the payload of a frame into a message.
+     *
+     * @param state The codec and the encoded payload.
+     * @return The message.
+     * @throws MalformedMessageException Never, the payload was encoded by the same codec.
+     */
+    @Benchmark
+    public JsonObject decode( Frames state ) throws MalformedMessageException {
+        return NetworkUtils.fromBuffer(state.payload.rewind(), state.codec);
+    }
+
+    /**
+     * This method measures encoding a message into a frame and writing it to a stream.
+     * The stream discards what is written to it, so only the framing and the copy into the stream are measured.
+     *
+     * @param state The codec and the message.
+     * @throws IOException Never, the stream discards what is written to it.
+     */
+    @Benchmark
+    public void toStream( Frames state ) throws IOException {
+        NetworkUtils.toStream(state.message, state.out, state.codec);
+    }
+
+    /**
+     * This method measures reading a frame from a stream and decoding it into a message.
+     *
+     * @param state The codec and a stream over the whole frame.
+     * @return The message.
+     * @throws IOException Never, the stream holds a whole frame that was encoded by the same codec.
+     */
+    @Benchmark
+    public JsonObject fromStream( Frames state ) throws IOException {
+        state.in.reset();
+        return NetworkUtils.fromStream(state.in, state.codec, MAX_FRAME_SIZE);
+    }
+
+    /**
+     * This class is a codec with a message, encoded both as a payload and as a whole frame.
+     */
+    @State(Scope.Thread)
+    public static class Frames {
+        // The name of the codec to measure, see CodecType.
+        @Param({ "json", "compact-json", "binary" })
+        public String codecType;
+
+        // The message to measure, from a single request to a batch of a thousand requests.
+        //  - hypotenuse: a single hypotenuse request, the smallest message there is.
+        //  - batch-16: a batch of 16 hypotenuse requests.
+        //  - batch-1024: a batch of 1024 hypotenuse requests.
+        //  - bulk-4096: a bulk hypotenuse request with 4096 triangles, which is mostly arrays of numbers.
+        @Param({ "hypotenuse", "batch-16", "batch-1024", "bulk-4096" })
+        public String messageType;
+
+        // The codec of the connection.
+        private Codec codec;
+        // The message to encode.
+        private JsonObject message;
+        // The payload of the message, to decode.
+        private ByteBuffer payload;
+        // A stream over the whole frame of the message, length prefix included, to read the frame from.
+        private ByteArrayInputStream in;
+        // A stream that discards everything written to it, to write the frame to.
+        private OutputStream out;
+
+        /**
+         * This method creates the codec and the message, and encodes the message once.
+         */
+        @Setup(Level.Trial)
+        public void setUp() {
+            codec = CodecType.fromName(codecType).create();
+            message = createMessage(messageType);
+            payload = codec.encode(message);
+            ByteBuffer frame = codec.encodeFrame(message);
+            byte[] bytes = new byte[ frame.remaining() ];
+            frame.get(bytes);
+            BufferPool.releaseBuffer(frame);
+            in = new ByteArrayInputStream(bytes);
+            out = OutputStream.nullOutputStream();
+        }
+    }
+
+    /**
+     * This method is a helper method that creates the message to measure.
+     * The sides of the triangles are different for every request, and are not all whole numbers,
+     * so that the codecs can not encode every number the same way.
+     *
+     * @param name The name of the message, see {@link Frames#messageType}.
+     * @return The message.
+     */
+    private static JsonObject createMessage( String name ) {
+        switch (name) {
+            case "hypotenuse":
+                return HypotenuseOperation.createHypotenuseRequest(3, 4);
+            case "batch-16":
+                return createBatch(16);
+            case "batch-1024":
+                return createBatch(1024);
+            case "bulk-4096":
+                double[] a = new double[ 4096 ];
+                double[] b = new double[ 4096 ];
+                for (int i = 0; i < a.length; i++) {
+                    a[ i ] = 3 + i;
+                    b[ i ] = 4 + i * 0.5;
+                }
+                return BulkHypotenuseOperation.createBulkHypotenuseRequest(a, b);
+            default:
+                throw new IllegalArgumentException("Unknown message: " + name);
+        }
+    }
+
+    /**
+     * This method is a helper method that creates a batch of hypotenuse requests.
+     *
+     * @param size The number of requests in the batch.
+     * @return The batch request.
+     */
+    private static JsonObject createBatch( int size ) {
+        List<JsonObject> requests = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            requests.add(HypotenuseOperation.createHypotenuseRequest(3 + i, 4 + i * 0.5));
+        }
+        return BatchOperation.createBatchRequest(requests);
+    }
+
+}
@@ -0,0 +1,232 @@
+package benchmark;
+
+import common.RingBuffer;
+import common.WaitStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class compares the queues that messages can be handed between threads through:
+ * the {@link LinkedBlockingQueue} that the {@link common.NetworkHandlingThread} used to hand messages through,
+ * and the {@link RingBuffer} with every {@link WaitStrategy}.
+ * Run it with {@code gradle Jmh -Pbench=QueueBenchmark}.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class QueueBenchmark {
+    // The number of messages that every queue holds, twice the default high watermark like the request queue.
+    private static final int CAPACITY = 2048;
+    // The message that is handed over, so that the benchmarks do not measure allocating messages.
+    private static final Object MESSAGE = new Object();
+
+    /**
+     * This method measures how many messages a single consumer can take from the producers.
+     * It is the handoff from the threads sending responses to the writer thread.
+     *
+     * @param state The queue and the producers sending messages to it.
+     * @return The message, so that taking it can not be optimised away.
+     * @throws InterruptedException Never, the producers are only stopped once the benchmark is done.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object handoff( Producers state ) throws InterruptedException {
+        return state.inbound.take();
+    }
+
+    /**
+     * This method measures how long it takes to hand a message to another thread and to get it back.
+     * It is the latency that the queues add to a single request and its response, when nothing else is queued.
+     *
+     * @param state The queues and the thread echoing messages between them.
+     * @return The message, so that taking it can not be optimised away.
+     * @throws InterruptedException Never, the echo thread is only stopped once the benchmark is done.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Object roundTrip( Echo state ) throws InterruptedException {
+        state.inbound.offer(MESSAGE);
+        return state.outbound.take();
+    }
+
+    /**
+     * This class is a queue with threads that send messages to it for as long as the benchmark runs.
+     */
+    @State(Scope.Benchmark)
+    public static class Producers extends Threads {
+        // The queue to measure, either "linked" or the name of a wait strategy.
+        @Param({ "linked", "spin", "yield", "park", "block" })
+        public String queue;
+
+        // The number of threads that send messages to the thread being measured.
+        @Param({ "1", "4" })
+        public int producers;
+
+        // The queue that the producers send messages to.
+        private Handoff inbound;
+
+        /**
+         * This method creates the queue and starts the producers.
+         */
+        @Setup(Level.Trial)
+        public void setUp() {
+            inbound = create(queue);
+            for (int i = 0; i < producers; i++) {
+                start(() -> {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        if (!inbound.offer(MESSAGE)) {
+                            Thread.yield();
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * This class is a pair of queues with a thread that sends every message it takes from one back through the other.
+     */
+    @State(Scope.Benchmark)
+    public static class Echo extends Threads {
+        // The queue to measure, either "linked" or the name of a wait strategy.
+        @Param({ "linked", "spin", "yield", "park", "block" })
+        public String queue;
+
+        // The queue that messages are sent to the echo thread through.
+        private Handoff inbound;
+        // The queue that the echo thread sends messages back through.
+        private Handoff outbound;
+
+        /**
+         * This method creates the queues and starts the echo thread.
+         */
+        @Setup(Level.Trial)
+        public void setUp() {
+            inbound = create(queue);
+            outbound = create(queue);
+            start(() -> {
+                try {
+                    while (true) {
+                        outbound.offer(inbound.take());
+                    }
+                } catch (InterruptedException ignored) {}
+            });
+        }
+    }
+
+    /**
+     * This class keeps track of the threads that a state starts, and stops them once the benchmark is done.
+     */
+    public abstract static class Threads {
+        // The threads that were started for the benchmark.
+        private final List<Thread> THREADS = new ArrayList<>();
+
+        /**
+         * This method is a helper method that starts a daemon thread that runs until it is interrupted.
+         *
+         * @param task The task that the thread runs.
+         */
+        protected void start( Runnable task ) {
+            Thread thread = new Thread(task, "QueueBenchmark#" + THREADS.size());
+            thread.setDaemon(true);
+            THREADS.add(thread);
+            thread.start();
+        }
+
+        /**
+         * This method stops every thread that was started for the benchmark.
+         *
+         * @throws InterruptedException If the benchmark is interrupted while waiting for the threads to stop.
+         */
+        @TearDown(Level.Trial)
+        public void tearDown() throws InterruptedException {
+            for (Thread thread : THREADS) {
+                thread.interrupt();
+            }
+            for (Thread thread : THREADS) {
+                thread.join();
+            }
+            THREADS.clear();
+        }
+    }
+
+    /**
+     * This method is a helper method that creates the queue to measure.
+     *
+     * @param name Either "linked" or the name of a wait strategy.
+     * @return The queue.
+     */
+    private static Handoff create( String name ) {
+        if (name.equals("linked")) {
+            // Bounded, so that the producers can not fill the heap, it still allocates a node and takes a lock for every message.
+            BlockingQueue<Object> queue = new LinkedBlockingQueue<>(CAPACITY);
+            return new Handoff() {
+                @Override
+                public boolean offer( Object message ) {
+                    return queue.offer(message);
+                }
+
+                @Override
+                public Object take() throws InterruptedException {
+                    return queue.take();
+                }
+            };
+        }
+        RingBuffer<Object> queue = new RingBuffer<>(CAPACITY, WaitStrategy.fromName(name));
+        return new Handoff() {
+            @Override
+            public boolean offer( Object message ) {
+                return queue.offer(message);
+            }
+
+            @Override
+            public Object take() throws InterruptedException {
+                return queue.take();
+            }
+        };
+    }
+
+    /**
+     * This interface is the part of a queue that the benchmarks use.
+     */
+    private interface Handoff {
+        /**
+         * This method adds a message to the queue if there is room for it.
+         *
+         * @param message The message.
+         * @return True if the message was added, false if the queue is full.
+         */
+        boolean offer( Object message );
+
+        /**
+         * This method takes the next message from the queue, waiting for one if the queue is empty.
+         *
+         * @return The message.
+         * @throws InterruptedException If the thread is interrupted while waiting.
+         */
+        Object take() throws InterruptedException;
+    }
+
+}
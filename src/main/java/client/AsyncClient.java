@@ -0,0 +1,251 @@
+package client;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import common.Handshake;
+import common.NetworkHandlingThread;
+import common.codec.CodecType;
+import common.operation.BatchOperation;
+import common.operation.BulkHypotenuseOperation;
+import common.operation.HypotenuseOperation;
+import common.operation.StatsOperation;
+import common.operation.StreamingHypotenuseOperation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * A client that can be embedded in other programs to call the server asynchronously.
+ * Every call is sent over a single connection with its own correlation ID, so any number
+ * of calls can be in flight at once without needing a thread per call.
+ * This class is thread safe, calls can be made from any number of threads.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class AsyncClient implements Closeable {
+    // The socket that is connected to the server.
+    private final Socket socket;
+    // The thread that is handling the communication with the server.
+    private final NetworkHandlingThread connection;
+
+    /**
+     * This constructor is used to create a new AsyncClient that is connected to the server.
+     *
+     * @param host The host name of the server.
+     * @param port The port of the server.
+     * @throws IOException If the connection to the server could not be made.
+     * @implSpec This constructor is equivalent to calling {@link #AsyncClient(String, int, CodecType)}
+     *           with {@link CodecType#JSON}.
+     */
+    public AsyncClient( String host, int port ) throws IOException {
+        this(host, port, CodecType.JSON);
+    }
+
+    /**
+     * This constructor is used to create a new AsyncClient that is connected to the server
+     * and prefers to encode its messages with the given type of codec.
+     *
+     * @param host The host name of the server.
+     * @param port The port of the server.
+     * @param codecType The type of codec to ask the server to use during the handshake.
+     * @throws IOException If the connection to the server could not be made.
+     */
+    public AsyncClient( String host, int port, CodecType codecType ) throws IOException {
+        this.socket = new Socket(host, port);
+        this.connection = new NetworkHandlingThread(socket);
+        this.connection.setHandshake(Handshake.Role.CLIENT, Handshake.preferring(codecType));
+        this.connection.start();
+    }
+
+    /**
+     * This method is used to send a request to the server.
+     * The returned future completes with the server's response as-is,
+     * which may be an error response.
+     *
+     * @param request The request to send, it will be modified to carry a correlation ID.
+     *                The request must not be modified again until the future has completed.
+     * @return A future that completes with the server's response, or completes exceptionally
+     *         if the connection is closed before the response arrives.
+     */
+    public CompletableFuture<JsonObject> call( JsonObject request ) {
+        return connection.request(request);
+    }
+
+    /**
+     * This method is used to ask the server for the hypotenuse of a right triangle.
+     *
+     * @param a The length of one of the sides of the triangle.
+     * @param b The length of the other side of the triangle.
+     * @return A future that completes with the hypotenuse, or completes exceptionally with
+     *         an {@link OperationFailedException} if the server responded with an error.
+     */
+    public CompletableFuture<Double> hypotenuse( Number a, Number b ) {
+        return call(HypotenuseOperation.createHypotenuseRequest(a, b))
+                .thenApply(response -> checkResponse(response).get("result").getAsDouble());
+    }
+
+    /**
+     * This method is used to send many requests to the server in a single batch.
+     * The whole batch is sent as one frame and answered with one frame, which is much cheaper than
+     * calling {@link #call(JsonObject)} for every request.
+     *
+     * @param requests The requests to send, they must not be modified again until the future has completed.
+     * @return A future that completes with the response to every request, in the same order as the requests,
+     *         or completes exceptionally with an {@link OperationFailedException} if the server rejected the whole batch.
+     */
+    public CompletableFuture<List<JsonObject>> batch( List<JsonObject> requests ) {
+        return call(BatchOperation.createBatchRequest(requests)).thenApply(response -> {
+            checkError(response);
+            if (!response.has("results") || !response.get("results").isJsonArray()
+                    || response.get("results").getAsJsonArray().size() != requests.size()) {
+                throw new CompletionException(new OperationFailedException(-1, "Malformed response received from server."));
+            }
+            JsonArray results = response.get("results").getAsJsonArray();
+            List<JsonObject> responses = new ArrayList<>(results.size());
+            for (int i = 0; i < results.size(); i++) {
+                responses.add(results.get(i).isJsonObject() ? results.get(i).getAsJsonObject() : null);
+            }
+            return responses;
+        });
+    }
+
+    /**
+     * This method is used to ask the server for the hypotenuses of many right triangles in a single batch.
+     *
+     * @param a The length of one of the sides of every triangle.
+     * @param b The length of the other side of every triangle, there must be as many as there are in a.
+     * @return A future that completes with the hypotenuse of every triangle, in the same order as the sides,
+     *         or completes exceptionally with an {@link OperationFailedException} if the server responded
+     *         to any of the triangles with an error.
+     */
+    public CompletableFuture<double[]> hypotenuses( Number[] a, Number[] b ) {
+        if (a.length != b.length) {
+            throw new IllegalArgumentException("Every triangle needs both of its sides");
+        }
+        List<JsonObject> requests = new ArrayList<>(a.length);
+        for (int i = 0; i < a.length; i++) {
+            requests.add(HypotenuseOperation.createHypotenuseRequest(a[ i ], b[ i ]));
+        }
+        return batch(requests).thenApply(responses -> {
+            double[] results = new double[ responses.size() ];
+            for (int i = 0; i < results.length; i++) {
+                if (responses.get(i) == null) {
+                    throw new CompletionException(new OperationFailedException(-1, "Malformed response received from server."));
+                }
+                results[ i ] = checkResponse(responses.get(i)).get("result").getAsDouble();
+            }
+            return results;
+        });
+    }
+
+    /**
+     * This method is used to ask the server for the hypotenuses of many right triangles in a single bulk request.
+     * Unlike {@link #hypotenuses(Number[], Number[])}, the sides travel as two plain arrays of numbers,
+     * and the server calculates every hypotenuse at once, so this is the fastest way to calculate many of them.
+     *
+     * @param a The length of one of the sides of every triangle.
+     * @param b The length of the other side of every triangle, there must be as many as there are in a.
+     * @return A future that completes with the hypotenuse of every triangle, in the same order as the sides,
+     *         or completes exceptionally with an {@link OperationFailedException} if the server responded with an error.
+     */
+    public CompletableFuture<double[]> bulkHypotenuse( double[] a, double[] b ) {
+        return call(BulkHypotenuseOperation.createBulkHypotenuseRequest(a, b)).thenApply(response -> {
+            checkError(response);
+            double[] results = BulkHypotenuseOperation.parseResults(response);
+            if (results == null || results.length != a.length) {
+                throw new CompletionException(new OperationFailedException(-1, "Malformed response received from server."));
+            }
+            return results;
+        });
+    }
+
+    /**
+     * This method is used to open a stream that triangles can be pushed through in chunks,
+     * for inputs that are too large to send in a single request.
+     *
+     * @return A future that completes with the open stream, or completes exceptionally with an
+     *         {@link OperationFailedException} if the server could not open another stream.
+     */
+    public CompletableFuture<HypotenuseStream> openHypotenuseStream() {
+        return call(StreamingHypotenuseOperation.createOpenRequest()).thenApply(response -> {
+            checkError(response);
+            if (!response.has("stream") || !response.has("window") || !response.has("maxChunk")) {
+                throw new CompletionException(new OperationFailedException(-1, "Malformed response received from server."));
+            }
+            return new HypotenuseStream(this, response.get("stream").getAsLong(),
+                    response.get("window").getAsInt(), response.get("maxChunk").getAsInt());
+        });
+    }
+
+    /**
+     * This method is used to ask the server for a snapshot of its statistics, see {@link StatsOperation}.
+     *
+     * @return A future that completes with the statistics response, or completes exceptionally with an
+     *         {@link OperationFailedException} if the server does not record any statistics.
+     */
+    public CompletableFuture<JsonObject> stats() {
+        return call(StatsOperation.createStatsRequest()).thenApply(response -> {
+            checkError(response);
+            return response;
+        });
+    }
+
+    /**
+     * This method is a helper method that turns error responses into exceptions.
+     *
+     * @param response The response that was received.
+     * @return The response, if it was not an error response.
+     * @throws CompletionException If the response was an error response or was missing its result.
+     */
+    private static JsonObject checkResponse( JsonObject response ) {
+        checkError(response);
+        if (!response.has("result")) {
+            throw new CompletionException(new OperationFailedException(-1, "Malformed response received from server."));
+        }
+        return response;
+    }
+
+    /**
+     * This method is a helper method that turns an error response into an exception.
+     *
+     * @param response The response that was received.
+     * @throws CompletionException If the response was an error response.
+     */
+    static void checkError( JsonObject response ) {
+        if (response.has("error")) {
+            String message = response.has("message") ? response.get("message").getAsString() : "Unknown Error";
+            throw new CompletionException(new OperationFailedException(response.get("error").getAsInt(), message));
+        }
+    }
+
+    /**
+     * This method can be used to check if the client is still connected to the server.
+     *
+     * @return True if the client is still connected, false otherwise.
+     */
+    public boolean isRunning() {
+        return connection.isRunning();
+    }
+
+    /**
+     * Closes the connection to the server.
+     * Any calls that are still in flight will complete exceptionally.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            connection.close();
+        } finally {
+            socket.close();
+        }
+    }
+
+}
@@ -0,0 +1,149 @@
+package client;
+
+import com.google.gson.JsonObject;
+import common.operation.BulkHypotenuseOperation;
+import common.operation.StreamingHypotenuseOperation;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A stream of hypotenuse calculations opened with {@link AsyncClient#openHypotenuseStream()}.
+ * Triangles are pushed through the stream in chunks, and the server answers every chunk as soon as it has been calculated.
+ * Only as many chunks as the server's window allows can be in flight at once, pushing another one waits
+ * until the results of the oldest one have arrived, so an input of any size can be streamed with bounded memory.
+ * This class is thread safe, but chunks pushed from several threads at once are numbered in the order they are sent.
+ * The server rejects every chunk after one it has rejected, as they are no longer in order,
+ * so once a chunk has been rejected the stream is closed and every later push fails with the same error.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class HypotenuseStream {
+    // The client that the stream was opened on.
+    private final AsyncClient client;
+    // The id of the stream, as the server returned it when the stream was opened.
+    private final long streamId;
+    // The largest number of triangles a single chunk may carry.
+    private final int maxChunkSize;
+    // One permit for every chunk that may still be pushed before the results of an earlier one have arrived.
+    private final Semaphore window;
+    // The lock held while a chunk is numbered and sent, so that chunks are sent in the order they are numbered.
+    // It is a ReentrantLock rather than a synchronized block, as sending may block, which would pin a virtual thread.
+    private final ReentrantLock sendLock;
+    // The position of the next chunk in the stream, this field is guarded by the send lock.
+    private long nextSeq;
+    // The error the server rejected a chunk with, or null while every chunk has been accepted.
+    private volatile OperationFailedException failure;
+
+    /**
+     * This constructor is used to create a new HypotenuseStream from the server's response to the open request.
+     *
+     * @param client The client that the stream was opened on.
+     * @param streamId The id of the stream.
+     * @param window The largest number of chunks that may be in flight at once.
+     * @param maxChunkSize The largest number of triangles a single chunk may carry.
+     */
+    HypotenuseStream( AsyncClient client, long streamId, int window, int maxChunkSize ) {
+        this.client = client;
+        this.streamId = streamId;
+        this.maxChunkSize = maxChunkSize;
+        this.window = new Semaphore(window);
+        this.sendLock = new ReentrantLock();
+    }
+
+    /**
+     * This method is used to push a chunk of triangles through the stream.
+     * If the window is full, this method waits until the results of an earlier chunk have arrived.
+     *
+     * @param a The length of one of the sides of every triangle in the chunk.
+     * @param b The length of the other side of every triangle in the chunk, there must be as many as there are in a.
+     * @return A future that completes with the hypotenuse of every triangle in the chunk, in the same order as the sides,
+     *         or completes exceptionally with an {@link OperationFailedException} if the server responded with an error,
+     *         or if it rejected an earlier chunk of the stream.
+     * @throws InterruptedException If the calling thread is interrupted while waiting for room in the window.
+     */
+    public CompletableFuture<double[]> push( double[] a, double[] b ) throws InterruptedException {
+        // Check the chunk before it takes a place in the window or a position in the stream.
+        if (a.length != b.length) {
+            throw new IllegalArgumentException("Every triangle needs both of its sides");
+        }
+        if (a.length > maxChunkSize) {
+            throw new IllegalArgumentException("A chunk may carry at most " + maxChunkSize + " triangles");
+        }
+        window.acquire();
+        CompletableFuture<JsonObject> response;
+        sendLock.lock();
+        try {
+            if (failure != null) {
+                window.release();
+                return CompletableFuture.failedFuture(failure);
+            }
+            response = client.call(StreamingHypotenuseOperation.createPushRequest(streamId, nextSeq, a, b));
+            nextSeq++;
+        } finally {
+            sendLock.unlock();
+        }
+        return response.whenComplete(( result, error ) -> window.release()).thenApply(result -> {
+            try {
+                AsyncClient.checkError(result);
+            } catch (CompletionException e) {
+                fail((OperationFailedException) e.getCause());
+                throw e;
+            }
+            double[] results = BulkHypotenuseOperation.parseResults(result);
+            if (results == null || results.length != a.length) {
+                throw new CompletionException(new OperationFailedException(-1, "Malformed response received from server."));
+            }
+            return results;
+        });
+    }
+
+    /**
+     * This method is a helper method that closes the stream once the server has rejected one of its chunks.
+     * Only the first rejection closes the stream, the chunks that were already in flight are rejected as well.
+     *
+     * @param error The error the server rejected the chunk with.
+     */
+    private void fail( OperationFailedException error ) {
+        sendLock.lock();
+        try {
+            if (failure != null) {
+                return;
+            }
+            failure = error;
+        } finally {
+            sendLock.unlock();
+        }
+        // Let the server forget the stream, the count it answers with is of no use to anyone.
+        client.call(StreamingHypotenuseOperation.createCloseRequest(streamId));
+    }
+
+    /**
+     * This method is used to close the stream once every chunk has been pushed.
+     *
+     * @return A future that completes with the number of triangles that were pushed through the stream,
+     *         or completes exceptionally with the error the server rejected a chunk with, if it did.
+     */
+    public CompletableFuture<Long> close() {
+        if (failure != null) {
+            return CompletableFuture.failedFuture(failure);
+        }
+        return client.call(StreamingHypotenuseOperation.createCloseRequest(streamId)).thenApply(response -> {
+            AsyncClient.checkError(response);
+            return response.get("count").getAsLong();
+        });
+    }
+
+    /**
+     * This method is used to get the largest number of triangles a single chunk may carry.
+     *
+     * @return The largest chunk size.
+     */
+    public int getMaxChunkSize() {
+        return maxChunkSize;
+    }
+
+}
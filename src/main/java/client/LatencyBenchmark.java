@@ -0,0 +1,84 @@
+package client;
+
+import com.google.gson.JsonObject;
+import common.Handshake;
+import common.NetworkHandlingThread;
+import common.Util;
+import common.codec.CodecType;
+import common.operation.HypotenuseOperation;
+
+import java.net.Socket;
+import java.util.Arrays;
+
+import static common.Util.println;
+
+/**
+ * A class to measure the round trip latency of requests sent through a {@link NetworkHandlingThread}.
+ * It sends hypotenuse requests to a running server one at a time, waiting for each response
+ * before sending the next one, and prints a summary of how long each round trip took.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+class LatencyBenchmark {
+    // The number of requests sent before measuring, to let the JIT compiler warm up.
+    private static final int WARMUP_REQUESTS = 50;
+
+    public static void main( String[] args ) {
+        // Check for the correct number of arguments
+        if (args.length < 2 || args.length > 4) {
+            println("See the README.md for usage instructions");
+            System.exit(1);
+        }
+        // Parse the port number, host and number of requests
+        int port = Util.getPort(args[ 0 ]);
+        String host = args[ 1 ];
+        Util.verifyHost(host);
+        int requests = args.length > 2 ? Util.getCount(args[ 2 ]) : 200;
+        CodecType codecType = args.length > 3 ? Util.getCodecType(args[ 3 ]) : CodecType.JSON;
+
+        try (Socket sock = new Socket(host, port);
+             NetworkHandlingThread client = new NetworkHandlingThread(sock);
+        ) {
+            client.setHandshake(Handshake.Role.CLIENT, Handshake.preferring(codecType));
+            client.start();
+
+            // Warm up the client and the server before measuring anything.
+            for (int i = 0; i < WARMUP_REQUESTS; i++) {
+                roundTrip(client, i);
+            }
+
+            // Measure each round trip individually so that we can report percentiles.
+            long[] latencies = new long[ requests ];
+            for (int i = 0; i < requests; i++) {
+                latencies[ i ] = roundTrip(client, i);
+            }
+
+            Arrays.sort(latencies);
+            long total = Arrays.stream(latencies).sum();
+            println("Round trips: %d", requests);
+            println("Average: %.3f ms", total / (double) requests / 1_000_000.0);
+            println("p50: %.3f ms", latencies[ requests / 2 ] / 1_000_000.0);
+            println("p99: %.3f ms", latencies[ (int) Math.min(requests - 1, Math.ceil(requests * 0.99) - 1) ] / 1_000_000.0);
+            println("Max: %.3f ms", latencies[ requests - 1 ] / 1_000_000.0);
+        } catch (Exception e) {
+            println("An exception occurred communicating with the server", e);
+        }
+    }
+
+    /**
+     * This method is a helper method that sends a single hypotenuse request and waits for the response.
+     *
+     * @param client The thread that is handling the connection to the server.
+     * @param i The index of the request, used to vary the request.
+     * @return The number of nanoseconds between sending the request and receiving the response.
+     */
+    private static long roundTrip( NetworkHandlingThread client, int i ) {
+        JsonObject request = HypotenuseOperation.createHypotenuseRequest(3, 4 + i);
+        long start = System.nanoTime();
+        client.send(request);
+        client.receive();
+        return System.nanoTime() - start;
+    }
+
+}
@@ -0,0 +1,36 @@
+package client;
+
+/**
+ * This exception is used when the server responds to a request with an error response.
+ * It carries the error code and message described in the README.md file.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class OperationFailedException extends Exception {
+    // The version of this exception, as it is serializable through Exception.
+    private static final long serialVersionUID = 1L;
+    // The error code that the server responded with.
+    private final int errorCode;
+
+    /**
+     * This constructor is used to create a new OperationFailedException.
+     *
+     * @param errorCode The error code that the server responded with.
+     * @param message The error message that the server responded with.
+     */
+    public OperationFailedException( int errorCode, String message ) {
+        super(message);
+        this.errorCode = errorCode;
+    }
+
+    /**
+     * This method is used to get the error code that the server responded with.
+     *
+     * @return The error code that the server responded with.
+     */
+    public int getErrorCode() {
+        return errorCode;
+    }
+
+}
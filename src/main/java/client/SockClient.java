@@ -1,7 +1,10 @@
 package client;
 
+import common.Handshake;
 import common.NetworkHandlingThread;
+import common.Operation;
 import common.Util;
+import common.codec.CodecType;
 
 import java.net.Socket;
 import java.util.Scanner;
@@ -26,7 +29,7 @@ class SockClient {
         int operation;
 
         // Check for the correct number of arguments
-        if(args.length != 2){
+        if(args.length < 2 || args.length > 3){
             println("See the README.md for usage instructions");
             System.exit(1);
         }
@@ -35,6 +38,8 @@ class SockClient {
         host = args[1];
         // Verify the host.
         Util.verifyHost(host);
+        // Parse the codec, the server will be asked to use it during the handshake.
+        CodecType codecType = args.length > 2 ? Util.getCodecType(args[2]) : CodecType.JSON;
 
         // Create the socket using the host and port.
         // We use a try-with-resources block to ensure the socket is closed
@@ -48,12 +53,14 @@ class SockClient {
              NetworkHandlingThread client = new NetworkHandlingThread(sock);
         ) {
             // Start the thread
+            client.setHandshake(Handshake.Role.CLIENT, Handshake.preferring(codecType));
             client.start();
             do {
                 // Prompt the user for an operation to perform
                 operation = promptForOperation();
-                if(Util.getOperationRegistry().hasOperation(operation)){
-                    Util.getOperationRegistry().getOperation(operation).handleClient(client);
+                Operation handler = Util.getOperationRegistry().getOperation(operation);
+                if(handler != null){
+                    handler.handleClient(client);
                 }
             } while(operation != -1 && client.isRunning());
 
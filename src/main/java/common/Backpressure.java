@@ -0,0 +1,85 @@
+package common;
+
+/**
+ * This class holds the watermarks that bound the message queues of a connection.
+ * Once a queue holds as many messages as its high watermark, it is full: no more messages are read from the socket
+ * into the inbound queue, and sending a message to the outbound queue does what the {@link SendMode} says.
+ * The queue stays full until it has drained down to its low watermark, so that a queue hovering around its
+ * high watermark does not pause and resume the connection for every single message.
+ * Instances are immutable.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class Backpressure {
+    // The number of queued messages at which a queue is full by default.
+    public static final int DEFAULT_HIGH_WATERMARK = 1024;
+    // The number of queued messages that a full queue must drain down to by default.
+    public static final int DEFAULT_LOW_WATERMARK = 512;
+    // The watermarks and send mode that connections use unless they are given others.
+    public static final Backpressure DEFAULT = new Backpressure(DEFAULT_LOW_WATERMARK, DEFAULT_HIGH_WATERMARK, SendMode.BLOCK);
+
+    // The number of queued messages that a full queue must drain down to before it accepts messages again.
+    private final int lowWatermark;
+    // The number of queued messages at which a queue is full.
+    private final int highWatermark;
+    // What sending a message does while the outbound queue is full.
+    private final SendMode sendMode;
+
+    /**
+     * This constructor is used to create a new Backpressure.
+     *
+     * @param lowWatermark The number of queued messages that a full queue must drain down to, at least zero.
+     * @param highWatermark The number of queued messages at which a queue is full, greater than the low watermark.
+     * @param sendMode What sending a message does while the outbound queue is full.
+     */
+    public Backpressure( int lowWatermark, int highWatermark, SendMode sendMode ) {
+        if (lowWatermark < 0 || highWatermark <= lowWatermark) {
+            throw new IllegalArgumentException("The watermarks must satisfy 0 <= low < high, but were " + lowWatermark + " and " + highWatermark);
+        }
+        if (sendMode == null) {
+            throw new NullPointerException("sendMode");
+        }
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+        this.sendMode = sendMode;
+    }
+
+    /**
+     * This method is used to get the number of queued messages that a full queue must drain down to.
+     *
+     * @return The low watermark.
+     */
+    public int getLowWatermark() {
+        return lowWatermark;
+    }
+
+    /**
+     * This method is used to get the number of queued messages at which a queue is full.
+     *
+     * @return The high watermark.
+     */
+    public int getHighWatermark() {
+        return highWatermark;
+    }
+
+    /**
+     * This method is used to get what sending a message does while the outbound queue is full.
+     *
+     * @return The send mode.
+     */
+    public SendMode getSendMode() {
+        return sendMode;
+    }
+
+    /**
+     * The watermarks and send mode, for logging.
+     *
+     * @return A description of this backpressure.
+     */
+    @Override
+    public String toString() {
+        return "low=" + lowWatermark + ", high=" + highWatermark + ", mode=" + sendMode.getName();
+    }
+
+}
@@ -0,0 +1,428 @@
+package common;
+
+import java.lang.ref.Cleaner;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static common.Util.println;
+
+/**
+ * A pool of ByteBuffers that every frame is read into and written from,
+ * so that the memory used for frames is reused instead of allocated for every frame.
+ * Buffers are handed out in size classes, every power of two from {@link #MIN_BUFFER_SIZE}
+ * to {@link #MAX_BUFFER_SIZE}, and larger frames get a buffer of their own that is never pooled.
+ * Small buffers are cut from larger slabs, so the pool only allocates a handful of large blocks.
+ * Every platform thread keeps a few buffers of the smallest size classes to itself, up to {@link #MAX_LOCAL_BYTES}
+ * in total, so leasing and releasing a small buffer on the same thread does not touch any shared state.
+ * A server runs a few platform threads for every connection, so the bytes a thread keeps are capped
+ * rather than the number of buffers. Virtual threads go straight to the shared pool,
+ * as there can be far too many of them for each to keep its own buffers.
+ * The shared pool only keeps up to a fixed number of bytes per size class, anything released past that is
+ * left to the garbage collector, which keeps the memory used by the pool bounded.
+ * Setting the system property "bufferPool.debug" to true enables leak detection, which reports every buffer
+ * that is garbage collected without being released, along with where it was leased.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class BufferPool {
+    // The smallest buffer that is handed out.
+    public static final int MIN_BUFFER_SIZE = 256;
+    // The largest buffer that is pooled, larger buffers are allocated for every lease.
+    public static final int MAX_BUFFER_SIZE = 1024 * 1024;
+    // The size of the slabs that small buffers are cut from.
+    private static final int SLAB_SIZE = 64 * 1024;
+    // The most bytes the shared pool keeps for each size class.
+    private static final int MAX_POOLED_BYTES_PER_CLASS = 4 * 1024 * 1024;
+    // The largest buffer that threads keep to themselves, most frames are far smaller than this.
+    private static final int MAX_LOCAL_BUFFER_SIZE = 4 * 1024;
+    // The number of buffers of each size class that every thread keeps to itself.
+    private static final int LOCAL_BUFFERS_PER_CLASS = 4;
+    // The most bytes that every thread keeps to itself, for each pool.
+    public static final int MAX_LOCAL_BYTES = 16 * 1024;
+    // The number of size classes.
+    private static final int SIZE_CLASSES = Integer.numberOfTrailingZeros(MAX_BUFFER_SIZE) - Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE) + 1;
+    // True if leased buffers should be tracked to find buffers that are never released.
+    private static final boolean DEBUG = Boolean.getBoolean("bufferPool.debug");
+    // The cleaner that reports leaked buffers in debug mode.
+    private static final Cleaner LEAK_DETECTOR = DEBUG ? Cleaner.create() : null;
+
+    // The pool of heap buffers, used by streams that need a backing array.
+    private static final BufferPool HEAP = new BufferPool(false);
+    // The pool of direct buffers, used by channels.
+    private static final BufferPool DIRECT = new BufferPool(true);
+
+    // True if this pool hands out direct buffers, false if it hands out heap buffers.
+    private final boolean direct;
+    // The buffers that have been released to the shared pool, one queue per size class.
+    private final ArrayBlockingQueue<ByteBuffer>[] SHARED_BUFFERS;
+    // The buffers that every thread keeps to itself.
+    private final ThreadLocal<LocalBuffers> LOCAL_BUFFERS;
+    // The buffers that are currently leased, only used in debug mode.
+    private final Map<LeaseKey, Lease> LEASES;
+    // The number of leases and releases, used to tell how many buffers are leased right now.
+    private final LongAdder leaseCount;
+    private final LongAdder releaseCount;
+    // The number of bytes the pool has allocated since it was created, slabs and unpooled buffers included.
+    private final LongAdder allocatedBytes;
+    // The number of bytes in the shared pool, counted as buffers enter and leave it, so that it can be read without locking the queues.
+    private final LongAdder pooledBytes;
+
+    /**
+     * This class holds what debug mode remembers about a leased buffer.
+     * It must never refer to the buffer itself, otherwise the buffer could never be garbage collected.
+     */
+    private static class Lease {
+        // The pooled buffer that was handed out as a view.
+        private final ByteBuffer pooled;
+        // Where the buffer was leased, to report where a leaked buffer came from.
+        private final Throwable leasedAt;
+        // True once the buffer has been released.
+        private volatile boolean released;
+
+        private Lease( ByteBuffer pooled ) {
+            this.pooled = pooled;
+            this.leasedAt = new Throwable("Buffer leased here");
+        }
+    }
+
+    /**
+     * This class holds the buffers that a single thread keeps to itself, along with how many bytes they add up to.
+     */
+    private static class LocalBuffers {
+        // The buffers, one stack per size class.
+        private final ByteBuffer[][] BUFFERS;
+        // The number of bytes in the stacks, at most MAX_LOCAL_BYTES.
+        private int bytes;
+
+        private LocalBuffers() {
+            this.BUFFERS = new ByteBuffer[ sizeClassOf(MAX_LOCAL_BUFFER_SIZE) + 1 ][ LOCAL_BUFFERS_PER_CLASS ];
+        }
+    }
+
+    /**
+     * This class is used to look up the lease of a buffer in debug mode.
+     * It compares buffers by identity, as ByteBuffers compare their contents, and only refers to the buffer
+     * weakly, so that a leaked buffer can still be garbage collected and reported.
+     */
+    private static class LeaseKey extends WeakReference<ByteBuffer> {
+        // The identity hash code of the buffer, kept so that it stays the same after the buffer is collected.
+        private final int hash;
+
+        private LeaseKey( ByteBuffer buffer ) {
+            super(buffer);
+            this.hash = System.identityHashCode(buffer);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals( Object other ) {
+            if (this == other) {
+                return true;
+            }
+            return other instanceof LeaseKey key && key.hash == hash && key.get() != null && key.get() == get();
+        }
+    }
+
+    /**
+     * This constructor is used to create a new BufferPool.
+     *
+     * @param direct True to hand out direct buffers, false to hand out heap buffers.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public BufferPool( boolean direct ) {
+        this.direct = direct;
+        this.SHARED_BUFFERS = new ArrayBlockingQueue[ SIZE_CLASSES ];
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            SHARED_BUFFERS[ i ] = new ArrayBlockingQueue<>(Math.max(1, MAX_POOLED_BYTES_PER_CLASS / sizeOf(i)));
+        }
+        this.LOCAL_BUFFERS = ThreadLocal.withInitial(LocalBuffers::new);
+        this.LEASES = DEBUG ? new ConcurrentHashMap<>() : null;
+        this.leaseCount = new LongAdder();
+        this.releaseCount = new LongAdder();
+        this.allocatedBytes = new LongAdder();
+        this.pooledBytes = new LongAdder();
+    }
+
+    /**
+     * This method is used to get the pool of heap buffers, which streams can read into and write from.
+     *
+     * @return The shared pool of heap buffers.
+     */
+    public static BufferPool heap() {
+        return HEAP;
+    }
+
+    /**
+     * This method is used to get the pool of direct buffers, which channels can read into and write from without copying.
+     *
+     * @return The shared pool of direct buffers.
+     */
+    public static BufferPool direct() {
+        return DIRECT;
+    }
+
+    /**
+     * This method is used to release a buffer to the shared pool it was leased from.
+     *
+     * @param buffer The buffer to release.
+     * @implSpec This method is equivalent to calling {@link #release(ByteBuffer)} on {@link #direct()}
+     *           for direct buffers and on {@link #heap()} for heap buffers.
+     */
+    public static void releaseBuffer( ByteBuffer buffer ) {
+        (buffer.isDirect() ? DIRECT : HEAP).release(buffer);
+    }
+
+    /**
+     * This method is used to lease a buffer that can hold at least the given number of bytes.
+     * The buffer is cleared, so its limit is its capacity, which may be larger than requested.
+     * Every buffer must be given back with {@link #release(ByteBuffer)} once it is no longer used,
+     * and must not be used after that.
+     *
+     * @param capacity The number of bytes the buffer must be able to hold.
+     * @return A cleared buffer.
+     */
+    public ByteBuffer acquire( int capacity ) {
+        leaseCount.increment();
+        ByteBuffer buffer;
+        if (capacity > MAX_BUFFER_SIZE) {
+            // Buffers this large are rare, so they are not worth keeping around.
+            allocatedBytes.add(capacity);
+            buffer = allocate(capacity);
+        }
+        else {
+            int sizeClass = sizeClassOf(capacity);
+            buffer = pollLocal(sizeClass);
+            if (buffer == null) {
+                buffer = SHARED_BUFFERS[ sizeClass ].poll();
+                if (buffer != null) {
+                    pooledBytes.add(-buffer.capacity());
+                }
+            }
+            if (buffer == null) {
+                buffer = allocateSizeClass(sizeClass);
+            }
+            buffer.clear();
+        }
+        if (!DEBUG) {
+            return buffer;
+        }
+        // Hand out a view of the buffer, so that the view can be garbage collected while the pooled buffer is not.
+        ByteBuffer view = buffer.duplicate();
+        Lease lease = new Lease(buffer);
+        LeaseKey key = new LeaseKey(view);
+        LEASES.put(key, lease);
+        LEAK_DETECTOR.register(view, () -> reportLeak(key, lease));
+        return view;
+    }
+
+    /**
+     * This method is used to give a leased buffer back to the pool.
+     * Buffers that are not one of the pool's sizes, such as the buffers of very large frames, are dropped.
+     *
+     * @param buffer The buffer to release.
+     * @throws IllegalStateException In debug mode, if the buffer is not currently leased from this pool.
+     */
+    public void release( ByteBuffer buffer ) {
+        if (DEBUG) {
+            Lease lease = LEASES.remove(new LeaseKey(buffer));
+            if (lease == null) {
+                throw new IllegalStateException("Buffer was released twice, or was not leased from this pool");
+            }
+            lease.released = true;
+            buffer = lease.pooled;
+        }
+        releaseCount.increment();
+        if (!isPoolable(buffer)) {
+            return;
+        }
+        int sizeClass = sizeClassOf(buffer.capacity());
+        if (!offerLocal(sizeClass, buffer)) {
+            // If the shared pool is full the buffer is simply left to the garbage collector.
+            offerShared(sizeClass, buffer);
+        }
+    }
+
+    /**
+     * This method is a helper method to check if a buffer is one of the pool's sizes and kind.
+     *
+     * @param buffer The buffer to check.
+     * @return True if the buffer can be pooled, false otherwise.
+     */
+    private boolean isPoolable( ByteBuffer buffer ) {
+        int capacity = buffer.capacity();
+        return capacity >= MIN_BUFFER_SIZE && capacity <= MAX_BUFFER_SIZE && Integer.bitCount(capacity) == 1 && buffer.isDirect() == direct;
+    }
+
+    /**
+     * This method is used to get the number of buffers that are leased and have not been released yet.
+     *
+     * @return The number of buffers that are currently leased.
+     */
+    public long getLeasedBuffers() {
+        return leaseCount.sum() - releaseCount.sum();
+    }
+
+    /**
+     * This method is used to get the number of bytes that are waiting in the shared pool to be leased.
+     * Buffers that threads keep to themselves are not included.
+     * The bytes are counted as buffers enter and leave the pool, so this never locks the pool.
+     *
+     * @return The number of bytes in the shared pool.
+     */
+    public long getPooledBytes() {
+        return pooledBytes.sum();
+    }
+
+    /**
+     * This method is used to get the number of bytes the pool has allocated since it was created.
+     *
+     * @return The number of bytes that were allocated.
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes.sum();
+    }
+
+    /**
+     * This method is a helper method that takes a buffer from the current thread's own buffers.
+     *
+     * @param sizeClass The size class of the buffer.
+     * @return A buffer, or null if the thread has none of that size.
+     */
+    private ByteBuffer pollLocal( int sizeClass ) {
+        if (sizeOf(sizeClass) > MAX_LOCAL_BUFFER_SIZE || Thread.currentThread().isVirtual()) {
+            return null;
+        }
+        LocalBuffers local = LOCAL_BUFFERS.get();
+        ByteBuffer[] stack = local.BUFFERS[ sizeClass ];
+        for (int i = stack.length - 1; i >= 0; i--) {
+            ByteBuffer buffer = stack[ i ];
+            if (buffer != null) {
+                stack[ i ] = null;
+                local.bytes -= buffer.capacity();
+                return buffer;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * This method is a helper method that gives a buffer to the current thread's own buffers.
+     *
+     * @param sizeClass The size class of the buffer.
+     * @param buffer The buffer to keep.
+     * @return True if the thread kept the buffer, false if it already has enough buffers of that size,
+     *         or keeping it would take the thread past {@link #MAX_LOCAL_BYTES}.
+     */
+    private boolean offerLocal( int sizeClass, ByteBuffer buffer ) {
+        if (sizeOf(sizeClass) > MAX_LOCAL_BUFFER_SIZE || Thread.currentThread().isVirtual()) {
+            return false;
+        }
+        LocalBuffers local = LOCAL_BUFFERS.get();
+        if (local.bytes + buffer.capacity() > MAX_LOCAL_BYTES) {
+            return false;
+        }
+        ByteBuffer[] stack = local.BUFFERS[ sizeClass ];
+        for (int i = 0; i < stack.length; i++) {
+            if (stack[ i ] == null) {
+                stack[ i ] = buffer;
+                local.bytes += buffer.capacity();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * This method is a helper method that allocates new buffers of a size class.
+     * Small buffers are cut from a new slab, and the rest of the slab is added to the shared pool.
+     *
+     * @param sizeClass The size class of the buffer.
+     * @return A new buffer.
+     */
+    private ByteBuffer allocateSizeClass( int sizeClass ) {
+        int size = sizeOf(sizeClass);
+        if (size >= SLAB_SIZE) {
+            allocatedBytes.add(size);
+            return allocate(size);
+        }
+        ByteBuffer slab = allocate(SLAB_SIZE);
+        allocatedBytes.add(SLAB_SIZE);
+        for (int offset = size; offset < SLAB_SIZE; offset += size) {
+            offerShared(sizeClass, slab.slice(offset, size));
+        }
+        return slab.slice(0, size);
+    }
+
+    /**
+     * This method is a helper method that allocates a single buffer of the pool's kind.
+     *
+     * @param capacity The size of the buffer.
+     * @return A new buffer.
+     */
+    private ByteBuffer allocate( int capacity ) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * This method is a helper method that reports a buffer that was garbage collected without being released.
+     * The pooled buffer behind it can no longer be used by anyone, so it is released on its behalf.
+     *
+     * @param key The key the lease was stored under.
+     * @param lease What was remembered about the buffer.
+     */
+    private void reportLeak( LeaseKey key, Lease lease ) {
+        if (lease.released || LEASES.remove(key) == null) {
+            return;
+        }
+        println("LEAK: A buffer of " + lease.pooled.capacity() + " bytes was garbage collected without being released", lease.leasedAt);
+        releaseCount.increment();
+        if (isPoolable(lease.pooled)) {
+            offerShared(sizeClassOf(lease.pooled.capacity()), lease.pooled);
+        }
+    }
+
+    /**
+     * This method is a helper method that gives a buffer to the shared pool, and counts its bytes if the pool keeps it.
+     *
+     * @param sizeClass The size class of the buffer.
+     * @param buffer The buffer.
+     */
+    private void offerShared( int sizeClass, ByteBuffer buffer ) {
+        if (SHARED_BUFFERS[ sizeClass ].offer(buffer)) {
+            pooledBytes.add(buffer.capacity());
+        }
+    }
+
+    /**
+     * This method is a helper method that finds the smallest size class that holds the given number of bytes.
+     *
+     * @param capacity The number of bytes, at most {@link #MAX_BUFFER_SIZE}.
+     * @return The size class.
+     */
+    private static int sizeClassOf( int capacity ) {
+        if (capacity <= MIN_BUFFER_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(capacity - 1) - Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+    }
+
+    /**
+     * This method is a helper method that gets the size of the buffers of a size class.
+     *
+     * @param sizeClass The size class.
+     * @return The size of its buffers.
+     */
+    private static int sizeOf( int sizeClass ) {
+        return MIN_BUFFER_SIZE << sizeClass;
+    }
+
+}
@@ -0,0 +1,118 @@
+package common;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import common.codec.Codec;
+import common.codec.CodecType;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * This class is a response that can be sent any number of times without performing the operation again,
+ * either because it was kept by the {@link ResultCache}, or because it answers coalesced requests, see {@link SingleFlight}.
+ * The response is kept without its correlation ID, and it is encoded at most once for every codec,
+ * the first time it is sent with that codec. After that, sending it only copies the encoded bytes into a frame
+ * and encodes the correlation ID of the request, see {@link Codec#encodeFrame(ByteBuffer, String, JsonElement)}.
+ * Instances are immutable and shared by every connection, so they may be sent from any number of threads at once.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class CachedResponse {
+    // The response, without a correlation ID. It is never modified, and never handed out without being copied.
+    private final JsonObject message;
+    // The payload of the response for every codec, indexed by the ordinal of its type, or null if it has not been encoded yet.
+    // It is shared by every copy of this response that carries a different correlation ID.
+    private final AtomicReferenceArray<ByteBuffer> payloads;
+    // The correlation ID to send with the response, or null if the request did not carry one.
+    private final JsonElement correlationId;
+
+    /**
+     * This constructor is used to create a new CachedResponse.
+     *
+     * @param message The response to keep. It is copied, so later changes to it are not seen.
+     */
+    public CachedResponse( JsonObject message ) {
+        this(message.deepCopy(), new AtomicReferenceArray<>(CodecType.values().length), null);
+        this.message.remove("id");
+    }
+
+    private CachedResponse( JsonObject message, AtomicReferenceArray<ByteBuffer> payloads, JsonElement correlationId ) {
+        this.message = message;
+        this.payloads = payloads;
+        this.correlationId = correlationId;
+    }
+
+    /**
+     * This method is used to get a copy of this response that is sent with the given correlation ID.
+     * The copy shares the encoded payloads of this response.
+     *
+     * @param correlationId The correlation ID of the request being answered.
+     * @return A CachedResponse that carries the correlation ID.
+     */
+    public CachedResponse withCorrelationId( JsonElement correlationId ) {
+        return new CachedResponse(message, payloads, correlationId);
+    }
+
+    /**
+     * This method is used to check if the response is an error.
+     *
+     * @return True if the response is an error, false otherwise.
+     */
+    public boolean isError() {
+        return message.has("error");
+    }
+
+    /**
+     * This method is used to find the operation that the response belongs to, see {@link Metrics#operationOf(Object)}.
+     *
+     * @return The id in the response's {@code operation} field, or {@link Metrics#NO_OPERATION} if it has none.
+     */
+    int getOperationId() {
+        return Metrics.operationOf(message);
+    }
+
+    /**
+     * This method is used to get the response as a message, for connections that can not send encoded frames.
+     *
+     * @return A new copy of the response, carrying the correlation ID if there is one.
+     */
+    public JsonObject getMessage() {
+        JsonObject copy = message.deepCopy();
+        if (correlationId != null) {
+            copy.add("id", correlationId);
+        }
+        return copy;
+    }
+
+    /**
+     * This method is used to encode the response into a whole frame.
+     * If the response has not been encoded with the codec's type yet, it is encoded now and kept for the next time.
+     *
+     * @param codec The codec of the connection the response is sent through.
+     * @return A buffer containing the whole frame, flipped and ready to be written.
+     *         The caller must release it with {@link BufferPool#releaseBuffer(ByteBuffer)} once it has been written.
+     */
+    public ByteBuffer encodeFrame( Codec codec ) {
+        int index = codec.getType().ordinal();
+        ByteBuffer payload = payloads.get(index);
+        if (payload == null) {
+            // Two threads may both encode the response, which gives the same bytes, so either can be kept.
+            payload = codec.encode(message).asReadOnlyBuffer();
+            payloads.compareAndSet(index, null, payload);
+        }
+        return codec.encodeFrame(payload, correlationId != null ? "id" : null, correlationId);
+    }
+
+    /**
+     * The response as it is sent, for logging.
+     *
+     * @return The response, with its correlation ID.
+     */
+    @Override
+    public String toString() {
+        return getMessage().toString();
+    }
+
+}
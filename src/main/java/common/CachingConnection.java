@@ -0,0 +1,100 @@
+package common;
+
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+
+/**
+ * This class wraps a {@link Connection} so that the response to a request for a pure operation
+ * is kept in a {@link ResultCache} as it is sent, see {@link Operation#isPure()}.
+ * Only the first response is kept, and only if it is not an error,
+ * so that a request that failed is always performed again.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class CachingConnection implements Connection {
+    // The connection that the messages are actually sent through.
+    private final Connection connection;
+    // The cache that the response is kept in.
+    private final ResultCache cache;
+    // The key of the request being answered.
+    private final String key;
+    // True once a response has been sent.
+    private boolean responded;
+
+    /**
+     * This constructor is used to create a new CachingConnection.
+     *
+     * @param connection The connection that the messages are actually sent through.
+     * @param cache The cache to keep the response in.
+     * @param key The key of the request being answered, see {@link ResultCache#createKey(JsonObject)}.
+     */
+    public CachingConnection( Connection connection, ResultCache cache, String key ) {
+        this.connection = connection;
+        this.cache = cache;
+        this.key = key;
+    }
+
+    /**
+     * This method can be used to queue a message to be sent to the peer.
+     * The first message is kept in the cache before it is sent, unless it is an error.
+     *
+     * @param message The message to be sent.
+     */
+    @Override
+    public void send( JsonObject message ) {
+        if (!responded && !message.has("error")) {
+            cache.put(key, new CachedResponse(message));
+        }
+        responded = true;
+        connection.send(message);
+    }
+
+    /**
+     * This method can be used to queue a response that was already prepared for caching to be sent to the peer,
+     * such as the response to coalesced requests, see {@link SingleFlight}.
+     * The first response is kept in the cache before it is sent, unless it is an error.
+     *
+     * @param response The response to be sent.
+     */
+    @Override
+    public void send( CachedResponse response ) {
+        if (!responded && !response.isError()) {
+            cache.put(key, response);
+        }
+        responded = true;
+        connection.send(response);
+    }
+
+    /**
+     * This method is used to get the id of the wrapped connection.
+     *
+     * @return The id of the wrapped connection.
+     */
+    @Override
+    public long getConnectionId() {
+        return connection.getConnectionId();
+    }
+
+    /**
+     * This method can be used to check if the wrapped connection is still running.
+     *
+     * @return True if the wrapped connection is still running, false otherwise.
+     */
+    @Override
+    public boolean isRunning() {
+        return connection.isRunning();
+    }
+
+    /**
+     * This method closes the wrapped connection.
+     *
+     * @throws IOException If an I/O error occurs.
+     */
+    @Override
+    public void close() throws IOException {
+        connection.close();
+    }
+
+}
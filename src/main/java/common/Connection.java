@@ -0,0 +1,77 @@
+package common;
+
+import com.google.gson.JsonObject;
+
+import java.io.Closeable;
+
+/**
+ * This interface represents a single connection to a peer that messages can be sent to.
+ * It allows operations to respond to requests without needing to know which
+ * transport (blocking sockets or non-blocking channels) is carrying the connection.
+ * All implementations must allow {@link #send(JsonObject)} to be called from any thread.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public interface Connection extends Closeable {
+    // The id of a connection that is not known, every real connection is given an id above it.
+    public static final long NO_CONNECTION_ID = 0;
+
+    /**
+     * This method can be used to queue a message to be sent to the peer.
+     * The message will be sent as soon as possible and will be sent
+     * all at once.
+     *
+     * @param message The message to be sent.
+     */
+    public void send( JsonObject message );
+
+    /**
+     * This method can be used to queue a cached response to be sent to the peer, see {@link ResultCache}.
+     * Connections that encode their own frames should override this method to send the response's encoded bytes,
+     * by default a copy of the response is sent like any other message.
+     *
+     * @param response The response to be sent.
+     */
+    public default void send( CachedResponse response ) {
+        send(response.getMessage());
+    }
+
+    /**
+     * This method can be used to check if the connection is still running.
+     *
+     * @return True if the connection is still running, false otherwise.
+     */
+    public boolean isRunning();
+
+    /**
+     * This method is used to get the id of this connection, which tells it apart from every other connection
+     * made by this process, see {@link Util#nextConnectionId()}. Connections that wrap another connection have its id.
+     *
+     * @return The id of this connection, or {@link #NO_CONNECTION_ID} if it does not have one.
+     */
+    public default long getConnectionId() {
+        return NO_CONNECTION_ID;
+    }
+
+    /**
+     * This method is used to get the number of messages waiting to be written to the peer.
+     * Connections that do not queue their messages have none.
+     *
+     * @return The depth of the outbound queue.
+     */
+    public default int getOutboundQueueDepth() {
+        return 0;
+    }
+
+    /**
+     * This method is used to get the number of received messages waiting to be handled.
+     * Connections that handle every message as soon as it is read have none.
+     *
+     * @return The depth of the inbound queue.
+     */
+    public default int getInboundQueueDepth() {
+        return 0;
+    }
+
+}
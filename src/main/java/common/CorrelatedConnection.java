@@ -0,0 +1,96 @@
+package common;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+
+/**
+ * This class wraps a {@link Connection} so that every message sent through it
+ * carries the correlation ID of the request that is being handled.
+ * It allows operations to respond to pipelined requests without knowing
+ * anything about correlation IDs themselves.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class CorrelatedConnection implements Connection {
+    // The connection that the messages are actually sent through.
+    private final Connection connection;
+    // The correlation ID of the request, exactly as the peer sent it.
+    private final JsonElement correlationId;
+
+    /**
+     * This constructor is used to create a new CorrelatedConnection.
+     *
+     * @param connection The connection that the messages are actually sent through.
+     * @param correlationId The correlation ID to add to every message.
+     */
+    public CorrelatedConnection( Connection connection, JsonElement correlationId ) {
+        this.connection = connection;
+        this.correlationId = correlationId;
+    }
+
+    /**
+     * This method is used to get the connection that the messages are actually sent through.
+     *
+     * @return The wrapped connection.
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * This method can be used to queue a message to be sent to the peer.
+     * The correlation ID will be added to the message before it is sent.
+     *
+     * @param message The message to be sent.
+     */
+    @Override
+    public void send( JsonObject message ) {
+        message.add("id", correlationId);
+        connection.send(message);
+    }
+
+    /**
+     * This method can be used to queue a cached response to be sent to the peer.
+     * The correlation ID will be sent with the response.
+     *
+     * @param response The response to be sent.
+     */
+    @Override
+    public void send( CachedResponse response ) {
+        connection.send(response.withCorrelationId(correlationId));
+    }
+
+    /**
+     * This method is used to get the id of the wrapped connection.
+     *
+     * @return The id of the wrapped connection.
+     */
+    @Override
+    public long getConnectionId() {
+        return connection.getConnectionId();
+    }
+
+    /**
+     * This method can be used to check if the wrapped connection is still running.
+     *
+     * @return True if the wrapped connection is still running, false otherwise.
+     */
+    @Override
+    public boolean isRunning() {
+        return connection.isRunning();
+    }
+
+    /**
+     * Closes the wrapped connection.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        connection.close();
+    }
+
+}
@@ -0,0 +1,51 @@
+package common;
+
+/**
+ * This enum is used to choose which thread an operation is performed on.
+ * Performing an operation inline, on the thread that read the request, is the cheapest way to perform it,
+ * but while it runs no other request on that connection is read, and on the {@code nio} server
+ * no other connection on the same event loop is served either.
+ * Offloading an operation to the {@link OperationExecutor}'s workers keeps the connection responsive,
+ * at the cost of handing the request to another thread and the response back.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public enum ExecutionPolicy {
+    // The operation is performed on the thread that read the request.
+    INLINE("inline"),
+    // The operation is performed on one of the workers, and its response is handed back to the connection.
+    OFFLOAD("offload");
+
+    // The name that identifies this policy on the command line.
+    private final String name;
+
+    ExecutionPolicy( String name ) {
+        this.name = name;
+    }
+
+    /**
+     * This method is used to get the name that identifies this policy on the command line.
+     *
+     * @return The name of this policy.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * This method is used to find the policy with the given name.
+     *
+     * @param name The name of the policy.
+     * @return The policy with the given name, or null if there is no such policy.
+     */
+    public static ExecutionPolicy fromName( String name ) {
+        for (ExecutionPolicy policy : values()) {
+            if (policy.name.equalsIgnoreCase(name)) {
+                return policy;
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,52 @@
+package common;
+
+/**
+ * This enum is used to choose when queued messages are written to the socket.
+ * Writing every message on its own costs a system call, and usually a packet, per message,
+ * while batching writes every message that is already queued at once.
+ * Batching never waits for more messages to arrive, so a lone message is written just as quickly.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public enum FlushPolicy {
+    // Every message is written to the socket on its own, as soon as it is taken from the queue.
+    EVERY_MESSAGE("message"),
+    // Every message that is already queued, up to the largest batch, is written with a single write.
+    END_OF_BATCH("batch");
+
+    // The number of messages that are written together by default.
+    public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+
+    // The name that identifies this policy on the command line.
+    private final String name;
+
+    FlushPolicy( String name ) {
+        this.name = name;
+    }
+
+    /**
+     * This method is used to get the name that identifies this policy on the command line.
+     *
+     * @return The name of this policy.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * This method is used to find the policy with the given name.
+     *
+     * @param name The name of the policy.
+     * @return The policy with the given name, or null if there is no such policy.
+     */
+    public static FlushPolicy fromName( String name ) {
+        for (FlushPolicy policy : values()) {
+            if (policy.name.equalsIgnoreCase(name)) {
+                return policy;
+            }
+        }
+        return null;
+    }
+
+}
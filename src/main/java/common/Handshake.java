@@ -0,0 +1,330 @@
+package common;
+
+import common.codec.CodecType;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class implements the handshake that a client sends at the start of every connection,
+ * before any frames are sent, so that both peers agree on how the frames will look.
+ * The format of both hellos is the following:
+ *    <int: MAGIC><int: length of body><body>
+ *        - The client's body is <byte: version><byte: codec count><byte[]: codec ids><byte: compression><int: max frame size>
+ *          where the codec ids are listed in the client's order of preference.
+ *        - The server's body is <byte: version><byte: codec id><byte: compression><int: max frame size>
+ *          where every value is the one both peers will use from now on.
+ *          A codec id of 0 means the server supports none of the client's codecs and the connection will close.
+ * The magic number is negative, so a server that does not support the handshake rejects it as an invalid length,
+ * and a server that does support it can tell a client that skips it apart, as that client starts with a frame length.
+ * An instance of this class holds the settings that were agreed on.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class Handshake {
+    // The number that starts every hello, chosen to never be a valid frame length.
+    public static final int MAGIC = 0xCAFE5350;
+    // The newest version of the protocol that this implementation supports.
+    public static final int VERSION = 1;
+    // The largest frame that will be accepted unless the peers agree on something smaller.
+    public static final int DEFAULT_MAX_FRAME_SIZE = 16 * 1024 * 1024;
+    // The compression algorithms this implementation supports, as a bit mask.
+    // No algorithms have been defined yet, so frames are never compressed.
+    public static final int SUPPORTED_COMPRESSION = 0;
+    // The largest hello body that will be accepted, a hello only contains a handful of bytes.
+    private static final int MAX_BODY_LENGTH = 256;
+
+    /**
+     * This enum is used to choose which side of the handshake a connection performs.
+     */
+    public enum Role {
+        // The side that sends its hello first, and lists the codecs in order of preference.
+        CLIENT,
+        // The side that answers the hello, and picks the codec from the ones it supports.
+        SERVER
+    }
+
+    // The version of the protocol both peers agreed on, 0 if the handshake was skipped.
+    private final int version;
+    // The codec both peers agreed on, or null if there was no codec both peers support.
+    private final CodecType codecType;
+    // The compression algorithm both peers agreed on, 0 for none.
+    private final int compression;
+    // The largest frame either peer will send.
+    private final int maxFrameSize;
+
+    /**
+     * This constructor is used to create the settings that were agreed on.
+     *
+     * @param version The version of the protocol.
+     * @param codecType The codec to encode frames with, or null if there is none.
+     * @param compression The compression algorithm to use, 0 for none.
+     * @param maxFrameSize The largest frame either peer will send.
+     */
+    public Handshake( int version, CodecType codecType, int compression, int maxFrameSize ) {
+        this.version = version;
+        this.codecType = codecType;
+        this.compression = compression;
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * This method is used to create the settings of a peer that skipped the handshake.
+     *
+     * @param codecType The codec that peers who skip the handshake use.
+     * @return The settings of a peer that skipped the handshake.
+     */
+    public static Handshake skipped( CodecType codecType ) {
+        return new Handshake(0, codecType, 0, DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    /**
+     * This method is used to list every codec, with the given codec as the most preferred.
+     *
+     * @param preferred The codec that should be preferred.
+     * @return Every codec, starting with the given one.
+     */
+    public static List<CodecType> preferring( CodecType preferred ) {
+        List<CodecType> codecs = new ArrayList<>();
+        codecs.add(preferred);
+        for (CodecType codecType : CodecType.values()) {
+            if (codecType != preferred) {
+                codecs.add(codecType);
+            }
+        }
+        return codecs;
+    }
+
+    /**
+     * This method performs the client's side of the handshake on a blocking stream.
+     *
+     * @param in The InputStream to read the server's hello from.
+     * @param out The OutputStream to write the client's hello to.
+     * @param preferredCodecs The codecs the client supports, in order of preference.
+     * @param maxFrameSize The largest frame the client will accept.
+     * @return The settings that were agreed on.
+     * @throws IOException If the server does not speak the handshake, or supports none of the codecs.
+     */
+    public static Handshake connect( InputStream in, OutputStream out, List<CodecType> preferredCodecs, int maxFrameSize ) throws IOException {
+        out.write(createClientHello(preferredCodecs, maxFrameSize).array());
+        out.flush();
+
+        if (readInt(in) != MAGIC) {
+            throw new IOException("Server did not respond to the handshake");
+        }
+        Handshake handshake = parseServerHello(ByteBuffer.wrap(readBody(in)));
+        if (handshake.getCodecType() == null) {
+            throw new IOException("Server does not support any of the codecs " + preferredCodecs);
+        }
+        return handshake;
+    }
+
+    /**
+     * This method performs the server's side of the handshake on a blocking stream,
+     * after the magic number has already been read.
+     *
+     * @param in The InputStream to read the client's hello from.
+     * @param out The OutputStream to write the server's hello to.
+     * @param supportedCodecs The codecs the server supports.
+     * @param maxFrameSize The largest frame the server will accept.
+     * @return The settings that were agreed on.
+     * @throws IOException If the client's hello is malformed, or the client supports none of the codecs.
+     */
+    public static Handshake accept( InputStream in, OutputStream out, List<CodecType> supportedCodecs, int maxFrameSize ) throws IOException {
+        Handshake handshake = negotiate(ByteBuffer.wrap(readBody(in)), supportedCodecs, maxFrameSize);
+        out.write(handshake.createServerHello().array());
+        out.flush();
+        if (handshake.getCodecType() == null) {
+            throw new IOException("Client does not support any of the codecs " + supportedCodecs);
+        }
+        return handshake;
+    }
+
+    /**
+     * This method is used to create the hello that the client sends.
+     *
+     * @param preferredCodecs The codecs the client supports, in order of preference.
+     * @param maxFrameSize The largest frame the client will accept.
+     * @return A buffer containing the whole hello, ready to be written.
+     */
+    public static ByteBuffer createClientHello( List<CodecType> preferredCodecs, int maxFrameSize ) {
+        int bodyLength = 1 + 1 + preferredCodecs.size() + 1 + 4;
+        ByteBuffer hello = ByteBuffer.allocate(8 + bodyLength);
+        hello.putInt(MAGIC).putInt(bodyLength);
+        hello.put((byte) VERSION);
+        hello.put((byte) preferredCodecs.size());
+        for (CodecType codecType : preferredCodecs) {
+            hello.put((byte) codecType.getId());
+        }
+        hello.put((byte) SUPPORTED_COMPRESSION);
+        hello.putInt(maxFrameSize);
+        return hello.flip();
+    }
+
+    /**
+     * This method is used by the server to pick the settings both peers will use,
+     * based on the body of the client's hello.
+     * The codec is the first of the client's codecs that the server also supports.
+     *
+     * @param body The body of the client's hello.
+     * @param supportedCodecs The codecs the server supports.
+     * @param maxFrameSize The largest frame the server will accept.
+     * @return The settings that were agreed on, the codec is null if there is no codec both peers support.
+     * @throws IOException If the client's hello is malformed.
+     */
+    public static Handshake negotiate( ByteBuffer body, List<CodecType> supportedCodecs, int maxFrameSize ) throws IOException {
+        try {
+            int version = Math.min(VERSION, body.get() & 0xFF);
+            if (version < 1) {
+                throw new IOException("Unsupported protocol version");
+            }
+            int codecCount = body.get() & 0xFF;
+            CodecType codecType = null;
+            for (int i = 0; i < codecCount; i++) {
+                CodecType offered = CodecType.fromId(body.get() & 0xFF);
+                if (codecType == null && offered != null && supportedCodecs.contains(offered)) {
+                    codecType = offered;
+                }
+            }
+            int compression = body.get() & SUPPORTED_COMPRESSION;
+            int clientMaxFrameSize = body.getInt();
+            if (clientMaxFrameSize < 2) {
+                throw new IOException("Invalid max frame size");
+            }
+            return new Handshake(version, codecType, compression, Math.min(maxFrameSize, clientMaxFrameSize));
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Malformed handshake", e);
+        }
+    }
+
+    /**
+     * This method is used to create the hello that the server answers with.
+     *
+     * @return A buffer containing the whole hello, ready to be written.
+     */
+    public ByteBuffer createServerHello() {
+        int bodyLength = 1 + 1 + 1 + 4;
+        ByteBuffer hello = ByteBuffer.allocate(8 + bodyLength);
+        hello.putInt(MAGIC).putInt(bodyLength);
+        hello.put((byte) version);
+        hello.put((byte) (codecType == null ? 0 : codecType.getId()));
+        hello.put((byte) compression);
+        hello.putInt(maxFrameSize);
+        return hello.flip();
+    }
+
+    /**
+     * This method is used by the client to read the settings the server picked.
+     *
+     * @param body The body of the server's hello.
+     * @return The settings that were agreed on, the codec is null if there is no codec both peers support.
+     * @throws IOException If the server's hello is malformed.
+     */
+    public static Handshake parseServerHello( ByteBuffer body ) throws IOException {
+        try {
+            int version = body.get() & 0xFF;
+            CodecType codecType = CodecType.fromId(body.get() & 0xFF);
+            int compression = body.get() & 0xFF;
+            int maxFrameSize = body.getInt();
+            if (version < 1 || version > VERSION || (compression & ~SUPPORTED_COMPRESSION) != 0 || maxFrameSize < 2) {
+                throw new IOException("Server picked unsupported settings");
+            }
+            return new Handshake(version, codecType, compression, maxFrameSize);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Malformed handshake", e);
+        }
+    }
+
+    /**
+     * This method is used to check that the length of a hello body is sensible.
+     *
+     * @param bodyLength The length of the body.
+     * @throws IOException If the length is negative or larger than any hello.
+     */
+    public static void checkBodyLength( int bodyLength ) throws IOException {
+        if (bodyLength < 0 || bodyLength > MAX_BODY_LENGTH) {
+            throw new IOException("Invalid handshake length");
+        }
+    }
+
+    /**
+     * This method is a helper method that reads the length and body of a hello.
+     *
+     * @param in The InputStream to read from.
+     * @return The body of the hello.
+     * @throws IOException If the stream ends or the length is invalid.
+     */
+    private static byte[] readBody( InputStream in ) throws IOException {
+        int bodyLength = readInt(in);
+        checkBodyLength(bodyLength);
+        byte[] body = new byte[ bodyLength ];
+        if (in.readNBytes(body, 0, bodyLength) < bodyLength) {
+            throw new EOFException("End of stream");
+        }
+        return body;
+    }
+
+    /**
+     * This method is a helper method that reads a single int.
+     *
+     * @param in The InputStream to read from.
+     * @return The int that was read.
+     * @throws IOException If the stream ends.
+     */
+    private static int readInt( InputStream in ) throws IOException {
+        byte[] bytes = new byte[ 4 ];
+        if (in.readNBytes(bytes, 0, 4) < 4) {
+            throw new EOFException("End of stream");
+        }
+        return ByteBuffer.wrap(bytes).getInt();
+    }
+
+    /**
+     * This method is used to get the version of the protocol both peers agreed on.
+     *
+     * @return The version of the protocol, 0 if the handshake was skipped.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * This method is used to get the codec both peers agreed on.
+     *
+     * @return The codec, or null if there is no codec both peers support.
+     */
+    public CodecType getCodecType() {
+        return codecType;
+    }
+
+    /**
+     * This method is used to get the compression algorithm both peers agreed on.
+     *
+     * @return The compression algorithm, 0 for none.
+     */
+    public int getCompression() {
+        return compression;
+    }
+
+    /**
+     * This method is used to get the largest frame either peer will send.
+     *
+     * @return The largest frame either peer will send.
+     */
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    @Override
+    public String toString() {
+        return "Handshake{version=" + version + ", codec=" + codecType + ", compression=" + compression + ", maxFrameSize=" + maxFrameSize + "}";
+    }
+
+}
@@ -0,0 +1,204 @@
+package common;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class counts how often every latency was recorded, in log-linear buckets, much like an HdrHistogram.
+ * Latencies below 128 nanoseconds each have a bucket of their own. Above that, every power of two
+ * is split into 64 buckets of equal width, so a latency is always known to within 1 part in 64,
+ * whether it took a microsecond or a minute.
+ * Latencies of {@value #MAX_VALUE} nanoseconds, about 68 seconds, or longer are counted as {@value #MAX_VALUE}.
+ * <p>
+ * Recording a latency increments a single bucket of an {@link AtomicLongArray} and never takes a lock or allocates,
+ * so any number of threads can record at once. Reading the histogram takes a {@link Snapshot} of the buckets,
+ * which never stops anyone from recording, at the cost of possibly missing the latencies recorded meanwhile.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class Histogram {
+    // The number of bits of a latency that are kept exactly.
+    private static final int SUB_BUCKET_BITS = 7;
+    // The number of buckets below the first power of two that is split.
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    // The number of buckets that every power of two from SUB_BUCKET_COUNT upwards is split into.
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT >> 1;
+    // Latencies are counted up to, but not including, 2 to the power of this many nanoseconds.
+    private static final int MAX_VALUE_BITS = 36;
+    // The longest latency that is counted as it is, anything longer is counted as this.
+    public static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+
+    // The number of times each bucket was recorded, see indexOf.
+    private final AtomicLongArray counts;
+    // The sum of every recorded latency, used for the mean.
+    private final LongAdder sum;
+
+    /**
+     * This constructor is used to create a new, empty Histogram.
+     */
+    public Histogram() {
+        this.counts = new AtomicLongArray(indexOf(MAX_VALUE) + 1);
+        this.sum = new LongAdder();
+    }
+
+    /**
+     * This method is used to record a latency.
+     *
+     * @param nanos The latency in nanoseconds. A negative latency is counted as 0.
+     */
+    public void record( long nanos ) {
+        long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+        counts.incrementAndGet(indexOf(value));
+        sum.add(value);
+    }
+
+    /**
+     * This method is used to take a snapshot of this histogram, which can be read at leisure.
+     * Latencies that are recorded while the snapshot is taken may or may not be part of it.
+     *
+     * @return A snapshot of every latency recorded so far.
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[ counts.length() ];
+        for (int i = 0; i < copy.length; i++) {
+            copy[ i ] = counts.get(i);
+        }
+        return new Snapshot(copy, sum.sum());
+    }
+
+    /**
+     * This method is a helper method that finds the bucket a latency is counted in.
+     *
+     * @param value The latency, between 0 and {@link #MAX_VALUE}.
+     * @return The index of its bucket.
+     */
+    private static int indexOf( long value ) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        // Shift the latency right until it is between SUB_BUCKET_HALF_COUNT and SUB_BUCKET_COUNT,
+        // every shift starts a new power of two with SUB_BUCKET_HALF_COUNT more buckets.
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+        return shift * SUB_BUCKET_HALF_COUNT + (int) (value >>> shift);
+    }
+
+    /**
+     * This method is a helper method that finds the longest latency that is counted in a bucket.
+     *
+     * @param index The index of the bucket.
+     * @return The longest latency counted in the bucket.
+     */
+    private static long highestValueOf( int index ) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_HALF_COUNT - 1;
+        long subBucket = index - (long) shift * SUB_BUCKET_HALF_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * This class is a copy of the buckets of a {@link Histogram} at one point in time.
+     * Snapshots of histograms can be added together, for example to report every operation together.
+     */
+    public static class Snapshot {
+        // The number of times each bucket was recorded.
+        private final long[] counts;
+        // The sum of every recorded latency.
+        private final long sum;
+        // The number of recorded latencies.
+        private final long count;
+
+        private Snapshot( long[] counts, long sum ) {
+            this.counts = counts;
+            this.sum = sum;
+            long count = 0;
+            for (long bucket : counts) {
+                count += bucket;
+            }
+            this.count = count;
+        }
+
+        /**
+         * This method is used to add this snapshot and another one together.
+         *
+         * @param other The other snapshot.
+         * @return A new snapshot with the latencies of both.
+         */
+        public Snapshot add( Snapshot other ) {
+            long[] merged = counts.clone();
+            for (int i = 0; i < merged.length; i++) {
+                merged[ i ] += other.counts[ i ];
+            }
+            return new Snapshot(merged, sum + other.sum);
+        }
+
+        /**
+         * This method is used to get the number of recorded latencies.
+         *
+         * @return The number of latencies.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * This method is used to get the mean latency.
+         *
+         * @return The mean latency in nanoseconds, or 0 if nothing was recorded.
+         */
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * This method is used to get the longest recorded latency.
+         *
+         * @return The longest latency in nanoseconds, to within the precision of its bucket, or 0 if nothing was recorded.
+         */
+        public long getMax() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[ i ] != 0) {
+                    return highestValueOf(i);
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * This method is used to get the latency that the given percentage of recorded latencies were at or below.
+         *
+         * @param percentile The percentage, between 0 and 100, for example 99.9.
+         * @return The latency in nanoseconds, to within the precision of its bucket, or 0 if nothing was recorded.
+         */
+        public long getValueAtPercentile( double percentile ) {
+            if (count == 0) {
+                return 0;
+            }
+            // The rank of the latency, counting from 1, at least the first latency and at most the last.
+            long rank = Math.max(1, (long) Math.ceil(Math.min(Math.max(percentile, 0), 100) / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[ i ];
+                if (seen >= rank) {
+                    return highestValueOf(i);
+                }
+            }
+            return getMax();
+        }
+
+        /**
+         * The count, mean and percentiles of the snapshot, for logging.
+         *
+         * @return The snapshot in microseconds.
+         */
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%.1fus p50=%.1fus p99=%.1fus p999=%.1fus max=%.1fus",
+                    count, getMean() / 1000, getValueAtPercentile(50) / 1000.0, getValueAtPercentile(99) / 1000.0,
+                    getValueAtPercentile(99.9) / 1000.0, getMax() / 1000.0);
+        }
+    }
+
+}
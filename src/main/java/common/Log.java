@@ -0,0 +1,312 @@
+package common;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class logs messages without making the thread that logs them wait for the console.
+ * A message is only recorded, along with the name of the thread that logged it, and handed to a background thread
+ * through a {@link RingBuffer}. That thread formats the messages and prints them, a batch at a time.
+ * <p>
+ * Messages below the current {@link LogLevel} are discarded before anything is allocated,
+ * so a debug message that is logged for every request costs a single comparison while debug logging is off.
+ * The level is read from the {@value #LEVEL_PROPERTY} system property, and defaults to {@link LogLevel#INFO}.
+ * <p>
+ * Messages are formatted on the background thread, with {@link String#format(String, Object...)},
+ * so the arguments must not be changed once they have been logged.
+ * If the background thread falls so far behind that the buffer is full, debug and info messages are dropped
+ * and counted, while warnings and errors are printed on the thread that logged them.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public final class Log {
+    // The system property that the level is read from.
+    public static final String LEVEL_PROPERTY = "log.level";
+
+    // The number of messages that can wait to be printed.
+    private static final int CAPACITY = 8192;
+    // The largest number of messages that are printed at once.
+    private static final int MAX_BATCH_SIZE = 256;
+    // How long the messages that are still waiting are given to be printed when the program exits.
+    private static final long FLUSH_TIMEOUT_MILLIS = 1000;
+
+    // The messages waiting to be printed.
+    private static final RingBuffer<Record> RECORDS = new RingBuffer<>(CAPACITY, WaitStrategy.BLOCKING);
+    // The number of messages that were dropped because the buffer was full.
+    private static final AtomicLong droppedCount = new AtomicLong();
+    // The number of messages that have been printed or dropped, used to wait for the buffer to be flushed.
+    private static final AtomicLong printedCount = new AtomicLong();
+    // The number of messages that have been recorded.
+    private static final AtomicLong recordedCount = new AtomicLong();
+    // The lowest level that is logged.
+    private static volatile LogLevel level = readLevel();
+
+    static {
+        Thread writer = new Thread(Log::printRecords, "Logger");
+        writer.setDaemon(true);
+        writer.start();
+        // Print the messages that are still waiting when the program exits.
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "Logger-Shutdown"));
+    }
+
+    private Log() {}
+
+    /**
+     * This method is used to change the lowest level that is logged.
+     *
+     * @param level The lowest level that is logged, or {@link LogLevel#OFF} to log nothing.
+     */
+    public static void setLevel( LogLevel level ) {
+        if (level == null) {
+            throw new NullPointerException("level");
+        }
+        Log.level = level;
+    }
+
+    /**
+     * This method is used to get the lowest level that is logged.
+     *
+     * @return The lowest level that is logged.
+     */
+    public static LogLevel getLevel() {
+        return level;
+    }
+
+    /**
+     * This method can be used to check if messages of the given level are logged,
+     * before doing any work that is only needed to log them.
+     *
+     * @param level The level of the message.
+     * @return True if messages of the given level are logged, false otherwise.
+     */
+    public static boolean isEnabled( LogLevel level ) {
+        return level.ordinal() >= Log.level.ordinal();
+    }
+
+    /**
+     * This method logs a debug message.
+     *
+     * @param message The message.
+     */
+    public static void debug( String message ) {
+        if (isEnabled(LogLevel.DEBUG)) {
+            record(LogLevel.DEBUG, message, null, null);
+        }
+    }
+
+    /**
+     * This method logs a debug message, which is formatted with the given argument only if it is printed.
+     * It takes a single argument rather than varargs, so that nothing is allocated while debug logging is off.
+     *
+     * @param format The format of the message, see {@link String#format(String, Object...)}.
+     * @param arg The argument of the format.
+     */
+    public static void debug( String format, Object arg ) {
+        if (isEnabled(LogLevel.DEBUG)) {
+            record(LogLevel.DEBUG, format, new Object[]{ arg }, null);
+        }
+    }
+
+    /**
+     * This method logs an info message.
+     *
+     * @param message The message.
+     */
+    public static void info( String message ) {
+        if (isEnabled(LogLevel.INFO)) {
+            record(LogLevel.INFO, message, null, null);
+        }
+    }
+
+    /**
+     * This method logs an info message, which is formatted with the given arguments only if it is printed.
+     *
+     * @param format The format of the message, see {@link String#format(String, Object...)}.
+     * @param args The arguments of the format.
+     */
+    public static void info( String format, Object... args ) {
+        if (isEnabled(LogLevel.INFO)) {
+            record(LogLevel.INFO, format, args, null);
+        }
+    }
+
+    /**
+     * This method logs a warning, along with the stack trace of the throwable that caused it.
+     *
+     * @param message The message.
+     * @param throwable The throwable that caused the warning.
+     */
+    public static void warn( String message, Throwable throwable ) {
+        if (isEnabled(LogLevel.WARN)) {
+            record(LogLevel.WARN, message, null, throwable);
+        }
+    }
+
+    /**
+     * This method logs an error, along with the stack trace of the throwable that caused it.
+     *
+     * @param message The message.
+     * @param throwable The throwable that caused the error.
+     */
+    public static void error( String message, Throwable throwable ) {
+        if (isEnabled(LogLevel.ERROR)) {
+            record(LogLevel.ERROR, message, null, throwable);
+        }
+    }
+
+    /**
+     * This method is used to get the number of messages that were dropped because they were logged faster than they could be printed.
+     *
+     * @return The number of dropped messages.
+     */
+    public static long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * This method waits until every message logged so far has been printed, or a second has passed.
+     */
+    public static void flush() {
+        long target = recordedCount.get();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FLUSH_TIMEOUT_MILLIS);
+        while (printedCount.get() < target && System.nanoTime() < deadline) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * This method is a helper method that hands a message to the background thread.
+     *
+     * @param level The level of the message.
+     * @param format The message, or its format if there are arguments.
+     * @param args The arguments of the format, or null.
+     * @param throwable The throwable whose stack trace is printed after the message, or null.
+     */
+    private static void record( LogLevel level, String format, Object[] args, Throwable throwable ) {
+        Record record = new Record(Thread.currentThread().getName(), format, args, throwable);
+        recordedCount.incrementAndGet();
+        if (RECORDS.offer(record)) {
+            return;
+        }
+        if (level.ordinal() >= LogLevel.WARN.ordinal()) {
+            // Warnings and errors are never dropped, they are printed right away instead.
+            record.print(System.out);
+        }
+        else {
+            droppedCount.incrementAndGet();
+        }
+        printedCount.incrementAndGet();
+    }
+
+    /**
+     * This method is run by the background thread.
+     * It waits for messages, and prints every message that is already waiting at once.
+     */
+    private static void printRecords() {
+        List<Record> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        StringBuilder text = new StringBuilder();
+        long reportedDrops = 0;
+        while (true) {
+            try {
+                batch.add(RECORDS.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            RECORDS.drainTo(batch, MAX_BATCH_SIZE - 1);
+            PrintStream out = System.out;
+            for (Record record : batch) {
+                if (record.throwable != null) {
+                    // Stack traces are printed on their own, so print everything before them first.
+                    out.print(text);
+                    text.setLength(0);
+                    record.print(out);
+                }
+                else {
+                    record.appendTo(text);
+                }
+            }
+            long drops = droppedCount.get();
+            if (drops != reportedDrops) {
+                text.append("[Logger]: ").append(drops - reportedDrops).append(" messages were dropped").append(System.lineSeparator());
+                reportedDrops = drops;
+            }
+            out.print(text);
+            out.flush();
+            text.setLength(0);
+            printedCount.addAndGet(batch.size());
+            batch.clear();
+        }
+    }
+
+    /**
+     * This method is a helper method that reads the level from the system property.
+     *
+     * @return The level named by the system property, or {@link LogLevel#INFO} if it is missing or unknown.
+     */
+    private static LogLevel readLevel() {
+        LogLevel level = LogLevel.fromName(System.getProperty(LEVEL_PROPERTY, LogLevel.INFO.getName()));
+        return level != null ? level : LogLevel.INFO;
+    }
+
+    /**
+     * This class is a message that has been logged, but not printed yet.
+     */
+    private static final class Record {
+        // The name of the thread that logged the message.
+        private final String threadName;
+        // The message, or its format if there are arguments.
+        private final String format;
+        // The arguments of the format, or null.
+        private final Object[] args;
+        // The throwable whose stack trace is printed after the message, or null.
+        private final Throwable throwable;
+
+        private Record( String threadName, String format, Object[] args, Throwable throwable ) {
+            this.threadName = threadName;
+            this.format = format;
+            this.args = args;
+            this.throwable = throwable;
+        }
+
+        /**
+         * This method formats the message, in the same format that {@link Util#println(String)} always used.
+         *
+         * @param text The text to append the message and a line separator to.
+         */
+        private void appendTo( StringBuilder text ) {
+            text.append('[').append(threadName).append("]: ");
+            if (args == null) {
+                text.append(format);
+            }
+            else {
+                try {
+                    text.append(String.format(format, args));
+                } catch (RuntimeException e) {
+                    // A bad format must never stop the background thread.
+                    text.append(format).append(" (could not be formatted: ").append(e).append(')');
+                }
+            }
+            text.append(System.lineSeparator());
+        }
+
+        /**
+         * This method prints the message, and the stack trace of its throwable if there is one.
+         *
+         * @param out The stream to print the message to. The stack trace is printed to the standard error stream as before.
+         */
+        private void print( PrintStream out ) {
+            StringBuilder text = new StringBuilder();
+            appendTo(text);
+            out.print(text);
+            out.flush();
+            if (throwable != null) {
+                throwable.printStackTrace();
+            }
+        }
+    }
+
+}
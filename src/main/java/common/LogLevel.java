@@ -0,0 +1,53 @@
+package common;
+
+/**
+ * This enum is used to choose which messages are logged, see {@link Log}.
+ * Every message below the chosen level is discarded before it is even formatted.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public enum LogLevel {
+    // Messages about every single message that is sent or received.
+    DEBUG("debug"),
+    // Messages about connections, handshakes and other things that happen once in a while.
+    INFO("info"),
+    // Messages about something that went wrong, but that the program recovered from.
+    WARN("warn"),
+    // Messages about something that went wrong and could not be recovered from.
+    ERROR("error"),
+    // No messages at all, this level is only used to choose which messages are logged.
+    OFF("off");
+
+    // The name that identifies this level on the command line.
+    private final String name;
+
+    LogLevel( String name ) {
+        this.name = name;
+    }
+
+    /**
+     * This method is used to get the name that identifies this level on the command line.
+     *
+     * @return The name of this level.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * This method is used to find the level with the given name.
+     *
+     * @param name The name of the level.
+     * @return The level with the given name, or null if there is no such level.
+     */
+    public static LogLevel fromName( String name ) {
+        for (LogLevel level : values()) {
+            if (level.name.equalsIgnoreCase(name)) {
+                return level;
+            }
+        }
+        return null;
+    }
+
+}
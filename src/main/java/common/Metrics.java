@@ -0,0 +1,371 @@
+package common;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class is the registry of the server's metrics. For every operation in the {@link OperationRegistry}, it counts
+ * the requests that were performed and the ones that failed, and keeps a {@link Histogram} of the time spent in every {@link Stage}.
+ * Time spent on messages that do not belong to a single operation, such as error responses and writes,
+ * which may carry the responses to several operations at once, is kept apart, see {@link #getUnattributed()}.
+ * <p>
+ * Recording never takes a lock and never allocates, once an operation has been recorded the first time,
+ * so the metrics are always on. Operations are looked up the same way as in the {@link OperationRegistry},
+ * ids below {@link OperationRegistry#MAX_DENSE_ID} index an array and the few others are searched in a small table.
+ * Only operations that are registered get metrics of their own, so a client sending made up operation ids
+ * can not make the registry grow.
+ * <p>
+ * The registry also keeps track of the connections that are open, so that their queues can be inspected,
+ * and counts the bytes read from and written to every socket.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class Metrics {
+    // The id returned by operationOf for messages that do not name an operation.
+    public static final int NO_OPERATION = Integer.MIN_VALUE;
+
+    // The metrics of the operations with dense ids, indexed by their ids, or null if they have not been recorded yet.
+    private final AtomicReferenceArray<OperationMetrics> DENSE;
+    // The metrics of the operations with sparse ids, it is replaced whenever one is added.
+    private volatile Sparse sparse;
+    // The metrics of everything that does not belong to a single operation.
+    private final OperationMetrics unattributed;
+    // When the metrics were created, in nanoseconds, used to turn counts into rates.
+    private final long startNanos;
+    // The connections that are open right now.
+    private final Set<Connection> CONNECTIONS;
+    // The number of connections that were ever opened.
+    private final LongAdder openedConnections;
+    // The number of bytes read from and written to every socket.
+    private final LongAdder bytesRead;
+    private final LongAdder bytesWritten;
+
+    /**
+     * This constructor is used to create a new Metrics with nothing recorded.
+     */
+    public Metrics() {
+        this.DENSE = new AtomicReferenceArray<>(OperationRegistry.MAX_DENSE_ID);
+        this.sparse = new Sparse(new int[ 0 ], new OperationMetrics[ 0 ]);
+        this.unattributed = new OperationMetrics();
+        this.startNanos = System.nanoTime();
+        this.CONNECTIONS = ConcurrentHashMap.newKeySet();
+        this.openedConnections = new LongAdder();
+        this.bytesRead = new LongAdder();
+        this.bytesWritten = new LongAdder();
+    }
+
+    /**
+     * This method is used to record the time a message spent in a stage.
+     *
+     * @param operationId The id of the operation the message belongs to, or {@link #NO_OPERATION}.
+     * @param stage The stage.
+     * @param nanos The time spent in the stage, in nanoseconds.
+     */
+    public void record( int operationId, Stage stage, long nanos ) {
+        metricsOf(operationId).record(stage, nanos);
+    }
+
+    /**
+     * This method is used to count a request that is about to be performed.
+     *
+     * @param operationId The id of the operation.
+     */
+    public void countRequest( int operationId ) {
+        metricsOf(operationId).requests.increment();
+    }
+
+    /**
+     * This method is used to count a request whose operation threw an exception.
+     *
+     * @param operationId The id of the operation.
+     */
+    public void countFailure( int operationId ) {
+        metricsOf(operationId).failures.increment();
+    }
+
+    /**
+     * This method is used to count the bytes read from a socket.
+     *
+     * @param bytes The number of bytes that were read.
+     */
+    public void countBytesRead( long bytes ) {
+        bytesRead.add(bytes);
+    }
+
+    /**
+     * This method is used to count the bytes written to a socket.
+     *
+     * @param bytes The number of bytes that were written.
+     */
+    public void countBytesWritten( long bytes ) {
+        bytesWritten.add(bytes);
+    }
+
+    /**
+     * This method is used to get the number of bytes read from every socket.
+     *
+     * @return The number of bytes read.
+     */
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    /**
+     * This method is used to get the number of bytes written to every socket.
+     *
+     * @return The number of bytes written.
+     */
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    /**
+     * This method must be called once a connection has been opened, so that it is counted and its queues can be inspected.
+     *
+     * @param connection The connection.
+     */
+    public void connectionOpened( Connection connection ) {
+        if (CONNECTIONS.add(connection)) {
+            openedConnections.increment();
+        }
+    }
+
+    /**
+     * This method must be called once a connection has been closed.
+     *
+     * @param connection The connection.
+     */
+    public void connectionClosed( Connection connection ) {
+        CONNECTIONS.remove(connection);
+    }
+
+    /**
+     * This method is used to get the connections that are open.
+     * The set is a live view, it can be iterated while connections are opened and closed,
+     * without ever locking them out, but it may or may not show the changes made meanwhile.
+     *
+     * @return The connections that are open.
+     */
+    public Set<Connection> getConnections() {
+        return Collections.unmodifiableSet(CONNECTIONS);
+    }
+
+    /**
+     * This method is used to get the number of connections that were ever opened.
+     *
+     * @return The number of connections, including those that have been closed since.
+     */
+    public long getOpenedConnectionCount() {
+        return openedConnections.sum();
+    }
+
+    /**
+     * This method is used to get the metrics of every operation that has been recorded.
+     *
+     * @return The metrics of every operation, keyed and sorted by operation id.
+     */
+    public Map<Integer, OperationMetrics> getOperations() {
+        Map<Integer, OperationMetrics> operations = new TreeMap<>();
+        for (int operationId = 0; operationId < DENSE.length(); operationId++) {
+            OperationMetrics metrics = DENSE.get(operationId);
+            if (metrics != null) {
+                operations.put(operationId, metrics);
+            }
+        }
+        Sparse sparse = this.sparse;
+        for (int i = 0; i < sparse.ids.length; i++) {
+            operations.put(sparse.ids[ i ], sparse.metrics[ i ]);
+        }
+        return operations;
+    }
+
+    /**
+     * This method is used to get the metrics of everything that does not belong to a single operation.
+     * This is where every write is recorded, along with the decoding and encoding of messages that do not name
+     * a registered operation, such as error responses.
+     *
+     * @return The metrics that are not attributed to any operation.
+     */
+    public OperationMetrics getUnattributed() {
+        return unattributed;
+    }
+
+    /**
+     * This method is used to get the time since the metrics were created.
+     *
+     * @return The time in nanoseconds.
+     */
+    public long getUptimeNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * This method is used to find the operation a message belongs to, without allocating.
+     *
+     * @param message A request or a response, either a JsonObject or a {@link CachedResponse}.
+     * @return The id in the message's {@code operation} field, or {@link #NO_OPERATION} if it has none.
+     */
+    public static int operationOf( Object message ) {
+        if (message instanceof CachedResponse response) {
+            return response.getOperationId();
+        }
+        if (!(message instanceof JsonObject json)) {
+            return NO_OPERATION;
+        }
+        JsonElement operation = json.get("operation");
+        if (operation == null || !operation.isJsonPrimitive() || !operation.getAsJsonPrimitive().isNumber()) {
+            return NO_OPERATION;
+        }
+        return operation.getAsInt();
+    }
+
+    /**
+     * This method is a helper method that finds the metrics of an operation,
+     * and creates them the first time a registered operation is recorded.
+     *
+     * @param operationId The id of the operation.
+     * @return The metrics of the operation, or the unattributed metrics if the operation is not registered.
+     */
+    private OperationMetrics metricsOf( int operationId ) {
+        OperationMetrics metrics = find(operationId);
+        if (metrics != null) {
+            return metrics;
+        }
+        if (operationId == NO_OPERATION || !Util.getOperationRegistry().hasOperation(operationId)) {
+            return unattributed;
+        }
+        return create(operationId);
+    }
+
+    /**
+     * This method is a helper method that looks up the metrics of an operation.
+     *
+     * @param operationId The id of the operation.
+     * @return The metrics of the operation, or null if it has not been recorded yet.
+     */
+    private OperationMetrics find( int operationId ) {
+        // The unsigned comparison also sends negative ids to the sparse table.
+        if (Integer.compareUnsigned(operationId, DENSE.length()) < 0) {
+            return DENSE.get(operationId);
+        }
+        Sparse sparse = this.sparse;
+        for (int i = 0; i < sparse.ids.length; i++) {
+            if (sparse.ids[ i ] == operationId) {
+                return sparse.metrics[ i ];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * This method is a helper method that creates the metrics of an operation, unless another thread just did.
+     *
+     * @param operationId The id of the operation.
+     * @return The metrics of the operation.
+     */
+    private synchronized OperationMetrics create( int operationId ) {
+        OperationMetrics metrics = find(operationId);
+        if (metrics != null) {
+            return metrics;
+        }
+        metrics = new OperationMetrics();
+        if (Integer.compareUnsigned(operationId, DENSE.length()) < 0) {
+            DENSE.set(operationId, metrics);
+        }
+        else {
+            // Sparse ids are rare, so the table is simply copied with the new id at the end.
+            Sparse sparse = this.sparse;
+            int[] ids = Arrays.copyOf(sparse.ids, sparse.ids.length + 1);
+            OperationMetrics[] all = Arrays.copyOf(sparse.metrics, sparse.metrics.length + 1);
+            ids[ ids.length - 1 ] = operationId;
+            all[ all.length - 1 ] = metrics;
+            this.sparse = new Sparse(ids, all);
+        }
+        return metrics;
+    }
+
+    /**
+     * This class holds the metrics of a single operation.
+     */
+    public static class OperationMetrics {
+        // The number of requests that were performed.
+        private final LongAdder requests;
+        // The number of requests whose operation threw an exception.
+        private final LongAdder failures;
+        // The time spent in every stage, indexed by the ordinal of the stage.
+        private final Histogram[] STAGES;
+
+        private OperationMetrics() {
+            this.requests = new LongAdder();
+            this.failures = new LongAdder();
+            this.STAGES = new Histogram[ Stage.values().length ];
+            for (int i = 0; i < STAGES.length; i++) {
+                STAGES[ i ] = new Histogram();
+            }
+        }
+
+        /**
+         * This method is a helper method that records the time spent in a stage.
+         *
+         * @param stage The stage.
+         * @param nanos The time spent in the stage, in nanoseconds.
+         */
+        private void record( Stage stage, long nanos ) {
+            STAGES[ stage.ordinal() ].record(nanos);
+        }
+
+        /**
+         * This method is used to get the number of requests that were performed.
+         *
+         * @return The number of requests.
+         */
+        public long getRequestCount() {
+            return requests.sum();
+        }
+
+        /**
+         * This method is used to get the number of requests whose operation threw an exception.
+         *
+         * @return The number of failed requests.
+         */
+        public long getFailureCount() {
+            return failures.sum();
+        }
+
+        /**
+         * This method is used to get the histogram of the time spent in a stage.
+         *
+         * @param stage The stage.
+         * @return The histogram of the stage, in nanoseconds.
+         */
+        public Histogram getHistogram( Stage stage ) {
+            return STAGES[ stage.ordinal() ];
+        }
+    }
+
+    /**
+     * This class is the table of operations with sparse ids, it is never changed once it has been published.
+     */
+    private static final class Sparse {
+        // The ids of the operations.
+        private final int[] ids;
+        // The metrics of the operations, in the same order as their ids.
+        private final OperationMetrics[] metrics;
+
+        private Sparse( int[] ids, OperationMetrics[] metrics ) {
+            this.ids = ids;
+            this.metrics = metrics;
+        }
+    }
+
+}
@@ -1,16 +1,30 @@
 package common;
 
 import com.google.gson.JsonObject;
+import common.codec.Codec;
+import common.codec.CodecType;
+import common.codec.MalformedMessageException;
+import common.event.QueueHandoffEvent;
 
-import java.io.Closeable;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketException;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static common.Util.println;
 
@@ -19,20 +33,85 @@ import static common.Util.println;
  * It is used by both the server and the client to handle the communication
  * in a separate thread allowing the main thread to continue with other tasks
  * while waiting for a response.
+ * This thread blocks on the socket to read incoming messages, while a second
+ * writer thread waits on the request queue to send outgoing messages.
+ * Messages are handed between threads through lock-free {@link RingBuffer}s,
+ * whose consumers wait for the next message as the {@link WaitStrategy} says.
+ * Both threads can either be platform threads or virtual threads, see {@link ThreadMode}.
+ * <p>
+ * Both queues are bounded by the watermarks of a {@link Backpressure}.
+ * Once the received queue is full, the reader stops reading the socket until it has been drained,
+ * so a peer that sends faster than its messages are handled is slowed down by TCP itself.
+ * Once the request queue is full, because the peer does not read what is sent to it,
+ * sending a message blocks, fails or is deferred, see {@link SendMode}.
  *
  * @author Hunter Spragg
  * @version February 2023
  */
-public class NetworkHandlingThread extends Thread implements Closeable {
+public class NetworkHandlingThread implements Connection, Runnable {
+    // A marker that is placed in the request queue to tell the writer thread to stop.
+    // It is compared by identity, so it can never be confused with a real request.
+    private static final JsonObject END_OF_QUEUE = new JsonObject();
     // The socket that is being handled by this thread.
     private final Socket socket;
-    // A blocking queue that is used to store the messages that are to be sent.
-    private final BlockingQueue<JsonObject> REQUEST_QUEUE;
-    // A blocking queue that is used to store the messages that have been received.
-    private final BlockingQueue<JsonObject> RECEIVED_QUEUE;
+    // A queue that is used to store the messages that are to be sent, the writer thread is its only consumer.
+    // It holds JsonObjects, and CachedResponses that are sent from their encoded bytes.
+    // It is bounded by the watermarks, and holds twice the high watermark, so that the shutdown response,
+    // the end of the queue, and producers that raced past the high watermark still fit.
+    // Both queues are only replaced before the thread is started, see setBackpressure() and setWaitStrategy().
+    private RingBuffer<Object> requestQueue;
+    // A queue that is used to store the messages that have been received, the thread calling receive() is its only consumer.
+    // Only the reader adds to it, and it stops reading once the queue is full, so it never holds more than
+    // the high watermark, plus the shutdown response.
+    private RingBuffer<JsonObject> receivedQueue;
+    // How the writer thread, and the thread calling receive(), wait for the next message.
+    private volatile WaitStrategy waitStrategy;
+    // The messages sent with SendMode.FUTURE while the request queue was full, in the order they were sent.
+    // They are moved to the request queue once it has drained down to the low watermark.
+    private final Queue<DeferredMessage> DEFERRED_QUEUE;
+    // The lock that senders and the reader wait on while their queue is full.
+    private final ReentrantLock flowLock;
+    // Signalled once the request queue has drained down to the low watermark, or the connection has shut down.
+    private final Condition writableAgain;
+    // Signalled once the received queue has drained down to the low watermark, or the connection has shut down.
+    private final Condition receivedDrained;
+    // A flag that is used to indicate that the request queue accepts messages.
+    // It is cleared once the queue reaches the high watermark, and set again once it drains down to the low watermark.
+    private volatile boolean writable;
+    // A flag that is used to indicate that the reader has stopped reading the socket because the received queue is full.
+    private volatile boolean readPaused;
+    // The watermarks that bound both queues, and what sending does while the request queue is full.
+    private volatile Backpressure backpressure;
     // A flag that is used to indicate if the thread should continue running.
     // This boolean needs to be atomic because it is might be modified by a different thread.
     private final AtomicBoolean isRunning;
+    // A flag that is used to make sure the connection is only closed once.
+    private final AtomicBoolean isClosing;
+    // The requests sent with request() that are still waiting for a response, keyed by correlation ID.
+    private final Map<Long, CompletableFuture<JsonObject>> PENDING_REQUESTS;
+    // The correlation ID that will be given to the next request sent with request().
+    private final AtomicLong nextCorrelationId;
+    // The codec that messages are encoded with on this connection.
+    // This is volatile because it might be changed by a different thread than the reader and writer.
+    private volatile Codec codec;
+    // The side of the handshake this connection performs, or null to skip the handshake.
+    private volatile Handshake.Role handshakeRole;
+    // The codecs offered or accepted during the handshake.
+    private volatile List<CodecType> handshakeCodecs;
+    // The settings that were agreed on during the handshake, or null until it has completed.
+    private volatile Handshake handshake;
+    // The largest frame that will be accepted from the peer.
+    private volatile int maxFrameSize;
+    // The largest number of queued messages that the writer thread writes at once.
+    private volatile int maxBatchSize;
+    // When the writer thread writes the messages it has taken from the queue.
+    private volatile FlushPolicy flushPolicy;
+    // The id of this connection, see Connection.getConnectionId().
+    private final long connectionId;
+    // The thread that reads messages from the socket's input stream, it runs this class' run() method.
+    private final Thread readerThread;
+    // The thread that writes the queued requests to the socket's output stream.
+    private final Thread writerThread;
 
 
     /**
@@ -40,115 +119,737 @@ public class NetworkHandlingThread extends Thread implements Closeable {
      * The thread will not start until the start() method is called.
      *
      * @param socket The socket that is to be handled by this thread.
+     * @implSpec This constructor is equivalent to calling {@link #NetworkHandlingThread(Socket, ThreadMode)}
+     *           with {@link ThreadMode#PLATFORM}.
      */
     public NetworkHandlingThread( Socket socket ) {
-        super("NetworkHandlingThread#" + socket.getInetAddress().getHostAddress());
+        this(socket, ThreadMode.PLATFORM);
+    }
+
+    /**
+     * This constructor is used to create a new NetworkHandlingThread
+     * whose reader and writer threads are of the given kind.
+     * The threads will not start until the start() method is called.
+     *
+     * @param socket The socket that is to be handled by this thread.
+     * @param threadMode The kind of threads to read and write the socket on.
+     */
+    @SuppressWarnings("this-escape")
+    public NetworkHandlingThread( Socket socket, ThreadMode threadMode ) {
         this.socket = socket;
-        this.REQUEST_QUEUE = new LinkedBlockingQueue<>();
-        this.RECEIVED_QUEUE = new LinkedBlockingQueue<>();
+        // Disable Nagle's algorithm so that small messages are sent immediately
+        // instead of waiting for the peer to acknowledge the previous packet.
+        try {
+            this.socket.setTcpNoDelay(true);
+        } catch (SocketException e) {
+            println("Failed to disable Nagle's algorithm", e);
+        }
+        this.DEFERRED_QUEUE = new ConcurrentLinkedQueue<>();
+        this.flowLock = new ReentrantLock();
+        this.writableAgain = this.flowLock.newCondition();
+        this.receivedDrained = this.flowLock.newCondition();
+        this.writable = true;
+        this.backpressure = Backpressure.DEFAULT;
+        this.waitStrategy = WaitStrategy.BLOCKING;
+        createQueues();
         this.isRunning = new AtomicBoolean(true);
+        this.isClosing = new AtomicBoolean(false);
+        this.codec = CodecType.JSON.create();
+        this.maxFrameSize = Handshake.DEFAULT_MAX_FRAME_SIZE;
+        this.maxBatchSize = FlushPolicy.DEFAULT_MAX_BATCH_SIZE;
+        this.flushPolicy = FlushPolicy.END_OF_BATCH;
+        this.PENDING_REQUESTS = new ConcurrentHashMap<>();
+        this.nextCorrelationId = new AtomicLong();
+        this.connectionId = Util.nextConnectionId();
+        // The threads only hold on to this, neither runs until start() is called.
+        this.readerThread = threadMode.newThread("NetworkHandlingThread#" + socket.getInetAddress().getHostAddress(), this);
+        this.writerThread = threadMode.newThread("NetworkWriterThread#" + socket.getInetAddress().getHostAddress(), this::writeQueuedRequests);
+    }
+
+    /**
+     * This method is used to change the codec that messages are encoded with on this connection.
+     * Both peers must use the same codec, so this should be called before the thread is started.
+     *
+     * @param codec The codec to encode messages with.
+     */
+    public void setCodec( Codec codec ) {
+        this.codec = codec;
+    }
+
+    /**
+     * This method is used to get the codec that messages are encoded with on this connection.
+     *
+     * @return The codec that messages are encoded with.
+     */
+    public Codec getCodec() {
+        return this.codec;
+    }
+
+    /**
+     * This method is used to make this connection perform a handshake before any frames are sent.
+     * As a client, the handshake is always sent and the server must answer it.
+     * As a server, a client that skips the handshake keeps using the codec set with setCodec().
+     * This must be called before the thread is started.
+     *
+     * @param role The side of the handshake this connection performs.
+     * @param codecs As a client, the codecs to offer in order of preference.
+     *               As a server, the codecs to accept.
+     */
+    public void setHandshake( Handshake.Role role, List<CodecType> codecs ) {
+        this.handshakeRole = role;
+        this.handshakeCodecs = codecs;
+    }
+
+    /**
+     * This method is used to change how the writer thread batches queued messages.
+     * With {@link FlushPolicy#END_OF_BATCH}, every message that is already queued, up to the given number,
+     * is encoded back to back and written with a single write.
+     * If the socket was created from a {@link SocketChannel}, the frames are written with a gathering write,
+     * otherwise they are copied into a single buffer first.
+     * This must be called before the thread is started.
+     *
+     * @param maxBatchSize The largest number of messages that are written at once.
+     * @param flushPolicy When the messages taken from the queue are written.
+     */
+    public void setWriteBatching( int maxBatchSize, FlushPolicy flushPolicy ) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("A batch must hold at least one message");
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.flushPolicy = flushPolicy;
+    }
+
+    /**
+     * This method is used to change the watermarks that bound the queues of this connection,
+     * and what sending a message does while the request queue is full.
+     * This must be called before the thread is started.
+     *
+     * @param backpressure The watermarks and send mode, see {@link Backpressure}.
+     */
+    public void setBackpressure( Backpressure backpressure ) {
+        if (backpressure == null) {
+            throw new NullPointerException("backpressure");
+        }
+        this.backpressure = backpressure;
+        createQueues();
+    }
+
+    /**
+     * This method is used to change how the writer thread, and the thread calling receive(), wait for the next message.
+     * This must be called before the thread is started.
+     *
+     * @param waitStrategy How to wait for the next message, see {@link WaitStrategy}.
+     */
+    public void setWaitStrategy( WaitStrategy waitStrategy ) {
+        if (waitStrategy == null) {
+            throw new NullPointerException("waitStrategy");
+        }
+        this.waitStrategy = waitStrategy;
+        createQueues();
+    }
+
+    /**
+     * This method is a helper method that creates both queues for the current watermarks and wait strategy.
+     */
+    private void createQueues() {
+        int capacity = (int) Math.min(1 << 30, 2L * this.backpressure.getHighWatermark());
+        this.requestQueue = new RingBuffer<>(capacity, this.waitStrategy);
+        this.receivedQueue = new RingBuffer<>(capacity, this.waitStrategy);
+    }
+
+    /**
+     * This method is used to get the watermarks that bound the queues of this connection.
+     *
+     * @return The watermarks and send mode.
+     */
+    public Backpressure getBackpressure() {
+        return this.backpressure;
+    }
+
+    /**
+     * This method is used to get the id of this connection, which is given to it when it is created.
+     *
+     * @return The id of this connection.
+     */
+    @Override
+    public long getConnectionId() {
+        return this.connectionId;
+    }
+
+    /**
+     * This method is used to get the number of messages waiting to be written to the socket,
+     * including the messages deferred with {@link SendMode#FUTURE}.
+     *
+     * @return The depth of the outbound queue.
+     */
+    @Override
+    public int getOutboundQueueDepth() {
+        return this.requestQueue.size() + this.DEFERRED_QUEUE.size();
+    }
+
+    /**
+     * This method is used to get the number of received messages waiting to be taken with receive().
+     *
+     * @return The depth of the inbound queue.
+     */
+    @Override
+    public int getInboundQueueDepth() {
+        return this.receivedQueue.size();
+    }
+
+    /**
+     * This method can be used to check if the outbound queue accepts messages,
+     * that is, if sending a message right now would neither block, fail, nor be deferred.
+     *
+     * @return True if the outbound queue is below its high watermark, or has drained down to its low watermark since.
+     */
+    public boolean isWritable() {
+        return this.writable;
+    }
+
+    /**
+     * This method can be used to check if the reader has stopped reading the socket because the inbound queue is full.
+     *
+     * @return True if reading is paused, false otherwise.
+     */
+    public boolean isReadPaused() {
+        return this.readPaused;
+    }
+
+    /**
+     * This method is used to get the settings that were agreed on during the handshake.
+     *
+     * @return The settings that were agreed on, or null if the handshake has not completed yet.
+     */
+    public Handshake getHandshake() {
+        return this.handshake;
+    }
+
+    /**
+     * This method starts the reader thread, which will in turn start the writer thread.
+     */
+    public void start() {
+        this.readerThread.start();
+    }
+
+    /**
+     * This method waits for the reader thread to finish running.
+     *
+     * @throws InterruptedException If the current thread is interrupted while waiting.
+     */
+    public void join() throws InterruptedException {
+        this.readerThread.join();
     }
 
     /**
      * This is like the main method of a thread.
-     * Whenever you call the start() method on a thread, it will call this method.
-     * This method will run until the thread is interrupted or the close() method is called.
+     * Whenever you call the start() method, the reader thread will call this method.
+     * This method will perform the handshake, start the writer thread and then read messages from the socket
+     * until the thread is interrupted, the socket is closed or the close() method is called.
      */
     @Override
     public void run() {
         // Set the isRunning flag to true to indicate that the thread is running.
         this.isRunning.set(true);
-        // Try with resources will automatically close the streams when the try block is finished.
-        try (InputStream in = socket.getInputStream();
-             OutputStream out = socket.getOutputStream();
-        ) {
+        try {
+            // We don't use try with resources here because closing the input stream would
+            // also close the socket while the writer thread might still be using it.
+            InputStream in = socket.getInputStream();
+            // Agree on the codec with the peer before any frames are sent.
+            // If a client skipped the handshake, we have already read the length of its first frame.
+            int pendingLength = performHandshake(in);
+            // Start the writer thread, it will wait for requests to be queued.
+            // It is only started now so that every frame is encoded with the agreed codec.
+            this.writerThread.start();
             // While the socket is connected and the thread is running.
             while(isRunning() && isConnected(socket)) {
-                // While the socket is connected, there is no data to read, the thread is running, and there is no data to send.
-                // We will sleep for 100 milliseconds to prevent this loop from using too much CPU.
-                while(isRunning() && isConnected(socket) && !hasData(in)) {
-                    try {
-                        // Sleep for 100 milliseconds.
-                        Thread.sleep(100);
-                    } catch (InterruptedException e) {
-                        // If the thread is interrupted, print the stack trace.
-                        println("Network Handler has been Interrupted", e);
-                    }
-                }
-                if(isConnected(socket)) {
-                    try {
-                        // If there is any data to write, write it to the output stream.
-                        // Send a queued response
-                        if (!this.REQUEST_QUEUE.isEmpty()) {
-                            // Get the next response from the queue.
-                            JsonObject request = this.REQUEST_QUEUE.take();
-                            // Use the NetworkUtils class to write the JSON object to the output stream.
-                            // See the NetworkUtils class for more information.
-                            println("Sent: " + request);
-                            NetworkUtils.toStream(request, out);
-                        }
-                        // If there is data to read from the InputStream, read it.
-                        if (in.available() > 0) {
-                            // Read the data from the InputStream in a json object.
-                            // Use the NetworkUtils class to read the JSON object from the input stream.
-                            JsonObject request = NetworkUtils.fromStream(in);
-                            println("Received: " + request);
-
-                            // Add the json object to the received queue.
-                            this.RECEIVED_QUEUE.add(request);
-                        }
-                    } catch (Exception e) {
-                        // If there is an exception, print the stack trace.
-                        println("Error sending/receiving data from socket streams", e);
-                        // Send an internal error response.
-                        NetworkUtils.toStream(NetworkUtils.createInternalError(), out);
-                    }
-                }
-            }
-            // If the socket is still connected, send the remaining responses.
-            if(isConnected(socket)) {
-                // Send all queued responses
+                JsonObject request;
                 try {
-                    for (JsonObject request : this.REQUEST_QUEUE) {
-                        NetworkUtils.toStream(request, out);
-                    }
-                    NetworkUtils.toStream(NetworkUtils.createShutdownResponse(), out);
-                } catch (SocketException ignored) {}
-            }else {
-                // If the socket is not connected, and we still have responses to send,
-                // print all the responses that were not sent.
-                if(!this.REQUEST_QUEUE.isEmpty()) {
-                    println("Socket is not connected, but there are still requests to send.");
-                    println("Requests: " + this.REQUEST_QUEUE.size());
-                    for(JsonObject request : this.REQUEST_QUEUE) {
-                        println("Queued Request: %s", request);
+                    // Read the data from the InputStream in a json object.
+                    // Use the NetworkUtils class to read the JSON object from the input stream.
+                    // This will block until a whole message has arrived, so there is no need to poll.
+                    int length = pendingLength >= 0 ? pendingLength : NetworkUtils.readLength(in);
+                    pendingLength = -1;
+                    // The payload is read into a buffer leased from the BufferPool.
+                    request = NetworkUtils.readPayload(in, length, this.codec, this.maxFrameSize, this.connectionId);
+                } catch (MalformedMessageException e) {
+                    // The whole message was read, but it could not be decoded.
+                    // The stream is still usable, so send an internal error response and keep reading.
+                    println("Error receiving data from socket stream", e);
+                    send(NetworkUtils.createInternalError());
+                    continue;
+                }
+                Log.debug("Received: %s", request);
+
+                // If the message is the response to a pending request, complete that request.
+                // Otherwise, add the json object to the received queue.
+                if (!completePendingRequest(request)) {
+                    QueueHandoffEvent event = new QueueHandoffEvent();
+                    event.begin();
+                    // This always fits, as the reader stops long before the queue is full.
+                    this.receivedQueue.offer(request);
+                    int depth = this.receivedQueue.size();
+                    // Stop reading the socket while the received queue is full.
+                    if (depth >= this.backpressure.getHighWatermark()) {
+                        awaitReceivedDrained();
                     }
+                    commitHandoff(event, request, QueueHandoffEvent.INBOUND, depth);
                 }
             }
+        } catch (EOFException | SocketException | ClosedChannelException ignored) {
+            // The peer has closed the connection, or the socket was closed by the close() method.
         } catch (Exception e) {
             // If there is an exception, print the stack trace.
             println("Exception in NetworkHandlingThread", e);
         } finally {
             // Set the isRunning flag to false, indicating that the thread is no longer running.
-            // And close the socket if it is still open.
             this.isRunning.set(false);
+            // Wake up anyone waiting for a queue to drain, it never will.
+            signalShutdown();
+            // Wake up anyone waiting in receive(), the connection has been shut down.
+            this.receivedQueue.offer(NetworkUtils.createShutdownResponse());
+            // Fail every request that will now never receive a response.
+            failPendingRequests();
+            // Send the remaining responses and close the socket if it is still open.
             try {
-                this.socket.close();
+                close();
                 println("Socket Closed!");
             } catch (IOException ignored) {}
         }
     }
 
+    /**
+     * This method is a helper method that performs this connection's side of the handshake, if any.
+     *
+     * @param in The InputStream to read from.
+     * @return The length of the first frame if a client skipped the handshake and it has already been read, -1 otherwise.
+     * @throws IOException If the handshake failed.
+     */
+    private int performHandshake( InputStream in ) throws IOException {
+        if (this.handshakeRole == null) {
+            return -1;
+        }
+        OutputStream out = socket.getOutputStream();
+        int pendingLength = -1;
+        Handshake result;
+        if (this.handshakeRole == Handshake.Role.CLIENT) {
+            result = Handshake.connect(in, out, this.handshakeCodecs, Handshake.DEFAULT_MAX_FRAME_SIZE);
+        }
+        else {
+            // A client that skips the handshake starts with the length of its first frame instead.
+            int first = NetworkUtils.readLength(in);
+            if (first == Handshake.MAGIC) {
+                result = Handshake.accept(in, out, this.handshakeCodecs, Handshake.DEFAULT_MAX_FRAME_SIZE);
+            }
+            else {
+                result = Handshake.skipped(this.codec.getType());
+                pendingLength = first;
+            }
+        }
+        if (result.getCodecType() != this.codec.getType()) {
+            this.codec = result.getCodecType().create();
+        }
+        this.maxFrameSize = result.getMaxFrameSize();
+        this.handshake = result;
+        println("Handshake complete: " + result);
+        return pendingLength;
+    }
+
+    /**
+     * This method is run by the writer thread.
+     * It waits for requests to be queued and writes them to the socket
+     * as soon as they arrive, until the end of the queue is reached.
+     * Every request that is already queued, up to the largest batch, is written together, see {@link #setWriteBatching(int, FlushPolicy)}.
+     */
+    private void writeQueuedRequests() {
+        // The requests taken from the queue, and the frames they were encoded into.
+        // Both are reused for every batch.
+        List<Object> requests = new ArrayList<>();
+        WriteBatch batch = new WriteBatch(this.maxBatchSize, this.connectionId);
+        int drainLimit = this.flushPolicy == FlushPolicy.END_OF_BATCH ? this.maxBatchSize - 1 : 0;
+        try {
+            // We don't use try with resources here because closing the output stream would
+            // also close the socket while this thread's reader might still be using it.
+            OutputStream out = socket.getOutputStream();
+            // Sockets created from a channel can gather every frame of a batch in a single write.
+            SocketChannel channel = socket.getChannel();
+            boolean endOfQueue = false;
+            while (!endOfQueue) {
+                // Wait for the next request to be queued, then take every request queued behind it,
+                // without waiting for any more to arrive.
+                requests.add(this.requestQueue.take());
+                this.requestQueue.drainTo(requests, drainLimit);
+                for (Object request : requests) {
+                    if (request == END_OF_QUEUE) {
+                        endOfQueue = true;
+                        break;
+                    }
+                    // Encode the requests back to back, see the NetworkUtils class for more information.
+                    Log.debug("Sent: %s", request);
+                    int operation = Metrics.operationOf(request);
+                    batch.add(NetworkUtils.toBuffer(request, operation, this.codec), operation);
+                }
+                requests.clear();
+                if (channel != null) {
+                    batch.writeTo(channel);
+                }
+                else {
+                    batch.writeTo(out);
+                }
+                // Let senders queue messages again once the queue has drained down to the low watermark.
+                if (!this.writable && this.requestQueue.size() <= this.backpressure.getLowWatermark()) {
+                    markWritable();
+                }
+            }
+        } catch (InterruptedException e) {
+            println("Network Writer has been Interrupted", e);
+        } catch (IOException e) {
+            // If the socket is not connected, and we still have responses to send,
+            // print all the responses that were not sent.
+            // This is the writer thread, the only consumer of the queue, so it can take the remaining requests.
+            List<Object> remaining = new ArrayList<>();
+            this.requestQueue.drainTo(remaining, Integer.MAX_VALUE);
+            // The marker is removed by identity, like it is found above, as equals() would compare messages by content.
+            remaining.removeIf(request -> request == END_OF_QUEUE);
+            if(!remaining.isEmpty()) {
+                println("Socket is not connected, but there are still requests to send.");
+                println("Requests: " + remaining.size());
+                for(Object request : remaining) {
+                    println("Queued Request: %s", request);
+                }
+            }
+        } finally {
+            // Give back the frames of a batch that could not be written.
+            batch.clear();
+            this.isRunning.set(false);
+            // Nothing more will be written, so wake up the blocked senders and fail the deferred messages.
+            signalShutdown();
+        }
+    }
+
     /**
      * This method can be used to queue a request to be sent
      * to the socket's output stream.
      * The request will be sent as soon as possible and will be sent
      * all at once.
+     * If the queue is full, this method blocks, throws a {@link QueueFullException},
+     * or defers the request, depending on the {@link SendMode}.
      *
      * @param request The request to be sent.
      */
+    @Override
     public void send( JsonObject request ) {
-        this.REQUEST_QUEUE.add(request);
+        enqueue(request);
+    }
+
+    /**
+     * This method can be used to queue a cached response to be sent to the socket's output stream.
+     * The response is written from its encoded bytes, see {@link CachedResponse}.
+     * If the queue is full, this method behaves like {@link #send(JsonObject)}.
+     *
+     * @param response The response to be sent.
+     */
+    @Override
+    public void send( CachedResponse response ) {
+        enqueue(response);
+    }
+
+    /**
+     * This method can be used to queue a message without ever blocking, whatever the {@link SendMode}.
+     * If the queue is full, the message is deferred and queued once the queue has drained down to its low watermark.
+     * Deferred messages are queued in the order they were sent, and ahead of any message sent after them
+     * with {@link SendMode#FUTURE}.
+     *
+     * @param message The message to be sent.
+     * @return A future that completes once the message has been queued, or completes exceptionally with a
+     *         {@link QueueFullException} if the send mode is {@link SendMode#FAIL_FAST} and the queue is full,
+     *         or with an IOException if the connection shuts down before the message could be queued.
+     */
+    public CompletableFuture<Void> sendAsync( JsonObject message ) {
+        if (this.writable && this.DEFERRED_QUEUE.isEmpty()) {
+            offer(message);
+            return CompletableFuture.completedFuture(null);
+        }
+        if (this.backpressure.getSendMode() == SendMode.FAIL_FAST) {
+            return CompletableFuture.failedFuture(queueFull());
+        }
+        return defer(message);
+    }
+
+    /**
+     * This method is a helper method that queues a message, or does what the send mode says if the queue is full.
+     *
+     * @param message The JsonObject or CachedResponse to be sent.
+     */
+    private void enqueue( Object message ) {
+        QueueHandoffEvent event = new QueueHandoffEvent();
+        event.begin();
+        switch (this.backpressure.getSendMode()) {
+            case BLOCK -> awaitWritable();
+            case FAIL_FAST -> {
+                if (!this.writable) {
+                    throw queueFull();
+                }
+            }
+            case FUTURE -> {
+                // Messages sent while others are deferred are deferred as well, so that they are not reordered.
+                if (!this.writable || !this.DEFERRED_QUEUE.isEmpty()) {
+                    defer(message);
+                    return;
+                }
+            }
+        }
+        offer(message);
+        commitHandoff(event, message, QueueHandoffEvent.OUTBOUND, this.requestQueue.size());
+    }
+
+    /**
+     * This method is a helper method that commits the handoff of a message to one of this connection's queues,
+     * if a recording is running and the handoff took longer than the event's threshold.
+     *
+     * @param event The event that was begun before the message was handed off.
+     * @param message The message that was handed off.
+     * @param queue The queue that the message was handed through, see {@link QueueHandoffEvent}.
+     * @param depth The number of messages in the queue once the message was added.
+     */
+    private void commitHandoff( QueueHandoffEvent event, Object message, String queue, int depth ) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.setConnectionId(this.connectionId);
+            event.setOperation(Metrics.operationOf(message));
+            event.setQueue(queue);
+            event.setDepth(depth);
+            event.commit();
+        }
+    }
+
+    /**
+     * This method is a helper method that adds a message to the request queue, whether or not it is full,
+     * and marks the queue as full once it reaches the high watermark.
+     * Messages that must be sent no matter how full the queue is, like the shutdown response, are added with this method.
+     *
+     * @param message The message to be sent.
+     */
+    private void offer( Object message ) {
+        put(message);
+        if (this.writable && this.requestQueue.size() >= this.backpressure.getHighWatermark()) {
+            this.writable = false;
+            // The writer may have drained the queue before the flag was cleared, in which case it did not
+            // mark the queue as writable again, so check once more that no one is left waiting for it.
+            if (this.requestQueue.size() <= this.backpressure.getLowWatermark()) {
+                markWritable();
+            }
+        }
+    }
+
+    /**
+     * This method is a helper method that adds a message to the request queue, waiting for room if it is full.
+     * The queue holds twice the high watermark, so it is only ever full if many producers raced past the watermark,
+     * and the writer frees a slot as soon as it takes the next batch.
+     *
+     * @param message The message to be sent.
+     */
+    private void put( Object message ) {
+        while (!this.requestQueue.offer(message)) {
+            // Once the writer is gone, or will never be started, no slot will ever be freed.
+            Thread.State writerState = this.writerThread.getState();
+            if (writerState == Thread.State.TERMINATED || (writerState == Thread.State.NEW && !isRunning())) {
+                return;
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * This method is a helper method that blocks the sender until the request queue accepts messages,
+     * or the connection has shut down.
+     */
+    private void awaitWritable() {
+        if (this.writable) {
+            return;
+        }
+        this.flowLock.lock();
+        try {
+            while (!this.writable && isRunning()) {
+                this.writableAgain.await();
+            }
+        } catch (InterruptedException e) {
+            // Queue the message anyway, and let the sender see that it was interrupted.
+            Thread.currentThread().interrupt();
+        } finally {
+            this.flowLock.unlock();
+        }
+    }
+
+    /**
+     * This method is a helper method that sets a message aside until the request queue accepts messages.
+     *
+     * @param message The message to be sent.
+     * @return A future that completes once the message has been queued.
+     */
+    private CompletableFuture<Void> defer( Object message ) {
+        DeferredMessage deferred = new DeferredMessage(message);
+        this.DEFERRED_QUEUE.add(deferred);
+        // The queue may have drained while the message was being set aside, in which case no one else will queue it.
+        if (this.writable) {
+            queueDeferredMessages();
+        }
+        else if (!isRunning()) {
+            failDeferredMessages();
+        }
+        return deferred.queued;
+    }
+
+    /**
+     * This method is a helper method that marks the request queue as accepting messages again,
+     * wakes up the blocked senders, and queues the deferred messages.
+     */
+    private void markWritable() {
+        this.flowLock.lock();
+        try {
+            this.writable = true;
+            this.writableAgain.signalAll();
+        } finally {
+            this.flowLock.unlock();
+        }
+        queueDeferredMessages();
+    }
+
+    /**
+     * This method is a helper method that moves deferred messages to the request queue, in order,
+     * until the queue is full again or no deferred message is left.
+     */
+    private void queueDeferredMessages() {
+        if (this.DEFERRED_QUEUE.isEmpty()) {
+            return;
+        }
+        // Only one thread moves deferred messages at a time, so that they keep their order.
+        this.flowLock.lock();
+        try {
+            DeferredMessage deferred;
+            while (this.writable && (deferred = this.DEFERRED_QUEUE.poll()) != null) {
+                offer(deferred.message);
+                deferred.queued.complete(null);
+            }
+        } finally {
+            this.flowLock.unlock();
+        }
+    }
+
+    /**
+     * This method is a helper method that fails every deferred message because the connection has shut down.
+     */
+    private void failDeferredMessages() {
+        DeferredMessage deferred;
+        while ((deferred = this.DEFERRED_QUEUE.poll()) != null) {
+            deferred.queued.completeExceptionally(new IOException("Connection closed before the message could be queued"));
+        }
+    }
+
+    /**
+     * This method is a helper method that stops the reader until the received queue has drained down to the low watermark,
+     * or the connection has shut down.
+     */
+    private void awaitReceivedDrained() {
+        this.flowLock.lock();
+        try {
+            this.readPaused = true;
+            while (this.receivedQueue.size() > this.backpressure.getLowWatermark() && isRunning()) {
+                this.receivedDrained.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            this.readPaused = false;
+            this.flowLock.unlock();
+        }
+    }
+
+    /**
+     * This method is a helper method that wakes up every thread waiting for a queue to drain,
+     * and fails the deferred messages, once the connection has shut down.
+     */
+    private void signalShutdown() {
+        this.flowLock.lock();
+        try {
+            this.writableAgain.signalAll();
+            this.receivedDrained.signalAll();
+        } finally {
+            this.flowLock.unlock();
+        }
+        failDeferredMessages();
+    }
+
+    /**
+     * This method is a helper method that creates the exception thrown when a message is sent to a full queue.
+     *
+     * @return The exception.
+     */
+    private QueueFullException queueFull() {
+        return new QueueFullException("The outbound queue is full, " + this.requestQueue.size() + " messages are waiting to be written");
+    }
+
+    /**
+     * This method can be used to send a request and receive its response asynchronously.
+     * A unique correlation ID is added to the request, under the "id" key, so that its response
+     * can be matched no matter in which order the responses arrive.
+     * This allows many requests to be in flight on the same connection at once.
+     * Responses to these requests are never returned by receive().
+     *
+     * @param request The request to be sent, it will be modified to carry the correlation ID.
+     * @return A future that completes with the response, or completes exceptionally if the
+     *         connection is closed before the response arrives, or with a {@link QueueFullException}
+     *         if the outbound queue is full and the send mode is {@link SendMode#FAIL_FAST}.
+     */
+    public CompletableFuture<JsonObject> request( JsonObject request ) {
+        long correlationId = this.nextCorrelationId.incrementAndGet();
+        CompletableFuture<JsonObject> response = new CompletableFuture<>();
+        this.PENDING_REQUESTS.put(correlationId, response);
+        request.addProperty("id", correlationId);
+        try {
+            send(request);
+        } catch (QueueFullException e) {
+            // The request was never queued, so it will never receive a response.
+            this.PENDING_REQUESTS.remove(correlationId);
+            response.completeExceptionally(e);
+            return response;
+        }
+        // If the connection shut down while the request was being queued,
+        // the reader might have already failed the pending requests.
+        if (!isRunning()) {
+            failPendingRequests();
+        }
+        return response;
+    }
+
+    /**
+     * This method is a helper method that completes the pending request the given message responds to.
+     *
+     * @param message The message that was received.
+     * @return True if the message was the response to a pending request, false otherwise.
+     */
+    private boolean completePendingRequest( JsonObject message ) {
+        if (!message.has("id") || !message.get("id").isJsonPrimitive() || !message.get("id").getAsJsonPrimitive().isNumber()) {
+            return false;
+        }
+        CompletableFuture<JsonObject> response = this.PENDING_REQUESTS.remove(message.get("id").getAsLong());
+        if (response == null) {
+            return false;
+        }
+        response.complete(message);
+        return true;
+    }
+
+    /**
+     * This method is a helper method that fails every pending request because the connection was closed.
+     */
+    private void failPendingRequests() {
+        for (Long correlationId : this.PENDING_REQUESTS.keySet()) {
+            CompletableFuture<JsonObject> response = this.PENDING_REQUESTS.remove(correlationId);
+            if (response != null) {
+                response.completeExceptionally(new IOException("Connection closed before a response was received"));
+            }
+        }
     }
 
     /**
@@ -157,12 +858,28 @@ public class NetworkHandlingThread extends Thread implements Closeable {
      * until a request is received.
      * If this is not intended, use the hasReceived() method to check
      * if there is a request in the queue.
+     * Once the connection has been shut down, this method will return
+     * a shutdown response instead of blocking forever.
+     * Only one thread may call this method at a time, as the received queue has a single consumer.
      *
      * @return JsonObject The next received request.
      */
-    public synchronized JsonObject receive() {
+    public JsonObject receive() {
+        if (!isRunning() && this.receivedQueue.isEmpty()) {
+            return NetworkUtils.createShutdownResponse();
+        }
         try {
-            return this.RECEIVED_QUEUE.take();
+            JsonObject message = this.receivedQueue.take();
+            // Let the reader read the socket again once the queue has drained down to the low watermark.
+            if (this.readPaused && this.receivedQueue.size() <= this.backpressure.getLowWatermark()) {
+                this.flowLock.lock();
+                try {
+                    this.receivedDrained.signal();
+                } finally {
+                    this.flowLock.unlock();
+                }
+            }
+            return message;
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
         }
@@ -174,7 +891,7 @@ public class NetworkHandlingThread extends Thread implements Closeable {
      * @return True if there is a request in the queue, false otherwise.
      */
     public boolean hasReceived() {
-        return !this.RECEIVED_QUEUE.isEmpty();
+        return !this.receivedQueue.isEmpty();
     }
 
     /**
@@ -187,19 +904,10 @@ public class NetworkHandlingThread extends Thread implements Closeable {
         return !socket.isClosed() && !socket.isInputShutdown() && !socket.isOutputShutdown();
     }
 
-    /**
-     * This method is a helper method for checking if the input stream has data to read
-     * or if the output stream has data to write.
-     *
-     * @param in The inputStream to check.
-     */
-    private boolean hasData( InputStream in ) throws IOException {
-        return in.available() != 0 || !REQUEST_QUEUE.isEmpty();
-    }
-
     /**
      * This method is a helper method to check if the thread is running.
      */
+    @Override
     public boolean isRunning() {
         return this.isRunning.get();
     }
@@ -219,22 +927,64 @@ public class NetworkHandlingThread extends Thread implements Closeable {
      */
     @Override
     public void close() throws IOException {
+        // Only the first call to close() shuts down the connection.
+        if (!this.isClosing.compareAndSet(false, true)) {
+            awaitTermination();
+            return;
+        }
         println("Closing NetworkHandlerThread...");
+        // The shutdown response is queued even if the queue is full, it is the last response the peer gets.
+        offer(NetworkUtils.createShutdownResponse());
         // Set the isRunning flag to false, indicating that the thread is no longer running.
-        send(NetworkUtils.createShutdownResponse());
         this.isRunning.set(false);
+        // Wake up the reader if it stopped reading, and the senders waiting for the queue to drain.
+        signalShutdown();
+        // Tell the writer thread to stop once it has sent everything before this point.
+        put(END_OF_QUEUE);
         try {
-            // Wait for the thread to finish running.
+            // Wait for the writer thread to finish running.
             // This will allow the thread to finish sending any queued requests.
-            this.join();
+            if (Thread.currentThread() != this.writerThread) {
+                this.writerThread.join();
+            }
         } catch (InterruptedException ignored) {} finally {
             try{
                 // Finally, close the socket.
+                // This will also wake up the reader if it is blocked on the socket.
                 this.socket.close();
             } catch (IOException ignored) {
                 ignored.printStackTrace();
             }
         }
+        awaitTermination();
+    }
+
+    /**
+     * This method is a helper method that waits for the reader thread to finish,
+     * unless it is the reader thread itself that is waiting.
+     */
+    private void awaitTermination() {
+        if (Thread.currentThread() == this.readerThread) {
+            return;
+        }
+        try {
+            this.join();
+        } catch (InterruptedException ignored) {}
+    }
+
+    /**
+     * This class is a message that was sent while the request queue was full, and the future of its sender.
+     */
+    private static final class DeferredMessage {
+        // The JsonObject or CachedResponse to be sent.
+        private final Object message;
+        // Completes once the message has been added to the request queue.
+        private final CompletableFuture<Void> queued;
+
+        private DeferredMessage( Object message ) {
+            this.message = message;
+            this.queued = new CompletableFuture<>();
+        }
     }
 
 }
@@ -1,9 +1,13 @@
 package common;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
+import common.codec.Codec;
+import common.codec.CodecType;
+import common.codec.MalformedMessageException;
+import common.event.FrameReadEvent;
+import common.event.FrameWriteEvent;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -18,11 +22,6 @@ import java.nio.ByteBuffer;
  * @version February 2023
  */
 public class NetworkUtils {
-    // The Gson object used to parse JSON objects.
-    // This object is thread safe.
-    // This object will also be used to pretty-print JSON objects.
-    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
-
     /**
      * This method is used to create a new JsonObject that represents
      * an internal client/server error.
@@ -88,93 +87,340 @@ public class NetworkUtils {
         return response;
     }
 
+    /**
+     * This method is used to create a new JsonObject that represents
+     * an unknown stream error.
+     *
+     * @return A JsonObject that represents an unknown stream error.
+     */
+    public static JsonObject createUnknownStreamError() {
+        JsonObject response = new JsonObject();
+        response.addProperty("error", 4);
+        response.addProperty("message", "Unknown Stream");
+        return response;
+    }
+
+    /**
+     * This method is used to create a new JsonObject that represents
+     * a limit exceeded error.
+     *
+     * @return A JsonObject that represents a limit exceeded error.
+     */
+    public static JsonObject createLimitExceededError() {
+        JsonObject response = new JsonObject();
+        response.addProperty("error", 5);
+        response.addProperty("message", "Limit Exceeded");
+        return response;
+    }
+
+    /**
+     * This method is used to create a new JsonObject from
+     * an InputStream using the original JSON codec.
+     *
+     * @param in The InputStream to read from.
+     * @return A JsonObject that was read from the InputStream.
+     * @throws EOFException If the InputStream ended before a whole message was read.
+     * @throws IOException If an error occurs while reading from the InputStream.
+     * @implSpec This method is equivalent to calling {@link #fromStream(InputStream, Codec)} with a {@link CodecType#JSON} codec.
+     */
+    public static JsonObject fromStream( InputStream in ) throws IOException {
+        return fromStream(in, CodecType.JSON.create());
+    }
+
     /**
      * This method is used to create a new JsonObject from
      * an InputStream.
      * The format of the data being read from the InputStream
      * should be the following:
-     *    <int: length of JSON string><JSON string>
-     *        - The length of the JSON string is stored as an int.
-     *        - The JSON string is stored as a UTF-8 encoded string.
+     *    <int: length of payload><payload>
+     *        - The length of the payload is stored as an int.
+     *        - The payload is the message encoded by the given codec.
+     *          For the JSON codecs this is a UTF-8 encoded JSON string.
      *
      * @param in The InputStream to read from.
+     * @param codec The codec that the payload was encoded with.
      * @return A JsonObject that was read from the InputStream.
+     * @throws EOFException If the InputStream ended before a whole message was read.
+     * @throws MalformedMessageException If a whole message was read, but it could not be decoded.
      * @throws IOException If an error occurs while reading from the InputStream.
+     * @implSpec This method is equivalent to calling {@link #fromStream(InputStream, Codec, int)}
+     *           with {@link Handshake#DEFAULT_MAX_FRAME_SIZE}.
      */
-    public static JsonObject fromStream( InputStream in ) throws IOException {
-        // Allocate a byte array to store the length of the JSON string.
+    public static JsonObject fromStream( InputStream in, Codec codec ) throws IOException {
+        return fromStream(in, codec, Handshake.DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    /**
+     * This method is used to create a new JsonObject from
+     * an InputStream, rejecting any frame larger than the given size.
+     *
+     * @param in The InputStream to read from.
+     * @param codec The codec that the payload was encoded with.
+     * @param maxFrameSize The largest payload that will be accepted.
+     * @return A JsonObject that was read from the InputStream.
+     * @throws EOFException If the InputStream ended before a whole message was read.
+     * @throws MalformedMessageException If a whole message was read, but it could not be decoded.
+     * @throws IOException If an error occurs while reading from the InputStream.
+     */
+    public static JsonObject fromStream( InputStream in, Codec codec, int maxFrameSize ) throws IOException {
+        return readPayload(in, readLength(in), codec, maxFrameSize);
+    }
+
+    /**
+     * This method is used to read the length prefix of the next frame from an InputStream.
+     *
+     * @param in The InputStream to read from.
+     * @return The length of the payload that follows.
+     * @throws EOFException If the InputStream ended before a whole length was read.
+     * @throws IOException If an error occurs while reading from the InputStream.
+     */
+    public static int readLength( InputStream in ) throws IOException {
+        // Allocate a byte array to store the length of the payload.
         byte[] lengthBytes = new byte[ 4 ];
 
         // Copy the input stream into the byte array.
-        in.read(lengthBytes);
+        // This will block until all 4 bytes have arrived.
+        if (in.readNBytes(lengthBytes, 0, lengthBytes.length) < lengthBytes.length) {
+            // The stream ended before a whole length was read, the peer has closed the connection.
+            throw new EOFException("End of stream");
+        }
 
         // Convert the length bytes to an int.
         // Use the ByteBuffer class to convert the bytes to an int.
-        int length = ByteBuffer.wrap(lengthBytes).getInt();
+        return ByteBuffer.wrap(lengthBytes).getInt();
+    }
 
+    /**
+     * This method is used to verify that the length prefix of a frame is valid.
+     *
+     * @param length The length of the payload.
+     * @param maxFrameSize The largest payload that will be accepted.
+     * @throws IOException If the length is invalid.
+     */
+    public static void checkLength( int length, int maxFrameSize ) throws IOException {
         // Verify that the length is greater than 2.
-        // If the length is less than 2, then the JSON string is empty.
+        // If the length is less than 2, then the payload is empty.
         // A valid JSON String either looks like "{}" or "[]".
         if(length < 2) {
             throw new IOException("Invalid length");
         }
+        // Verify that the peer is not sending more than was agreed on,
+        // otherwise a single frame could make us allocate an enormous buffer.
+        if(length > maxFrameSize) {
+            throw new IOException("Frame of " + length + " bytes is larger than the maximum of " + maxFrameSize);
+        }
+    }
 
-        // Read the rest of the message
-        byte[] messageBytes = ByteBuffer.allocate(length).array();
-
-        // Copy the input stream into the byte array.
-        in.read(messageBytes);
-
-        // Convert the message bytes to a String.
-        String message = new String(messageBytes);
+    /**
+     * This method is used to read and decode the payload of a frame
+     * whose length prefix has already been read.
+     *
+     * @param in The InputStream to read from.
+     * @param length The length of the payload.
+     * @param codec The codec that the payload was encoded with.
+     * @param maxFrameSize The largest payload that will be accepted.
+     * @return A JsonObject that was read from the InputStream.
+     * @throws EOFException If the InputStream ended before the whole payload was read.
+     * @throws MalformedMessageException If the whole payload was read, but it could not be decoded.
+     * @throws IOException If the length is invalid or an error occurs while reading from the InputStream.
+     * @implSpec This method is equivalent to calling {@link #readPayload(InputStream, int, Codec, int, long)}
+     *           with {@link Connection#NO_CONNECTION_ID}.
+     */
+    public static JsonObject readPayload( InputStream in, int length, Codec codec, int maxFrameSize ) throws IOException {
+        return readPayload(in, length, codec, maxFrameSize, Connection.NO_CONNECTION_ID);
+    }
 
-        // Debug print message for testing
-//        System.out.println("Received: " + message);
+    /**
+     * This method is used to read and decode the payload of a frame
+     * whose length prefix has already been read from the given connection.
+     * If a recording is running, the time it took is committed as a {@link FrameReadEvent}.
+     *
+     * @param in The InputStream to read from.
+     * @param length The length of the payload.
+     * @param codec The codec that the payload was encoded with.
+     * @param maxFrameSize The largest payload that will be accepted.
+     * @param connectionId The id of the connection that is being read, see {@link Connection#getConnectionId()}.
+     * @return A JsonObject that was read from the InputStream.
+     * @throws EOFException If the InputStream ended before the whole payload was read.
+     * @throws MalformedMessageException If the whole payload was read, but it could not be decoded.
+     * @throws IOException If the length is invalid or an error occurs while reading from the InputStream.
+     */
+    public static JsonObject readPayload( InputStream in, int length, Codec codec, int maxFrameSize, long connectionId ) throws IOException {
+        checkLength(length, maxFrameSize);
 
-        // Parse the JSON string into a JsonObject.
-        JsonObject object = GSON.fromJson(message, JsonObject.class);
+        FrameReadEvent event = new FrameReadEvent();
+        event.begin();
+        // Lease a buffer to read the rest of the message into.
+        // The decoded message never refers to the buffer, so it can be released as soon as it has been decoded.
+        ByteBuffer payload = BufferPool.heap().acquire(length);
+        JsonObject message;
+        try {
+            // Copy the input stream into the buffer's array.
+            // This will block until the whole message has arrived.
+            if (in.readNBytes(payload.array(), payload.arrayOffset(), length) < length) {
+                throw new EOFException("End of stream");
+            }
+            // Count the whole frame, including its length prefix, as read.
+            Metrics metrics = Util.getMetrics();
+            if (metrics != null) {
+                metrics.countBytesRead(4 + length);
+            }
 
-        // Debug print resulting object for testing
-//        System.out.println("Received JSON: " + GSON.toJson(object));
+            // Decode the payload into a JsonObject.
+            message = fromBuffer(payload.limit(length), codec);
+        } finally {
+            BufferPool.heap().release(payload);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.setConnectionId(connectionId);
+            event.setOperation(Metrics.operationOf(message));
+            event.setSize(4 + length);
+            event.commit();
+        }
+        return message;
+    }
 
-        // Return the JsonObject.
-        return object;
+    /**
+     * This method is used to write a JsonObject to an OutputStream
+     * using the original JSON codec.
+     *
+     * @param json The JsonObject to write to the OutputStream.
+     * @param out The OutputStream to write to.
+     *            This method will not close the OutputStream.
+     * @throws IOException If an error occurs while writing to the OutputStream.
+     * @implSpec This method is equivalent to calling {@link #toStream(JsonObject, OutputStream, Codec)} with a {@link CodecType#JSON} codec.
+     */
+    public static void toStream( JsonObject json, OutputStream out ) throws IOException {
+        toStream(json, out, CodecType.JSON.create());
     }
 
     /**
      * This method is used to write a JsonObject to an OutputStream.
      * The format of the data being written to the OutputStream
      * should be the following:
-     *   <int: length of JSON string><JSON string>
-     *       - The length of the JSON string is stored as an int.
-     *       - The JSON string is stored as a UTF-8 encoded string.
+     *   <int: length of payload><payload>
+     *       - The length of the payload is stored as an int.
+     *       - The payload is the message encoded by the given codec.
+     *         For the JSON codecs this is a UTF-8 encoded JSON string.
+     * If a recording is running, the time it took to encode and write the frame is committed as a {@link FrameWriteEvent}.
      *
      * @param json The JsonObject to write to the OutputStream.
      * @param out The OutputStream to write to.
      *            This method will not close the OutputStream.
+     * @param codec The codec to encode the payload with.
      * @throws IOException If an error occurs while writing to the OutputStream.
      */
-    public static void toStream( JsonObject json, OutputStream out ) throws IOException {
-        // Convert the JsonObject to a JSON string.
-        String jsonStr = GSON.toJson(json);
-
-        // Debug print message for testing
-//        System.out.println("Sending: " + jsonStr);
+    public static void toStream( JsonObject json, OutputStream out, Codec codec ) throws IOException {
+        FrameWriteEvent event = new FrameWriteEvent();
+        event.begin();
+        // Encode the JsonObject into a whole frame, the codec fills in the length prefix for us.
+        ByteBuffer frame = codec.encodeFrame(json);
+        int size = frame.remaining();
+        try {
+            // Write the whole frame to the OutputStream at once.
+            if (frame.hasArray()) {
+                out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+            }
+            else {
+                // A stream can only write arrays, so a codec that encodes into a direct buffer needs a copy.
+                byte[] bytes = new byte[ frame.remaining() ];
+                frame.get(bytes);
+                out.write(bytes);
+            }
 
-        // Convert the JSON string to a byte array.
-        byte[] jsonBytes = jsonStr.getBytes();
+            // Flush the OutputStream to ensure that the data is sent.
+            out.flush();
+        } finally {
+            // The frame has been written, so its buffer can go back to the pool.
+            BufferPool.releaseBuffer(frame);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.setOperation(Metrics.operationOf(json));
+            event.setSize(size);
+            event.setFrames(1);
+            event.commit();
+        }
+    }
 
-        // Convert the length of the JSON string to a byte array.
-        byte[] lengthBytes = ByteBuffer.allocate(4).putInt(jsonBytes.length).array();
+    /**
+     * This method is used to create a new JsonObject from
+     * the payload of a single frame that has already been read into a buffer.
+     * The buffer should only contain the payload, the length
+     * prefix must have already been consumed.
+     * If the server's {@link Metrics} are set, the time it took to decode the payload is recorded.
+     *
+     * @param payload The buffer containing the payload.
+     *                The position of the buffer will be moved to its limit.
+     * @param codec The codec that the payload was encoded with.
+     * @return A JsonObject that was read from the buffer.
+     * @throws MalformedMessageException If the payload could not be decoded.
+     */
+    public static JsonObject fromBuffer( ByteBuffer payload, Codec codec ) throws MalformedMessageException {
+        Metrics metrics = Util.getMetrics();
+        if (metrics == null) {
+            return codec.decode(payload);
+        }
+        long start = System.nanoTime();
+        JsonObject message = codec.decode(payload);
+        metrics.record(Metrics.operationOf(message), Stage.DECODE, System.nanoTime() - start);
+        return message;
+    }
 
-        // Write the length bytes to the OutputStream.
-        out.write(lengthBytes);
+    /**
+     * This method is used to write a JsonObject into a ByteBuffer
+     * that is ready to be written to a channel.
+     * The format of the data in the buffer is the same as {@link #toStream(JsonObject, OutputStream, Codec)}:
+     *   <int: length of payload><payload>
+     *
+     * @param json The JsonObject to write to the buffer.
+     * @param codec The codec to encode the payload with.
+     * @return A buffer containing the whole frame, flipped and ready to be written.
+     *         The buffer is leased from a {@link BufferPool}, and must be released with
+     *         {@link BufferPool#releaseBuffer(ByteBuffer)} once it has been written.
+     */
+    public static ByteBuffer toBuffer( JsonObject json, Codec codec ) {
+        return codec.encodeFrame(json);
+    }
 
-        // Write the JSON bytes to the OutputStream.
-        out.write(jsonBytes);
+    /**
+     * This method is used to encode a message taken from a connection's write queue into a frame.
+     * Write queues hold both JsonObjects and {@link CachedResponse}s, whose frames are copied from their encoded bytes.
+     * If the server's {@link Metrics} are set, the time it took to encode the frame is recorded.
+     *
+     * @param message The JsonObject or CachedResponse to write to the buffer.
+     * @param codec The codec to encode the payload with.
+     * @return A buffer containing the whole frame, flipped and ready to be written.
+     *         The buffer is leased from a {@link BufferPool}, and must be released with
+     *         {@link BufferPool#releaseBuffer(ByteBuffer)} once it has been written.
+     * @implSpec This method is equivalent to calling {@link #toBuffer(Object, int, Codec)}
+     *           with the operation of the message, see {@link Metrics#operationOf(Object)}.
+     */
+    public static ByteBuffer toBuffer( Object message, Codec codec ) {
+        return toBuffer(message, Metrics.operationOf(message), codec);
+    }
 
-        // Flush the OutputStream to ensure that the data is sent.
-        out.flush();
+    /**
+     * This method is used to encode a message taken from a connection's write queue into a frame,
+     * when the operation that the message belongs to has already been looked up.
+     * If the server's {@link Metrics} are set, the time it took to encode the frame is recorded for that operation.
+     *
+     * @param message The JsonObject or CachedResponse to write to the buffer.
+     * @param operation The operation of the message, see {@link Metrics#operationOf(Object)}.
+     * @param codec The codec to encode the payload with.
+     * @return A buffer containing the whole frame, flipped and ready to be written.
+     *         The buffer is leased from a {@link BufferPool}, and must be released with
+     *         {@link BufferPool#releaseBuffer(ByteBuffer)} once it has been written.
+     */
+    public static ByteBuffer toBuffer( Object message, int operation, Codec codec ) {
+        Metrics metrics = Util.getMetrics();
+        long start = metrics != null ? System.nanoTime() : 0;
+        ByteBuffer frame = message instanceof CachedResponse response ? response.encodeFrame(codec) : toBuffer((JsonObject) message, codec);
+        if (metrics != null) {
+            metrics.record(operation, Stage.ENCODE, System.nanoTime() - start);
+        }
+        return frame;
     }
 
     public static JsonObject createShutdownResponse() {
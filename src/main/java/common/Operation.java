@@ -24,9 +24,9 @@ public interface Operation {
      * This method is called when the server receives a request for this operation.
      *
      * @param request The request that was received.
-     * @param out The thread that is handling the request.
+     * @param out The connection that the request was received on.
      */
-    public void handleServer( JsonObject request, NetworkHandlingThread out );
+    public void handleServer( JsonObject request, Connection out );
 
     /**
      * This method is called on the client side to begin the operation.
@@ -37,6 +37,49 @@ public interface Operation {
      */
     public void handleClient( NetworkHandlingThread out );
 
+    /**
+     * This method is used to check if requests for this operation may be sent inside a batch,
+     * see {@link common.operation.BatchOperation}.
+     * Operations that act on the connection itself, such as shutting it down, must not be batched.
+     *
+     * @return True if this operation may be batched, false otherwise.
+     */
+    public default boolean isBatchable() {
+        return true;
+    }
+
+    /**
+     * This method is used to choose which thread the server performs this operation on,
+     * see {@link ExecutionPolicy}. It can be overridden for every operation with {@link OperationExecutor#setPolicy(int, ExecutionPolicy)}.
+     * Cheap operations are faster inline, as handing them to a worker costs more than performing them.
+     *
+     * @return The policy this operation is performed with by default.
+     */
+    public default ExecutionPolicy getExecutionPolicy() {
+        return ExecutionPolicy.INLINE;
+    }
+
+    /**
+     * This method is used to check if the response to a request for this operation only depends on the request.
+     * If the server has a {@link ResultCache}, the responses to pure operations are cached,
+     * and a request that was already answered is answered again without performing the operation.
+     * Operations that keep any state, or act on the connection, must not be pure.
+     *
+     * @return True if this operation is pure, false otherwise.
+     */
+    public default boolean isPure() {
+        return false;
+    }
+
+    /**
+     * This method is called on the server side once a connection has been closed,
+     * so that operations that keep state for a connection can let go of it.
+     * It is called after the last request of the connection has been dispatched, and never more than once for a connection.
+     *
+     * @param connection The connection that was closed, as requests on it were received.
+     */
+    public default void connectionClosed( Connection connection ) {
+    }
 
 
 }
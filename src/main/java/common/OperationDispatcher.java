@@ -0,0 +1,181 @@
+package common;
+
+import com.google.gson.JsonObject;
+
+/**
+ * This class is responsible for validating a request and dispatching it to the
+ * operation registered in {@link Util#getOperationRegistry()}.
+ * It is shared by every server transport so that all of them follow the
+ * exact same protocol rules.
+ * If an {@link OperationExecutor} has been set with {@link Util#setOperationExecutor(OperationExecutor)},
+ * operations whose policy is {@link ExecutionPolicy#OFFLOAD} are performed on its workers.
+ * Only requests that carry a correlation ID are offloaded, as their responses may then arrive in any order,
+ * every other request is performed inline so that its response keeps its place.
+ * If a {@link ResultCache} has been set with {@link Util#setResultCache(ResultCache)},
+ * requests for pure operations that were already answered are answered from it instead.
+ * If a {@link SingleFlight} has been set with {@link Util#setSingleFlight(SingleFlight)},
+ * identical requests for pure operations that arrive while one of them is being performed are answered together.
+ * If {@link Metrics} have been set with {@link Util#setMetrics(Metrics)}, every request is counted,
+ * and the time it waits for a worker and the time its operation takes are recorded.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class OperationDispatcher {
+
+    /**
+     * This method is used to validate a request and hand it to the operation it names.
+     * Any protocol errors are sent back through the given connection.
+     *
+     * @param request The request that was received.
+     * @param out     The connection the request was received on.
+     * @return False if the request was so malformed that the connection should be closed, true otherwise.
+     */
+    public static boolean dispatch( JsonObject request, Connection out ) {
+        return dispatch(request, out, false);
+    }
+
+    /**
+     * This method is used to validate a request that was sent inside a batch and hand it to the operation it names.
+     * Unlike {@link #dispatch(JsonObject, Connection)}, operations that may not be batched are rejected
+     * as unsupported, see {@link Operation#isBatchable()}.
+     *
+     * @param request The request that was received inside the batch.
+     * @param out     The connection that collects the response to the request.
+     * @return False if the request was malformed, true otherwise.
+     */
+    public static boolean dispatchBatched( JsonObject request, Connection out ) {
+        return dispatch(request, out, true);
+    }
+
+    /**
+     * This method is used to tell every operation that a connection has been closed,
+     * so that the state they keep for it can be let go of, see {@link Operation#connectionClosed(Connection)}.
+     *
+     * @param connection The connection that was closed, the same connection its requests were dispatched with.
+     */
+    public static void connectionClosed( Connection connection ) {
+        Util.getOperationRegistry().connectionClosed(connection);
+    }
+
+    /**
+     * This method is a helper method that validates a request and hands it to the operation it names.
+     *
+     * @param request The request that was received.
+     * @param out     The connection the request was received on.
+     * @param batched True if the request was sent inside a batch.
+     * @return False if the request was malformed, true otherwise.
+     */
+    private static boolean dispatch( JsonObject request, Connection out, boolean batched ) {
+        // If the request carries a correlation ID, every response to it must echo that ID
+        // so that the peer can match the response even if it arrives out of order.
+        if (request.has("id")) {
+            if (!request.get("id").isJsonPrimitive() || !request.get("id").getAsJsonPrimitive().isNumber()) {
+                out.send(NetworkUtils.createIllegalArgumentTypeError());
+                return false;
+            }
+            out = new CorrelatedConnection(out, request.get("id"));
+        }
+
+        // Verify that the request is valid.
+        // See the README.md for more information on the protocol.
+        if (!request.has("operation")) {
+            out.send(NetworkUtils.createMissingRequiredArgumentError());
+            return false;
+        }
+        if (!request.get("operation").isJsonPrimitive() || !request.get("operation").getAsJsonPrimitive().isNumber()) {
+            out.send(NetworkUtils.createIllegalArgumentTypeError());
+            return false;
+        }
+        int operation = request.get("operation").getAsInt();
+
+        Operation handler = Util.getOperationRegistry().getOperation(operation);
+        if (handler == null || (batched && !handler.isBatchable())) {
+            out.send(NetworkUtils.createUnsupportedOperationError());
+            return true;
+        }
+        // Every request for a registered operation is counted, even if it is answered from the cache or coalesced.
+        Metrics metrics = Util.getMetrics();
+        if (metrics != null) {
+            metrics.countRequest(operation);
+        }
+        ResultCache cache = Util.getResultCache();
+        SingleFlight singleFlight = Util.getSingleFlight();
+        SingleFlight.Flight flight = null;
+        String key = handler.isPure() && (cache != null || singleFlight != null) ? ResultCache.createKey(request) : null;
+        if (key != null) {
+            // If the operation is pure, a request that was already answered is answered from the cache without performing it.
+            // Otherwise the response is kept in the cache as it is sent.
+            if (cache != null) {
+                CachedResponse cached = cache.get(key);
+                if (cached != null) {
+                    out.send(cached);
+                    return true;
+                }
+                out = new CachingConnection(out, cache, key);
+            }
+            // An identical request that is being performed right now answers this one as well.
+            // Only requests that carry a correlation ID are coalesced, as their responses may arrive in any order,
+            // and requests in a batch never are, as the batch collects their responses as it goes.
+            if (singleFlight != null && !batched && request.has("id")) {
+                flight = singleFlight.join(key, out);
+                if (flight == null) {
+                    return true;
+                }
+                out = flight;
+            }
+        }
+
+        // Requests in a batch are always performed inline, as the batch collects their responses as it goes.
+        OperationExecutor executor = Util.getOperationExecutor();
+        if (!batched && executor != null && request.has("id")
+                && executor.getPolicy(operation, handler) == ExecutionPolicy.OFFLOAD) {
+            Connection respondTo = out;
+            SingleFlight.Flight performing = flight;
+            long queuedAt = metrics != null ? System.nanoTime() : 0;
+            executor.execute(() -> {
+                // The time the request waited for a worker is only recorded for offloaded operations.
+                if (metrics != null) {
+                    metrics.record(operation, Stage.QUEUE_WAIT, System.nanoTime() - queuedAt);
+                }
+                perform(handler, operation, request, respondTo, performing);
+            }, respondTo);
+        }
+        else {
+            perform(handler, operation, request, out, flight);
+        }
+        return true;
+    }
+
+    /**
+     * This method is a helper method that performs an operation, and finishes its flight once it returns,
+     * so that the requests attached to it are answered even if the operation fails.
+     * If the server's {@link Metrics} are set, the time the operation took is recorded, and so is its failure.
+     *
+     * @param handler The operation to perform.
+     * @param operation The id of the operation.
+     * @param request The request that was received.
+     * @param out The connection to answer the request through.
+     * @param flight The flight of the request, or null if it is not coalesced.
+     */
+    private static void perform( Operation handler, int operation, JsonObject request, Connection out, SingleFlight.Flight flight ) {
+        Metrics metrics = Util.getMetrics();
+        long start = metrics != null ? System.nanoTime() : 0;
+        boolean completed = false;
+        try {
+            handler.handleServer(request, out);
+            completed = true;
+        } finally {
+            if (metrics != null) {
+                metrics.record(operation, Stage.EXECUTE, System.nanoTime() - start);
+                if (!completed) {
+                    metrics.countFailure(operation);
+                }
+            }
+            if (flight != null) {
+                flight.finish();
+            }
+        }
+    }
+
+}
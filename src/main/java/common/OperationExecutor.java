@@ -0,0 +1,171 @@
+package common;
+
+import com.google.gson.JsonObject;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static common.Util.println;
+
+/**
+ * This class is the execution stage of the server, a fixed pool of worker threads that operations can be offloaded to.
+ * The I/O threads read and decode requests, and the {@link OperationDispatcher} either performs the operation inline
+ * or hands it to a worker, depending on its {@link ExecutionPolicy}.
+ * Every operation has a policy of its own, see {@link Operation#getExecutionPolicy()}, which can be overridden here.
+ * The worker sends the response through the connection, which hands it back to the I/O thread that writes it.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class OperationExecutor implements Closeable {
+    // The policies that override the operations' own policies, keyed by operation id.
+    private final Map<Integer, ExecutionPolicy> POLICY_OVERRIDES;
+    // The workers that offloaded operations are performed on.
+    private final ExecutorService workers;
+    // The number of workers.
+    private final int workerCount;
+
+    /**
+     * This constructor is used to create a new OperationExecutor with the given number of workers.
+     * The workers are daemon threads, so they never keep the JVM alive on their own.
+     *
+     * @param workerCount The number of worker threads.
+     */
+    public OperationExecutor( int workerCount ) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("At least one worker is required");
+        }
+        this.POLICY_OVERRIDES = new ConcurrentHashMap<>();
+        this.workerCount = workerCount;
+        AtomicInteger nextWorker = new AtomicInteger();
+        ThreadFactory threadFactory = task -> {
+            Thread thread = new Thread(task, "Worker#" + nextWorker.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.workers = Executors.newFixedThreadPool(workerCount, threadFactory);
+    }
+
+    /**
+     * This method is used to override the execution policy of an operation.
+     *
+     * @param operationId The id of the operation.
+     * @param policy The policy to perform the operation with, or null to go back to the operation's own policy.
+     */
+    public void setPolicy( int operationId, ExecutionPolicy policy ) {
+        if (policy == null) {
+            POLICY_OVERRIDES.remove(operationId);
+        }
+        else {
+            POLICY_OVERRIDES.put(operationId, policy);
+        }
+    }
+
+    /**
+     * This method is used to override the execution policies of several operations at once.
+     * The overrides are written as a comma separated list of operation ids and policy names,
+     * for example {@code 1=offload,3=inline}. An empty String overrides nothing.
+     *
+     * @param overrides The overrides to apply.
+     * @throws IllegalArgumentException If the overrides are malformed.
+     */
+    public void setPolicies( String overrides ) {
+        for (String override : overrides.split(",")) {
+            if (override.isBlank()) {
+                continue;
+            }
+            String[] parts = override.split("=");
+            ExecutionPolicy policy = parts.length == 2 ? ExecutionPolicy.fromName(parts[ 1 ].trim()) : null;
+            if (policy == null) {
+                throw new IllegalArgumentException("Malformed execution policy: " + override);
+            }
+            try {
+                setPolicy(Integer.parseInt(parts[ 0 ].trim()), policy);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed operation id: " + override);
+            }
+        }
+    }
+
+    /**
+     * This method is used to get the policy an operation is performed with.
+     *
+     * @param operationId The id of the operation.
+     * @param operation The operation.
+     * @return The overridden policy of the operation if there is one, otherwise the operation's own policy.
+     */
+    public ExecutionPolicy getPolicy( int operationId, Operation operation ) {
+        ExecutionPolicy policy = POLICY_OVERRIDES.get(operationId);
+        return policy != null ? policy : operation.getExecutionPolicy();
+    }
+
+    /**
+     * This method is used to perform an operation on one of the workers.
+     * Any exception thrown by the operation is answered with an internal error, just like the I/O threads do,
+     * but the connection is kept open, as the other requests on it are unaffected.
+     * If the workers have been shut down, the operation is performed on the calling thread instead.
+     *
+     * @param operation The operation to perform.
+     * @param request The request that was received.
+     * @param out The connection that the request was received on.
+     */
+    public void execute( Operation operation, JsonObject request, Connection out ) {
+        execute(() -> operation.handleServer(request, out), out);
+    }
+
+    /**
+     * This method is used to perform a task on one of the workers.
+     * Any exception thrown by the task is answered with an internal error through the given connection,
+     * but the connection is kept open, as the other requests on it are unaffected.
+     * If the workers have been shut down, the task is performed on the calling thread instead.
+     *
+     * @param performer The task that performs an operation.
+     * @param out The connection that the request was received on.
+     */
+    public void execute( Runnable performer, Connection out ) {
+        Runnable task = () -> {
+            try {
+                performer.run();
+            } catch (QueueFullException e) {
+                // The client is not reading its responses, so there is no point in sending it an error either.
+                println("Worker dropped a response: ", e);
+            } catch (Exception e) {
+                println("Worker Encountered an Internal Error: ", e);
+                out.send(NetworkUtils.createInternalError());
+            }
+        };
+        try {
+            workers.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    /**
+     * This method is used to get the number of workers.
+     *
+     * @return The number of worker threads.
+     */
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    /**
+     * Stops the workers once every operation that has already been offloaded has been performed.
+     */
+    @Override
+    public void close() {
+        workers.shutdown();
+        try {
+            workers.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ignored) {}
+    }
+
+}
@@ -1,56 +1,92 @@
 package common;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
 import java.util.Map;
-import java.util.TreeMap;
 
 /**
  * A registry of operations that can be performed by the server.
  * This class is meant to be used as a singleton.
+ * <p>
+ * The registry is a dispatch table that is looked up for every request, so it is built to make that lookup cheap.
+ * Operation ids are small and dense, so every id below {@link #MAX_DENSE_ID} is the index of its operation in an array,
+ * and the few ids outside of that range are kept in an open addressing hash map keyed by primitive ints.
+ * Either way a lookup is a single read that never boxes the id and never takes a lock.
+ * <p>
+ * Operations are rarely registered, so the registry is copy-on-write: registering or unregistering an operation
+ * builds a new table and publishes it, and lookups that are already running keep reading the table they started with.
+ * This makes the registry safe to change while requests are being dispatched on other threads.
  *
  * @author Hunter Spragg
  * @version February 2023
  */
 public class OperationRegistry {
-    // The map of operations that can be performed by the server.
-    private final Map<Integer, Operation> OPERATION_MAP;
+    // Ids from 0 up to, but not including, this id are kept in the array, every other id is kept in the hash map.
+    public static final int MAX_DENSE_ID = 1024;
+
+    // The handle used to publish a new table with release semantics and read it with acquire semantics.
+    private static final VarHandle TABLE;
+
+    static {
+        try {
+            TABLE = MethodHandles.lookup().findVarHandle(OperationRegistry.class, "table", Table.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // The current table of operations, it is never changed once it has been published.
+    // It is only read and written through TABLE, once the constructor has set the first table.
+    @SuppressWarnings("unused")
+    private Table table;
 
     /**
-     * Creates a new OperationRegistry with an empty map.
-     *
-     * @implSpec This constructor is equivalent to calling {@link #OperationRegistry(Map)} with a new {@link TreeMap}.
+     * Creates a new empty OperationRegistry.
      */
     public OperationRegistry() {
-        // Create a new tree map to store the operations by default.
-        this(new TreeMap<>());
+        this.table = Table.EMPTY;
     }
 
     /**
-     * Create a new operation registry with the given map.
+     * Create a new operation registry with the operations in the given map.
+     * The map is only read once, later changes to it are not seen by the registry.
      *
-     * @param operationMap The map to use to store the operations.
+     * @param operationMap The operations to register, keyed by their ids.
      */
     public OperationRegistry( Map<Integer, Operation> operationMap ) {
-        OPERATION_MAP = operationMap;
+        // Build the table here rather than through registerOperation, which a subclass may override.
+        Table table = Table.EMPTY;
+        for (Map.Entry<Integer, Operation> entry : operationMap.entrySet()) {
+            if (entry.getValue() == null) {
+                throw new NullPointerException("operation");
+            }
+            table = table.with(entry.getKey(), entry.getValue());
+        }
+        this.table = table;
     }
 
     /**
      * Get the operation with the given id.
+     * This method never blocks, even while another thread is registering an operation.
      *
      * @param operationId The id of the operation to get.
      * @return The operation with the given id, or null if no operation with the given id is registered.
      */
     public Operation getOperation( int operationId ) {
-        return OPERATION_MAP.get(operationId);
+        return ((Table) TABLE.getAcquire(this)).get(operationId);
     }
 
     /**
      * Check if an operation with the given id is registered.
+     * Prefer {@link #getOperation(int)} and a null check when the operation is needed as well,
+     * so that the registry is only looked up once.
      *
      * @param operationId The id of the operation to check.
      * @return True if an operation with the given id is registered, false otherwise.
      */
     public boolean hasOperation( int operationId ) {
-        return OPERATION_MAP.containsKey(operationId);
+        return getOperation(operationId) != null;
     }
 
     /**
@@ -60,8 +96,11 @@ public class OperationRegistry {
      * @param operationId The id of the operation to register.
      * @param operation The operation to register.
      */
-    public void registerOperation( int operationId, Operation operation ) {
-        OPERATION_MAP.put(operationId, operation);
+    public synchronized void registerOperation( int operationId, Operation operation ) {
+        if (operation == null) {
+            throw new NullPointerException("operation");
+        }
+        TABLE.setRelease(this, current().with(operationId, operation));
     }
 
     /**
@@ -70,18 +109,26 @@ public class OperationRegistry {
      * @param operationId The id of the operation to unregister.
      *                    If no operation with the given id is registered, this method does nothing.
      */
-    public void unregisterOperation( int operationId ) {
-        OPERATION_MAP.remove(operationId);
+    public synchronized void unregisterOperation( int operationId ) {
+        if (current().get(operationId) != null) {
+            TABLE.setRelease(this, current().with(operationId, null));
+        }
     }
 
     /**
-     * Unregister the given operation.
+     * Unregister the given operation under every id it is registered with.
      *
      * @param operation The operation to unregister.
      *                  If the given operation is not registered, this method does nothing.
      */
-    public void unregisterOperation( Operation operation ) {
-        OPERATION_MAP.values().remove(operation);
+    public synchronized void unregisterOperation( Operation operation ) {
+        Table table = current();
+        for (int operationId : table.ids()) {
+            if (table.get(operationId) == operation) {
+                table = table.with(operationId, null);
+            }
+        }
+        TABLE.setRelease(this, table);
     }
 
     /**
@@ -90,7 +137,7 @@ public class OperationRegistry {
      * @return The number of operations registered.
      */
     public int size() {
-        return OPERATION_MAP.size();
+        return current().size;
     }
 
     /**
@@ -99,19 +146,199 @@ public class OperationRegistry {
      * @return True if this registry is empty, false otherwise.
      */
     public boolean isEmpty() {
-        return OPERATION_MAP.isEmpty();
+        return size() == 0;
     }
 
     /**
-     * List all the operations registered.
+     * List all the operations registered, in the order of their ids.
      *
      * @return A string containing a list of all the operations registered.
      */
     public String listOperations() {
+        // Read the table once, so that the list is consistent even if an operation is registered meanwhile.
+        Table table = current();
         StringBuilder sb = new StringBuilder();
-        for (Map.Entry<Integer, Operation> entry : OPERATION_MAP.entrySet()) {
-            sb.append(entry.getKey()).append(": ").append(entry.getValue().getDescription()).append("\n");
+        for (int operationId : table.ids()) {
+            sb.append(operationId).append(": ").append(table.get(operationId).getDescription()).append("\n");
         }
         return sb.toString();
     }
+
+    /**
+     * Tell every operation registered that a connection has been closed, see {@link Operation#connectionClosed(Connection)}.
+     *
+     * @param connection The connection that was closed.
+     */
+    public void connectionClosed( Connection connection ) {
+        // Read the table once, so that every operation is told once even if an operation is registered meanwhile.
+        Table table = current();
+        for (int operationId : table.ids()) {
+            table.get(operationId).connectionClosed(connection);
+        }
+    }
+
+    /**
+     * This method is a helper method that reads the current table.
+     *
+     * @return The current table.
+     */
+    private Table current() {
+        return (Table) TABLE.getAcquire(this);
+    }
+
+    /**
+     * This class is a snapshot of the registered operations, it is never changed once it has been created.
+     * Dense ids are indexes into an array that is only as long as the largest dense id needs,
+     * and sparse ids are kept in an open addressing hash map with linear probing,
+     * in two parallel arrays whose length is a power of two and which are never more than half full.
+     */
+    private static final class Table {
+        // The table with no operations in it.
+        private static final Table EMPTY = new Table(new Operation[ 0 ], new int[ 0 ], new Operation[ 0 ], 0, 0);
+
+        // The operations with dense ids, indexed by their ids.
+        private final Operation[] dense;
+        // The sparse ids, a slot is empty if its operation is null.
+        private final int[] sparseIds;
+        // The operations with sparse ids, in the same slot as their id.
+        private final Operation[] sparseOperations;
+        // The number of operations with sparse ids.
+        private final int sparseSize;
+        // The total number of operations.
+        private final int size;
+
+        private Table( Operation[] dense, int[] sparseIds, Operation[] sparseOperations, int sparseSize, int size ) {
+            this.dense = dense;
+            this.sparseIds = sparseIds;
+            this.sparseOperations = sparseOperations;
+            this.sparseSize = sparseSize;
+            this.size = size;
+        }
+
+        /**
+         * This method is used to look up the operation with the given id.
+         *
+         * @param operationId The id of the operation.
+         * @return The operation, or null if there is none.
+         */
+        private Operation get( int operationId ) {
+            // The unsigned comparison also sends negative ids to the hash map.
+            if (Integer.compareUnsigned(operationId, dense.length) < 0) {
+                return dense[ operationId ];
+            }
+            if (sparseSize == 0) {
+                return null;
+            }
+            int mask = sparseIds.length - 1;
+            for (int slot = hash(operationId) & mask; sparseOperations[ slot ] != null; slot = (slot + 1) & mask) {
+                if (sparseIds[ slot ] == operationId) {
+                    return sparseOperations[ slot ];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * This method is used to create a copy of this table with the operation with the given id replaced.
+         *
+         * @param operationId The id of the operation.
+         * @param operation The operation to register, or null to unregister the id.
+         * @return The new table.
+         */
+        private Table with( int operationId, Operation operation ) {
+            int size = this.size - (get(operationId) != null ? 1 : 0) + (operation != null ? 1 : 0);
+            if (operationId >= 0 && operationId < MAX_DENSE_ID) {
+                Operation[] dense = Arrays.copyOf(this.dense, Math.max(this.dense.length, operationId + 1));
+                dense[ operationId ] = operation;
+                // Trim the array so that it stays as short as the largest dense id needs.
+                int length = dense.length;
+                while (length > 0 && dense[ length - 1 ] == null) {
+                    length--;
+                }
+                return new Table(Arrays.copyOf(dense, length), sparseIds, sparseOperations, sparseSize, size);
+            }
+            // The hash map is rebuilt from scratch, which also removes the id if it is being unregistered.
+            int sparseSize = size - count(dense);
+            int capacity = sparseSize == 0 ? 0 : Integer.highestOneBit(sparseSize * 2 - 1) << 1;
+            int[] ids = new int[ capacity ];
+            Operation[] operations = new Operation[ capacity ];
+            for (int slot = 0; slot < sparseIds.length; slot++) {
+                if (sparseOperations[ slot ] != null && sparseIds[ slot ] != operationId) {
+                    insert(ids, operations, sparseIds[ slot ], sparseOperations[ slot ]);
+                }
+            }
+            if (operation != null) {
+                insert(ids, operations, operationId, operation);
+            }
+            return new Table(dense, ids, operations, sparseSize, size);
+        }
+
+        /**
+         * This method is used to list the registered ids in ascending order.
+         *
+         * @return The registered ids.
+         */
+        private int[] ids() {
+            int[] ids = new int[ size ];
+            int count = 0;
+            for (int slot = 0; slot < sparseIds.length; slot++) {
+                if (sparseOperations[ slot ] != null) {
+                    ids[ count++ ] = sparseIds[ slot ];
+                }
+            }
+            for (int operationId = 0; operationId < dense.length; operationId++) {
+                if (dense[ operationId ] != null) {
+                    ids[ count++ ] = operationId;
+                }
+            }
+            Arrays.sort(ids);
+            return ids;
+        }
+
+        /**
+         * This method is a helper method that counts the operations in an array.
+         *
+         * @param operations The array.
+         * @return The number of operations in the array that are not null.
+         */
+        private static int count( Operation[] operations ) {
+            int count = 0;
+            for (Operation operation : operations) {
+                if (operation != null) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * This method is a helper method that inserts an operation into a hash map that is being built.
+         *
+         * @param ids The ids of the hash map.
+         * @param operations The operations of the hash map.
+         * @param operationId The id to insert.
+         * @param operation The operation to insert.
+         */
+        private static void insert( int[] ids, Operation[] operations, int operationId, Operation operation ) {
+            int mask = ids.length - 1;
+            int slot = hash(operationId) & mask;
+            while (operations[ slot ] != null) {
+                slot = (slot + 1) & mask;
+            }
+            ids[ slot ] = operationId;
+            operations[ slot ] = operation;
+        }
+
+        /**
+         * This method is a helper method that spreads the bits of an id, so that ids that differ only in their
+         * high bits still land in different slots.
+         *
+         * @param operationId The id.
+         * @return The hash of the id.
+         */
+        private static int hash( int operationId ) {
+            int hash = operationId * 0x9E3779B9;
+            return hash ^ (hash >>> 16);
+        }
+    }
 }
@@ -0,0 +1,24 @@
+package common;
+
+/**
+ * This exception is used when a message is sent with {@link SendMode#FAIL_FAST}
+ * while the outbound queue of the connection is full.
+ * The message was not queued, and the connection is still usable, so the message may be sent again later.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class QueueFullException extends RuntimeException {
+    // The version of this exception, as it is serializable through RuntimeException.
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * This constructor is used to create a new QueueFullException.
+     *
+     * @param message The reason the message was not queued.
+     */
+    public QueueFullException( String message ) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,550 @@
+package common;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class is a bounded cache of the responses to requests for pure operations, see {@link Operation#isPure()}.
+ * Requests are keyed by a canonical encoding of everything in them except their correlation ID,
+ * so the same inputs sent in a different order, or by a different client, share a response.
+ * <p>
+ * The cache decides what to keep with the W-TinyLFU policy. A small window, 1% of the cache, keeps the newest responses
+ * in least recently used order, so that a burst of new inputs gets a chance to be seen again.
+ * Responses that fall out of the window compete for a place in the main cache, which is split into a probation
+ * and a protected segment. A response is only admitted if its inputs have been requested more often than those of the
+ * response it would evict, which keeps inputs that are only ever seen once from pushing out popular ones.
+ * How often inputs have been requested is estimated by a {@link FrequencySketch}, which counts misses as well as hits,
+ * and forgets half of every count now and then so that inputs that used to be popular can be replaced.
+ * <p>
+ * Lookups are lock free. The order of the responses is kept under a lock, which a lookup only takes if it is free,
+ * so under contention some hits are not recorded, which only makes the policy slightly less accurate.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class ResultCache {
+    // The longest canonical request that is cached, longer requests are performed every time.
+    // Requests carrying many values, such as bulk requests, are unlikely to be repeated exactly.
+    public static final int MAX_KEY_LENGTH = 256;
+    // The segments a response can be in.
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+    private static final int REMOVED = 3;
+
+    // The responses, keyed by their canonical requests.
+    private final Map<String, Node> ENTRIES;
+    // The heads of the segments, every segment is a circular list ordered from least to most recently used.
+    private final Node[] SEGMENTS;
+    // The number of responses in every segment.
+    private final int[] segmentSizes;
+    // The largest number of responses the cache keeps.
+    private final int capacity;
+    // The largest number of responses the window keeps.
+    private final int windowCapacity;
+    // The largest number of responses the probation and protected segments keep together.
+    private final int mainCapacity;
+    // The largest number of responses the protected segment keeps.
+    private final int protectedCapacity;
+    // The estimate of how often every request has been seen.
+    private final FrequencySketch sketch;
+    // The lock that guards the segments and the sketch.
+    private final ReentrantLock lock;
+    // The statistics of the cache.
+    private final LongAdder hitCount;
+    private final LongAdder missCount;
+    private final LongAdder evictionCount;
+    private final LongAdder rejectionCount;
+
+    /**
+     * This constructor is used to create a new ResultCache.
+     *
+     * @param capacity The largest number of responses to keep.
+     */
+    public ResultCache( int capacity ) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The cache must be able to keep at least one response");
+        }
+        this.ENTRIES = new ConcurrentHashMap<>();
+        this.SEGMENTS = new Node[ 3 ];
+        for (int i = 0; i < SEGMENTS.length; i++) {
+            SEGMENTS[ i ] = new Node(null, null, 0);
+        }
+        this.segmentSizes = new int[ 3 ];
+        this.capacity = capacity;
+        this.windowCapacity = Math.max(1, capacity / 100);
+        this.mainCapacity = capacity - windowCapacity;
+        this.protectedCapacity = mainCapacity * 4 / 5;
+        this.sketch = new FrequencySketch(capacity);
+        this.lock = new ReentrantLock();
+        this.hitCount = new LongAdder();
+        this.missCount = new LongAdder();
+        this.evictionCount = new LongAdder();
+        this.rejectionCount = new LongAdder();
+    }
+
+    /**
+     * This method is used to create the key that a request is cached under.
+     * Its fields are written in the order of their keys, without the correlation ID, and without any whitespace.
+     * Numbers are written exactly as they were received, so 3 and 3.0 are different keys.
+     *
+     * @param request The request.
+     * @return The key of the request, or null if it is longer than {@link #MAX_KEY_LENGTH}.
+     */
+    public static String createKey( JsonObject request ) {
+        StringBuilder key = new StringBuilder(64);
+        return appendCanonical(key, request, true) ? key.toString() : null;
+    }
+
+    /**
+     * This method is a helper method that writes a value in canonical form.
+     *
+     * @param key The key being written.
+     * @param element The value to write.
+     * @param topLevel True if the value is the request itself, whose correlation ID is left out.
+     * @return False if the key became longer than {@link #MAX_KEY_LENGTH}, true otherwise.
+     */
+    private static boolean appendCanonical( StringBuilder key, JsonElement element, boolean topLevel ) {
+        if (element.isJsonObject()) {
+            JsonObject object = element.getAsJsonObject();
+            // Objects are small, so their keys are sorted with an insertion sort.
+            String[] fields = new String[ object.size() ];
+            int count = 0;
+            for (String field : object.keySet()) {
+                if (topLevel && field.equals("id")) {
+                    continue;
+                }
+                int i = count++;
+                while (i > 0 && fields[ i - 1 ].compareTo(field) > 0) {
+                    fields[ i ] = fields[ i - 1 ];
+                    i--;
+                }
+                fields[ i ] = field;
+            }
+            key.append('{');
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    key.append(',');
+                }
+                appendString(key, fields[ i ]);
+                key.append(':');
+                if (!appendCanonical(key, object.get(fields[ i ]), false)) {
+                    return false;
+                }
+            }
+            key.append('}');
+        }
+        else if (element.isJsonArray()) {
+            JsonArray array = element.getAsJsonArray();
+            key.append('[');
+            for (int i = 0; i < array.size(); i++) {
+                if (i > 0) {
+                    key.append(',');
+                }
+                if (!appendCanonical(key, array.get(i), false)) {
+                    return false;
+                }
+            }
+            key.append(']');
+        }
+        else if (element.isJsonNull()) {
+            key.append("null");
+        }
+        else {
+            JsonPrimitive primitive = element.getAsJsonPrimitive();
+            if (primitive.isString()) {
+                appendString(key, primitive.getAsString());
+            }
+            else {
+                // Numbers are written exactly as they were received, and booleans as true or false.
+                key.append(primitive.isNumber() ? primitive.getAsNumber().toString() : primitive.getAsString());
+            }
+        }
+        return key.length() <= MAX_KEY_LENGTH;
+    }
+
+    /**
+     * This method is a helper method that writes a quoted string, escaping quotes and backslashes
+     * so that a string can never be mistaken for the structure around it.
+     *
+     * @param key The key being written.
+     * @param value The string to write.
+     */
+    private static void appendString( StringBuilder key, String value ) {
+        key.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                key.append('\\');
+            }
+            key.append(c);
+        }
+        key.append('"');
+    }
+
+    /**
+     * This method is used to look up the response to a request.
+     *
+     * @param key The key of the request, see {@link #createKey(JsonObject)}.
+     * @return The cached response, or null if there is none.
+     */
+    public CachedResponse get( String key ) {
+        Node node = ENTRIES.get(key);
+        if (node == null) {
+            missCount.increment();
+        }
+        else {
+            hitCount.increment();
+        }
+        // Recording the access is skipped if another thread holds the lock, rather than waiting for it.
+        if (lock.tryLock()) {
+            try {
+                sketch.increment(node != null ? node.hash : spread(key.hashCode()));
+                if (node != null && node.segment != REMOVED) {
+                    onAccess(node);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return node != null ? node.response : null;
+    }
+
+    /**
+     * This method is used to keep the response to a request.
+     * The response is always kept at first, but it may be evicted straight away if the cache is full
+     * and its request has not been seen as often as the others.
+     *
+     * @param key The key of the request, see {@link #createKey(JsonObject)}.
+     * @param response The response to keep.
+     */
+    public void put( String key, CachedResponse response ) {
+        lock.lock();
+        try {
+            Node node = ENTRIES.get(key);
+            if (node != null) {
+                // Another thread performed the same request first, keep its response.
+                onAccess(node);
+                return;
+            }
+            node = new Node(key, response, spread(key.hashCode()));
+            ENTRIES.put(key, node);
+            link(node, WINDOW);
+            // Move the least recently used responses out of the window into probation, and evict what no longer fits.
+            while (segmentSizes[ WINDOW ] > windowCapacity) {
+                Node candidate = SEGMENTS[ WINDOW ].next;
+                unlink(candidate);
+                if (mainCapacity == 0) {
+                    evict(candidate);
+                    continue;
+                }
+                link(candidate, PROBATION);
+                if (segmentSizes[ PROBATION ] + segmentSizes[ PROTECTED ] > mainCapacity) {
+                    admit(candidate);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * This method is a helper method that decides which of a candidate that just entered the main cache
+     * and the least recently used response of the main cache is evicted.
+     * This method must be called with the lock held.
+     *
+     * @param candidate The response that just entered probation.
+     */
+    private void admit( Node candidate ) {
+        Node victim = SEGMENTS[ PROBATION ].next;
+        if (victim == candidate) {
+            victim = SEGMENTS[ PROTECTED ].next;
+        }
+        if (sketch.frequency(candidate.hash) > sketch.frequency(victim.hash)) {
+            unlink(victim);
+            evict(victim);
+        }
+        else {
+            unlink(candidate);
+            evict(candidate);
+            rejectionCount.increment();
+        }
+    }
+
+    /**
+     * This method is a helper method that moves a response that was just used to where its segment keeps
+     * the most recently used responses. A response in probation is promoted to the protected segment,
+     * which demotes the least recently used protected response back to probation if it is full.
+     * This method must be called with the lock held.
+     *
+     * @param node The response that was used.
+     */
+    private void onAccess( Node node ) {
+        int segment = node.segment;
+        unlink(node);
+        if (segment == PROBATION) {
+            link(node, PROTECTED);
+            if (segmentSizes[ PROTECTED ] > protectedCapacity) {
+                Node demoted = SEGMENTS[ PROTECTED ].next;
+                unlink(demoted);
+                link(demoted, PROBATION);
+            }
+        }
+        else {
+            link(node, segment);
+        }
+    }
+
+    /**
+     * This method is a helper method that removes a response from the cache, once it has been unlinked from its segment.
+     *
+     * @param node The response to remove.
+     */
+    private void evict( Node node ) {
+        node.segment = REMOVED;
+        ENTRIES.remove(node.key, node);
+        evictionCount.increment();
+    }
+
+    /**
+     * This method is a helper method that adds a response to a segment as its most recently used response.
+     *
+     * @param node The response to add.
+     * @param segment The segment to add it to.
+     */
+    private void link( Node node, int segment ) {
+        Node head = SEGMENTS[ segment ];
+        node.prev = head.prev;
+        node.next = head;
+        head.prev.next = node;
+        head.prev = node;
+        node.segment = segment;
+        segmentSizes[ segment ]++;
+    }
+
+    /**
+     * This method is a helper method that removes a response from its segment.
+     *
+     * @param node The response to remove.
+     */
+    private void unlink( Node node ) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+        segmentSizes[ node.segment ]--;
+    }
+
+    /**
+     * This method is a helper method that spreads the bits of a hash code, so that keys whose hash codes
+     * only differ in their high bits still have different counters in the sketch.
+     *
+     * @param hashCode The hash code.
+     * @return The spread hash code.
+     */
+    private static int spread( int hashCode ) {
+        int hash = hashCode * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * This method is used to get the largest number of responses the cache keeps.
+     *
+     * @return The capacity of the cache.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * This method is used to get the number of responses the cache currently keeps.
+     *
+     * @return The number of cached responses.
+     */
+    public int size() {
+        return ENTRIES.size();
+    }
+
+    /**
+     * This method is used to get the number of lookups that found a response.
+     *
+     * @return The number of hits.
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * This method is used to get the number of lookups that did not find a response.
+     *
+     * @return The number of misses.
+     */
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * This method is used to get the share of lookups that found a response.
+     *
+     * @return The hit rate, between 0 and 1, or 0 if nothing has been looked up yet.
+     */
+    public double getHitRate() {
+        long hits = getHitCount();
+        long lookups = hits + getMissCount();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * This method is used to get the number of responses that were removed to make room for others,
+     * including the responses that were not admitted.
+     *
+     * @return The number of evictions.
+     */
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * This method is used to get the number of responses that were not admitted to the main cache,
+     * because their requests were not seen as often as the response they would have replaced.
+     *
+     * @return The number of rejected responses.
+     */
+    public long getRejectionCount() {
+        return rejectionCount.sum();
+    }
+
+    /**
+     * The statistics of the cache, for logging.
+     *
+     * @return A summary of the statistics of the cache.
+     */
+    @Override
+    public String toString() {
+        return String.format("ResultCache{size=%d, capacity=%d, hits=%d, misses=%d, hitRate=%.3f, evictions=%d, rejections=%d}",
+                size(), capacity, getHitCount(), getMissCount(), getHitRate(), getEvictionCount(), getRejectionCount());
+    }
+
+    /**
+     * This class is a cached response, and its place in the segments.
+     */
+    private static final class Node {
+        // The key of the request.
+        private final String key;
+        // The response to the request.
+        private final CachedResponse response;
+        // The spread hash code of the key.
+        private final int hash;
+        // The segment the response is in, it is only changed with the lock held,
+        // but it is read without it to skip responses that were evicted after they were looked up.
+        private volatile int segment;
+        // The neighbours of the response in its segment.
+        private Node prev;
+        private Node next;
+
+        private Node( String key, CachedResponse response, int hash ) {
+            this.key = key;
+            this.response = response;
+            this.hash = hash;
+            // The head of a segment is its own neighbour while the segment is empty.
+            this.prev = this;
+            this.next = this;
+        }
+    }
+
+    /**
+     * This class estimates how often every key has been seen, in a fixed amount of memory.
+     * It is a count-min sketch with four 4-bit counters per key, so counts saturate at 15,
+     * which is all the admission policy needs to tell popular keys from rare ones.
+     * Once as many keys have been counted as ten times the capacity of the cache, every counter is halved,
+     * so the estimates follow how popular keys are now rather than how popular they have ever been.
+     * This class is not thread safe, it is guarded by the lock of the cache.
+     */
+    private static final class FrequencySketch {
+        // The seeds of the four hash functions.
+        private static final long[] SEEDS = {
+                0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+        };
+        // Every long holds sixteen 4-bit counters.
+        private final long[] table;
+        // The number of counts after which every counter is halved.
+        private final int sampleSize;
+        // The number of counts since the counters were last halved.
+        private int additions;
+
+        private FrequencySketch( int capacity ) {
+            int length = Integer.highestOneBit(Math.max(16, Math.min(capacity, 1 << 30)) - 1) << 1;
+            this.table = new long[ length ];
+            this.sampleSize = (int) Math.min(10L * capacity, Integer.MAX_VALUE);
+        }
+
+        /**
+         * This method is used to count a key.
+         *
+         * @param hash The spread hash code of the key.
+         */
+        private void increment( int hash ) {
+            // Every key uses one group of four counters in each of its four longs.
+            int start = (hash & 3) << 2;
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int offset = (start + i) << 2;
+                if (((table[ index ] >>> offset) & 0xF) < 15) {
+                    table[ index ] += 1L << offset;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        /**
+         * This method is used to estimate how often a key has been seen.
+         *
+         * @param hash The spread hash code of the key.
+         * @return The estimate, between 0 and 15.
+         */
+        private int frequency( int hash ) {
+            int start = (hash & 3) << 2;
+            int frequency = 15;
+            for (int i = 0; i < 4; i++) {
+                int count = (int) ((table[ indexOf(hash, i) ] >>> ((start + i) << 2)) & 0xF);
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+
+        /**
+         * This method is a helper method that picks the long a key uses for one of the hash functions.
+         *
+         * @param hash The spread hash code of the key.
+         * @param i The hash function.
+         * @return The index of the long in the table.
+         */
+        private int indexOf( int hash, int i ) {
+            long h = (hash + SEEDS[ i ]) * SEEDS[ i ];
+            h += h >>> 32;
+            return (int) h & (table.length - 1);
+        }
+
+        /**
+         * This method is a helper method that halves every counter.
+         */
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                table[ i ] = (table[ i ] >>> 1) & 0x7777777777777777L;
+            }
+            additions /= 2;
+        }
+    }
+
+}
@@ -0,0 +1,258 @@
+package common;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, lock-free queue for any number of producers and a single consumer.
+ * It is used to hand messages from the threads that send them to the thread that writes them,
+ * and from the thread that reads them to the thread that handles them, see {@link NetworkHandlingThread}.
+ * <p>
+ * The elements are kept in an array whose length is a power of two, and every slot has a sequence number
+ * that says whose turn it is: a producer may fill slot {@code i} once its sequence is {@code i},
+ * and the consumer may empty it once its sequence is {@code i + 1}.
+ * Producers claim a slot with a single compare and set on the tail, and the consumer never writes anything
+ * that producers write, so neither side ever takes a lock, and no node is allocated for an element.
+ * When the consumer finds the queue empty, it waits as its {@link WaitStrategy} says.
+ * <p>
+ * {@link #poll()}, {@link #take()} and {@link #drainTo(Collection, int)} must only ever be called by one thread at a time.
+ *
+ * @param <E> The type of the elements.
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class RingBuffer<E> {
+    // The number of times the consumer spins before it yields or parks.
+    // Spinning on a single processor only delays the producer that the consumer is waiting for, so it never spins there.
+    private static final int SPIN_TRIES = Runtime.getRuntime().availableProcessors() > 1 ? 100 : 0;
+    // The number of times the consumer yields before it parks, with the PARK strategy.
+    private static final int YIELD_TRIES = 100;
+    // How long the consumer parks between checks with the PARK strategy.
+    private static final long PARK_NANOS = 50_000;
+
+    // The elements, a slot is null while it is empty.
+    // Slots are written without any ordering, they are published by the sequence that follows.
+    private final Object[] elements;
+    // The sequence of every slot, see the class description.
+    private final AtomicLongArray sequences;
+    // The length of the arrays minus one, used to turn a position into an index.
+    private final int mask;
+    // The position that the next producer will fill.
+    private final AtomicLong tail;
+    // The position that the consumer will empty next.
+    // It is only written by the consumer, and only read by other threads to measure the size.
+    private volatile long head;
+    // How the consumer waits for an element.
+    private final WaitStrategy waitStrategy;
+    // The consumer while it is parked with the BLOCKING strategy, or null if producers need not wake it up.
+    // The first producer to find it takes it out, so that the consumer is woken up once, not by every producer.
+    private final AtomicReference<Thread> waiter;
+
+    /**
+     * This constructor is used to create a new RingBuffer.
+     *
+     * @param capacity The smallest number of elements that the queue must hold, it is rounded up to a power of two of at least two.
+     * @param waitStrategy How the consumer waits for an element.
+     */
+    public RingBuffer( int capacity, WaitStrategy waitStrategy ) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("The capacity must be between 1 and 2^30, but was " + capacity);
+        }
+        // A single slot would be free for the next producer as soon as it was filled, as both have the same sequence,
+        // so the queue always has at least two slots.
+        int length = Math.max(2, Integer.highestOneBit(capacity - 1) << 1);
+        this.elements = new Object[ length ];
+        this.sequences = new AtomicLongArray(length);
+        for (int i = 0; i < length; i++) {
+            sequences.lazySet(i, i);
+        }
+        this.mask = length - 1;
+        this.tail = new AtomicLong();
+        this.waitStrategy = waitStrategy;
+        this.waiter = new AtomicReference<>();
+    }
+
+    /**
+     * This method is used to add an element to the queue, if there is room for it.
+     * It may be called by any number of threads at once, and never blocks.
+     *
+     * @param element The element to add.
+     * @return True if the element was added, false if the queue is full.
+     */
+    public boolean offer( E element ) {
+        if (element == null) {
+            throw new NullPointerException("element");
+        }
+        long position = tail.get();
+        int index;
+        while (true) {
+            index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                // The slot is free, claim it before another producer does.
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = tail.get();
+            }
+            else if (difference < 0) {
+                // The consumer has not emptied this slot since the last time around, so the queue is full.
+                return false;
+            }
+            else {
+                // Another producer claimed the slot first.
+                position = tail.get();
+            }
+        }
+        elements[ index ] = element;
+        // Publish the element. This is a volatile write, so that it is ordered before reading the waiter below,
+        // just like the consumer sets the waiter before it checks the queue one last time.
+        sequences.set(index, position + 1);
+        if (waiter.get() != null) {
+            Thread consumer = waiter.getAndSet(null);
+            if (consumer != null) {
+                LockSupport.unpark(consumer);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * This method is used to take the next element from the queue, if there is one.
+     *
+     * @return The next element, or null if the queue is empty.
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long position = head;
+        int index = (int) position & mask;
+        if (sequences.get(index) != position + 1) {
+            return null;
+        }
+        E element = (E) elements[ index ];
+        elements[ index ] = null;
+        // Hand the slot back to the producers for the next time around.
+        sequences.lazySet(index, position + elements.length);
+        head = position + 1;
+        return element;
+    }
+
+    /**
+     * This method is used to take the next element from the queue, waiting for one if the queue is empty.
+     *
+     * @return The next element.
+     * @throws InterruptedException If the consumer is interrupted while waiting.
+     */
+    public E take() throws InterruptedException {
+        E element = poll();
+        for (int attempt = 0; element == null; attempt++) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            idle(attempt);
+            element = poll();
+        }
+        return element;
+    }
+
+    /**
+     * This method is used to take every element that is already in the queue, up to the given number, without waiting.
+     *
+     * @param collection The collection to add the elements to.
+     * @param maxElements The largest number of elements to take.
+     * @return The number of elements taken.
+     */
+    public int drainTo( Collection<? super E> collection, int maxElements ) {
+        int count = 0;
+        E element;
+        while (count < maxElements && (element = poll()) != null) {
+            collection.add(element);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * This method is a helper method that waits as the wait strategy says, once the consumer found the queue empty.
+     *
+     * @param attempt The number of times the consumer has already waited for this element.
+     */
+    private void idle( int attempt ) {
+        if (waitStrategy == WaitStrategy.BUSY_SPIN || attempt < SPIN_TRIES) {
+            Thread.onSpinWait();
+            return;
+        }
+        switch (waitStrategy) {
+            case YIELD -> Thread.yield();
+            case PARK -> {
+                if (attempt < SPIN_TRIES + YIELD_TRIES) {
+                    Thread.yield();
+                }
+                else {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+            }
+            case BLOCKING -> {
+                // Tell the producers to wake the consumer up, then make sure that no element arrived in the meantime.
+                waiter.set(Thread.currentThread());
+                if (isEmpty()) {
+                    LockSupport.park(this);
+                }
+                waiter.set(null);
+            }
+            default -> Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * This method can be used to check if the queue is empty.
+     *
+     * @return True if the consumer would find no element right now, false otherwise.
+     */
+    public boolean isEmpty() {
+        long position = head;
+        return sequences.get((int) position & mask) != position + 1;
+    }
+
+    /**
+     * This method is used to get the number of elements in the queue.
+     * Elements that producers are still adding are counted as well.
+     *
+     * @return The number of elements in the queue.
+     */
+    public int size() {
+        // The head and the tail can not be read at once, so read the tail between two reads of the head,
+        // and try again if the consumer took an element meanwhile, which would make the size look too large.
+        long after = head;
+        while (true) {
+            long before = after;
+            long position = tail.get();
+            after = head;
+            if (before == after) {
+                return (int) Math.max(0, Math.min(elements.length, position - after));
+            }
+        }
+    }
+
+    /**
+     * This method is used to get the number of elements the queue can hold.
+     *
+     * @return The capacity of the queue, a power of two of at least two.
+     */
+    public int capacity() {
+        return elements.length;
+    }
+
+    /**
+     * This method is used to get how the consumer waits for an element.
+     *
+     * @return The wait strategy.
+     */
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+}
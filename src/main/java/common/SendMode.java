@@ -0,0 +1,52 @@
+package common;
+
+/**
+ * This enum is used to choose what sending a message does while the outbound queue of a connection is full,
+ * that is, after it reached its high watermark and until the writer has drained it down to its low watermark,
+ * see {@link Backpressure}.
+ * A peer that stops reading its responses would otherwise let the queue grow until the sender runs out of memory.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public enum SendMode {
+    // The sender waits until the queue has drained down to its low watermark, then queues the message.
+    BLOCK("block"),
+    // The message is not queued, and a QueueFullException is thrown to the sender instead.
+    FAIL_FAST("fail"),
+    // The message is set aside and the sender returns at once, the message is queued, in order,
+    // once the queue has drained down to its low watermark.
+    FUTURE("future");
+
+    // The name that identifies this mode on the command line.
+    private final String name;
+
+    SendMode( String name ) {
+        this.name = name;
+    }
+
+    /**
+     * This method is used to get the name that identifies this mode on the command line.
+     *
+     * @return The name of this mode.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * This method is used to find the mode with the given name.
+     *
+     * @param name The name of the mode.
+     * @return The mode with the given name, or null if there is no such mode.
+     */
+    public static SendMode fromName( String name ) {
+        for (SendMode mode : values()) {
+            if (mode.name.equalsIgnoreCase(name)) {
+                return mode;
+            }
+        }
+        return null;
+    }
+
+}
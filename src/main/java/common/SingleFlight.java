@@ -0,0 +1,220 @@
+package common;
+
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class coalesces identical requests for pure operations that are being performed at the same time,
+ * see {@link Operation#isPure()}. The first request starts a {@link Flight} and is performed as usual,
+ * every identical request that arrives while it is still being performed is attached to that flight instead,
+ * and all of them are answered with its response once it is sent.
+ * This keeps a burst of clients sending the same expensive request, for example right after it fell out of the
+ * {@link ResultCache}, from performing it once for every client.
+ * Requests are identified by the same canonical key as the cache, which includes the operation id.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class SingleFlight {
+    // The flights that are being performed, keyed by the canonical key of their request.
+    private final Map<String, Flight> IN_FLIGHT;
+    // The number of requests that were attached to a flight instead of being performed.
+    private final LongAdder coalescedCount;
+
+    /**
+     * This constructor is used to create a new SingleFlight with no flights in progress.
+     */
+    public SingleFlight() {
+        this.IN_FLIGHT = new ConcurrentHashMap<>();
+        this.coalescedCount = new LongAdder();
+    }
+
+    /**
+     * This method is used to attach a request to the flight of an identical request, or to start a new flight.
+     *
+     * @param key The key of the request, see {@link ResultCache#createKey(JsonObject)}.
+     * @param out The connection that the request must be answered through.
+     * @return Null if the request was attached to a flight that is already in progress, in which case it is answered
+     *         through the connection once that flight's request has been answered.
+     *         Otherwise, the new flight, which the request must be answered through,
+     *         and which must be finished with {@link Flight#finish()} once the operation returns.
+     */
+    public Flight join( String key, Connection out ) {
+        Flight flight = new Flight(key, out);
+        while (true) {
+            Flight existing = IN_FLIGHT.putIfAbsent(key, flight);
+            if (existing == null) {
+                return flight;
+            }
+            if (existing.attach(out)) {
+                coalescedCount.increment();
+                return null;
+            }
+            // The flight was answered before the request could be attached to it, so it is about to leave the map.
+            IN_FLIGHT.remove(key, existing);
+        }
+    }
+
+    /**
+     * This method is used to get the number of requests that were answered by the flight of an identical request.
+     *
+     * @return The number of coalesced requests.
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.sum();
+    }
+
+    /**
+     * This method is used to get the number of flights that are being performed.
+     *
+     * @return The number of requests in flight that other requests can be attached to.
+     */
+    public int getInFlightCount() {
+        return IN_FLIGHT.size();
+    }
+
+    /**
+     * This class is a request that is being performed, and the identical requests waiting for its response.
+     * It is a {@link Connection} that the request is answered through, the first response is sent to the request itself
+     * and to every request attached to it, and any later response is only sent to the request itself.
+     */
+    public class Flight implements Connection {
+        // The key of the request.
+        private final String key;
+        // The connection that the request itself is answered through.
+        private final Connection connection;
+        // The connections of the requests attached to this flight, or null once the flight has been answered.
+        // This field is guarded by this object's lock.
+        private List<Connection> followers;
+
+        /**
+         * This constructor is used to create a new Flight.
+         *
+         * @param key The key of the request.
+         * @param connection The connection that the request itself is answered through.
+         */
+        private Flight( String key, Connection connection ) {
+            this.key = key;
+            this.connection = connection;
+            this.followers = new ArrayList<>();
+        }
+
+        /**
+         * This method is a helper method that attaches a request to this flight.
+         *
+         * @param out The connection the request must be answered through.
+         * @return False if this flight has already been answered, true otherwise.
+         */
+        private synchronized boolean attach( Connection out ) {
+            if (followers == null) {
+                return false;
+            }
+            followers.add(out);
+            return true;
+        }
+
+        /**
+         * This method sends the response to the request, and to every request attached to this flight.
+         * The response is encoded at most once for every codec, no matter how many requests it answers.
+         *
+         * @param message The message to be sent.
+         */
+        @Override
+        public void send( JsonObject message ) {
+            if (isAnswered()) {
+                connection.send(message);
+                return;
+            }
+            send(new CachedResponse(message));
+        }
+
+        /**
+         * This method sends a cached response to the request, and to every request attached to this flight.
+         *
+         * @param response The response to be sent.
+         */
+        @Override
+        public void send( CachedResponse response ) {
+            connection.send(response);
+            complete(response);
+        }
+
+        /**
+         * This method must be called once the operation has returned, or thrown an exception.
+         * If the operation did not respond, the requests attached to this flight are answered with an internal error,
+         * so that none of them waits forever.
+         */
+        public void finish() {
+            if (!isAnswered()) {
+                complete(new CachedResponse(NetworkUtils.createInternalError()));
+            }
+        }
+
+        /**
+         * This method is a helper method that answers every request attached to this flight, and ends the flight,
+         * so that identical requests arriving from now on start a new flight, or are answered by the cache.
+         *
+         * @param response The response to the requests.
+         */
+        private void complete( CachedResponse response ) {
+            List<Connection> attached;
+            synchronized (this) {
+                attached = followers;
+                followers = null;
+            }
+            if (attached == null) {
+                return;
+            }
+            IN_FLIGHT.remove(key, this);
+            for (Connection follower : attached) {
+                follower.send(response);
+            }
+        }
+
+        /**
+         * This method is a helper method to check if the flight has already been answered.
+         *
+         * @return True if the flight has been answered, false otherwise.
+         */
+        private synchronized boolean isAnswered() {
+            return followers == null;
+        }
+
+        /**
+         * This method is used to get the id of the connection of the request itself.
+         *
+         * @return The id of the connection of the request itself.
+         */
+        @Override
+        public long getConnectionId() {
+            return connection.getConnectionId();
+        }
+
+        /**
+         * This method can be used to check if the connection of the request itself is still running.
+         *
+         * @return True if the connection is still running, false otherwise.
+         */
+        @Override
+        public boolean isRunning() {
+            return connection.isRunning();
+        }
+
+        /**
+         * This method closes the connection of the request itself.
+         *
+         * @throws IOException If an I/O error occurs.
+         */
+        @Override
+        public void close() throws IOException {
+            connection.close();
+        }
+    }
+
+}
@@ -0,0 +1,52 @@
+package common;
+
+/**
+ * This enum names the stages that every request goes through on the server, which are timed separately by {@link Metrics}.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public enum Stage {
+    // Decoding the request from the bytes of its frame.
+    DECODE("decode"),
+    // Waiting for a worker, only for operations that are offloaded to the OperationExecutor.
+    QUEUE_WAIT("queue-wait"),
+    // Performing the operation, see Operation#handleServer.
+    EXECUTE("execute"),
+    // Encoding the response into a frame.
+    ENCODE("encode"),
+    // Writing a batch of frames to the socket, which may hold the responses to several operations.
+    WRITE("write");
+
+    // The name that identifies this stage in reports.
+    private final String name;
+
+    Stage( String name ) {
+        this.name = name;
+    }
+
+    /**
+     * This method is used to get the name that identifies this stage in reports.
+     *
+     * @return The name of this stage.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * This method is used to find the stage with the given name.
+     *
+     * @param name The name of the stage.
+     * @return The stage with the given name, or null if there is no such stage.
+     */
+    public static Stage fromName( String name ) {
+        for (Stage stage : values()) {
+            if (stage.name.equalsIgnoreCase(name)) {
+                return stage;
+            }
+        }
+        return null;
+    }
+
+}
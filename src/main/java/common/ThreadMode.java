@@ -0,0 +1,33 @@
+package common;
+
+/**
+ * This enum is used to choose which kind of thread a connection is handled on.
+ * Platform threads are the classic operating system threads, while virtual threads
+ * are cheap threads scheduled by the JVM that can be created by the hundreds of thousands.
+ * Blocking code such as {@link NetworkHandlingThread} keeps the same shape on either kind.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public enum ThreadMode {
+    // Every thread is a platform thread backed by an operating system thread.
+    PLATFORM,
+    // Every thread is a virtual thread scheduled by the JVM.
+    VIRTUAL;
+
+    /**
+     * This method is used to create a new thread of this kind.
+     * The thread will not start until the start() method is called.
+     *
+     * @param name The name of the thread.
+     * @param task The task that the thread will run.
+     * @return The new, unstarted thread.
+     */
+    public Thread newThread( String name, Runnable task ) {
+        return switch (this) {
+            case PLATFORM -> new Thread(task, name);
+            case VIRTUAL -> Thread.ofVirtual().name(name).unstarted(task);
+        };
+    }
+
+}
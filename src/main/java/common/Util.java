@@ -1,11 +1,17 @@
 package common;
 
+import common.codec.CodecType;
+import common.operation.BatchOperation;
+import common.operation.BulkHypotenuseOperation;
 import common.operation.HypotenuseOperation;
 import common.operation.ShutdownOperation;
+import common.operation.StatsOperation;
+import common.operation.StreamingHypotenuseOperation;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A class to hold utility methods for common use
@@ -17,6 +23,16 @@ import java.util.Scanner;
 public class Util {
     // Create a singleton for the operation registry.
     private static final OperationRegistry OPERATION_REGISTRY_INSTANCE;
+    // The executor that operations may be offloaded to, or null to perform every operation inline.
+    private static volatile OperationExecutor OPERATION_EXECUTOR_INSTANCE = null;
+    // The cache that the responses to pure operations are kept in, or null to perform every request.
+    private static volatile ResultCache RESULT_CACHE_INSTANCE = null;
+    // The coalescing stage for identical requests to pure operations, or null to perform every request on its own.
+    private static volatile SingleFlight SINGLE_FLIGHT_INSTANCE = null;
+    // The metrics that the server records for every request, or null to record nothing.
+    private static volatile Metrics METRICS_INSTANCE = null;
+    // The id of the last connection that was made, see Connection.getConnectionId().
+    private static final AtomicLong LAST_CONNECTION_ID = new AtomicLong(Connection.NO_CONNECTION_ID);
     // Create a singleton for the Scanner to avoid having the input stream closed
     // when the scanner is closed.
     private static Scanner SCANNER = null;
@@ -26,6 +42,10 @@ public class Util {
         // Register all supported operations.
         OPERATION_REGISTRY_INSTANCE.registerOperation(0, new ShutdownOperation());
         OPERATION_REGISTRY_INSTANCE.registerOperation(1, new HypotenuseOperation());
+        OPERATION_REGISTRY_INSTANCE.registerOperation(2, new BatchOperation());
+        OPERATION_REGISTRY_INSTANCE.registerOperation(3, new BulkHypotenuseOperation());
+        OPERATION_REGISTRY_INSTANCE.registerOperation(4, new StreamingHypotenuseOperation());
+        OPERATION_REGISTRY_INSTANCE.registerOperation(5, new StatsOperation());
     }
 
     /**
@@ -37,6 +57,95 @@ public class Util {
         return OPERATION_REGISTRY_INSTANCE;
     }
 
+    /**
+     * This method is used to get the executor that operations may be offloaded to.
+     *
+     * @return The executor that was set with {@link #setOperationExecutor(OperationExecutor)},
+     *         or null if every operation is performed inline.
+     */
+    public static OperationExecutor getOperationExecutor() {
+        return OPERATION_EXECUTOR_INSTANCE;
+    }
+
+    /**
+     * This method is used to set the executor that operations may be offloaded to.
+     * Only the server sets an executor, so the client always performs operations inline.
+     *
+     * @param executor The executor to offload operations to, or null to perform every operation inline.
+     */
+    public static void setOperationExecutor( OperationExecutor executor ) {
+        OPERATION_EXECUTOR_INSTANCE = executor;
+    }
+
+    /**
+     * This method is used to get the cache that the responses to pure operations are kept in.
+     *
+     * @return The cache that was set with {@link #setResultCache(ResultCache)},
+     *         or null if every request is performed.
+     */
+    public static ResultCache getResultCache() {
+        return RESULT_CACHE_INSTANCE;
+    }
+
+    /**
+     * This method is used to set the cache that the responses to pure operations are kept in.
+     * Caching is opt-in, only the server sets a cache, and only when it is asked to.
+     *
+     * @param cache The cache to keep responses in, or null to perform every request.
+     */
+    public static void setResultCache( ResultCache cache ) {
+        RESULT_CACHE_INSTANCE = cache;
+    }
+
+    /**
+     * This method is used to get the stage that coalesces identical requests to pure operations.
+     *
+     * @return The stage that was set with {@link #setSingleFlight(SingleFlight)},
+     *         or null if every request is performed on its own.
+     */
+    public static SingleFlight getSingleFlight() {
+        return SINGLE_FLIGHT_INSTANCE;
+    }
+
+    /**
+     * This method is used to set the stage that coalesces identical requests to pure operations.
+     * Only the server sets one, the client never receives requests.
+     *
+     * @param singleFlight The stage to coalesce requests with, or null to perform every request on its own.
+     */
+    public static void setSingleFlight( SingleFlight singleFlight ) {
+        SINGLE_FLIGHT_INSTANCE = singleFlight;
+    }
+
+    /**
+     * This method is used to get the metrics that are recorded for every request.
+     *
+     * @return The metrics that were set with {@link #setMetrics(Metrics)}, or null if nothing is recorded.
+     */
+    public static Metrics getMetrics() {
+        return METRICS_INSTANCE;
+    }
+
+    /**
+     * This method is used to set the metrics that are recorded for every request.
+     * Only the server sets metrics, so the client never records anything.
+     *
+     * @param metrics The metrics to record into, or null to record nothing.
+     */
+    public static void setMetrics( Metrics metrics ) {
+        METRICS_INSTANCE = metrics;
+    }
+
+    /**
+     * This method is used to give a new connection its id.
+     * Ids are handed out in the order connections are made, starting at 1, and are never reused.
+     *
+     * @return The id of the new connection.
+     */
+    public static long nextConnectionId() {
+        return LAST_CONNECTION_ID.incrementAndGet();
+    }
+
     /**
      * Parse the given port number into an integer.
      * And verify that it is a valid port number.
@@ -64,6 +173,93 @@ public class Util {
         return -1;
     }
 
+    /**
+     * Parse the given count into an integer.
+     * And verify that it is at least one.
+     * This method will call System.exit(1) if the count is invalid.
+     *
+     * @param count The count to parse.
+     * @return The count as an integer.
+     */
+    public static int getCount( String count ) {
+        try {
+            int value = Integer.parseInt(count);
+            if (value < 1) {
+                System.err.println("Count must be at least 1!");
+                System.exit(1);
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            System.err.println("Count is not a number!");
+            System.exit(1);
+        }
+        return -1;
+    }
+
+    /**
+     * Parse the given codec name into a codec type.
+     * This method will call System.exit(1) if there is no codec with the given name.
+     *
+     * @param codec The name of the codec to parse.
+     * @return The codec type with the given name.
+     */
+    public static CodecType getCodecType( String codec ) {
+        CodecType codecType = CodecType.fromName(codec);
+        if (codecType == null) {
+            System.err.println("Unknown codec! Codec must be one of json, compact-json or binary!");
+            System.exit(1);
+        }
+        return codecType;
+    }
+
+    /**
+     * Parse the given flush policy name into a {@link FlushPolicy}.
+     * This method will call System.exit(1) if the flush policy is unknown.
+     *
+     * @param flushPolicy The name of the flush policy to parse.
+     * @return The flush policy with the given name.
+     */
+    public static FlushPolicy getFlushPolicy( String flushPolicy ) {
+        FlushPolicy policy = FlushPolicy.fromName(flushPolicy);
+        if (policy == null) {
+            System.err.println("Unknown flush policy! Flush policy must be either message or batch!");
+            System.exit(1);
+        }
+        return policy;
+    }
+
+    /**
+     * Parse the given send mode name into a send mode.
+     * This method will call System.exit(1) if there is no send mode with the given name.
+     *
+     * @param sendMode The name of the send mode to parse.
+     * @return The send mode with the given name.
+     */
+    public static SendMode getSendMode( String sendMode ) {
+        SendMode mode = SendMode.fromName(sendMode);
+        if (mode == null) {
+            System.err.println("Unknown send mode! Send mode must be either block, fail or future!");
+            System.exit(1);
+        }
+        return mode;
+    }
+
+    /**
+     * Parse the given wait strategy name into a wait strategy.
+     * This method will call System.exit(1) if there is no wait strategy with the given name.
+     *
+     * @param waitStrategy The name of the wait strategy to parse.
+     * @return The wait strategy with the given name.
+     */
+    public static WaitStrategy getWaitStrategy( String waitStrategy ) {
+        WaitStrategy strategy = WaitStrategy.fromName(waitStrategy);
+        if (strategy == null) {
+            System.err.println("Unknown wait strategy! Wait strategy must be either spin, yield, park or block!");
+            System.exit(1);
+        }
+        return strategy;
+    }
+
     /**
      * Verify that the given host name is valid.
      * As we might have been provided localhost, 1.1.1.1, or some other host name.
@@ -87,34 +283,35 @@ public class Util {
 
     /**
      * This method is a helper method that prints the current thread's name and the given message.
+     * The message is logged at the info level, and printed by the logging thread, see {@link Log}.
      *
      * @param message The message to print.
      */
     public static void println( String message ) {
-        System.out.println("[" + Thread.currentThread().getName() + "]: " + message);
+        Log.info(message);
     }
 
     /**
      * This method is a helper method that prints the current thread's name, the given message, formatted
-     * based on the args parameter.
+     * based on the args parameter. The message is only formatted once the logging thread prints it,
+     * so the arguments must not be changed afterwards.
      *
      * @param message The message to print.
      * @param args The arguments to print.
      */
     public static void println( String message, Object... args ) {
-        System.out.println("[" + Thread.currentThread().getName() + "]: " + String.format(message, args));
+        Log.info(message, args);
     }
 
     /**
      * This method is a helper method that prints the current thread's name, the given message, and the
-     * given throwable.
+     * given throwable. The message is logged at the warn level, so it is never dropped.
      *
      * @param message The message to print.
      * @param throwable The throwable to print.
      */
     public static void println( String message, Throwable throwable ) {
-        System.out.println("[" + Thread.currentThread().getName() + "]: " + message);
-        throwable.printStackTrace();
+        Log.warn(message, throwable);
     }
 
     /**
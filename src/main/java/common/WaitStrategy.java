@@ -0,0 +1,54 @@
+package common;
+
+/**
+ * This enum is used to choose how the consumer of a {@link RingBuffer} waits for the next element.
+ * Waiting without ever giving up the processor answers a message as soon as it arrives, but keeps a processor busy
+ * for every waiting consumer, while parking the consumer frees the processor, but takes a few microseconds to wake it up again.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public enum WaitStrategy {
+    // The consumer spins until an element arrives. This has the lowest latency, but keeps a processor busy for every consumer.
+    BUSY_SPIN("spin"),
+    // The consumer spins for a while, then yields the processor to other threads between every check.
+    YIELD("yield"),
+    // The consumer spins and yields for a while, then parks for a short time between every check.
+    // Producers never have to wake it up, but an element may wait for up to the park time before it is seen.
+    PARK("park"),
+    // The consumer spins for a while, then parks until a producer wakes it up.
+    // Idle consumers cost nothing, and every producer checks whether the consumer has to be woken up.
+    BLOCKING("block");
+
+    // The name that identifies this strategy on the command line.
+    private final String name;
+
+    WaitStrategy( String name ) {
+        this.name = name;
+    }
+
+    /**
+     * This method is used to get the name that identifies this strategy on the command line.
+     *
+     * @return The name of this strategy.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * This method is used to find the strategy with the given name.
+     *
+     * @param name The name of the strategy.
+     * @return The strategy with the given name, or null if there is no such strategy.
+     */
+    public static WaitStrategy fromName( String name ) {
+        for (WaitStrategy strategy : values()) {
+            if (strategy.name.equalsIgnoreCase(name)) {
+                return strategy;
+            }
+        }
+        return null;
+    }
+
+}
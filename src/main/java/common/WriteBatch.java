@@ -0,0 +1,276 @@
+package common;
+
+import common.event.FrameWriteEvent;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * This class collects encoded frames that are written to a socket together.
+ * Frames are added back to back, and are then written with a single gathering write,
+ * so a burst of responses costs one system call instead of one for every response.
+ * Every frame must be leased from a {@link BufferPool}, the batch releases each frame once it has been written.
+ * If a recording is running, every write is committed as a {@link FrameWriteEvent} of the batch's connection.
+ * An instance of this class is not thread safe, it belongs to the thread that writes to the socket.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class WriteBatch {
+    // The frames in this batch, in the order they are written.
+    private final ByteBuffer[] FRAMES;
+    // The index of the first frame that has not been completely written yet.
+    private int first;
+    // The number of frames in this batch, including those already written.
+    private int count;
+    // The operation that every frame in this batch belongs to, or Metrics.NO_OPERATION if they do not all belong to the same one.
+    private int operation;
+    // The id of the connection that this batch is written to.
+    private final long connectionId;
+
+    /**
+     * This constructor is used to create a new, empty WriteBatch.
+     *
+     * @param maxBatchSize The largest number of frames this batch can hold.
+     * @implSpec This constructor is equivalent to calling {@link #WriteBatch(int, long)}
+     *           with {@link Connection#NO_CONNECTION_ID}.
+     */
+    public WriteBatch( int maxBatchSize ) {
+        this(maxBatchSize, Connection.NO_CONNECTION_ID);
+    }
+
+    /**
+     * This constructor is used to create a new, empty WriteBatch that is written to the given connection.
+     *
+     * @param maxBatchSize The largest number of frames this batch can hold.
+     * @param connectionId The id of the connection, see {@link Connection#getConnectionId()}.
+     */
+    public WriteBatch( int maxBatchSize, long connectionId ) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("A batch must hold at least one frame");
+        }
+        this.FRAMES = new ByteBuffer[ maxBatchSize ];
+        this.operation = Metrics.NO_OPERATION;
+        this.connectionId = connectionId;
+    }
+
+    /**
+     * This method is used to add a frame that does not belong to any operation to the end of this batch.
+     *
+     * @param frame The frame to add, flipped and ready to be written.
+     *              The batch now owns the frame, and releases it once it has been written.
+     * @implSpec This method is equivalent to calling {@link #add(ByteBuffer, int)} with {@link Metrics#NO_OPERATION}.
+     */
+    public void add( ByteBuffer frame ) {
+        add(frame, Metrics.NO_OPERATION);
+    }
+
+    /**
+     * This method is used to add a frame to the end of this batch.
+     *
+     * @param frame The frame to add, flipped and ready to be written.
+     *              The batch now owns the frame, and releases it once it has been written.
+     * @param operation The operation that the frame belongs to, see {@link Metrics#operationOf(Object)}.
+     */
+    public void add( ByteBuffer frame, int operation ) {
+        if (isFull()) {
+            throw new IllegalStateException("The batch is full");
+        }
+        // The batch only belongs to an operation as long as every frame in it does.
+        if (isEmpty()) {
+            this.operation = operation;
+        }
+        else if (this.operation != operation) {
+            this.operation = Metrics.NO_OPERATION;
+        }
+        FRAMES[ count++ ] = frame;
+    }
+
+    /**
+     * This method is used to check if this batch can not hold any more frames.
+     *
+     * @return True if this batch is full, false otherwise.
+     */
+    public boolean isFull() {
+        return count == FRAMES.length;
+    }
+
+    /**
+     * This method is used to check if every frame in this batch has been written.
+     *
+     * @return True if there is nothing left to write, false otherwise.
+     */
+    public boolean isEmpty() {
+        return first == count;
+    }
+
+    /**
+     * This method is used to write as much of this batch to a channel as it will accept, with a single gathering write.
+     * A blocking channel accepts all of it, while a non-blocking channel may only accept part of it,
+     * in which case this method should be called again once the channel is writable.
+     * The time spent writing and the bytes written are recorded in the server's {@link Metrics}, if they are set.
+     *
+     * @param channel The channel to write to.
+     * @return True if the whole batch has been written, false if part of it is still left.
+     * @throws IOException If an error occurs while writing to the channel.
+     */
+    public boolean writeTo( GatheringByteChannel channel ) throws IOException {
+        FrameWriteEvent event = new FrameWriteEvent();
+        event.begin();
+        long start = System.nanoTime();
+        long bytes = 0;
+        int frames = 0;
+        try {
+            while (!isEmpty()) {
+                long written = channel.write(FRAMES, first, count - first);
+                bytes += written;
+                int unwritten = first;
+                releaseWritten();
+                frames += first - unwritten;
+                if (written == 0 && !isEmpty()) {
+                    // The socket buffer is full.
+                    return false;
+                }
+            }
+            reset();
+            return true;
+        } finally {
+            recordWrite(start, bytes);
+            commitWrite(event, bytes, frames);
+        }
+    }
+
+    /**
+     * This method is used to write this batch to a stream.
+     * A stream can not gather, so when there are several frames they are copied into a single buffer first,
+     * which still writes the whole batch with one system call.
+     * The time spent writing and the bytes written are recorded in the server's {@link Metrics}, if they are set.
+     *
+     * @param out The stream to write to, it is flushed once the batch has been written.
+     * @throws IOException If an error occurs while writing to the stream.
+     */
+    public void writeTo( OutputStream out ) throws IOException {
+        FrameWriteEvent event = new FrameWriteEvent();
+        event.begin();
+        long start = System.nanoTime();
+        int frames = count - first;
+        int bytes = 0;
+        for (int i = first; i < count; i++) {
+            bytes += FRAMES[ i ].remaining();
+        }
+        if (count - first > 1 && bytes <= BufferPool.MAX_BUFFER_SIZE) {
+            ByteBuffer combined = BufferPool.heap().acquire(bytes);
+            try {
+                for (int i = first; i < count; i++) {
+                    combined.put(FRAMES[ i ]);
+                }
+                out.write(combined.array(), combined.arrayOffset(), combined.position());
+            } finally {
+                BufferPool.heap().release(combined);
+            }
+        }
+        else {
+            // A single frame, or a batch too large to copy, is written one frame at a time.
+            for (int i = first; i < count; i++) {
+                writeFrame(FRAMES[ i ], out);
+            }
+        }
+        out.flush();
+        for (int i = first; i < count; i++) {
+            FRAMES[ i ].position(FRAMES[ i ].limit());
+        }
+        releaseWritten();
+        reset();
+        recordWrite(start, bytes);
+        commitWrite(event, bytes, frames);
+    }
+
+    /**
+     * This method is used to release every frame in this batch without writing it,
+     * for example because the connection has been closed.
+     */
+    public void clear() {
+        for (int i = first; i < count; i++) {
+            BufferPool.releaseBuffer(FRAMES[ i ]);
+        }
+        reset();
+    }
+
+    /**
+     * This method is a helper method that writes a single frame to a stream.
+     *
+     * @param frame The frame to write.
+     * @param out The stream to write to.
+     * @throws IOException If an error occurs while writing to the stream.
+     */
+    private static void writeFrame( ByteBuffer frame, OutputStream out ) throws IOException {
+        if (frame.hasArray()) {
+            out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+        }
+        else {
+            // A stream can only write arrays, so a frame in a direct buffer needs a copy.
+            byte[] bytes = new byte[ frame.remaining() ];
+            frame.duplicate().get(bytes);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * This method is a helper method that records the time spent writing, and the bytes written,
+     * in the server's {@link Metrics}, if they are set.
+     * A write may carry the responses to several operations, so it is not attributed to any of them.
+     *
+     * @param start When the write started, see {@link System#nanoTime()}.
+     * @param bytes The number of bytes that were written.
+     */
+    private static void recordWrite( long start, long bytes ) {
+        Metrics metrics = Util.getMetrics();
+        if (metrics != null) {
+            metrics.record(Metrics.NO_OPERATION, Stage.WRITE, System.nanoTime() - start);
+            metrics.countBytesWritten(bytes);
+        }
+    }
+
+    /**
+     * This method is a helper method that commits a write as a {@link FrameWriteEvent}, if a recording is running
+     * and the write took longer than the event's threshold.
+     *
+     * @param event The event that was begun before the write.
+     * @param bytes The number of bytes that were written.
+     * @param frames The number of frames that were completely written.
+     */
+    private void commitWrite( FrameWriteEvent event, long bytes, int frames ) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.setConnectionId(connectionId);
+            event.setOperation(operation);
+            event.setSize(bytes);
+            event.setFrames(frames);
+            event.commit();
+        }
+    }
+
+    /**
+     * This method is a helper method that releases every frame at the start of the batch that has been completely written.
+     */
+    private void releaseWritten() {
+        while (first < count && !FRAMES[ first ].hasRemaining()) {
+            BufferPool.releaseBuffer(FRAMES[ first ]);
+            FRAMES[ first++ ] = null;
+        }
+    }
+
+    /**
+     * This method is a helper method that empties the batch so that it can be filled again.
+     */
+    private void reset() {
+        for (int i = first; i < count; i++) {
+            FRAMES[ i ] = null;
+        }
+        first = 0;
+        count = 0;
+    }
+
+}
@@ -0,0 +1,463 @@
+package common.codec;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.math.BigDecimal;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * This codec encodes messages in a compact binary format.
+ * It carries exactly the same messages as the JSON codecs, but every value is
+ * prefixed with a one byte tag instead of being spelled out as text:
+ *    <byte: tag><value>
+ *        - Integers are stored as zig-zag encoded variable length integers.
+ *        - Doubles are stored as 8 byte IEEE 754 values.
+ *        - Strings are stored as a variable length integer length followed by UTF-8 bytes.
+ *        - Arrays and objects are stored as a variable length integer count followed by their elements.
+ * The keys of an object are stored as a variable length integer, where 0 means the key
+ * follows as a string, and any other value is an index into {@link #KEYS} plus one.
+ * For small requests such as hypotenuse this is a fraction of the size of the pretty-printed JSON.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class BinaryCodec implements Codec {
+    // The tags that identify the type of each value.
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_FALSE = 1;
+    private static final byte TAG_TRUE = 2;
+    private static final byte TAG_INTEGER = 3;
+    private static final byte TAG_DOUBLE = 4;
+    private static final byte TAG_STRING = 5;
+    private static final byte TAG_ARRAY = 6;
+    private static final byte TAG_OBJECT = 7;
+    // Numbers that fit neither a long nor a double exactly are stored as their decimal string.
+    private static final byte TAG_BIG_NUMBER = 8;
+
+    // The keys that are common enough to be sent as a single byte.
+    // New keys may only ever be added to the end of this array, as the index is sent on the wire.
+    private static final String[] KEYS = {
+            "operation", "id", "a", "b", "result", "error", "message"
+    };
+    // The deepest nesting of arrays and objects that will be decoded.
+    // This prevents a malicious peer from overflowing the stack.
+    private static final int MAX_DEPTH = 64;
+    // The buffer that frames are encoded into, it is reused for every frame.
+    private final FrameBuffer frame;
+
+    /**
+     * This constructor is used to create a new BinaryCodec that encodes frames into a heap buffer.
+     */
+    public BinaryCodec() {
+        this(new FrameBuffer(false));
+    }
+
+    /**
+     * This constructor is used to create a new BinaryCodec.
+     *
+     * @param frame The buffer that frames are encoded into.
+     */
+    public BinaryCodec( FrameBuffer frame ) {
+        this.frame = frame;
+    }
+
+    @Override
+    public CodecType getType() {
+        return CodecType.BINARY;
+    }
+
+    @Override
+    public ByteBuffer encode( JsonObject message ) {
+        // Encode the message as a frame, and copy its payload out so the caller can keep it.
+        frame.begin();
+        writeValue(message);
+        return frame.finishPayload();
+    }
+
+    @Override
+    public ByteBuffer encodeFrame( JsonObject message ) {
+        frame.begin();
+        writeValue(message);
+        return frame.finish();
+    }
+
+    @Override
+    public ByteBuffer encodeFrame( ByteBuffer payload, String key, JsonElement value ) {
+        frame.begin();
+        ByteBuffer fields = payload.duplicate();
+        if (key != null) {
+            // The payload starts with the tag and the number of fields of the object,
+            // which is written again counting the new field, before the fields are copied.
+            try {
+                fields.get();
+                long count = readVarLong(fields);
+                ensureCapacity(1).put(TAG_OBJECT);
+                writeVarLong(count + 1);
+            } catch (MalformedMessageException | BufferUnderflowException e) {
+                throw new IllegalArgumentException("The payload is not an encoded object", e);
+            }
+        }
+        ByteBuffer out = ensureCapacity(fields.remaining());
+        out.put(fields);
+        if (key != null) {
+            writeKey(key);
+            writeValue(value);
+        }
+        return frame.finish();
+    }
+
+    @Override
+    public JsonObject decode( ByteBuffer payload ) throws MalformedMessageException {
+        try {
+            JsonElement element = readValue(payload, 0);
+            if (!element.isJsonObject()) {
+                throw new MalformedMessageException("Message is not an object");
+            }
+            if (payload.hasRemaining()) {
+                throw new MalformedMessageException("Unexpected bytes after the end of the message");
+            }
+            return element.getAsJsonObject();
+        } catch (BufferUnderflowException e) {
+            throw new MalformedMessageException("Message ended unexpectedly", e);
+        }
+    }
+
+    /**
+     * This method is a helper method that writes a single value and everything it contains.
+     *
+     * @param element The value to write.
+     */
+    private void writeValue( JsonElement element ) {
+        if (element == null || element.isJsonNull()) {
+            ensureCapacity(1).put(TAG_NULL);
+        }
+        else if (element.isJsonObject()) {
+            JsonObject object = element.getAsJsonObject();
+            ensureCapacity(1).put(TAG_OBJECT);
+            writeVarLong(object.size());
+            for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+                writeKey(entry.getKey());
+                writeValue(entry.getValue());
+            }
+        }
+        else if (element.isJsonArray()) {
+            JsonArray array = element.getAsJsonArray();
+            ensureCapacity(1).put(TAG_ARRAY);
+            writeVarLong(array.size());
+            for (JsonElement value : array) {
+                writeValue(value);
+            }
+        }
+        else {
+            JsonPrimitive primitive = element.getAsJsonPrimitive();
+            if (primitive.isBoolean()) {
+                ensureCapacity(1).put(primitive.getAsBoolean() ? TAG_TRUE : TAG_FALSE);
+            }
+            else if (primitive.isNumber()) {
+                writeNumber(primitive.getAsNumber());
+            }
+            else {
+                ensureCapacity(1).put(TAG_STRING);
+                writeString(primitive.getAsString());
+            }
+        }
+    }
+
+    /**
+     * This method is a helper method that writes a number using the smallest tag that represents it exactly.
+     *
+     * @param number The number to write.
+     */
+    private void writeNumber( Number number ) {
+        if (number instanceof Integer || number instanceof Long || number instanceof Short || number instanceof Byte) {
+            ensureCapacity(1).put(TAG_INTEGER);
+            writeVarLong(zigZag(number.longValue()));
+            return;
+        }
+        if (number instanceof Double || number instanceof Float) {
+            ensureCapacity(9).put(TAG_DOUBLE).putDouble(number.doubleValue());
+            return;
+        }
+        // Numbers parsed from JSON are kept as their decimal string until they are used,
+        // so we have to look at the string to know if they are integers or not.
+        String text = number.toString();
+        try {
+            if (text.indexOf('.') < 0 && text.indexOf('e') < 0 && text.indexOf('E') < 0) {
+                long value = Long.parseLong(text);
+                ensureCapacity(1).put(TAG_INTEGER);
+                writeVarLong(zigZag(value));
+                return;
+            }
+            double value = Double.parseDouble(text);
+            if (!Double.isInfinite(value) && new BigDecimal(text).compareTo(new BigDecimal(value)) == 0) {
+                ensureCapacity(9).put(TAG_DOUBLE).putDouble(value);
+                return;
+            }
+        } catch (NumberFormatException ignored) {}
+        ensureCapacity(1).put(TAG_BIG_NUMBER);
+        writeString(text);
+    }
+
+    /**
+     * This method is a helper method that writes the key of an object field.
+     *
+     * @param key The key to write.
+     */
+    private void writeKey( String key ) {
+        for (int i = 0; i < KEYS.length; i++) {
+            if (KEYS[ i ].equals(key)) {
+                writeVarLong(i + 1);
+                return;
+            }
+        }
+        writeVarLong(0);
+        writeString(key);
+    }
+
+    /**
+     * This method is a helper method that writes a length prefixed UTF-8 string.
+     * The string is encoded straight into the frame buffer, so no byte array is created for it.
+     *
+     * @param value The string to write.
+     */
+    private void writeString( String value ) {
+        int length = utf8Length(value);
+        writeVarLong(length);
+        ByteBuffer out = ensureCapacity(length);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            }
+            else if (c < 0x800) {
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                out.put((byte) (0xF0 | (codePoint >> 18)));
+                out.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                out.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (codePoint & 0x3F)));
+            }
+            else if (Character.isSurrogate(c)) {
+                // A surrogate without its other half can not be encoded, String.getBytes() writes a '?' instead.
+                out.put((byte) '?');
+            }
+            else {
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    /**
+     * This method is a helper method that counts the bytes of a string encoded as UTF-8,
+     * so that its length prefix can be written before the string itself.
+     *
+     * @param value The string to measure.
+     * @return The number of bytes that {@link #writeString(String)} writes for the string, not counting its length prefix.
+     */
+    private static int utf8Length( String value ) {
+        int length = value.length();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                length += 1;
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                // The pair of chars becomes 4 bytes.
+                length += 2;
+                i++;
+            }
+            else if (!Character.isSurrogate(c)) {
+                length += 2;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * This method is a helper method that writes an unsigned variable length integer.
+     * Every byte holds 7 bits of the value, and the highest bit is set if more bytes follow.
+     *
+     * @param value The value to write, treated as unsigned.
+     */
+    private void writeVarLong( long value ) {
+        ByteBuffer out = ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    /**
+     * This method is a helper method that makes sure the frame buffer has room for the given number of bytes.
+     *
+     * @param bytes The number of bytes that are about to be written.
+     * @return The frame buffer.
+     */
+    private ByteBuffer ensureCapacity( int bytes ) {
+        return frame.ensureCapacity(bytes);
+    }
+
+    /**
+     * This method is a helper method that reads a single value and everything it contains.
+     *
+     * @param in The buffer to read from.
+     * @param depth How deeply nested the value is.
+     * @return The value that was read.
+     * @throws MalformedMessageException If the value is not valid.
+     */
+    private static JsonElement readValue( ByteBuffer in, int depth ) throws MalformedMessageException {
+        if (depth > MAX_DEPTH) {
+            throw new MalformedMessageException("Message is nested too deeply");
+        }
+        byte tag = in.get();
+        switch (tag) {
+            case TAG_NULL:
+                return JsonNull.INSTANCE;
+            case TAG_FALSE:
+                return new JsonPrimitive(false);
+            case TAG_TRUE:
+                return new JsonPrimitive(true);
+            case TAG_INTEGER:
+                return new JsonPrimitive(unZigZag(readVarLong(in)));
+            case TAG_DOUBLE:
+                return new JsonPrimitive(in.getDouble());
+            case TAG_STRING:
+                return new JsonPrimitive(readString(in));
+            case TAG_BIG_NUMBER:
+                try {
+                    return new JsonPrimitive(new BigDecimal(readString(in)));
+                } catch (NumberFormatException e) {
+                    throw new MalformedMessageException("Invalid number", e);
+                }
+            case TAG_ARRAY: {
+                int size = readCount(in);
+                JsonArray array = new JsonArray(size);
+                for (int i = 0; i < size; i++) {
+                    array.add(readValue(in, depth + 1));
+                }
+                return array;
+            }
+            case TAG_OBJECT: {
+                int size = readCount(in);
+                JsonObject object = new JsonObject();
+                for (int i = 0; i < size; i++) {
+                    String key = readKey(in);
+                    object.add(key, readValue(in, depth + 1));
+                }
+                return object;
+            }
+            default:
+                throw new MalformedMessageException("Unknown tag " + tag);
+        }
+    }
+
+    /**
+     * This method is a helper method that reads the key of an object field.
+     *
+     * @param in The buffer to read from.
+     * @return The key that was read.
+     * @throws MalformedMessageException If the key is not valid.
+     */
+    private static String readKey( ByteBuffer in ) throws MalformedMessageException {
+        long index = readVarLong(in);
+        if (index == 0) {
+            return readString(in);
+        }
+        if (index > KEYS.length) {
+            throw new MalformedMessageException("Unknown key index " + index);
+        }
+        return KEYS[ (int) index - 1 ];
+    }
+
+    /**
+     * This method is a helper method that reads a length prefixed UTF-8 string.
+     *
+     * @param in The buffer to read from.
+     * @return The string that was read.
+     * @throws MalformedMessageException If the length is not valid.
+     */
+    private static String readString( ByteBuffer in ) throws MalformedMessageException {
+        int length = readCount(in);
+        if (!in.hasArray()) {
+            byte[] bytes = new byte[ length ];
+            in.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    /**
+     * This method is a helper method that reads the number of bytes or elements that follow.
+     * Every element takes at least one byte, so the count can never be larger than the remaining bytes.
+     *
+     * @param in The buffer to read from.
+     * @return The count that was read.
+     * @throws MalformedMessageException If the count is larger than the rest of the message.
+     */
+    private static int readCount( ByteBuffer in ) throws MalformedMessageException {
+        long count = readVarLong(in);
+        if (count < 0 || count > in.remaining()) {
+            throw new MalformedMessageException("Invalid length " + count);
+        }
+        return (int) count;
+    }
+
+    /**
+     * This method is a helper method that reads an unsigned variable length integer.
+     *
+     * @param in The buffer to read from.
+     * @return The value that was read.
+     * @throws MalformedMessageException If the integer is longer than 10 bytes.
+     */
+    private static long readVarLong( ByteBuffer in ) throws MalformedMessageException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new MalformedMessageException("Variable length integer is too long");
+    }
+
+    /**
+     * This method is a helper method that maps signed integers to unsigned integers,
+     * so that small negative numbers also take few bytes.
+     *
+     * @param value The signed value.
+     * @return The zig-zag encoded value.
+     */
+    private static long zigZag( long value ) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * This method is a helper method that reverses {@link #zigZag(long)}.
+     *
+     * @param value The zig-zag encoded value.
+     * @return The signed value.
+     */
+    private static long unZigZag( long value ) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+}
@@ -0,0 +1,68 @@
+package common.codec;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This interface is used to define how messages are turned into bytes and back.
+ * A codec only deals with the payload of a frame, the length prefix described
+ * in the README.md file is added and removed by {@link common.NetworkUtils}.
+ * Every connection has its own codec, see {@link CodecType#create(boolean)}.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public interface Codec {
+
+    /**
+     * This method is used to get the type of this codec.
+     *
+     * @return The type of this codec.
+     */
+    public CodecType getType();
+
+    /**
+     * This method is used to encode a message into the payload of a frame.
+     *
+     * @param message The message to encode.
+     * @return A buffer containing the encoded message, flipped and ready to be read.
+     */
+    public ByteBuffer encode( JsonObject message );
+
+    /**
+     * This method is used to encode a message into a whole frame, length prefix included.
+     * The frame is written into a buffer leased from a {@link common.BufferPool}.
+     *
+     * @param message The message to encode.
+     * @return A buffer containing the whole frame, flipped and ready to be written.
+     *         The caller must release it with {@link common.BufferPool#releaseBuffer(ByteBuffer)} once it has been written.
+     */
+    public ByteBuffer encodeFrame( JsonObject message );
+
+    /**
+     * This method is used to encode a whole frame from a message that was already encoded by a codec of the same type,
+     * with one more field added to the end of the message.
+     * The payload is copied as it is, and only the new field is encoded, which gives exactly the same frame as
+     * encoding the message with the field added. This is how cached responses are sent, see {@link common.CachedResponse}.
+     *
+     * @param payload The payload of the message, as returned by {@link #encode(JsonObject)}. It is not modified.
+     * @param key The key of the field to add, it must not already be in the message, or null to add no field.
+     * @param value The value of the field to add.
+     * @return A buffer containing the whole frame, flipped and ready to be written.
+     *         The caller must release it with {@link common.BufferPool#releaseBuffer(ByteBuffer)} once it has been written.
+     */
+    public ByteBuffer encodeFrame( ByteBuffer payload, String key, JsonElement value );
+
+    /**
+     * This method is used to decode the payload of a frame into a message.
+     *
+     * @param payload The buffer containing the encoded message.
+     *                The position of the buffer will be moved to its limit.
+     * @return The decoded message.
+     * @throws MalformedMessageException If the payload is not a valid message for this codec.
+     */
+    public JsonObject decode( ByteBuffer payload ) throws MalformedMessageException;
+
+}
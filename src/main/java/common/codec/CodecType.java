@@ -0,0 +1,104 @@
+package common.codec;
+
+/**
+ * This enum lists every codec that the protocol supports.
+ * The id of each codec is the value that identifies it on the wire,
+ * so it must never change once it has been assigned.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public enum CodecType {
+    // Pretty printed JSON, this is the original format of the protocol.
+    JSON(1, "json"),
+    // JSON without any whitespace.
+    COMPACT_JSON(2, "compact-json"),
+    // A compact binary encoding of the same messages, see BinaryCodec.
+    BINARY(3, "binary");
+
+    // The id that identifies this codec on the wire.
+    private final int id;
+    // The name that identifies this codec on the command line.
+    private final String name;
+
+    CodecType( int id, String name ) {
+        this.id = id;
+        this.name = name;
+    }
+
+    /**
+     * This method is used to get the id that identifies this codec on the wire.
+     *
+     * @return The id of this codec.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * This method is used to get the name that identifies this codec on the command line.
+     *
+     * @return The name of this codec.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * This method is used to create a new codec of this type that encodes frames into heap buffers.
+     *
+     * @return A new codec of this type.
+     * @implSpec This method is equivalent to calling {@link #create(boolean)} with false.
+     */
+    public Codec create() {
+        return create(false);
+    }
+
+    /**
+     * This method is used to create a new codec of this type.
+     * Codecs are created per connection, so they never have to be shared between connections.
+     *
+     * @param directBuffers True to encode frames into a direct buffer, which suits channels,
+     *                      false to encode them into a heap buffer, which suits streams.
+     * @return A new codec of this type.
+     */
+    public Codec create( boolean directBuffers ) {
+        FrameBuffer frame = new FrameBuffer(directBuffers);
+        return switch (this) {
+            case JSON -> new JsonCodec(true, frame);
+            case COMPACT_JSON -> new JsonCodec(false, frame);
+            case BINARY -> new BinaryCodec(frame);
+        };
+    }
+
+    /**
+     * This method is used to find the codec with the given name.
+     *
+     * @param name The name of the codec.
+     * @return The codec with the given name, or null if there is no such codec.
+     */
+    public static CodecType fromName( String name ) {
+        for (CodecType type : values()) {
+            if (type.name.equalsIgnoreCase(name)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * This method is used to find the codec with the given id.
+     *
+     * @param id The id of the codec.
+     * @return The codec with the given id, or null if there is no such codec.
+     */
+    public static CodecType fromId( int id ) {
+        for (CodecType type : values()) {
+            if (type.id == id) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,106 @@
+package common.codec;
+
+import common.BufferPool;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This class holds the buffer that a codec encodes whole frames into.
+ * Room for the length prefix is left at the start of the buffer, and once the payload
+ * has been written the length is filled in, so the frame never has to be copied.
+ * Every frame is encoded into a buffer leased from a {@link BufferPool}, which is handed over to the caller
+ * once the frame is finished, and which the caller releases back to the pool once the frame has been written.
+ * The buffer is leased at the size of the previous frame, so it rarely has to grow while a frame is encoded.
+ * The buffer can either live on the heap, which is what streams need, or be a direct buffer,
+ * which channels can write to the socket without copying it first.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class FrameBuffer {
+    // The size of the length prefix at the start of every frame.
+    public static final int LENGTH_PREFIX_SIZE = 4;
+    // The pool that buffers are leased from.
+    private final BufferPool pool;
+    // The buffer the frame currently being encoded is written into, or null if no frame is being encoded.
+    private ByteBuffer buffer;
+    // The size of the previous frame, used to lease a buffer that is likely to fit the next one.
+    private int lastFrameSize;
+
+    /**
+     * This constructor is used to create a new FrameBuffer.
+     *
+     * @param direct True to use direct buffers, false to use heap buffers.
+     */
+    public FrameBuffer( boolean direct ) {
+        this.pool = direct ? BufferPool.direct() : BufferPool.heap();
+        this.lastFrameSize = BufferPool.MIN_BUFFER_SIZE;
+    }
+
+    /**
+     * This method is used to start a new frame, leaving room for its length prefix.
+     *
+     * @return The buffer that the payload should be written into.
+     */
+    public ByteBuffer begin() {
+        if (buffer != null) {
+            // The previous frame was never finished, most likely because encoding it failed.
+            pool.release(buffer);
+        }
+        buffer = pool.acquire(lastFrameSize);
+        buffer.position(LENGTH_PREFIX_SIZE);
+        return buffer;
+    }
+
+    /**
+     * This method is used to make sure the buffer has room for the given number of bytes.
+     * The buffer is replaced with a larger one if it does not, so the returned buffer must be used
+     * instead of any buffer returned earlier.
+     *
+     * @param bytes The number of bytes that are about to be written.
+     * @return The buffer that the payload should be written into.
+     */
+    public ByteBuffer ensureCapacity( int bytes ) {
+        if (buffer.remaining() < bytes) {
+            ByteBuffer larger = pool.acquire(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+            buffer.flip();
+            larger.put(buffer);
+            pool.release(buffer);
+            buffer = larger;
+        }
+        return buffer;
+    }
+
+    /**
+     * This method is used to finish the current frame by filling in its length prefix.
+     *
+     * @return The buffer containing the whole frame, flipped and ready to be written.
+     *         The buffer now belongs to the caller, who must release it with {@link BufferPool#releaseBuffer(ByteBuffer)}
+     *         once the frame has been written.
+     */
+    public ByteBuffer finish() {
+        ByteBuffer frame = buffer;
+        buffer = null;
+        lastFrameSize = frame.position();
+        frame.putInt(0, frame.position() - LENGTH_PREFIX_SIZE);
+        return frame.flip();
+    }
+
+    /**
+     * This method is used to finish the current frame, and copy its payload into a buffer of its own.
+     * The buffer the frame was encoded into is released straight away.
+     *
+     * @return A new heap buffer containing only the payload, flipped and ready to be read.
+     */
+    public ByteBuffer finishPayload() {
+        ByteBuffer frame = finish();
+        try {
+            ByteBuffer payload = ByteBuffer.allocate(frame.remaining() - LENGTH_PREFIX_SIZE);
+            payload.put(frame.position(LENGTH_PREFIX_SIZE));
+            return payload.flip();
+        } finally {
+            pool.release(frame);
+        }
+    }
+
+}
@@ -0,0 +1,577 @@
+package common.codec;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import common.BufferPool;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class parses UTF-8 encoded JSON straight from the bytes of a payload into a {@link JsonObject}.
+ * Decoding with Gson first copies the whole payload into a String and then walks that String,
+ * this reader skips the String entirely and only creates the Strings that end up in the message.
+ * The characters of every String are collected in a reused char buffer,
+ * and the keys of objects are cached, so the keys that every request repeats are only created once.
+ * An instance of this class is not thread safe, every connection has its own reader through its {@link JsonCodec}.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class JsonByteReader {
+    // The deepest nesting of arrays and objects that will be decoded.
+    // This prevents a malicious peer from overflowing the stack.
+    private static final int MAX_DEPTH = 64;
+    // The initial size of the char buffer, it will grow if a longer String is received.
+    private static final int INITIAL_CHAR_BUFFER_SIZE = 128;
+    // The largest char buffer that is kept once a message has been read.
+    // A larger buffer is dropped, so a single long String does not pin its buffer for the life of the connection.
+    private static final int MAX_RETAINED_CHAR_BUFFER_SIZE = 8 * 1024;
+    // The number of keys that are remembered, it must be a power of two.
+    private static final int KEY_CACHE_SIZE = 64;
+    // The longest key that will be remembered, longer keys are unlikely to repeat.
+    private static final int MAX_CACHED_KEY_LENGTH = 32;
+    // The longest integer that is always small enough to fit in a long, "-" not included.
+    private static final int MAX_LONG_DIGITS = 18;
+    // The character that replaces bytes that are not valid UTF-8, just like String decoding does.
+    private static final char REPLACEMENT = '\uFFFD';
+
+    // The keys that have been seen recently, indexed by their hash code.
+    private final String[] KEY_CACHE;
+    // The buffer that the characters of the String currently being read are collected in.
+    private char[] chars;
+    // The bytes of the payload currently being read.
+    private byte[] bytes;
+    // The index of the next byte to read.
+    private int position;
+    // The index after the last byte of the payload.
+    private int limit;
+
+    /**
+     * This constructor is used to create a new JsonByteReader.
+     */
+    public JsonByteReader() {
+        this.KEY_CACHE = new String[ KEY_CACHE_SIZE ];
+        this.chars = new char[ INITIAL_CHAR_BUFFER_SIZE ];
+    }
+
+    /**
+     * This method is used to parse a payload that holds a single JSON object.
+     *
+     * @param payload The buffer containing the UTF-8 encoded JSON object.
+     *                The position of the buffer will be moved to its limit.
+     * @return The object that was read.
+     * @throws MalformedMessageException If the payload is not a single valid JSON object.
+     */
+    public JsonObject read( ByteBuffer payload ) throws MalformedMessageException {
+        // Read straight from the array behind the buffer when there is one.
+        // Direct buffers have to be copied into a heap buffer leased from the pool first.
+        ByteBuffer copy = null;
+        if (payload.hasArray()) {
+            this.bytes = payload.array();
+            this.position = payload.arrayOffset() + payload.position();
+        }
+        else {
+            copy = BufferPool.heap().acquire(payload.remaining());
+            copy.put(payload.duplicate());
+            this.bytes = copy.array();
+            this.position = copy.arrayOffset();
+        }
+        this.limit = position + payload.remaining();
+        try {
+            skipWhitespace();
+            if (peek() != '{') {
+                throw new MalformedMessageException("Malformed Json");
+            }
+            position++;
+            JsonObject object = readObject(0);
+            skipWhitespace();
+            if (position != limit) {
+                throw new MalformedMessageException("Malformed Json");
+            }
+            payload.position(payload.limit());
+            return object;
+        } finally {
+            // Don't hold on to the payload once it has been read.
+            this.bytes = null;
+            // Nor to a char buffer that grew for an unusually long String.
+            if (chars.length > MAX_RETAINED_CHAR_BUFFER_SIZE) {
+                this.chars = new char[ INITIAL_CHAR_BUFFER_SIZE ];
+            }
+            if (copy != null) {
+                BufferPool.heap().release(copy);
+            }
+        }
+    }
+
+    /**
+     * This method is a helper method that reads a single value and everything it contains.
+     *
+     * @param depth How deeply nested the value is.
+     * @return The value that was read.
+     * @throws MalformedMessageException If the value is not valid.
+     */
+    private JsonElement readValue( int depth ) throws MalformedMessageException {
+        skipWhitespace();
+        byte b = peek();
+        switch (b) {
+            case '{':
+                position++;
+                return readObject(depth + 1);
+            case '[':
+                position++;
+                return readArray(depth + 1);
+            case '"': {
+                position++;
+                // The char buffer may grow while the String is read, so it must only be used afterwards.
+                int length = readString();
+                return new JsonPrimitive(new String(chars, 0, length));
+            }
+            case 't':
+                expectLiteral("true");
+                return new JsonPrimitive(true);
+            case 'f':
+                expectLiteral("false");
+                return new JsonPrimitive(false);
+            case 'n':
+                expectLiteral("null");
+                return JsonNull.INSTANCE;
+            case 'N':
+                // Gson writes doubles that are not finite as bare words, and reads them back as Strings.
+                expectLiteral("NaN");
+                return new JsonPrimitive("NaN");
+            case 'I':
+                expectLiteral("Infinity");
+                return new JsonPrimitive("Infinity");
+            default:
+                if (b == '-' && position + 1 < limit && bytes[ position + 1 ] == 'I') {
+                    expectLiteral("-Infinity");
+                    return new JsonPrimitive("-Infinity");
+                }
+                if (b == '-' || (b >= '0' && b <= '9')) {
+                    return readNumber();
+                }
+                throw new MalformedMessageException("Malformed Json");
+        }
+    }
+
+    /**
+     * This method is a helper method that reads the fields of an object, after its opening brace.
+     *
+     * @param depth How deeply nested the object is.
+     * @return The object that was read.
+     * @throws MalformedMessageException If the object is not valid.
+     */
+    private JsonObject readObject( int depth ) throws MalformedMessageException {
+        checkDepth(depth);
+        JsonObject object = new JsonObject();
+        skipWhitespace();
+        if (peek() == '}') {
+            position++;
+            return object;
+        }
+        while (true) {
+            skipWhitespace();
+            expect('"');
+            String key = readKey();
+            skipWhitespace();
+            expect(':');
+            // Just like Gson, a key that is repeated replaces the earlier value.
+            object.add(key, readValue(depth));
+            skipWhitespace();
+            byte b = next();
+            if (b == '}') {
+                return object;
+            }
+            if (b != ',') {
+                throw new MalformedMessageException("Malformed Json");
+            }
+        }
+    }
+
+    /**
+     * This method is a helper method that reads the elements of an array, after its opening bracket.
+     *
+     * @param depth How deeply nested the array is.
+     * @return The array that was read.
+     * @throws MalformedMessageException If the array is not valid.
+     */
+    private JsonArray readArray( int depth ) throws MalformedMessageException {
+        checkDepth(depth);
+        JsonArray array = new JsonArray();
+        skipWhitespace();
+        if (peek() == ']') {
+            position++;
+            return array;
+        }
+        while (true) {
+            array.add(readValue(depth));
+            skipWhitespace();
+            byte b = next();
+            if (b == ']') {
+                return array;
+            }
+            if (b != ',') {
+                throw new MalformedMessageException("Malformed Json");
+            }
+        }
+    }
+
+    /**
+     * This method is a helper method that reads the key of an object field, after its opening quote.
+     * Keys are looked up in the key cache first, so a key that was seen before is not created again.
+     *
+     * @return The key that was read.
+     * @throws MalformedMessageException If the key is not a valid String.
+     */
+    private String readKey() throws MalformedMessageException {
+        int length = readString();
+        if (length > MAX_CACHED_KEY_LENGTH) {
+            return new String(chars, 0, length);
+        }
+        // This is the same hash code String uses, so it never has to be computed twice.
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + chars[ i ];
+        }
+        int slot = (hash ^ (hash >>> 16)) & (KEY_CACHE_SIZE - 1);
+        String cached = KEY_CACHE[ slot ];
+        if (cached != null && cached.length() == length && cached.hashCode() == hash && matches(cached, length)) {
+            return cached;
+        }
+        String key = new String(chars, 0, length);
+        KEY_CACHE[ slot ] = key;
+        return key;
+    }
+
+    /**
+     * This method is a helper method that compares a String to the characters in the char buffer.
+     *
+     * @param value The String to compare.
+     * @param length The number of characters in the char buffer.
+     * @return True if the String holds exactly those characters, false otherwise.
+     */
+    private boolean matches( String value, int length ) {
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) != chars[ i ]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * This method is a helper method that reads a String, after its opening quote, into the char buffer.
+     *
+     * @return The number of characters that were read into the char buffer.
+     * @throws MalformedMessageException If the String is not valid.
+     */
+    private int readString() throws MalformedMessageException {
+        int count = 0;
+        while (true) {
+            // A single byte adds at most two chars, when it starts a supplementary character.
+            if (count + 2 > chars.length) {
+                growCharBuffer();
+            }
+            byte b = next();
+            if (b == '"') {
+                return count;
+            }
+            if (b == '\\') {
+                chars[ count++ ] = readEscape();
+            }
+            else if (b >= 0x20) {
+                // The common case, a printable ASCII character.
+                chars[ count++ ] = (char) b;
+            }
+            else if (b >= 0) {
+                // Control characters must be escaped inside a String.
+                throw new MalformedMessageException("Malformed Json");
+            }
+            else {
+                count = readMultiByte(b & 0xFF, count);
+            }
+        }
+    }
+
+    /**
+     * This method is a helper method that reads an escape sequence, after its backslash.
+     *
+     * @return The character that the escape sequence stands for.
+     * @throws MalformedMessageException If the escape sequence is not valid.
+     */
+    private char readEscape() throws MalformedMessageException {
+        byte b = next();
+        switch (b) {
+            case '"':
+                return '"';
+            case '\\':
+                return '\\';
+            case '/':
+                return '/';
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u': {
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(next(), 16);
+                    if (digit < 0) {
+                        throw new MalformedMessageException("Malformed Json");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            }
+            default:
+                throw new MalformedMessageException("Malformed Json");
+        }
+    }
+
+    /**
+     * This method is a helper method that decodes a character that takes more than one byte in UTF-8.
+     * Bytes that are not valid UTF-8 are replaced with U+FFFD, just like decoding them into a String would.
+     *
+     * @param first The first byte of the character, which has already been read.
+     * @param count The number of characters already in the char buffer.
+     * @return The number of characters in the char buffer after the character was added.
+     */
+    private int readMultiByte( int first, int count ) {
+        int length;
+        int codePoint;
+        if (first >= 0xC2 && first <= 0xDF) {
+            length = 2;
+            codePoint = first & 0x1F;
+        }
+        else if (first >= 0xE0 && first <= 0xEF) {
+            length = 3;
+            codePoint = first & 0x0F;
+        }
+        else if (first >= 0xF0 && first <= 0xF4) {
+            length = 4;
+            codePoint = first & 0x07;
+        }
+        else {
+            chars[ count++ ] = REPLACEMENT;
+            return count;
+        }
+        // Overlong encodings and characters past U+10FFFF can already be told apart by the second byte.
+        // Just like String decoding, only the first byte is replaced then and the rest are read again on their own.
+        if (position < limit && !validSecondByte(first, bytes[ position ] & 0xFF)) {
+            chars[ count++ ] = REPLACEMENT;
+            return count;
+        }
+        for (int i = 1; i < length; i++) {
+            if (position >= limit || (bytes[ position ] & 0xC0) != 0x80) {
+                // The sequence was cut short, the byte that cut it short is read again on its own.
+                chars[ count++ ] = REPLACEMENT;
+                return count;
+            }
+            codePoint = (codePoint << 6) | (bytes[ position++ ] & 0x3F);
+        }
+        if (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE) {
+            // Encoded surrogates are not valid UTF-8.
+            chars[ count++ ] = REPLACEMENT;
+            return count;
+        }
+        if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            chars[ count++ ] = Character.highSurrogate(codePoint);
+            chars[ count++ ] = Character.lowSurrogate(codePoint);
+        }
+        else {
+            chars[ count++ ] = (char) codePoint;
+        }
+        return count;
+    }
+
+    /**
+     * This method is a helper method to check the second byte of a character that takes more than one byte.
+     *
+     * @param first The first byte of the character.
+     * @param second The second byte of the character.
+     * @return True if the second byte may follow the first byte, false otherwise.
+     */
+    private static boolean validSecondByte( int first, int second ) {
+        switch (first) {
+            case 0xE0:
+                return second >= 0xA0 && second <= 0xBF;
+            case 0xF0:
+                return second >= 0x90 && second <= 0xBF;
+            case 0xF4:
+                return second >= 0x80 && second <= 0x8F;
+            default:
+                return (second & 0xC0) == 0x80;
+        }
+    }
+
+    /**
+     * This method is a helper method that reads a number.
+     * Integers that fit in a long are parsed as they are read, any other number keeps
+     * its exact text and is only parsed once it is used, which is what Gson does as well.
+     *
+     * @return The number that was read.
+     * @throws MalformedMessageException If the number is not valid.
+     */
+    private JsonPrimitive readNumber() throws MalformedMessageException {
+        int start = position;
+        boolean negative = peek() == '-';
+        if (negative) {
+            position++;
+        }
+        int digitsStart = position;
+        long value = 0;
+        // A number may not have leading zeros.
+        if (peek() == '0') {
+            position++;
+        }
+        else {
+            if (!isDigit(peek())) {
+                throw new MalformedMessageException("Malformed Json");
+            }
+            while (position < limit && isDigit(bytes[ position ])) {
+                value = value * 10 + (bytes[ position++ ] - '0');
+            }
+        }
+        int digits = position - digitsStart;
+        boolean integral = true;
+        if (position < limit && bytes[ position ] == '.') {
+            position++;
+            readDigits();
+            integral = false;
+        }
+        if (position < limit && (bytes[ position ] == 'e' || bytes[ position ] == 'E')) {
+            position++;
+            if (position < limit && (bytes[ position ] == '+' || bytes[ position ] == '-')) {
+                position++;
+            }
+            readDigits();
+            integral = false;
+        }
+        // Negative zero has to keep its sign, so it is left to the slow path as well.
+        if (integral && digits <= MAX_LONG_DIGITS && !(negative && value == 0)) {
+            return new JsonPrimitive(negative ? -value : value);
+        }
+        return new JsonPrimitive(new LazyNumber(new String(bytes, start, position - start, StandardCharsets.ISO_8859_1)));
+    }
+
+    /**
+     * This method is a helper method that reads one or more digits.
+     *
+     * @throws MalformedMessageException If there is not at least one digit.
+     */
+    private void readDigits() throws MalformedMessageException {
+        if (!isDigit(peek())) {
+            throw new MalformedMessageException("Malformed Json");
+        }
+        while (position < limit && isDigit(bytes[ position ])) {
+            position++;
+        }
+    }
+
+    /**
+     * This method is a helper method that reads one of the literals true, false or null.
+     *
+     * @param literal The literal that is expected.
+     * @throws MalformedMessageException If the payload does not contain the literal.
+     */
+    private void expectLiteral( String literal ) throws MalformedMessageException {
+        for (int i = 0; i < literal.length(); i++) {
+            if (next() != literal.charAt(i)) {
+                throw new MalformedMessageException("Malformed Json");
+            }
+        }
+    }
+
+    /**
+     * This method is a helper method that reads a single expected byte.
+     *
+     * @param expected The byte that is expected.
+     * @throws MalformedMessageException If the next byte is a different byte.
+     */
+    private void expect( char expected ) throws MalformedMessageException {
+        if (next() != expected) {
+            throw new MalformedMessageException("Malformed Json");
+        }
+    }
+
+    /**
+     * This method is a helper method that skips the whitespace JSON allows between tokens.
+     */
+    private void skipWhitespace() {
+        while (position < limit) {
+            byte b = bytes[ position ];
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                return;
+            }
+            position++;
+        }
+    }
+
+    /**
+     * This method is a helper method that returns the next byte without reading it.
+     *
+     * @return The next byte.
+     * @throws MalformedMessageException If the payload has ended.
+     */
+    private byte peek() throws MalformedMessageException {
+        if (position >= limit) {
+            throw new MalformedMessageException("Malformed Json");
+        }
+        return bytes[ position ];
+    }
+
+    /**
+     * This method is a helper method that reads the next byte.
+     *
+     * @return The next byte.
+     * @throws MalformedMessageException If the payload has ended.
+     */
+    private byte next() throws MalformedMessageException {
+        if (position >= limit) {
+            throw new MalformedMessageException("Malformed Json");
+        }
+        return bytes[ position++ ];
+    }
+
+    /**
+     * This method is a helper method to check if a byte is an ASCII digit.
+     *
+     * @param b The byte to check.
+     * @return True if the byte is a digit, false otherwise.
+     */
+    private static boolean isDigit( byte b ) {
+        return b >= '0' && b <= '9';
+    }
+
+    /**
+     * This method is a helper method that doubles the size of the char buffer.
+     */
+    private void growCharBuffer() {
+        char[] larger = new char[ chars.length * 2 ];
+        System.arraycopy(chars, 0, larger, 0, chars.length);
+        chars = larger;
+    }
+
+    /**
+     * This method is a helper method that stops values from being nested too deeply.
+     *
+     * @param depth How deeply nested the value is.
+     * @throws MalformedMessageException If the value is nested too deeply.
+     */
+    private static void checkDepth( int depth ) throws MalformedMessageException {
+        if (depth > MAX_DEPTH) {
+            throw new MalformedMessageException("Message is nested too deeply");
+        }
+    }
+
+}
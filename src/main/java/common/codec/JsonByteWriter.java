@@ -0,0 +1,381 @@
+package common.codec;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * This class writes a {@link JsonObject} as UTF-8 encoded JSON straight into a {@link FrameBuffer}.
+ * Encoding with Gson first builds the whole message as a String and then copies that String into a byte array,
+ * this writer skips both, so encoding a message does not allocate once the frame buffer is large enough.
+ * The output is exactly what Gson writes for the same message, including the pretty-printed layout,
+ * the escaping of HTML characters, and leaving out fields whose value is null.
+ * An instance of this class is not thread safe, every connection has its own writer through its {@link JsonCodec}.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class JsonByteWriter {
+    // The escape sequences of the ASCII characters that can not be written as they are, null for every other character.
+    // These are the same sequences Gson uses, which escapes HTML characters as well by default.
+    private static final byte[][] ESCAPES = new byte[ 128 ][];
+    // The indentation Gson uses for every level of nesting when pretty-printing.
+    private static final byte[] INDENT = { ' ', ' ' };
+    // The most bytes a single char can take once it is written, which is a unicode escape sequence.
+    private static final int MAX_BYTES_PER_CHAR = 6;
+    // Doubles at least this large are written in scientific notation by Double.toString().
+    private static final double MAX_PLAIN_DOUBLE = 1e7;
+    // The most digits a long can have, plus its sign.
+    private static final int MAX_LONG_LENGTH = 20;
+
+    static {
+        for (int c = 0; c < 0x20; c++) {
+            ESCAPES[ c ] = String.format("\\u%04x", c).getBytes();
+        }
+        ESCAPES[ '"' ] = "\\\"".getBytes();
+        ESCAPES[ '\\' ] = "\\\\".getBytes();
+        ESCAPES[ '\t' ] = "\\t".getBytes();
+        ESCAPES[ '\b' ] = "\\b".getBytes();
+        ESCAPES[ '\n' ] = "\\n".getBytes();
+        ESCAPES[ '\r' ] = "\\r".getBytes();
+        ESCAPES[ '\f' ] = "\\f".getBytes();
+        ESCAPES[ '<' ] = "\\u003c".getBytes();
+        ESCAPES[ '>' ] = "\\u003e".getBytes();
+        ESCAPES[ '&' ] = "\\u0026".getBytes();
+        ESCAPES[ '=' ] = "\\u003d".getBytes();
+        ESCAPES[ '\'' ] = "\\u0027".getBytes();
+    }
+
+    // True to pretty-print the JSON, false to leave out all whitespace.
+    private final boolean prettyPrinting;
+    // The builder that doubles are formatted into, it is reused for every double.
+    private final StringBuilder numberText;
+    // The array that the digits of integers are formatted into, it is reused for every integer.
+    private final byte[] digits;
+    // The frame buffer currently being written into.
+    private FrameBuffer frame;
+
+    /**
+     * This constructor is used to create a new JsonByteWriter.
+     *
+     * @param prettyPrinting True to pretty-print the JSON, false to leave out all whitespace.
+     */
+    public JsonByteWriter( boolean prettyPrinting ) {
+        this.prettyPrinting = prettyPrinting;
+        this.numberText = new StringBuilder(32);
+        this.digits = new byte[ MAX_LONG_LENGTH ];
+    }
+
+    /**
+     * This method is used to write a message as the payload of the frame that is being encoded.
+     *
+     * @param message The message to write.
+     * @param frame The frame buffer to write into, {@link FrameBuffer#begin()} must already have been called.
+     */
+    public void write( JsonObject message, FrameBuffer frame ) {
+        this.frame = frame;
+        try {
+            writeObject(message, 0);
+        } finally {
+            this.frame = null;
+        }
+    }
+
+    /**
+     * This method is used to write a message that was already encoded by a writer of the same kind as the payload
+     * of the frame that is being encoded, with one more field added to the end of the message.
+     * The encoded message is copied as it is, so only the new field is written.
+     *
+     * @param payload The encoded message, it is not modified.
+     * @param key The key of the field to add, it must not already be in the message, or null to add no field.
+     * @param value The value of the field to add.
+     * @param frame The frame buffer to write into, {@link FrameBuffer#begin()} must already have been called.
+     */
+    public void writeWithField( ByteBuffer payload, String key, JsonElement value, FrameBuffer frame ) {
+        this.frame = frame;
+        try {
+            // Just like Gson, a field whose value is null is left out.
+            if (key == null || value == null || value.isJsonNull()) {
+                copy(payload, payload.limit());
+                return;
+            }
+            // The message ends with its closing brace, and when pretty-printing, with the line break before it
+            // unless the object is empty. Both are written again after the new field.
+            boolean empty = payload.remaining() == 2;
+            copy(payload, payload.limit() - (prettyPrinting && !empty ? 2 : 1));
+            if (!empty) {
+                writeByte(',');
+            }
+            newLine(1);
+            writeString(key);
+            writeByte(':');
+            if (prettyPrinting) {
+                writeByte(' ');
+            }
+            writeValue(value, 1);
+            newLine(0);
+            writeByte('}');
+        } finally {
+            this.frame = null;
+        }
+    }
+
+    /**
+     * This method is a helper method that copies encoded bytes into the frame, without moving the position of the source.
+     *
+     * @param payload The buffer to copy from, starting at its position.
+     * @param end The index in the buffer to stop copying at.
+     */
+    private void copy( ByteBuffer payload, int end ) {
+        int length = end - payload.position();
+        ByteBuffer out = frame.ensureCapacity(length);
+        out.put(out.position(), payload, payload.position(), length);
+        out.position(out.position() + length);
+    }
+
+    /**
+     * This method is a helper method that writes a single value and everything it contains.
+     *
+     * @param element The value to write.
+     * @param depth How deeply nested the value is.
+     */
+    private void writeValue( JsonElement element, int depth ) {
+        if (element == null || element.isJsonNull()) {
+            writeAscii("null");
+        }
+        else if (element.isJsonObject()) {
+            writeObject(element.getAsJsonObject(), depth);
+        }
+        else if (element.isJsonArray()) {
+            writeArray(element.getAsJsonArray(), depth);
+        }
+        else {
+            JsonPrimitive primitive = element.getAsJsonPrimitive();
+            if (primitive.isBoolean()) {
+                writeAscii(primitive.getAsBoolean() ? "true" : "false");
+            }
+            else if (primitive.isNumber()) {
+                writeNumber(primitive.getAsNumber());
+            }
+            else {
+                writeString(primitive.getAsString());
+            }
+        }
+    }
+
+    /**
+     * This method is a helper method that writes an object.
+     * Just like Gson, fields whose value is null are left out.
+     *
+     * @param object The object to write.
+     * @param depth How deeply nested the object is.
+     */
+    private void writeObject( JsonObject object, int depth ) {
+        writeByte('{');
+        boolean empty = true;
+        for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+            if (entry.getValue() == null || entry.getValue().isJsonNull()) {
+                continue;
+            }
+            if (!empty) {
+                writeByte(',');
+            }
+            empty = false;
+            newLine(depth + 1);
+            writeString(entry.getKey());
+            writeByte(':');
+            if (prettyPrinting) {
+                writeByte(' ');
+            }
+            writeValue(entry.getValue(), depth + 1);
+        }
+        if (!empty) {
+            newLine(depth);
+        }
+        writeByte('}');
+    }
+
+    /**
+     * This method is a helper method that writes an array.
+     *
+     * @param array The array to write.
+     * @param depth How deeply nested the array is.
+     */
+    private void writeArray( JsonArray array, int depth ) {
+        writeByte('[');
+        for (int i = 0; i < array.size(); i++) {
+            if (i > 0) {
+                writeByte(',');
+            }
+            newLine(depth + 1);
+            writeValue(array.get(i), depth + 1);
+        }
+        if (!array.isEmpty()) {
+            newLine(depth);
+        }
+        writeByte(']');
+    }
+
+    /**
+     * This method is a helper method that starts a new line when pretty-printing.
+     *
+     * @param depth The level of nesting the new line is indented to.
+     */
+    private void newLine( int depth ) {
+        if (!prettyPrinting) {
+            return;
+        }
+        ByteBuffer out = frame.ensureCapacity(1 + depth * INDENT.length);
+        out.put((byte) '\n');
+        for (int i = 0; i < depth; i++) {
+            out.put(INDENT);
+        }
+    }
+
+    /**
+     * This method is a helper method that writes a number the same way Gson does, which is its toString().
+     * Integers and doubles are formatted without creating a String.
+     *
+     * @param number The number to write.
+     */
+    private void writeNumber( Number number ) {
+        if ((number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte)
+                && number.longValue() != Long.MIN_VALUE) {
+            writeLong(number.longValue());
+        }
+        else if (number instanceof Double) {
+            double value = number.doubleValue();
+            if (value == (long) value && Math.abs(value) < MAX_PLAIN_DOUBLE && !(value == 0 && 1 / value < 0)) {
+                // Whole numbers are written as "5.0", which we can do without the JDK's formatting.
+                writeLong((long) value);
+                frame.ensureCapacity(2).put((byte) '.').put((byte) '0');
+            }
+            else {
+                // Finding the shortest digits that still read back as the same double is left to the JDK,
+                // which allocates a small helper object but no String.
+                numberText.setLength(0);
+                writeAscii(numberText.append(value));
+            }
+        }
+        else if (number instanceof Float) {
+            numberText.setLength(0);
+            writeAscii(numberText.append(number.floatValue()));
+        }
+        else {
+            // Numbers parsed from JSON already hold their text, so this does not create a String either.
+            writeAscii(number.toString());
+        }
+    }
+
+    /**
+     * This method is a helper method that writes the digits of a long.
+     *
+     * @param value The value to write, it must not be Long.MIN_VALUE.
+     */
+    private void writeLong( long value ) {
+        boolean negative = value < 0;
+        if (negative) {
+            value = -value;
+        }
+        // Fill the digits in from the end, as they are produced from the least significant one.
+        int start = digits.length;
+        do {
+            digits[ --start ] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        if (negative) {
+            digits[ --start ] = '-';
+        }
+        frame.ensureCapacity(digits.length - start).put(digits, start, digits.length - start);
+    }
+
+    /**
+     * This method is a helper method that writes a quoted, escaped String as UTF-8.
+     *
+     * @param value The String to write.
+     */
+    private void writeString( String value ) {
+        ByteBuffer out = frame.ensureCapacity(2 + value.length());
+        out.put((byte) '"');
+        for (int i = 0; i < value.length(); i++) {
+            if (out.remaining() < MAX_BYTES_PER_CHAR + 1) {
+                // Make room for the longest a char can get, plus the closing quote.
+                out = frame.ensureCapacity(MAX_BYTES_PER_CHAR + 1 + value.length() - i);
+            }
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                byte[] escape = ESCAPES[ c ];
+                if (escape == null) {
+                    out.put((byte) c);
+                }
+                else {
+                    out.put(escape);
+                }
+            }
+            else if (c < 0x800) {
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+            else if (c == '\u2028' || c == '\u2029') {
+                // Gson escapes the line and paragraph separators, as JavaScript treats them as new lines.
+                writeHexEscape(out, c);
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                out.put((byte) (0xF0 | (codePoint >> 18)));
+                out.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                out.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (codePoint & 0x3F)));
+            }
+            else if (Character.isSurrogate(c)) {
+                // A surrogate without its other half can not be encoded, String.getBytes() writes a '?' instead.
+                out.put((byte) '?');
+            }
+            else {
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        out.put((byte) '"');
+    }
+
+    /**
+     * This method is a helper method that writes a char as a unicode escape sequence.
+     *
+     * @param out The buffer to write to, it must have room for 6 bytes.
+     * @param c The char to write.
+     */
+    private static void writeHexEscape( ByteBuffer out, char c ) {
+        out.put((byte) '\\').put((byte) 'u');
+        for (int shift = 12; shift >= 0; shift -= 4) {
+            out.put((byte) Character.forDigit((c >> shift) & 0xF, 16));
+        }
+    }
+
+    /**
+     * This method is a helper method that writes text that is known to only contain ASCII characters.
+     *
+     * @param text The text to write.
+     */
+    private void writeAscii( CharSequence text ) {
+        ByteBuffer out = frame.ensureCapacity(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            out.put((byte) text.charAt(i));
+        }
+    }
+
+    /**
+     * This method is a helper method that writes a single ASCII character.
+     *
+     * @param c The character to write.
+     */
+    private void writeByte( char c ) {
+        frame.ensureCapacity(1).put((byte) c);
+    }
+
+}
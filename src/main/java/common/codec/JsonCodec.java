@@ -0,0 +1,87 @@
+package common.codec;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This codec encodes messages as UTF-8 encoded JSON strings.
+ * It can either pretty-print the JSON, which is the original format of the protocol,
+ * or leave out all whitespace to save bytes on the wire.
+ * Both variants can decode each other's output.
+ * Messages are decoded straight from their UTF-8 bytes by a {@link JsonByteReader},
+ * and encoded straight into UTF-8 bytes by a {@link JsonByteWriter},
+ * which is why a codec must not be used to decode, or to encode, on more than one thread at a time.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class JsonCodec implements Codec {
+    // The type of this codec.
+    private final CodecType type;
+    // The reader used to decode messages, it is reused for every message.
+    private final JsonByteReader reader;
+    // The writer used to encode messages, it is reused for every message.
+    private final JsonByteWriter writer;
+    // The buffer that frames are encoded into, it is reused for every frame.
+    private final FrameBuffer frame;
+
+    /**
+     * This constructor is used to create a new JsonCodec that encodes frames into a heap buffer.
+     *
+     * @param prettyPrinting True to pretty-print the JSON, false to leave out all whitespace.
+     */
+    public JsonCodec( boolean prettyPrinting ) {
+        this(prettyPrinting, new FrameBuffer(false));
+    }
+
+    /**
+     * This constructor is used to create a new JsonCodec.
+     *
+     * @param prettyPrinting True to pretty-print the JSON, false to leave out all whitespace.
+     * @param frame The buffer that frames are encoded into.
+     */
+    public JsonCodec( boolean prettyPrinting, FrameBuffer frame ) {
+        this.type = prettyPrinting ? CodecType.JSON : CodecType.COMPACT_JSON;
+        this.reader = new JsonByteReader();
+        this.writer = new JsonByteWriter(prettyPrinting);
+        this.frame = frame;
+    }
+
+    @Override
+    public CodecType getType() {
+        return type;
+    }
+
+    @Override
+    public ByteBuffer encode( JsonObject message ) {
+        // Encode the message as a frame, and copy its payload out so the caller can keep it.
+        frame.begin();
+        writer.write(message, frame);
+        return frame.finishPayload();
+    }
+
+    @Override
+    public ByteBuffer encodeFrame( JsonObject message ) {
+        // Write the JsonObject as UTF-8 encoded JSON straight into the frame buffer.
+        frame.begin();
+        writer.write(message, frame);
+        return frame.finish();
+    }
+
+    @Override
+    public ByteBuffer encodeFrame( ByteBuffer payload, String key, JsonElement value ) {
+        // Copy the encoded message into the frame buffer, and write the new field before its closing brace.
+        frame.begin();
+        writer.writeWithField(payload, key, value, frame);
+        return frame.finish();
+    }
+
+    @Override
+    public JsonObject decode( ByteBuffer payload ) throws MalformedMessageException {
+        // Parse the UTF-8 bytes straight into a JsonObject, without decoding them into a String first.
+        return reader.read(payload);
+    }
+
+}
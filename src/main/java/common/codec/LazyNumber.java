@@ -0,0 +1,104 @@
+package common.codec;
+
+import java.math.BigDecimal;
+
+/**
+ * This class is a number read from JSON that keeps its exact text and is only parsed once it is used.
+ * Writing it back out writes the same text, so numbers that do not fit in a long or a double pass through unchanged.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+final class LazyNumber extends Number {
+    // The version of this number, as every Number is serializable.
+    private static final long serialVersionUID = 1L;
+
+    // The text of the number, which is always a valid JSON number.
+    private final String text;
+
+    /**
+     * This constructor is used to create a new LazyNumber.
+     *
+     * @param text The text of the number, which must be a valid JSON number.
+     */
+    LazyNumber( String text ) {
+        this.text = text;
+    }
+
+    /**
+     * This method parses the number as an int, dropping any fraction and keeping only the lowest 32 bits.
+     *
+     * @return The number as an int.
+     */
+    @Override
+    public int intValue() {
+        return (int) longValue();
+    }
+
+    /**
+     * This method parses the number as a long, dropping any fraction and keeping only the lowest 64 bits.
+     *
+     * @return The number as a long.
+     */
+    @Override
+    public long longValue() {
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            // The number is a fraction, has an exponent or does not fit in a long.
+            return new BigDecimal(text).longValue();
+        }
+    }
+
+    /**
+     * This method parses the number as a float.
+     *
+     * @return The nearest float to the number.
+     */
+    @Override
+    public float floatValue() {
+        return Float.parseFloat(text);
+    }
+
+    /**
+     * This method parses the number as a double.
+     *
+     * @return The nearest double to the number.
+     */
+    @Override
+    public double doubleValue() {
+        return Double.parseDouble(text);
+    }
+
+    /**
+     * This method returns the text of the number, exactly as it was read.
+     *
+     * @return The text of the number.
+     */
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    /**
+     * This method checks if another number was read from the same text.
+     *
+     * @param o The object to compare to.
+     * @return True if the object is a LazyNumber with the same text.
+     */
+    @Override
+    public boolean equals( Object o ) {
+        return this == o || (o instanceof LazyNumber other && text.equals(other.text));
+    }
+
+    /**
+     * This method returns the hash code of the text of the number.
+     *
+     * @return The hash code.
+     */
+    @Override
+    public int hashCode() {
+        return text.hashCode();
+    }
+
+}
@@ -0,0 +1,37 @@
+package common.codec;
+
+import java.io.IOException;
+
+/**
+ * This exception is used when a whole frame was received, but its payload
+ * could not be decoded into a message.
+ * Unlike other IOExceptions, the connection is still usable after this exception,
+ * as the next frame starts right after the malformed one.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class MalformedMessageException extends IOException {
+    // The version of this exception, as it is serializable through IOException.
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * This constructor is used to create a new MalformedMessageException.
+     *
+     * @param message The reason the payload could not be decoded.
+     */
+    public MalformedMessageException( String message ) {
+        super(message);
+    }
+
+    /**
+     * This constructor is used to create a new MalformedMessageException.
+     *
+     * @param message The reason the payload could not be decoded.
+     * @param cause The exception that caused the payload to be rejected.
+     */
+    public MalformedMessageException( String message, Throwable cause ) {
+        super(message, cause);
+    }
+
+}
@@ -0,0 +1,75 @@
+package common.event;
+
+import common.Connection;
+import common.Metrics;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * This class is the base of every JDK Flight Recorder event that happens on a connection.
+ * Every event carries the id of its connection, see {@link Connection#getConnectionId()},
+ * and the operation it belongs to, so the slowest requests of a recording can be traced to a single client.
+ * <p>
+ * The events are meant to be left in place in production. While nothing is recording, creating an event and
+ * checking {@link #shouldCommit()} costs next to nothing, and none of its fields are filled in.
+ * While a recording is running, only events that last longer than the threshold are committed, one millisecond
+ * by default, which keeps a long recording down to the outliers. The threshold can be changed for every event,
+ * for example with {@code -XX:StartFlightRecording:socket.FrameRead#threshold=0ms}.
+ * <p>
+ * Every event is used the same way:
+ * <pre>
+ *     event.begin();
+ *     // ... the work that is being timed ...
+ *     event.end();
+ *     if (event.shouldCommit()) {
+ *         // ... fill in the fields ...
+ *         event.commit();
+ *     }
+ * </pre>
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+@Category({ "Client Server Socket" })
+@StackTrace(false)
+@Threshold("1 ms")
+public abstract class ConnectionEvent extends Event {
+    // The fields of an event's superclass are only recorded if they are not private.
+    @Label("Connection Id")
+    @Description("The id of the connection, or 0 if the connection is not known")
+    protected long connectionId;
+    @Label("Operation")
+    @Description("The id of the operation, or -2147483648 if the event does not belong to a single operation")
+    protected int operation;
+
+    /**
+     * This constructor is used to create a new event that belongs to no connection and no operation.
+     */
+    protected ConnectionEvent() {
+        this.connectionId = Connection.NO_CONNECTION_ID;
+        this.operation = Metrics.NO_OPERATION;
+    }
+
+    /**
+     * This method is used to set the connection that the event happened on.
+     *
+     * @param connectionId The id of the connection, see {@link Connection#getConnectionId()}.
+     */
+    public void setConnectionId( long connectionId ) {
+        this.connectionId = connectionId;
+    }
+
+    /**
+     * This method is used to set the operation that the event belongs to.
+     *
+     * @param operation The id of the operation, or {@link Metrics#NO_OPERATION}.
+     */
+    public void setOperation( int operation ) {
+        this.operation = operation;
+    }
+
+}
@@ -0,0 +1,22 @@
+package common.event;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * This event is committed when a request has been dispatched, see {@link common.OperationDispatcher}.
+ * It includes validating the request, looking up its operation, and either performing the operation,
+ * if it is performed inline, or handing it to a worker, if it is offloaded.
+ * Requests answered by the {@link common.ResultCache} or attached to an identical request in flight
+ * are dispatched as well, and are usually the fastest.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+@Name("socket.Dispatch")
+@Label("Operation Dispatch")
+@Description("Dispatching a request to its operation, including performing it if it is performed inline")
+public class DispatchEvent extends ConnectionEvent {
+
+}
@@ -0,0 +1,35 @@
+package common.event;
+
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * This event is committed when a frame has been read and decoded.
+ * It starts once the length prefix of the frame has arrived, so the time spent waiting for the peer to send
+ * its next frame is left out. On a blocking connection it includes reading the rest of the frame from the socket,
+ * on a non-blocking connection the frame has already been read, so it only includes decoding it.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+@Name("socket.FrameRead")
+@Label("Frame Read")
+@Description("Reading and decoding a single frame, once its length prefix has arrived")
+public class FrameReadEvent extends ConnectionEvent {
+    @Label("Frame Size")
+    @Description("The size of the frame, including its length prefix")
+    @DataAmount
+    private int size;
+
+    /**
+     * This method is used to set the size of the frame.
+     *
+     * @param size The size of the frame in bytes, including its length prefix.
+     */
+    public void setSize( int size ) {
+        this.size = size;
+    }
+
+}
@@ -0,0 +1,49 @@
+package common.event;
+
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * This event is committed when frames have been written to a socket.
+ * Frames are written in batches, see {@link common.WriteBatch}, so a single event may cover several frames.
+ * The event carries the operation of its frames if they all belong to the same one,
+ * which is the case for every batch of a single response.
+ * A non-blocking channel may only accept part of a batch, in which case every write is its own event,
+ * and only counts the frames that it finished.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+@Name("socket.FrameWrite")
+@Label("Frame Write")
+@Description("Writing one or more frames to a socket")
+public class FrameWriteEvent extends ConnectionEvent {
+    @Label("Frame Size")
+    @Description("The number of bytes written, including the length prefix of every frame")
+    @DataAmount
+    private long size;
+    @Label("Frames")
+    @Description("The number of frames that were completely written")
+    private int frames;
+
+    /**
+     * This method is used to set the number of bytes that were written.
+     *
+     * @param size The number of bytes written, including the length prefix of every frame.
+     */
+    public void setSize( long size ) {
+        this.size = size;
+    }
+
+    /**
+     * This method is used to set the number of frames that were completely written.
+     *
+     * @param frames The number of frames.
+     */
+    public void setFrames( int frames ) {
+        this.frames = frames;
+    }
+
+}
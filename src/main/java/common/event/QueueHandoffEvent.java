@@ -0,0 +1,48 @@
+package common.event;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * This event is committed when a message has been handed to another thread through one of a connection's queues,
+ * see {@link common.NetworkHandlingThread}. It includes any time the handing thread spent waiting for the queue
+ * to drain below its watermark, see {@link common.Backpressure}, which is where a slow peer shows up.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+@Name("socket.QueueHandoff")
+@Label("Queue Handoff")
+@Description("Handing a message to another thread through a connection's queue, including waiting for room")
+public class QueueHandoffEvent extends ConnectionEvent {
+    // The names of the queues a message can be handed through.
+    public static final String OUTBOUND = "outbound";
+    public static final String INBOUND = "inbound";
+
+    @Label("Queue")
+    @Description("The queue the message was handed through, either outbound to the writer or inbound to the handler")
+    private String queue;
+    @Label("Queue Depth")
+    @Description("The number of messages in the queue once the message was added")
+    private int depth;
+
+    /**
+     * This method is used to set the queue that the message was handed through.
+     *
+     * @param queue Either {@link #OUTBOUND} or {@link #INBOUND}.
+     */
+    public void setQueue( String queue ) {
+        this.queue = queue;
+    }
+
+    /**
+     * This method is used to set the depth of the queue once the message was added.
+     *
+     * @param depth The number of messages in the queue.
+     */
+    public void setDepth( int depth ) {
+        this.depth = depth;
+    }
+
+}
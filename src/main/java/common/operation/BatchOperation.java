@@ -0,0 +1,233 @@
+package common.operation;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import common.Connection;
+import common.ExecutionPolicy;
+import common.NetworkHandlingThread;
+import common.NetworkUtils;
+import common.Operation;
+import common.OperationDispatcher;
+import common.Util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static common.Util.println;
+
+/**
+ * This class is responsible for handling the batch protocol on the server's side.
+ * A batch carries any number of independent requests in a single frame, every one of them is handed
+ * to the operation it names, and all of their responses are sent back together in a single frame,
+ * in the same order as the requests.
+ * This way the cost of framing, writing and reading a message is paid once for the whole batch instead of once per request.
+ * Requests inside a batch are handled exactly like requests sent on their own, including their errors,
+ * except that operations that act on the connection itself, and batches themselves, are not supported inside a batch.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class BatchOperation implements Operation {
+
+    /**
+     * This method is used to provide a description of the operation to the client.
+     *
+     * @return A description of the operation.
+     */
+    @Override
+    public String getDescription() {
+        return "This operation performs many operations at once and returns all of their results.";
+    }
+
+    /**
+     * This method is called when the server receives a request for this operation.
+     *
+     * @param request The request that was received.
+     * @param out     The connection that the request was received on.
+     */
+    @Override
+    public void handleServer( JsonObject request, Connection out ) {
+        if (!request.has("requests")) {
+            out.send(NetworkUtils.createMissingRequiredArgumentError());
+            return;
+        }
+        if (!request.get("requests").isJsonArray()) {
+            out.send(NetworkUtils.createIllegalArgumentTypeError());
+            return;
+        }
+        JsonArray requests = request.get("requests").getAsJsonArray();
+        JsonArray results = new JsonArray(requests.size());
+        // Every request in the batch responds to the collector instead of the connection,
+        // so that the responses can be sent together once the whole batch has been handled.
+        ResultCollector collector = new ResultCollector(out);
+        for (JsonElement element : requests) {
+            if (!element.isJsonObject()) {
+                results.add(NetworkUtils.createIllegalArgumentTypeError());
+                continue;
+            }
+            collector.result = null;
+            OperationDispatcher.dispatchBatched(element.getAsJsonObject(), collector);
+            // An operation that does not respond leaves a null in its place, so the results still line up with the requests.
+            results.add(collector.result);
+        }
+        out.send(createBatchResponse(results));
+    }
+
+    /**
+     * This method is called on the client side to begin the operation.
+     * It asks the user for a number of triangles and sends all of their hypotenuse requests in a single batch.
+     *
+     * @param networkHandlingThread The Networking thread that is handling the request.
+     *                              This is used to send the request to the server.
+     *                              The thread will also be used to handle the response.
+     */
+    @Override
+    public void handleClient( NetworkHandlingThread networkHandlingThread ) {
+        println("Please enter the number of triangles: ");
+        Number count = HypotenuseOperation.parseNumber(Util.getScanner());
+        if (count == null || count.intValue() < 1) {
+            println("Error: The number of triangles must be a positive integer.");
+            Util.getScanner().nextLine();
+            return;
+        }
+        List<JsonObject> requests = new ArrayList<>(count.intValue());
+        for (int i = 0; i < count.intValue(); i++) {
+            println("Please enter both sides of triangle %d: ", i + 1);
+            Number sideA = HypotenuseOperation.parseNumber(Util.getScanner());
+            Number sideB = HypotenuseOperation.parseNumber(Util.getScanner());
+            requests.add(HypotenuseOperation.createHypotenuseRequest(sideA, sideB));
+        }
+
+        networkHandlingThread.send(createBatchRequest(requests));
+
+        JsonObject response = networkHandlingThread.receive();
+
+        if (response.has("error")) {
+            println("Error: " + response.get("message").getAsString());
+            return;
+        }
+        if (!response.has("results") || !response.get("results").isJsonArray()) {
+            println("Error: Malformed response received from server.");
+            return;
+        }
+
+        JsonArray results = response.get("results").getAsJsonArray();
+        for (int i = 0; i < results.size(); i++) {
+            JsonObject result = results.get(i).isJsonObject() ? results.get(i).getAsJsonObject() : null;
+            if (result == null || (!result.has("result") && !result.has("message"))) {
+                println("Triangle %d: Malformed response received from server.", i + 1);
+            }
+            else if (result.has("error")) {
+                println("Triangle %d: Error: %s", i + 1, result.get("message").getAsString());
+            }
+            else {
+                println("Triangle %d: The hypotenuse is: %s", i + 1, result.get("result").getAsDouble());
+            }
+        }
+    }
+
+    /**
+     * Batches can not be nested, a batch inside a batch is answered as an unsupported operation.
+     *
+     * @return False, this operation may not be batched.
+     */
+    @Override
+    public boolean isBatchable() {
+        return false;
+    }
+
+    /**
+     * The requests in a batch are performed one after the other, and nothing is sent until the last of them is done,
+     * so a batch of a few hundred requests holds its thread for as long as all of them take together.
+     * It is performed on a worker, so that the I/O thread can keep reading in the meantime.
+     *
+     * @return {@link ExecutionPolicy#OFFLOAD}.
+     */
+    @Override
+    public ExecutionPolicy getExecutionPolicy() {
+        return ExecutionPolicy.OFFLOAD;
+    }
+
+    /**
+     * This method is used to create a batch request.
+     *
+     * @param requests The requests to send in the batch, in the order their results should be returned.
+     * @return A JsonObject that represents the batch request.
+     */
+    public static JsonObject createBatchRequest( List<JsonObject> requests ) {
+        JsonArray array = new JsonArray(requests.size());
+        for (JsonObject request : requests) {
+            array.add(request);
+        }
+        JsonObject request = new JsonObject();
+        request.addProperty("operation", 2);
+        request.add("requests", array);
+        return request;
+    }
+
+    /**
+     * This method is used to create a batch response.
+     *
+     * @param results The response to every request in the batch, in the same order as the requests.
+     * @return A JsonObject that represents the batch response.
+     */
+    public static JsonObject createBatchResponse( JsonArray results ) {
+        JsonObject response = new JsonObject();
+        response.addProperty("operation", 2);
+        response.add("results", results);
+        return response;
+    }
+
+    /**
+     * This class is a {@link Connection} that keeps the response to a single request in a batch
+     * instead of sending it, so that the responses to the whole batch can be sent together.
+     * Requests in a batch are handled one at a time on the thread handling the batch, so it is reused for every request.
+     */
+    private static class ResultCollector implements Connection {
+        // The connection that the batch was received on.
+        private final Connection connection;
+        // The response to the request currently being handled, or null if it has not responded yet.
+        private JsonObject result;
+
+        /**
+         * This constructor is used to create a new ResultCollector.
+         *
+         * @param connection The connection that the batch was received on.
+         */
+        private ResultCollector( Connection connection ) {
+            this.connection = connection;
+        }
+
+        /**
+         * This method keeps the response to the request currently being handled.
+         * Only the first response is kept, as every request is answered with a single response.
+         *
+         * @param message The response to keep.
+         */
+        @Override
+        public void send( JsonObject message ) {
+            if (result == null) {
+                result = message;
+            }
+        }
+
+        /**
+         * This method can be used to check if the connection the batch was received on is still running.
+         *
+         * @return True if the connection is still running, false otherwise.
+         */
+        @Override
+        public boolean isRunning() {
+            return connection.isRunning();
+        }
+
+        /**
+         * Requests in a batch can not close the connection, so this method does nothing.
+         */
+        @Override
+        public void close() {
+        }
+    }
+
+}
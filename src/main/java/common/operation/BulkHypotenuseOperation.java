@@ -0,0 +1,218 @@
+package common.operation;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import common.Connection;
+import common.ExecutionPolicy;
+import common.NetworkHandlingThread;
+import common.NetworkUtils;
+import common.Operation;
+import common.Util;
+
+import static common.Util.println;
+
+/**
+ * This class is responsible for handling the bulk hypotenuse protocol on the server's side.
+ * Instead of a single triangle, a request carries the sides of many triangles as two arrays.
+ * The sides are unpacked into primitive arrays and all the hypotenuses are calculated at once
+ * by the {@link HypotenuseKernel}, which uses SIMD instructions when the Vector API is available.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class BulkHypotenuseOperation implements Operation {
+
+    /**
+     * This method is used to provide a description of the operation to the client.
+     *
+     * @return A description of the operation.
+     */
+    @Override
+    public String getDescription() {
+        return "This operation calculates the hypotenuses of many right triangles at once.";
+    }
+
+    /**
+     * This method is called when the server receives a request for this operation.
+     *
+     * @param request The request that was received.
+     * @param out     The connection that the request was received on.
+     */
+    @Override
+    public void handleServer( JsonObject request, Connection out ) {
+        if (!request.has("a") || !request.has("b")) {
+            out.send(NetworkUtils.createMissingRequiredArgumentError());
+            return;
+        }
+        if (!request.get("a").isJsonArray() || !request.get("b").isJsonArray()) {
+            out.send(NetworkUtils.createIllegalArgumentTypeError());
+            return;
+        }
+        JsonArray sidesA = request.get("a").getAsJsonArray();
+        JsonArray sidesB = request.get("b").getAsJsonArray();
+        if (sidesA.size() != sidesB.size()) {
+            out.send(NetworkUtils.createMalformedJsonError());
+            return;
+        }
+        double[] a = toDoubles(sidesA);
+        double[] b = toDoubles(sidesB);
+        if (a == null || b == null) {
+            out.send(NetworkUtils.createIllegalArgumentTypeError());
+            return;
+        }
+        double[] results = new double[ a.length ];
+        HypotenuseKernel.compute(a, b, results);
+        out.send(createBulkHypotenuseResponse(results));
+    }
+
+    /**
+     * This method is called on the client side to begin the operation.
+     * It asks the user for the sides of a number of triangles and sends all of them in a single request.
+     *
+     * @param networkHandlingThread The Networking thread that is handling the request.
+     *                              This is used to send the request to the server.
+     *                              The thread will also be used to handle the response.
+     */
+    @Override
+    public void handleClient( NetworkHandlingThread networkHandlingThread ) {
+        println("Please enter the number of triangles: ");
+        Number count = HypotenuseOperation.parseNumber(Util.getScanner());
+        if (count == null || count.intValue() < 1) {
+            println("Error: The number of triangles must be a positive integer.");
+            Util.getScanner().nextLine();
+            return;
+        }
+        double[] a = new double[ count.intValue() ];
+        double[] b = new double[ count.intValue() ];
+        for (int i = 0; i < a.length; i++) {
+            println("Please enter both sides of triangle %d: ", i + 1);
+            Number sideA = HypotenuseOperation.parseNumber(Util.getScanner());
+            Number sideB = HypotenuseOperation.parseNumber(Util.getScanner());
+            if (sideA == null || sideB == null) {
+                println("Error: The sides of a triangle must be numbers.");
+                Util.getScanner().nextLine();
+                return;
+            }
+            a[ i ] = sideA.doubleValue();
+            b[ i ] = sideB.doubleValue();
+        }
+
+        networkHandlingThread.send(createBulkHypotenuseRequest(a, b));
+
+        JsonObject response = networkHandlingThread.receive();
+
+        if (response.has("error")) {
+            println("Error: " + response.get("message").getAsString());
+            return;
+        }
+        double[] results = parseResults(response);
+        if (results == null || results.length != a.length) {
+            println("Error: Malformed response received from server.");
+            return;
+        }
+        for (int i = 0; i < results.length; i++) {
+            println("Triangle %d: The hypotenuse is: %s", i + 1, results[ i ]);
+        }
+    }
+
+    /**
+     * Unlike a single hypotenuse, the work of a bulk request grows with its triangles: every side is copied
+     * out of its array, every hypotenuse is calculated and every result is added to the response.
+     * It is performed on a worker, so that the I/O thread only decodes the request.
+     *
+     * @return {@link ExecutionPolicy#OFFLOAD}.
+     */
+    @Override
+    public ExecutionPolicy getExecutionPolicy() {
+        return ExecutionPolicy.OFFLOAD;
+    }
+
+    /**
+     * The hypotenuses only depend on the sides, so the responses may be cached.
+     * Only requests carrying a handful of triangles are short enough to be cached, see {@link common.ResultCache#MAX_KEY_LENGTH}.
+     *
+     * @return True, this operation is pure.
+     */
+    @Override
+    public boolean isPure() {
+        return true;
+    }
+
+    /**
+     * This method is used to create a bulk hypotenuse request.
+     *
+     * @param a The length of one of the sides of every triangle.
+     * @param b The length of the other side of every triangle, there must be as many as there are in a.
+     * @return A JsonObject that represents the bulk hypotenuse request.
+     */
+    public static JsonObject createBulkHypotenuseRequest( double[] a, double[] b ) {
+        if (a.length != b.length) {
+            throw new IllegalArgumentException("Every triangle needs both of its sides");
+        }
+        JsonObject request = new JsonObject();
+        request.addProperty("operation", 3);
+        request.add("a", toJsonArray(a));
+        request.add("b", toJsonArray(b));
+        return request;
+    }
+
+    /**
+     * This method is used to create a bulk hypotenuse response.
+     *
+     * @param results The hypotenuse of every triangle, in the same order as the request.
+     * @return A JsonObject that represents the bulk hypotenuse response.
+     */
+    public static JsonObject createBulkHypotenuseResponse( double[] results ) {
+        JsonObject response = new JsonObject();
+        response.addProperty("operation", 3);
+        response.add("results", toJsonArray(results));
+        return response;
+    }
+
+    /**
+     * This method is used to read the hypotenuses from a bulk hypotenuse response.
+     *
+     * @param response The response that was received.
+     * @return The hypotenuse of every triangle, or null if the response is malformed.
+     */
+    public static double[] parseResults( JsonObject response ) {
+        if (!response.has("results") || !response.get("results").isJsonArray()) {
+            return null;
+        }
+        return toDoubles(response.get("results").getAsJsonArray());
+    }
+
+    /**
+     * This method is used to unpack an array of numbers into a primitive array.
+     *
+     * @param array The array to unpack.
+     * @return The numbers in the array, or null if any of its elements is not a number.
+     */
+    static double[] toDoubles( JsonArray array ) {
+        double[] values = new double[ array.size() ];
+        for (int i = 0; i < values.length; i++) {
+            JsonElement element = array.get(i);
+            if (!element.isJsonPrimitive() || !element.getAsJsonPrimitive().isNumber()) {
+                return null;
+            }
+            values[ i ] = element.getAsDouble();
+        }
+        return values;
+    }
+
+    /**
+     * This method is used to pack a primitive array into an array of numbers.
+     *
+     * @param values The values to pack.
+     * @return A JsonArray containing every value.
+     */
+    static JsonArray toJsonArray( double[] values ) {
+        JsonArray array = new JsonArray(values.length);
+        for (double value : values) {
+            array.add(value);
+        }
+        return array;
+    }
+
+}
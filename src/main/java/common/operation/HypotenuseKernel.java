@@ -0,0 +1,89 @@
+package common.operation;
+
+import common.Log;
+
+/**
+ * This class calculates the hypotenuses of many right triangles at once, from primitive arrays.
+ * When the {@code jdk.incubator.vector} module is available, the work is done by {@link VectorHypotenuseKernel},
+ * which calculates as many triangles at once as the processor's SIMD registers hold.
+ * Otherwise, or when it is turned off with {@code -Dhypotenuse.vectorized=false}, every triangle is calculated one at a time.
+ * Both give exactly the same results, as squaring, adding and taking the square root are all correctly rounded in both.
+ * They match {@link HypotenuseOperation#createHypotenuseResponse(Number, Number)} as long as its {@link Math#pow(double, double)}
+ * squares exactly, which it does on HotSpot, but which is only specified to within 1 ulp.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public final class HypotenuseKernel {
+    // True if the Vector API is available and has not been turned off.
+    private static final boolean VECTORIZED = isVectorApiEnabled();
+
+    static {
+        if (VECTORIZED) {
+            Log.debug("Hypotenuses are calculated with %d SIMD lanes", VectorHypotenuseKernel.lanes());
+        }
+    }
+
+    private HypotenuseKernel() {
+    }
+
+    /**
+     * This method is used to calculate the hypotenuses of many right triangles.
+     *
+     * @param a The length of one of the sides of every triangle.
+     * @param b The length of the other side of every triangle, there must be at least as many as there are in a.
+     * @param results The array the hypotenuses are written into, there must be room for as many as there are in a.
+     */
+    public static void compute( double[] a, double[] b, double[] results ) {
+        if (b.length < a.length || results.length < a.length) {
+            throw new IllegalArgumentException("Every triangle needs both of its sides and room for its result");
+        }
+        if (VECTORIZED) {
+            // The Vector API class is only loaded here, so the module does not have to be present otherwise.
+            VectorHypotenuseKernel.compute(a, b, results, a.length);
+        }
+        else {
+            computeScalar(a, b, results, 0, a.length);
+        }
+    }
+
+    /**
+     * This method is used to check if the hypotenuses are calculated with the Vector API.
+     *
+     * @return True if the Vector API is used, false otherwise.
+     */
+    public static boolean isVectorized() {
+        return VECTORIZED;
+    }
+
+    /**
+     * This method is used to calculate the hypotenuses of a range of right triangles, one at a time.
+     * It is also used for the triangles left over at the end of the arrays, that don't fill a whole vector.
+     *
+     * @param a The length of one of the sides of every triangle.
+     * @param b The length of the other side of every triangle.
+     * @param results The array the hypotenuses are written into.
+     * @param from The index of the first triangle to calculate.
+     * @param to The index after the last triangle to calculate.
+     */
+    static void computeScalar( double[] a, double[] b, double[] results, int from, int to ) {
+        for (int i = from; i < to; i++) {
+            results[ i ] = Math.sqrt(a[ i ] * a[ i ] + b[ i ] * b[ i ]);
+        }
+    }
+
+    /**
+     * This method is a helper method that checks if the Vector API can be used.
+     * The module is incubating, so it is only present when the JVM is started with
+     * {@code --add-modules jdk.incubator.vector}, which the gradle tasks do.
+     *
+     * @return True if the Vector API is present and has not been turned off.
+     */
+    private static boolean isVectorApiEnabled() {
+        if (!Boolean.parseBoolean(System.getProperty("hypotenuse.vectorized", "true"))) {
+            return false;
+        }
+        return ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    }
+
+}
@@ -1,6 +1,7 @@
 package common.operation;
 
 import com.google.gson.JsonObject;
+import common.Connection;
 import common.NetworkHandlingThread;
 import common.NetworkUtils;
 import common.Operation;
@@ -32,10 +33,10 @@ public class HypotenuseOperation implements Operation {
      * This method is called when the server receives a request for this operation.
      *
      * @param request The request that was received.
-     * @param out     The thread that is handling the request.
+     * @param out     The connection that the request was received on.
      */
     @Override
-    public void handleServer( JsonObject request, NetworkHandlingThread out ) {
+    public void handleServer( JsonObject request, Connection out ) {
         if (!request.has("a") || !request.has("b")) {
             out.send(NetworkUtils.createMalformedJsonError());
             return;
@@ -87,6 +88,16 @@ public class HypotenuseOperation implements Operation {
         println("The hypotenuse is: " + response.get("result").getAsDouble());
     }
 
+    /**
+     * The hypotenuse of a triangle only depends on its sides, so its responses may be cached.
+     *
+     * @return True, this operation is pure.
+     */
+    @Override
+    public boolean isPure() {
+        return true;
+    }
+
     /**
      * This method is used to parse a number from the user.
      *
@@ -1,6 +1,7 @@
 package common.operation;
 
 import com.google.gson.JsonObject;
+import common.Connection;
 import common.NetworkHandlingThread;
 import common.Operation;
 
@@ -30,10 +31,10 @@ public class ShutdownOperation implements Operation {
      * This method is called when the server receives a request for this operation.
      *
      * @param request The request that was received.
-     * @param out     The thread that is handling the request.
+     * @param out     The connection that the request was received on.
      */
     @Override
-    public void handleServer( JsonObject request, NetworkHandlingThread out ) {
+    public void handleServer( JsonObject request, Connection out ) {
         try {
             out.close();
         } catch (IOException ignored) {}
@@ -53,4 +54,15 @@ public class ShutdownOperation implements Operation {
         } catch (IOException ignored) {}
     }
 
+    /**
+     * The connection can not be shut down from inside a batch,
+     * as the rest of the batch would never be answered.
+     *
+     * @return False, this operation may not be batched.
+     */
+    @Override
+    public boolean isBatchable() {
+        return false;
+    }
+
 }
@@ -0,0 +1,274 @@
+package common.operation;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import common.BufferPool;
+import common.Connection;
+import common.ExecutionPolicy;
+import common.Histogram;
+import common.Metrics;
+import common.NetworkHandlingThread;
+import common.NetworkUtils;
+import common.Operation;
+import common.ResultCache;
+import common.SingleFlight;
+import common.Stage;
+import common.Util;
+
+import java.util.Map;
+
+import static common.Util.println;
+
+/**
+ * This class is responsible for handling the statistics protocol on the server's side.
+ * The response is a snapshot of the server's {@link Metrics}: its connections and their queues,
+ * the bytes it has read and written, the state of its {@link BufferPool}s, its {@link ResultCache}
+ * and its {@link SingleFlight}, and the number of requests and the latency percentiles of every stage for every operation.
+ * <p>
+ * Every number is read from a counter or a histogram that is updated without locking, and is read the same way,
+ * so taking the snapshot never stops an I/O thread or a worker. The numbers are therefore read one after the other,
+ * while the server keeps running, rather than all at the same instant.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class StatsOperation implements Operation {
+    // The percentiles reported for every stage, and the names they are reported with.
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+    private static final String[] PERCENTILE_NAMES = { "p50", "p90", "p99", "p999" };
+
+    /**
+     * This method is used to provide a description of the operation to the client.
+     *
+     * @return A description of the operation.
+     */
+    @Override
+    public String getDescription() {
+        return "This operation returns statistics about the server.";
+    }
+
+    /**
+     * This method is called when the server receives a request for this operation.
+     * A server that does not record {@link Metrics} has no statistics, so it answers that the operation is unsupported.
+     *
+     * @param request The request that was received.
+     * @param out     The connection that the request was received on.
+     */
+    @Override
+    public void handleServer( JsonObject request, Connection out ) {
+        Metrics metrics = Util.getMetrics();
+        if (metrics == null) {
+            out.send(NetworkUtils.createUnsupportedOperationError());
+            return;
+        }
+        out.send(createStatsResponse(metrics));
+    }
+
+    /**
+     * This method is called on the client side to begin the operation.
+     * It asks the server for its statistics and prints a summary of them.
+     *
+     * @param networkHandlingThread The Networking thread that is handling the request.
+     *                              This is used to send the request to the server.
+     *                              The thread will also be used to handle the response.
+     */
+    @Override
+    public void handleClient( NetworkHandlingThread networkHandlingThread ) {
+        networkHandlingThread.send(createStatsRequest());
+
+        JsonObject response = networkHandlingThread.receive();
+
+        if (response.has("error")) {
+            println("Error: " + response.get("message").getAsString());
+            return;
+        }
+        if (!response.has("connections") || !response.has("operations")) {
+            println("Error: Malformed response received from server.");
+            return;
+        }
+        JsonObject connections = response.getAsJsonObject("connections");
+        JsonObject bytes = response.getAsJsonObject("bytes");
+        println("Uptime: %.1f seconds", response.get("uptime").getAsDouble());
+        println("Connections: %d open, %d opened", connections.get("open").getAsLong(), connections.get("opened").getAsLong());
+        println("Bytes: %d read, %d written", bytes.get("read").getAsLong(), bytes.get("written").getAsLong());
+        if (response.has("cache")) {
+            JsonObject cache = response.getAsJsonObject("cache");
+            println("Cache: %d hits, %d misses, %.1f%% hit rate", cache.get("hits").getAsLong(), cache.get("misses").getAsLong(),
+                    cache.get("hitRate").getAsDouble() * 100);
+        }
+        if (response.has("singleFlight")) {
+            JsonObject singleFlight = response.getAsJsonObject("singleFlight");
+            println("Coalescing: %d coalesced, %d in flight", singleFlight.get("coalesced").getAsLong(), singleFlight.get("inFlight").getAsLong());
+        }
+        for (Map.Entry<String, JsonElement> entry : response.getAsJsonObject("operations").entrySet()) {
+            JsonObject operation = entry.getValue().getAsJsonObject();
+            StringBuilder line = new StringBuilder();
+            line.append(String.format("Operation %s: %d requests", entry.getKey(), operation.get("requests").getAsLong()));
+            if (operation.has(Stage.EXECUTE.getName())) {
+                JsonObject execute = operation.getAsJsonObject(Stage.EXECUTE.getName());
+                line.append(String.format(", execute p50 %.1f us, p99 %.1f us",
+                        execute.get("p50").getAsLong() / 1000.0, execute.get("p99").getAsLong() / 1000.0));
+            }
+            println(line.toString());
+        }
+    }
+
+    /**
+     * The snapshot walks every bucket of every histogram of every operation, which took a few hundred microseconds,
+     * far longer than any request that is performed inline, so it is performed on a worker.
+     *
+     * @return {@link ExecutionPolicy#OFFLOAD}.
+     */
+    @Override
+    public ExecutionPolicy getExecutionPolicy() {
+        return ExecutionPolicy.OFFLOAD;
+    }
+
+    /**
+     * This method is used to create a statistics request.
+     *
+     * @return A JsonObject that represents the statistics request.
+     */
+    public static JsonObject createStatsRequest() {
+        JsonObject request = new JsonObject();
+        request.addProperty("operation", 5);
+        return request;
+    }
+
+    /**
+     * This method is used to create a statistics response from a snapshot of the server's metrics,
+     * of its result cache when caching is turned on, and of its request coalescing.
+     *
+     * @param metrics The metrics of the server.
+     * @return A JsonObject that represents the statistics response.
+     */
+    public static JsonObject createStatsResponse( Metrics metrics ) {
+        JsonObject response = new JsonObject();
+        response.addProperty("operation", 5);
+        double uptime = metrics.getUptimeNanos() / 1e9;
+        response.addProperty("uptime", uptime);
+
+        // Every connection is only asked for the depth of its queues, which never locks them.
+        int open = 0;
+        long outbound = 0;
+        long inbound = 0;
+        int maxOutbound = 0;
+        int maxInbound = 0;
+        for (Connection connection : metrics.getConnections()) {
+            open++;
+            int outboundDepth = connection.getOutboundQueueDepth();
+            int inboundDepth = connection.getInboundQueueDepth();
+            outbound += outboundDepth;
+            inbound += inboundDepth;
+            maxOutbound = Math.max(maxOutbound, outboundDepth);
+            maxInbound = Math.max(maxInbound, inboundDepth);
+        }
+        JsonObject connections = new JsonObject();
+        connections.addProperty("open", open);
+        connections.addProperty("opened", metrics.getOpenedConnectionCount());
+        response.add("connections", connections);
+        JsonObject queues = new JsonObject();
+        queues.addProperty("outbound", outbound);
+        queues.addProperty("inbound", inbound);
+        queues.addProperty("maxOutbound", maxOutbound);
+        queues.addProperty("maxInbound", maxInbound);
+        response.add("queues", queues);
+
+        JsonObject bytes = new JsonObject();
+        bytes.addProperty("read", metrics.getBytesRead());
+        bytes.addProperty("written", metrics.getBytesWritten());
+        response.add("bytes", bytes);
+
+        JsonObject bufferPool = new JsonObject();
+        bufferPool.add("heap", createBufferPoolStats(BufferPool.heap()));
+        bufferPool.add("direct", createBufferPoolStats(BufferPool.direct()));
+        response.add("bufferPool", bufferPool);
+
+        // The cache only exists when caching was turned on with a cache size, see the README.
+        ResultCache cache = Util.getResultCache();
+        if (cache != null) {
+            response.add("cache", createCacheStats(cache));
+        }
+        // The coalesced requests are reported next to the cache, as both answer a request without performing it.
+        SingleFlight singleFlight = Util.getSingleFlight();
+        if (singleFlight != null) {
+            JsonObject coalescing = new JsonObject();
+            coalescing.addProperty("coalesced", singleFlight.getCoalescedCount());
+            coalescing.addProperty("inFlight", singleFlight.getInFlightCount());
+            response.add("singleFlight", coalescing);
+        }
+
+        JsonObject operations = new JsonObject();
+        for (Map.Entry<Integer, Metrics.OperationMetrics> entry : metrics.getOperations().entrySet()) {
+            Metrics.OperationMetrics operation = entry.getValue();
+            JsonObject stats = createStageStats(operation);
+            long requests = operation.getRequestCount();
+            stats.addProperty("requests", requests);
+            stats.addProperty("failures", operation.getFailureCount());
+            stats.addProperty("rate", uptime > 0 ? requests / uptime : 0);
+            operations.add(String.valueOf(entry.getKey()), stats);
+        }
+        response.add("operations", operations);
+        response.add("unattributed", createStageStats(metrics.getUnattributed()));
+        return response;
+    }
+
+    /**
+     * This method is a helper method that describes a buffer pool.
+     *
+     * @param pool The buffer pool.
+     * @return A JsonObject with the number of leased buffers, pooled bytes and allocated bytes.
+     */
+    private static JsonObject createBufferPoolStats( BufferPool pool ) {
+        JsonObject stats = new JsonObject();
+        stats.addProperty("leased", pool.getLeasedBuffers());
+        stats.addProperty("pooled", pool.getPooledBytes());
+        stats.addProperty("allocated", pool.getAllocatedBytes());
+        return stats;
+    }
+
+    /**
+     * This method is a helper method that describes the result cache.
+     *
+     * @param cache The result cache.
+     * @return A JsonObject with the size, capacity, hits, misses, hit rate, evictions and rejections of the cache.
+     */
+    private static JsonObject createCacheStats( ResultCache cache ) {
+        JsonObject stats = new JsonObject();
+        stats.addProperty("size", cache.size());
+        stats.addProperty("capacity", cache.getCapacity());
+        stats.addProperty("hits", cache.getHitCount());
+        stats.addProperty("misses", cache.getMissCount());
+        stats.addProperty("hitRate", cache.getHitRate());
+        stats.addProperty("evictions", cache.getEvictionCount());
+        stats.addProperty("rejections", cache.getRejectionCount());
+        return stats;
+    }
+
+    /**
+     * This method is a helper method that describes the latency of every stage that has been recorded.
+     * Stages that have never been recorded are left out.
+     *
+     * @param metrics The metrics of an operation.
+     * @return A JsonObject with the count, mean, percentiles and maximum of every stage, in nanoseconds.
+     */
+    private static JsonObject createStageStats( Metrics.OperationMetrics metrics ) {
+        JsonObject stages = new JsonObject();
+        for (Stage stage : Stage.values()) {
+            Histogram.Snapshot snapshot = metrics.getHistogram(stage).snapshot();
+            if (snapshot.getCount() == 0) {
+                continue;
+            }
+            JsonObject stats = new JsonObject();
+            stats.addProperty("count", snapshot.getCount());
+            stats.addProperty("mean", Math.round(snapshot.getMean()));
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                stats.addProperty(PERCENTILE_NAMES[ i ], snapshot.getValueAtPercentile(PERCENTILES[ i ]));
+            }
+            stats.addProperty("max", snapshot.getMax());
+            stages.add(stage.getName(), stats);
+        }
+        return stages;
+    }
+
+}
@@ -0,0 +1,378 @@
+package common.operation;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import common.Connection;
+import common.CorrelatedConnection;
+import common.NetworkHandlingThread;
+import common.NetworkUtils;
+import common.Operation;
+import common.Util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static common.Util.println;
+
+/**
+ * This class is responsible for handling the streaming hypotenuse protocol on the server's side.
+ * Unlike every other operation, a stream lives across many frames: the client opens a stream,
+ * pushes chunks of triangles through it and finally closes it, and the server answers every chunk
+ * with the hypotenuses of that chunk as soon as it has been calculated.
+ * This way an input of any size can be calculated without either side ever holding more than a few chunks:
+ * the server keeps nothing but a counter for every stream, every chunk is limited to {@link #MAX_CHUNK_SIZE} triangles,
+ * and the client may only have {@link #WINDOW} chunks in flight before it waits for their results.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class StreamingHypotenuseOperation implements Operation {
+    // The largest number of triangles a single chunk may carry.
+    public static final int MAX_CHUNK_SIZE = 4096;
+    // The largest number of chunks a client may push before it has received the results of the first of them.
+    public static final int WINDOW = 8;
+    // The largest number of streams that may be open on a single connection.
+    public static final int MAX_STREAMS_PER_CONNECTION = 16;
+
+    // The streams that are currently open, by the connection that opened them, and then by their id.
+    private final Map<Connection, Map<Long, Stream>> STREAMS;
+    // The id that will be given to the next stream that is opened.
+    private final AtomicLong nextStreamId;
+
+    /**
+     * This constructor is used to create a new StreamingHypotenuseOperation without any open streams.
+     */
+    public StreamingHypotenuseOperation() {
+        this.STREAMS = new ConcurrentHashMap<>();
+        this.nextStreamId = new AtomicLong();
+    }
+
+    /**
+     * This method is used to provide a description of the operation to the client.
+     *
+     * @return A description of the operation.
+     */
+    @Override
+    public String getDescription() {
+        return "This operation calculates the hypotenuses of a stream of right triangles, chunk by chunk.";
+    }
+
+    /**
+     * This method is called when the server receives a request for this operation.
+     * The request either opens a stream, pushes a chunk through it or closes it, depending on its action.
+     *
+     * @param request The request that was received.
+     * @param out     The connection that the request was received on.
+     */
+    @Override
+    public void handleServer( JsonObject request, Connection out ) {
+        if (!request.has("action")) {
+            out.send(NetworkUtils.createMissingRequiredArgumentError());
+            return;
+        }
+        if (!request.get("action").isJsonPrimitive() || !request.get("action").getAsJsonPrimitive().isString()) {
+            out.send(NetworkUtils.createIllegalArgumentTypeError());
+            return;
+        }
+        switch (request.get("action").getAsString()) {
+            case "open" -> open(out);
+            case "push" -> push(request, out);
+            case "close" -> close(request, out);
+            default -> out.send(NetworkUtils.createMalformedJsonError());
+        }
+    }
+
+    /**
+     * This method is a helper method that opens a new stream on the given connection.
+     *
+     * @param out The connection that the request was received on.
+     */
+    private void open( Connection out ) {
+        Connection owner = ownerOf(out);
+        Map<Long, Stream> streams = STREAMS.computeIfAbsent(owner, connection -> new ConcurrentHashMap<>());
+        if (streams.size() >= MAX_STREAMS_PER_CONNECTION) {
+            out.send(NetworkUtils.createLimitExceededError());
+            return;
+        }
+        long streamId = nextStreamId.incrementAndGet();
+        streams.put(streamId, new Stream());
+        // A connection that was closed meanwhile has already been forgotten, so its streams must not be kept either.
+        if (!owner.isRunning()) {
+            STREAMS.remove(owner);
+        }
+        JsonObject response = createStreamMessage("open", streamId);
+        response.addProperty("window", WINDOW);
+        response.addProperty("maxChunk", MAX_CHUNK_SIZE);
+        out.send(response);
+    }
+
+    /**
+     * This method is a helper method that calculates the hypotenuses of a single chunk and sends them back.
+     *
+     * @param request The request that was received.
+     * @param out The connection that the request was received on.
+     */
+    private void push( JsonObject request, Connection out ) {
+        Stream stream = findStream(request, out);
+        if (stream == null) {
+            return;
+        }
+        if (!request.has("seq") || !request.has("a") || !request.has("b")) {
+            out.send(NetworkUtils.createMissingRequiredArgumentError());
+            return;
+        }
+        if (!request.get("seq").isJsonPrimitive() || !request.get("seq").getAsJsonPrimitive().isNumber()
+                || !request.get("a").isJsonArray() || !request.get("b").isJsonArray()) {
+            out.send(NetworkUtils.createIllegalArgumentTypeError());
+            return;
+        }
+        JsonArray sidesA = request.get("a").getAsJsonArray();
+        JsonArray sidesB = request.get("b").getAsJsonArray();
+        if (sidesA.size() > MAX_CHUNK_SIZE) {
+            out.send(NetworkUtils.createLimitExceededError());
+            return;
+        }
+        if (sidesA.size() != sidesB.size()) {
+            out.send(NetworkUtils.createMalformedJsonError());
+            return;
+        }
+        double[] a = BulkHypotenuseOperation.toDoubles(sidesA);
+        double[] b = BulkHypotenuseOperation.toDoubles(sidesB);
+        if (a == null || b == null) {
+            out.send(NetworkUtils.createIllegalArgumentTypeError());
+            return;
+        }
+        long seq = request.get("seq").getAsLong();
+        if (!stream.advance(seq, a.length)) {
+            // Chunks must arrive in order, a missing or repeated chunk means the client has lost track of the stream.
+            out.send(NetworkUtils.createMalformedJsonError());
+            return;
+        }
+        double[] results = new double[ a.length ];
+        HypotenuseKernel.compute(a, b, results);
+        JsonObject response = createStreamMessage("push", request.get("stream").getAsLong());
+        response.addProperty("seq", seq);
+        response.add("results", BulkHypotenuseOperation.toJsonArray(results));
+        out.send(response);
+    }
+
+    /**
+     * This method is a helper method that closes a stream and tells the client how many triangles it carried.
+     *
+     * @param request The request that was received.
+     * @param out The connection that the request was received on.
+     */
+    private void close( JsonObject request, Connection out ) {
+        Stream stream = findStream(request, out);
+        if (stream == null) {
+            return;
+        }
+        long streamId = request.get("stream").getAsLong();
+        Map<Long, Stream> streams = STREAMS.get(ownerOf(out));
+        if (streams != null) {
+            streams.remove(streamId);
+        }
+        JsonObject response = createStreamMessage("close", streamId);
+        response.addProperty("count", stream.getCount());
+        out.send(response);
+    }
+
+    /**
+     * This method is a helper method that finds the stream a request refers to.
+     * If there is no such stream on the connection the request was received on, an error is sent instead.
+     *
+     * @param request The request that was received.
+     * @param out The connection that the request was received on.
+     * @return The stream the request refers to, or null if there is none.
+     */
+    private Stream findStream( JsonObject request, Connection out ) {
+        if (!request.has("stream")) {
+            out.send(NetworkUtils.createMissingRequiredArgumentError());
+            return null;
+        }
+        if (!request.get("stream").isJsonPrimitive() || !request.get("stream").getAsJsonPrimitive().isNumber()) {
+            out.send(NetworkUtils.createIllegalArgumentTypeError());
+            return null;
+        }
+        // A stream can only be used on the connection that opened it.
+        Map<Long, Stream> streams = STREAMS.get(ownerOf(out));
+        Stream stream = streams == null ? null : streams.get(request.get("stream").getAsLong());
+        if (stream == null) {
+            out.send(NetworkUtils.createUnknownStreamError());
+            return null;
+        }
+        return stream;
+    }
+
+    /**
+     * This method is a helper method that finds the connection a request was actually received on,
+     * as every request that carries a correlation ID is answered through its own wrapper.
+     *
+     * @param out The connection that the request was received on.
+     * @return The connection underneath any wrappers.
+     */
+    private static Connection ownerOf( Connection out ) {
+        while (out instanceof CorrelatedConnection correlated) {
+            out = correlated.getConnection();
+        }
+        return out;
+    }
+
+    /**
+     * Streams that were never closed are forgotten once their connection has been closed.
+     *
+     * @param connection The connection that was closed.
+     */
+    @Override
+    public void connectionClosed( Connection connection ) {
+        STREAMS.remove(connection);
+    }
+
+    /**
+     * This method is called on the client side to begin the operation.
+     * It opens a stream and pushes every triangle the user enters through it as a chunk of its own,
+     * until the user enters something that is not a number.
+     *
+     * @param networkHandlingThread The Networking thread that is handling the request.
+     *                              This is used to send the request to the server.
+     *                              The thread will also be used to handle the response.
+     */
+    @Override
+    public void handleClient( NetworkHandlingThread networkHandlingThread ) {
+        networkHandlingThread.send(createOpenRequest());
+        JsonObject response = networkHandlingThread.receive();
+        if (response.has("error") || !response.has("stream")) {
+            println("Error: Could not open a stream.");
+            return;
+        }
+        long streamId = response.get("stream").getAsLong();
+        for (long seq = 0; ; seq++) {
+            println("Please enter both sides of the next triangle, or anything else to close the stream: ");
+            Number sideA = HypotenuseOperation.parseNumber(Util.getScanner());
+            Number sideB = sideA == null ? null : HypotenuseOperation.parseNumber(Util.getScanner());
+            if (sideA == null || sideB == null) {
+                Util.getScanner().nextLine();
+                break;
+            }
+            networkHandlingThread.send(createPushRequest(streamId, seq, new double[]{ sideA.doubleValue() }, new double[]{ sideB.doubleValue() }));
+            response = networkHandlingThread.receive();
+            double[] results = BulkHypotenuseOperation.parseResults(response);
+            if (response.has("error") || results == null || results.length != 1) {
+                println("Error: Malformed response received from server.");
+                return;
+            }
+            println("The hypotenuse is: " + results[ 0 ]);
+        }
+        networkHandlingThread.send(createCloseRequest(streamId));
+        response = networkHandlingThread.receive();
+        if (response.has("count")) {
+            println("The stream carried %d triangles.", response.get("count").getAsLong());
+        }
+    }
+
+    /**
+     * Streams answer every chunk on their own as it arrives, so they can not be sent inside a batch.
+     *
+     * @return False, this operation may not be batched.
+     */
+    @Override
+    public boolean isBatchable() {
+        return false;
+    }
+
+    /**
+     * This method is used to create a request that opens a new stream.
+     *
+     * @return A JsonObject that represents the open request.
+     */
+    public static JsonObject createOpenRequest() {
+        JsonObject request = new JsonObject();
+        request.addProperty("operation", 4);
+        request.addProperty("action", "open");
+        return request;
+    }
+
+    /**
+     * This method is used to create a request that pushes a chunk of triangles through a stream.
+     *
+     * @param streamId The id of the stream, as the server returned it when the stream was opened.
+     * @param seq The position of this chunk in the stream, starting at 0 for the first chunk.
+     * @param a The length of one of the sides of every triangle in the chunk.
+     * @param b The length of the other side of every triangle in the chunk, there must be as many as there are in a.
+     * @return A JsonObject that represents the push request.
+     */
+    public static JsonObject createPushRequest( long streamId, long seq, double[] a, double[] b ) {
+        if (a.length != b.length) {
+            throw new IllegalArgumentException("Every triangle needs both of its sides");
+        }
+        JsonObject request = createStreamMessage("push", streamId);
+        request.addProperty("seq", seq);
+        request.add("a", BulkHypotenuseOperation.toJsonArray(a));
+        request.add("b", BulkHypotenuseOperation.toJsonArray(b));
+        return request;
+    }
+
+    /**
+     * This method is used to create a request that closes a stream.
+     *
+     * @param streamId The id of the stream, as the server returned it when the stream was opened.
+     * @return A JsonObject that represents the close request.
+     */
+    public static JsonObject createCloseRequest( long streamId ) {
+        return createStreamMessage("close", streamId);
+    }
+
+    /**
+     * This method is a helper method that creates a message about a stream.
+     * Requests and responses share the same fields, so this is used for both.
+     *
+     * @param action The action the message is about.
+     * @param streamId The id of the stream.
+     * @return A JsonObject with the operation, action and stream fields filled in.
+     */
+    private static JsonObject createStreamMessage( String action, long streamId ) {
+        JsonObject message = new JsonObject();
+        message.addProperty("operation", 4);
+        message.addProperty("action", action);
+        message.addProperty("stream", streamId);
+        return message;
+    }
+
+    /**
+     * This class holds the state of a single open stream, which is only the position of the next chunk
+     * and the number of triangles so far, so an open stream takes the same memory no matter how much it has carried.
+     */
+    private static class Stream {
+        // The position of the next chunk that is expected.
+        private long nextSeq;
+        // The number of triangles that have been pushed through the stream.
+        private long count;
+
+        /**
+         * This method is used to move the stream past a chunk.
+         *
+         * @param seq The position of the chunk.
+         * @param triangles The number of triangles in the chunk.
+         * @return True if the chunk was the one expected next, false otherwise.
+         */
+        private synchronized boolean advance( long seq, int triangles ) {
+            if (seq != nextSeq) {
+                return false;
+            }
+            nextSeq++;
+            count += triangles;
+            return true;
+        }
+
+        /**
+         * This method is used to get the number of triangles that have been pushed through the stream.
+         *
+         * @return The number of triangles so far.
+         */
+        private synchronized long getCount() {
+            return count;
+        }
+    }
+
+}
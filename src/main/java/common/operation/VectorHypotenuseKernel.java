@@ -0,0 +1,53 @@
+package common.operation;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * This class calculates hypotenuses with the Vector API, which the JIT compiler turns into SIMD instructions.
+ * Every iteration loads as many sides as fit in a vector register, squares, adds and takes the square root
+ * of all of them at once, and stores all the results at once.
+ * This class must only be used through {@link HypotenuseKernel}, which checks that the module is available first.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+final class VectorHypotenuseKernel {
+    // The widest vector of doubles that the processor supports.
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private VectorHypotenuseKernel() {
+    }
+
+    /**
+     * This method is used to calculate the hypotenuses of the first count triangles.
+     *
+     * @param a The length of one of the sides of every triangle.
+     * @param b The length of the other side of every triangle.
+     * @param results The array the hypotenuses are written into.
+     * @param count The number of triangles to calculate.
+     */
+    static void compute( double[] a, double[] b, double[] results, int count ) {
+        int i = 0;
+        int bound = SPECIES.loopBound(count);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector va = DoubleVector.fromArray(SPECIES, a, i);
+            DoubleVector vb = DoubleVector.fromArray(SPECIES, b, i);
+            // Squares are multiplied and added separately rather than fused,
+            // so that the results are exactly those of the scalar calculation.
+            va.mul(va).add(vb.mul(vb)).sqrt().intoArray(results, i);
+        }
+        // The triangles that don't fill a whole vector are calculated one at a time.
+        HypotenuseKernel.computeScalar(a, b, results, i, count);
+    }
+
+    /**
+     * This method is used to get the number of triangles that are calculated at once.
+     *
+     * @return The number of doubles in a vector.
+     */
+    static int lanes() {
+        return SPECIES.length();
+    }
+
+}
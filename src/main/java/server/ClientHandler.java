@@ -1,22 +1,30 @@
 package server;
 
 import com.google.gson.JsonObject;
+import common.Handshake;
+import common.Metrics;
 import common.NetworkHandlingThread;
 import common.NetworkUtils;
+import common.OperationDispatcher;
+import common.QueueFullException;
+import common.ThreadMode;
 import common.Util;
-import jdk.net.ExtendedSocketOptions;
+import common.codec.CodecType;
+import common.event.DispatchEvent;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.Socket;
-import java.net.SocketException;
+import java.util.List;
+import java.util.Set;
 
 import static common.Util.println;
 
 /**
  * This class handles a single client connection.
- * This class is a thread that will run until the client disconnects.
- * This class will use {@link Util#getOperationRegistry()} to find the
+ * This class runs on its own thread until the client disconnects,
+ * which can either be a platform thread or a virtual thread, see {@link ThreadMode}.
+ * This class will use {@link OperationDispatcher} to find the
  * operation that the client requested and then call the handleServer method
  * on that operation.
  * This class also implements {@link Closeable} so that it can be used in a
@@ -25,10 +33,15 @@ import static common.Util.println;
  * @author Hunter Spragg
  * @version February 2023
  */
-public class ClientHandler extends Thread implements Closeable {
+public class ClientHandler implements Runnable, Closeable {
 
     // The NetworkHandlingThread that is used to safely handle the communication with the client.
     private final NetworkHandlingThread networkHandlingThread;
+    // The thread that runs this class' run() method.
+    private final Thread thread;
+    // The clients of the server, which this handler is part of from start() until its client disconnects,
+    // or null if the server does not keep track of its clients.
+    private final Set<ClientHandler> clients;
 
     /**
      * This constructor is used to create a new ClientHandler.
@@ -36,17 +49,67 @@ public class ClientHandler extends Thread implements Closeable {
      * The thread will run until the client disconnects or the close() method is called.
      *
      * @param socket The socket of the client.
+     * @implSpec This constructor is equivalent to calling {@link #ClientHandler(Socket, ServerSettings, Set)}
+     *           with {@link ServerSettings#DEFAULT} and no set of clients.
      */
     public ClientHandler( Socket socket ) {
-        super("ClientHandler#" + socket.getInetAddress().getHostAddress());
+        this(socket, ServerSettings.DEFAULT, null);
+    }
+
+    /**
+     * This constructor is used to create a new ClientHandler with the given settings,
+     * which choose the kind of threads the client is handled on, the codec of clients that skip the handshake,
+     * how responses are written in batches, how the queues are bounded, and how the threads wait for messages.
+     * The thread will not start until the start() method is called.
+     * The thread will run until the client disconnects or the close() method is called.
+     *
+     * @param socket The socket of the client.
+     * @param settings The settings of the server.
+     * @param clients The clients of the server, which this handler adds itself to when it is started,
+     *                and removes itself from once its client disconnects, so that it does not outlive its connection.
+     *                It must be safe to use from many threads at once, or null if the server does not keep track of its clients.
+     */
+    @SuppressWarnings("this-escape")
+    public ClientHandler( Socket socket, ServerSettings settings, Set<ClientHandler> clients ) {
         // The socket of the client.
-        this.networkHandlingThread = new NetworkHandlingThread(socket);
+        this.networkHandlingThread = new NetworkHandlingThread(socket, settings.getThreadMode());
+        this.networkHandlingThread.setWriteBatching(settings.getMaxBatchSize(), settings.getFlushPolicy());
+        this.networkHandlingThread.setBackpressure(settings.getBackpressure());
+        this.networkHandlingThread.setWaitStrategy(settings.getWaitStrategy());
+        // Clients that skip the handshake use the given codec, the others may pick any codec.
+        this.networkHandlingThread.setCodec(settings.getCodecType().create());
+        this.networkHandlingThread.setHandshake(Handshake.Role.SERVER, List.of(CodecType.values()));
+        // The thread only holds on to this, it does not run until start() is called.
+        this.thread = settings.getThreadMode().newThread("ClientHandler#" + socket.getInetAddress().getHostAddress(), this);
+        this.clients = clients;
+    }
+
+    /**
+     * This method starts the thread that handles the client, and adds this handler to the clients of the server.
+     */
+    public void start() {
+        if (clients != null) {
+            clients.add(this);
+        }
+        this.thread.start();
+    }
+
+    /**
+     * This method interrupts the thread that handles the client.
+     */
+    public void interrupt() {
+        this.thread.interrupt();
     }
 
     @Override
     public void run() {
         // Start the network handling thread.
         networkHandlingThread.start();
+        // Count the connection, so that it shows up in the server's statistics until it is closed.
+        Metrics metrics = Util.getMetrics();
+        if (metrics != null) {
+            metrics.connectionOpened(networkHandlingThread);
+        }
         try {
             println("Server connected to client");
             while(networkHandlingThread.isRunning()) {
@@ -55,26 +118,26 @@ public class ClientHandler extends Thread implements Closeable {
                 // This is just a simple example, we'll just wait forever instead.
                 JsonObject request = networkHandlingThread.receive();
 
-                // Verify that the request is valid.
-                // See protocol.md for more information on the protocol.
-                if (!request.has("operation")) {
-                    networkHandlingThread.send(NetworkUtils.createMissingRequiredArgumentError());
-                    return;
+                // Validate the request and hand it to the operation it names.
+                // If the request is too malformed to continue, end the connection.
+                DispatchEvent event = new DispatchEvent();
+                event.begin();
+                boolean dispatched = OperationDispatcher.dispatch(request, networkHandlingThread);
+                event.end();
+                if (event.shouldCommit()) {
+                    event.setConnectionId(networkHandlingThread.getConnectionId());
+                    event.setOperation(Metrics.operationOf(request));
+                    event.commit();
                 }
-                if (!request.get("operation").isJsonPrimitive() || !request.get("operation").getAsJsonPrimitive().isNumber()) {
-                    networkHandlingThread.send(NetworkUtils.createIllegalArgumentTypeError());
+                if (!dispatched) {
                     return;
                 }
-                int operation = request.get("operation").getAsInt();
-
-                if (Util.getOperationRegistry().hasOperation(operation)) {
-                    Util.getOperationRegistry().getOperation(operation).handleServer(request, networkHandlingThread);
-                }
-                else {
-                    networkHandlingThread.send(NetworkUtils.createUnsupportedOperationError());
-                }
             }
 
+        } catch (QueueFullException e) {
+            // The client is not reading its responses, so end the connection instead of answering with an error
+            // that would not fit in the queue either.
+            println("Client is not reading its responses: ", e);
         } catch (Exception e) {
             networkHandlingThread.send(NetworkUtils.createInternalError());
             println("Client Handler Encountered an Internal Error: ",e);
@@ -82,6 +145,15 @@ public class ClientHandler extends Thread implements Closeable {
             try {
                 networkHandlingThread.close();
             } catch (IOException ignored) {}
+            if (metrics != null) {
+                metrics.connectionClosed(networkHandlingThread);
+            }
+            // No more requests will be dispatched, so the operations can forget the connection.
+            OperationDispatcher.connectionClosed(networkHandlingThread);
+            // The handler keeps its network handling thread and its queues alive, so the server must let go of it.
+            if (clients != null) {
+                clients.remove(this);
+            }
         }
     }
 
@@ -0,0 +1,209 @@
+package server;
+
+import common.Metrics;
+import common.Util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static common.Util.println;
+
+/**
+ * This class is a single event-loop thread of the {@link NioServer}.
+ * Each event loop owns a {@link Selector} and multiplexes every connection
+ * registered with it, so a small number of event loops can serve
+ * a large number of clients.
+ * All reads, writes and operation dispatching for a connection happen on
+ * the event loop that the connection was registered with.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class EventLoop extends Thread implements Closeable {
+    // The selector that is used to wait for any of the connections to become ready.
+    private final Selector selector;
+    // A queue of tasks submitted by other threads that must run on this event loop.
+    private final Queue<Runnable> TASK_QUEUE;
+    // A flag that is used to indicate if the event loop should continue running.
+    private final AtomicBoolean isRunning;
+    // The number of connections currently registered with this event loop.
+    private final AtomicInteger connectionCount;
+    // The settings of the server, which every connection is created with.
+    private final ServerSettings settings;
+
+    /**
+     * This constructor is used to create a new EventLoop.
+     * The thread will not start until the start() method is called.
+     *
+     * @param index The index of this event loop, used to name the thread.
+     * @param settings The settings of the server, which choose the codec, write batching and watermarks of every connection.
+     * @throws IOException If the selector could not be opened.
+     */
+    public EventLoop( int index, ServerSettings settings ) throws IOException {
+        super("EventLoop#" + index);
+        this.selector = Selector.open();
+        this.TASK_QUEUE = new ConcurrentLinkedQueue<>();
+        this.isRunning = new AtomicBoolean(true);
+        this.connectionCount = new AtomicInteger();
+        this.settings = settings;
+    }
+
+    @Override
+    public void run() {
+        println("Event loop started");
+        try {
+            while (isRunning()) {
+                // Wait until at least one connection is ready or another thread wakes us up.
+                selector.select();
+
+                // Run any tasks that were submitted by other threads.
+                runTasks();
+
+                // Handle every connection that is ready to be read from or written to.
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    NioConnection connection = (NioConnection) key.attachment();
+                    if (key.isValid() && key.isReadable()) {
+                        connection.handleRead();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        connection.flush();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            println("Exception in EventLoop", e);
+        } finally {
+            this.isRunning.set(false);
+            // Close every connection that is still registered with this event loop.
+            for (SelectionKey key : selector.keys()) {
+                ((NioConnection) key.attachment()).closeNow();
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {}
+            println("Event loop stopped");
+        }
+    }
+
+    /**
+     * This method is used to hand a newly accepted channel to this event loop.
+     * The channel will be switched to non-blocking mode and registered with
+     * the selector on the event loop thread.
+     *
+     * @param channel The channel of the client.
+     */
+    public void register( SocketChannel channel ) {
+        execute(() -> {
+            try {
+                channel.configureBlocking(false);
+                // Disable Nagle's algorithm so that small responses are sent immediately.
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                // Frames are encoded into direct buffers, which the channel can write without copying them first.
+                NioConnection connection = new NioConnection(channel, key, this, settings.getCodecType().create(true), settings);
+                key.attach(connection);
+                connectionCount.incrementAndGet();
+                Metrics metrics = Util.getMetrics();
+                if (metrics != null) {
+                    metrics.connectionOpened(connection);
+                }
+                println("Server connected to client");
+            } catch (IOException e) {
+                println("Failed to register client channel", e);
+                try {
+                    channel.close();
+                } catch (IOException ignored) {}
+            }
+        });
+    }
+
+    /**
+     * This method is used to run a task on the event loop thread.
+     * If the calling thread is not the event loop, the selector is woken up
+     * so that the task runs as soon as possible.
+     *
+     * @param task The task to run.
+     */
+    public void execute( Runnable task ) {
+        TASK_QUEUE.add(task);
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * This method is used to check if the current thread is this event loop.
+     *
+     * @return True if the current thread is this event loop, false otherwise.
+     */
+    public boolean inEventLoop() {
+        return Thread.currentThread() == this;
+    }
+
+    /**
+     * This method is called by a connection once it has been closed.
+     */
+    void connectionClosed() {
+        connectionCount.decrementAndGet();
+    }
+
+    /**
+     * This method is used to get the number of connections registered with this event loop.
+     *
+     * @return The number of connections registered with this event loop.
+     */
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    /**
+     * This method is a helper method to check if the event loop is running.
+     *
+     * @return True if the event loop is running, false otherwise.
+     */
+    public boolean isRunning() {
+        return this.isRunning.get();
+    }
+
+    /**
+     * This method is a helper method that runs all queued tasks.
+     */
+    private void runTasks() {
+        Runnable task;
+        while ((task = TASK_QUEUE.poll()) != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                println("Event loop task failed", e);
+            }
+        }
+    }
+
+    /**
+     * Stops the event loop and closes every connection registered with it.
+     * This method will wait for the event loop thread to finish.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        this.isRunning.set(false);
+        selector.wakeup();
+        try {
+            this.join();
+        } catch (InterruptedException ignored) {}
+    }
+
+}
@@ -0,0 +1,482 @@
+package server;
+
+import com.google.gson.JsonObject;
+import common.Backpressure;
+import common.BufferPool;
+import common.CachedResponse;
+import common.Connection;
+import common.FlushPolicy;
+import common.Handshake;
+import common.Log;
+import common.Metrics;
+import common.NetworkUtils;
+import common.OperationDispatcher;
+import common.Util;
+import common.WriteBatch;
+import common.codec.Codec;
+import common.codec.CodecType;
+import common.codec.MalformedMessageException;
+import common.event.DispatchEvent;
+import common.event.FrameReadEvent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static common.Util.println;
+
+/**
+ * This class handles a single client connection on an {@link EventLoop}.
+ * It is the non-blocking counterpart of {@link ClientHandler}, it reads frames
+ * from the channel as they arrive, dispatches them through the {@link OperationDispatcher}
+ * and writes responses back without ever blocking the event loop thread.
+ * <p>
+ * Sending never blocks either, so the write queue is bounded by the watermarks of a {@link Backpressure} instead:
+ * once it reaches the high watermark, because the client does not read its responses,
+ * no more requests are read from the client until the queue has drained down to the low watermark.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class NioConnection implements Connection {
+    // The size of the read buffer that is leased when data arrives, a larger one is leased if a larger frame is received.
+    private static final int INITIAL_READ_BUFFER_SIZE = 8192;
+
+    // The channel of the client.
+    private final SocketChannel channel;
+    // The selection key of the channel, used to change the operations we are interested in.
+    private final SelectionKey key;
+    // The event loop that this connection is registered with.
+    private final EventLoop eventLoop;
+    // The codec that messages are encoded with on this connection.
+    // It is replaced if the client picks a different codec during the handshake.
+    // This field is only ever touched by the event loop thread.
+    private Codec codec;
+    // A queue of messages that are waiting to be encoded and written to the channel.
+    // It holds JsonObjects, and CachedResponses that are sent from their encoded bytes.
+    private final Queue<Object> WRITE_QUEUE;
+    // The number of messages in the write queue, it is counted separately as the queue's size is not a constant time operation.
+    private final AtomicInteger queuedCount;
+    // The watermarks that bound the write queue.
+    private final Backpressure backpressure;
+    // A flag that is used to indicate that the channel is not read because the write queue is full.
+    // This field is only ever touched by the event loop thread.
+    private boolean readPaused;
+    // A flag that is used to indicate if the connection is still open.
+    private final AtomicBoolean isRunning;
+    // A flag that is used to avoid submitting more than one flush task at a time.
+    private final AtomicBoolean flushScheduled;
+    // The buffer that partially received frames are stored in.
+    // This buffer is only ever touched by the event loop thread.
+    private ByteBuffer readBuffer;
+    // The frames that are being written to the channel, with a single gathering write.
+    // A batch that has only been partially written stays here until the channel is writable again.
+    // This batch is only ever touched by the event loop thread.
+    private final WriteBatch pendingFrames;
+    // When queued messages are written, either one at a time or as many as the batch holds.
+    private final FlushPolicy flushPolicy;
+    // A flag that is used to indicate that the client has either completed or skipped the handshake.
+    // This field is only ever touched by the event loop thread.
+    private boolean handshakeDone;
+    // The largest frame that will be accepted from the client.
+    // This field is only ever touched by the event loop thread.
+    private int maxFrameSize;
+    // A flag that is used to indicate that the frames in the read buffer are being handled.
+    // Responses sent meanwhile are written once every frame has been handled, so they can be written together.
+    // These fields are only ever touched by the event loop thread.
+    private boolean reading;
+    private boolean flushAfterRead;
+    // A flag that is used to indicate that the connection should close once all queued frames are written.
+    private volatile boolean closeRequested;
+    // The id of this connection, see Connection.getConnectionId().
+    private final long connectionId;
+
+    /**
+     * This constructor is used to create a new NioConnection.
+     *
+     * @param channel   The channel of the client, it must already be in non-blocking mode.
+     * @param key       The selection key of the channel.
+     * @param eventLoop The event loop that the channel is registered with.
+     * @param codec     The codec that messages are encoded with, if the client skips the handshake.
+     * @param settings  The settings of the server, which choose how queued messages are written in batches
+     *                  and the watermarks that bound the write queue. The send mode and wait strategy are not used,
+     *                  as sending never blocks and nothing waits on the queue.
+     */
+    public NioConnection( SocketChannel channel, SelectionKey key, EventLoop eventLoop, Codec codec, ServerSettings settings ) {
+        this.channel = channel;
+        this.key = key;
+        this.eventLoop = eventLoop;
+        this.codec = codec;
+        this.WRITE_QUEUE = new ConcurrentLinkedQueue<>();
+        this.queuedCount = new AtomicInteger();
+        this.backpressure = settings.getBackpressure();
+        this.isRunning = new AtomicBoolean(true);
+        this.flushScheduled = new AtomicBoolean(false);
+        this.maxFrameSize = Handshake.DEFAULT_MAX_FRAME_SIZE;
+        this.connectionId = Util.nextConnectionId();
+        this.pendingFrames = new WriteBatch(settings.getMaxBatchSize(), this.connectionId);
+        this.flushPolicy = settings.getFlushPolicy();
+    }
+
+    /**
+     * This method is called by the event loop when the channel has data to read.
+     * Every complete frame in the read buffer is decoded and dispatched.
+     */
+    void handleRead() {
+        if (!isRunning()) {
+            return;
+        }
+        if (readBuffer == null) {
+            // Read buffers are only leased while data is arriving, so idle connections don't hold on to any memory.
+            readBuffer = BufferPool.direct().acquire(INITIAL_READ_BUFFER_SIZE);
+        }
+        try {
+            int read = channel.read(readBuffer);
+            if (read == -1) {
+                // The client has closed its side of the connection.
+                closeNow();
+                return;
+            }
+            Metrics metrics = Util.getMetrics();
+            if (metrics != null) {
+                metrics.countBytesRead(read);
+            }
+            readBuffer.flip();
+            int required = 0;
+            reading = true;
+            // Decode frames for as long as there is at least one length prefix in the buffer.
+            // Handling a request may close the connection, which releases the read buffer.
+            while (!closeRequested && readBuffer != null && readBuffer.remaining() >= 4) {
+                int length = readBuffer.getInt(readBuffer.position());
+                if (!handshakeDone) {
+                    // A client that skips the handshake starts with the length of its first frame instead.
+                    if (length != Handshake.MAGIC) {
+                        handshakeDone = true;
+                    }
+                    else if (readBuffer.remaining() < 8) {
+                        // The length of the hello has not arrived yet.
+                        break;
+                    }
+                    else {
+                        int bodyLength = readBuffer.getInt(readBuffer.position() + 4);
+                        Handshake.checkBodyLength(bodyLength);
+                        if (readBuffer.remaining() < 8 + bodyLength) {
+                            // The rest of the hello has not arrived yet.
+                            break;
+                        }
+                        int start = readBuffer.position() + 8;
+                        ByteBuffer body = readBuffer.slice(start, bodyLength);
+                        readBuffer.position(start + bodyLength);
+                        acceptHandshake(body);
+                        continue;
+                    }
+                }
+                NetworkUtils.checkLength(length, maxFrameSize);
+                if (readBuffer.remaining() < 4 + length) {
+                    // The rest of the frame has not arrived yet.
+                    required = 4 + length;
+                    break;
+                }
+                int start = readBuffer.position() + 4;
+                ByteBuffer payload = readBuffer.slice(start, length);
+                readBuffer.position(start + length);
+
+                JsonObject request;
+                FrameReadEvent event = new FrameReadEvent();
+                event.begin();
+                try {
+                    request = NetworkUtils.fromBuffer(payload, codec);
+                } catch (MalformedMessageException e) {
+                    // The whole frame was read, but it could not be decoded.
+                    // The next frame is still intact, so send an internal error response and keep reading.
+                    println("Error receiving data from socket channel", e);
+                    send(NetworkUtils.createInternalError());
+                    continue;
+                }
+                event.end();
+                if (event.shouldCommit()) {
+                    event.setConnectionId(connectionId);
+                    event.setOperation(Metrics.operationOf(request));
+                    event.setSize(4 + length);
+                    event.commit();
+                }
+                Log.debug("Received: %s", request);
+                handleRequest(request);
+            }
+            reading = false;
+            if (flushAfterRead) {
+                // Write every response to the frames that were just handled at once.
+                flushAfterRead = false;
+                flush();
+            }
+            // Stop reading requests while the client does not read the responses to the previous ones.
+            if (!readPaused && isRunning() && queuedCount.get() >= backpressure.getHighWatermark()) {
+                readPaused = true;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+            if (readBuffer == null) {
+                return;
+            }
+            readBuffer.compact();
+            if (readBuffer.position() == 0) {
+                // Every frame has been handled, so the buffer can go back to the pool until more data arrives.
+                BufferPool.direct().release(readBuffer);
+                readBuffer = null;
+            }
+            else if (required > readBuffer.capacity()) {
+                // Lease a larger read buffer if the next frame will not fit into this one.
+                ByteBuffer larger = BufferPool.direct().acquire(required);
+                readBuffer.flip();
+                larger.put(readBuffer);
+                BufferPool.direct().release(readBuffer);
+                readBuffer = larger;
+            }
+        } catch (IOException e) {
+            println("Error receiving data from socket channel", e);
+            closeNow();
+        } finally {
+            reading = false;
+        }
+    }
+
+    /**
+     * This method is a helper method that answers the client's hello and switches to the codec it picked.
+     * Nothing has been written to the channel before the hello, so the server's hello is written
+     * as the first pending frame, ahead of every queued message.
+     *
+     * @param body The body of the client's hello.
+     * @throws IOException If the client's hello is malformed.
+     */
+    private void acceptHandshake( ByteBuffer body ) throws IOException {
+        Handshake handshake = Handshake.negotiate(body, List.of(CodecType.values()), Handshake.DEFAULT_MAX_FRAME_SIZE);
+        ByteBuffer hello = handshake.createServerHello();
+        pendingFrames.add(BufferPool.direct().acquire(hello.remaining()).put(hello).flip());
+        flush();
+        if (handshake.getCodecType() == null) {
+            println("Client does not support any of the codecs");
+            closeNow();
+            return;
+        }
+        if (handshake.getCodecType() != codec.getType()) {
+            codec = handshake.getCodecType().create(true);
+        }
+        maxFrameSize = handshake.getMaxFrameSize();
+        handshakeDone = true;
+        println("Handshake complete: " + handshake);
+    }
+
+    /**
+     * This method is a helper method that dispatches a single request.
+     * It mirrors the error handling of {@link ClientHandler#run()}.
+     *
+     * @param request The request that was received.
+     */
+    private void handleRequest( JsonObject request ) {
+        try {
+            // Validate the request and hand it to the operation it names.
+            // If the request is too malformed to continue, end the connection.
+            DispatchEvent event = new DispatchEvent();
+            event.begin();
+            boolean dispatched = OperationDispatcher.dispatch(request, this);
+            event.end();
+            if (event.shouldCommit()) {
+                event.setConnectionId(connectionId);
+                event.setOperation(Metrics.operationOf(request));
+                event.commit();
+            }
+            if (!dispatched) {
+                close();
+            }
+        } catch (Exception e) {
+            send(NetworkUtils.createInternalError());
+            println("Client Handler Encountered an Internal Error: ", e);
+            close();
+        }
+    }
+
+    /**
+     * This method is used to encode and write as many queued messages to the channel as it will accept.
+     * Queued messages are encoded back to back, up to the largest batch, and written with a single gathering write.
+     * If the channel cannot accept all of them, the event loop is asked to call this
+     * method again once the channel is writable.
+     * This method must only be called on the event loop thread,
+     * which also means the codec is only ever used by one thread.
+     */
+    void flush() {
+        flushScheduled.set(false);
+        if (!isRunning()) {
+            return;
+        }
+        try {
+            while (true) {
+                if (pendingFrames.isEmpty()) {
+                    // Encode the queued messages back to back, until the batch is full.
+                    Object message;
+                    while (!pendingFrames.isFull() && (message = WRITE_QUEUE.poll()) != null) {
+                        queuedCount.decrementAndGet();
+                        int operation = Metrics.operationOf(message);
+                        pendingFrames.add(NetworkUtils.toBuffer(message, operation, codec), operation);
+                        if (flushPolicy == FlushPolicy.EVERY_MESSAGE) {
+                            break;
+                        }
+                    }
+                    if (pendingFrames.isEmpty()) {
+                        break;
+                    }
+                }
+                // Read requests again once the queue has drained down to the low watermark.
+                if (readPaused && queuedCount.get() <= backpressure.getLowWatermark()) {
+                    readPaused = false;
+                    key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                }
+                // Frames are given back to the pool as soon as they have been written.
+                if (!pendingFrames.writeTo(channel)) {
+                    // The socket buffer is full, wait until the channel is writable again.
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (closeRequested) {
+                closeNow();
+            }
+        } catch (IOException e) {
+            println("Error sending data to socket channel", e);
+            closeNow();
+        }
+    }
+
+    /**
+     * This method can be used to queue a message to be sent to the client.
+     * If called from the event loop thread the message is written immediately,
+     * or once every frame that was read has been handled, otherwise the event loop is asked to write it.
+     *
+     * @param message The message to be sent.
+     */
+    @Override
+    public void send( JsonObject message ) {
+        if (!isRunning()) {
+            return;
+        }
+        Log.debug("Sent: %s", message);
+        WRITE_QUEUE.add(message);
+        queuedCount.incrementAndGet();
+        scheduleFlush();
+    }
+
+    /**
+     * This method can be used to queue a cached response to be sent to the client.
+     * The response is written from its encoded bytes, see {@link CachedResponse}.
+     *
+     * @param response The response to be sent.
+     */
+    @Override
+    public void send( CachedResponse response ) {
+        if (!isRunning()) {
+            return;
+        }
+        Log.debug("Sent: %s", response);
+        WRITE_QUEUE.add(response);
+        queuedCount.incrementAndGet();
+        scheduleFlush();
+    }
+
+    /**
+     * This method is a helper method that makes sure {@link #flush()} runs on the event loop.
+     */
+    private void scheduleFlush() {
+        if (eventLoop.inEventLoop()) {
+            if (reading) {
+                // The response is written together with the responses to the other frames that were read.
+                flushAfterRead = true;
+            }
+            else {
+                flush();
+            }
+        }
+        else if (flushScheduled.compareAndSet(false, true)) {
+            eventLoop.execute(this::flush);
+        }
+    }
+
+    /**
+     * This method is used to get the id of this connection, which is given to it when it is created.
+     *
+     * @return The id of this connection.
+     */
+    @Override
+    public long getConnectionId() {
+        return connectionId;
+    }
+
+    /**
+     * This method is used to get the number of messages waiting to be encoded and written to the channel.
+     *
+     * @return The depth of the write queue.
+     */
+    @Override
+    public int getOutboundQueueDepth() {
+        return queuedCount.get();
+    }
+
+    /**
+     * This method is a helper method to check if the connection is still open.
+     *
+     * @return True if the connection is still open, false otherwise.
+     */
+    @Override
+    public boolean isRunning() {
+        return this.isRunning.get();
+    }
+
+    /**
+     * This method is used to close the connection immediately
+     * without writing any of the queued frames.
+     */
+    void closeNow() {
+        if (!this.isRunning.compareAndSet(true, false)) {
+            return;
+        }
+        key.cancel();
+        try {
+            channel.close();
+            println("Socket Closed!");
+        } catch (IOException ignored) {}
+        // Give the buffers back to the pool, this is always called on the event loop thread.
+        if (readBuffer != null) {
+            BufferPool.direct().release(readBuffer);
+            readBuffer = null;
+        }
+        pendingFrames.clear();
+        eventLoop.connectionClosed();
+        Metrics metrics = Util.getMetrics();
+        if (metrics != null) {
+            metrics.connectionClosed(this);
+        }
+        // No more requests will be dispatched, so the operations can forget the connection.
+        OperationDispatcher.connectionClosed(this);
+    }
+
+    /**
+     * Closes this connection once all queued frames have been written.
+     * Just like the {@link common.NetworkHandlingThread}, a shutdown response is
+     * sent to the client before the connection is closed.
+     * If the connection is already closed then invoking this method has no effect.
+     */
+    @Override
+    public void close() {
+        if (closeRequested || !isRunning()) {
+            return;
+        }
+        send(NetworkUtils.createShutdownResponse());
+        closeRequested = true;
+        scheduleFlush();
+    }
+
+}
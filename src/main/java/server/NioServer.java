@@ -0,0 +1,79 @@
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import static common.Util.println;
+
+/**
+ * A non-blocking server built on {@link java.nio.channels.Selector}s.
+ * Instead of creating threads for every client like the blocking mode of
+ * {@link SockServer}, this server accepts clients on the calling thread and spreads
+ * them across a fixed number of {@link EventLoop}s.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class NioServer implements Closeable {
+    // The event loops that the accepted clients are spread across.
+    private final EventLoop[] EVENT_LOOPS;
+    // The index of the event loop that the next client will be registered with.
+    private int nextEventLoop;
+
+    /**
+     * This constructor is used to create a new NioServer.
+     * The event loops are started immediately.
+     *
+     * @param settings The settings of the server, which choose the number of event loops,
+     *                 and the codec, write batching and watermarks of every connection.
+     * @throws IOException If a selector could not be opened.
+     */
+    public NioServer( ServerSettings settings ) throws IOException {
+        this.EVENT_LOOPS = new EventLoop[ settings.getEventLoops() ];
+        for (int i = 0; i < EVENT_LOOPS.length; i++) {
+            EVENT_LOOPS[ i ] = new EventLoop(i, settings);
+            EVENT_LOOPS[ i ].start();
+        }
+    }
+
+    /**
+     * This method is used to accept clients on the given port.
+     * This method blocks the calling thread until the server socket is closed.
+     *
+     * @param port The port to listen on.
+     * @throws IOException If the server socket could not be created.
+     */
+    public void serve( int port ) throws IOException {
+        try (ServerSocketChannel serv = ServerSocketChannel.open()) {
+            serv.bind(new InetSocketAddress(port));
+            println("Server ready for connections on %d event loops", EVENT_LOOPS.length);
+            while (serv.isOpen()) {
+                try {
+                    // Accepting is done in blocking mode, only the client channels are non-blocking.
+                    SocketChannel channel = serv.accept();
+                    // Hand the client to the next event loop in a round-robin fashion.
+                    EVENT_LOOPS[ nextEventLoop ].register(channel);
+                    nextEventLoop = (nextEventLoop + 1) % EVENT_LOOPS.length;
+                } catch (IOException e) {
+                    println("Failed to accept client", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops every event loop, which closes all connected clients.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        for (EventLoop eventLoop : EVENT_LOOPS) {
+            eventLoop.close();
+        }
+    }
+
+}
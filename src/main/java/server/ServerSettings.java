@@ -0,0 +1,311 @@
+package server;
+
+import common.Backpressure;
+import common.FlushPolicy;
+import common.SendMode;
+import common.ThreadMode;
+import common.WaitStrategy;
+import common.codec.CodecType;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * This class holds every setting of the server, from the port it listens on to how every connection's queues are bounded.
+ * The settings are given as named {@code key=value} arguments, in any order, and every setting that is not given
+ * keeps its default, for example {@code port=9999 mode=nio waitStrategy=park}. The keys are the same as the
+ * project properties of the gradle Server task, see the README.
+ * The port may also be given on its own as the first argument, which is how the server has always been started,
+ * for example {@code 9999} or {@code 9999 mode=nio}.
+ * The server reads its settings once, and hands the same instance to every part of it that needs them,
+ * {@link ClientHandler}, {@link NioServer}, {@link EventLoop} and {@link NioConnection}.
+ * Instances are immutable.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class ServerSettings {
+    // The names of the settings, as they are given on the command line.
+    public static final String PORT = "port";
+    public static final String MODE = "mode";
+    public static final String LOOPS = "loops";
+    public static final String CODEC = "codec";
+    public static final String MAX_BATCH = "maxBatch";
+    public static final String FLUSH = "flush";
+    public static final String WORKERS = "workers";
+    public static final String EXECUTION = "execution";
+    public static final String CACHE_SIZE = "cacheSize";
+    public static final String HIGH_WATERMARK = "highWatermark";
+    public static final String LOW_WATERMARK = "lowWatermark";
+    public static final String SEND_MODE = "sendMode";
+    public static final String WAIT_STRATEGY = "waitStrategy";
+    // Every setting there is, in the order they are listed in the README.
+    private static final List<String> KEYS = List.of(PORT, MODE, LOOPS, CODEC, MAX_BATCH, FLUSH, WORKERS, EXECUTION,
+                                                     CACHE_SIZE, HIGH_WATERMARK, LOW_WATERMARK, SEND_MODE, WAIT_STRATEGY);
+    // The ways the server can handle its clients, see the README.
+    private static final List<String> MODES = List.of("blocking", "virtual", "nio");
+    // The settings that the server uses unless it is given others.
+    public static final ServerSettings DEFAULT = parse();
+
+    // The port the server listens on, 8888 by default.
+    private final int port;
+    // How the server handles its clients, blocking by default.
+    private final String mode;
+    // The number of event loops of the nio server, one per processor by default.
+    private final int eventLoops;
+    // The codec of clients that skip the handshake, json by default.
+    private final CodecType codecType;
+    // The largest number of queued responses that are written at once.
+    private final int maxBatchSize;
+    // When queued responses are written.
+    private final FlushPolicy flushPolicy;
+    // The number of workers that operations are offloaded to, one per processor by default.
+    private final int workers;
+    // The execution policies that override the operations' own, such as "1=offload,3=inline", empty by default.
+    private final String executionPolicies;
+    // The largest number of responses that are cached, 0 by default, which turns the cache off.
+    private final int cacheSize;
+    // The watermarks that bound every connection's queues, and what sending does while they are full.
+    private final Backpressure backpressure;
+    // How every connection's threads wait for the next message.
+    private final WaitStrategy waitStrategy;
+
+    /**
+     * This constructor is used to create new ServerSettings from named arguments.
+     *
+     * @param settings The settings that were given, keyed by their names, every other setting keeps its default.
+     * @throws IllegalArgumentException If a setting has a value that is not valid.
+     */
+    private ServerSettings( Map<String, String> settings ) {
+        this.port = parseInt(settings, PORT, 8888, 0);
+        if (port > 65535) {
+            throw new IllegalArgumentException("Port is out of range! Port must be between 0 and 65535!");
+        }
+        this.mode = settings.getOrDefault(MODE, "blocking");
+        if (!MODES.contains(mode)) {
+            throw new IllegalArgumentException("Unknown server mode! Mode must be one of blocking, virtual or nio!");
+        }
+        int processors = Runtime.getRuntime().availableProcessors();
+        this.eventLoops = parseInt(settings, LOOPS, processors, 1);
+        this.codecType = parseName(settings, CODEC, CodecType.JSON, CodecType::fromName);
+        this.maxBatchSize = parseInt(settings, MAX_BATCH, FlushPolicy.DEFAULT_MAX_BATCH_SIZE, 1);
+        this.flushPolicy = parseName(settings, FLUSH, FlushPolicy.END_OF_BATCH, FlushPolicy::fromName);
+        this.workers = parseInt(settings, WORKERS, processors, 1);
+        this.executionPolicies = settings.getOrDefault(EXECUTION, "");
+        this.cacheSize = parseInt(settings, CACHE_SIZE, 0, 0);
+        // A low watermark that is not given is half of the high watermark, so that giving only the high watermark is enough.
+        int highWatermark = parseInt(settings, HIGH_WATERMARK, Backpressure.DEFAULT_HIGH_WATERMARK, 1);
+        int lowWatermark = parseInt(settings, LOW_WATERMARK, settings.containsKey(HIGH_WATERMARK) ? highWatermark / 2 : Backpressure.DEFAULT_LOW_WATERMARK, 0);
+        this.backpressure = new Backpressure(lowWatermark, highWatermark, parseName(settings, SEND_MODE, SendMode.BLOCK, SendMode::fromName));
+        this.waitStrategy = parseName(settings, WAIT_STRATEGY, WaitStrategy.BLOCKING, WaitStrategy::fromName);
+    }
+
+    /**
+     * This method is used to parse settings from named {@code key=value} arguments, in any order.
+     * Only the first "=" separates the name from the value, so values such as "1=offload" need no quoting.
+     * A first argument without a name is the port.
+     *
+     * @param args The arguments, such as {@code 9999}, {@code mode=nio} or {@code execution=1=offload,3=inline}.
+     * @return The settings, with every setting that was not given at its default.
+     * @throws IllegalArgumentException If an argument is not a known setting, is given twice, or has a value that is not valid.
+     */
+    public static ServerSettings parse( String... args ) {
+        Map<String, String> settings = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[ i ];
+            int separator = arg.indexOf('=');
+            // The server used to take the port as its only argument, so a first argument without a name is still the port.
+            if (i == 0 && separator < 0) {
+                settings.put(PORT, arg);
+                continue;
+            }
+            if (separator < 1) {
+                throw new IllegalArgumentException("Settings must be given as key=value, but got \"" + arg + "\"!");
+            }
+            String key = arg.substring(0, separator);
+            if (!KEYS.contains(key)) {
+                throw new IllegalArgumentException("Unknown setting \"" + key + "\"! Settings must be one of " + String.join(", ", KEYS) + "!");
+            }
+            if (settings.put(key, arg.substring(separator + 1)) != null) {
+                throw new IllegalArgumentException("The setting \"" + key + "\" was given more than once!");
+            }
+        }
+        return new ServerSettings(settings);
+    }
+
+    /**
+     * This method is used to get the port the server listens on.
+     *
+     * @return The port.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * This method is used to get how the server handles its clients.
+     *
+     * @return Either "blocking", "virtual" or "nio".
+     */
+    public String getMode() {
+        return mode;
+    }
+
+    /**
+     * This method is used to get the kind of threads that the blocking servers handle every client on.
+     *
+     * @return {@link ThreadMode#VIRTUAL} in virtual mode, {@link ThreadMode#PLATFORM} otherwise.
+     */
+    public ThreadMode getThreadMode() {
+        return mode.equals("virtual") ? ThreadMode.VIRTUAL : ThreadMode.PLATFORM;
+    }
+
+    /**
+     * This method is used to get the number of event loops of the nio server.
+     *
+     * @return The number of event loops.
+     */
+    public int getEventLoops() {
+        return eventLoops;
+    }
+
+    /**
+     * This method is used to get the type of codec that messages are encoded with, if the client skips the handshake.
+     *
+     * @return The codec type.
+     */
+    public CodecType getCodecType() {
+        return codecType;
+    }
+
+    /**
+     * This method is used to get the largest number of queued responses that are written at once.
+     *
+     * @return The largest batch size.
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * This method is used to get when queued responses are written, see {@link FlushPolicy}.
+     *
+     * @return The flush policy.
+     */
+    public FlushPolicy getFlushPolicy() {
+        return flushPolicy;
+    }
+
+    /**
+     * This method is used to get the number of workers that operations are offloaded to.
+     *
+     * @return The number of workers.
+     */
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * This method is used to get the execution policies that override the operations' own,
+     * see {@link common.OperationExecutor#setPolicies(String)}.
+     *
+     * @return A list such as "1=offload,3=inline", or an empty String if no policy is overridden.
+     */
+    public String getExecutionPolicies() {
+        return executionPolicies;
+    }
+
+    /**
+     * This method is used to get the largest number of responses that are cached.
+     *
+     * @return The cache size, 0 if caching is turned off.
+     */
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * This method is used to get the watermarks that bound every connection's queues, and what sending does while they are full.
+     *
+     * @return The backpressure.
+     */
+    public Backpressure getBackpressure() {
+        return backpressure;
+    }
+
+    /**
+     * This method is used to get how every connection's threads wait for the next message, see {@link WaitStrategy}.
+     * The nio server never waits on a queue, so it does not use this setting.
+     *
+     * @return The wait strategy.
+     */
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    /**
+     * This method is a helper method that parses a setting that is a whole number.
+     *
+     * @param settings The settings that were given.
+     * @param key The name of the setting.
+     * @param defaultValue The value of the setting if it was not given.
+     * @param min The smallest valid value.
+     * @return The value of the setting.
+     * @throws IllegalArgumentException If the setting is not a number, or is smaller than the smallest valid value.
+     */
+    private static int parseInt( Map<String, String> settings, String key, int defaultValue, int min ) {
+        String value = settings.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int number = Integer.parseInt(value);
+            if (number < min) {
+                throw new IllegalArgumentException("The setting \"" + key + "\" must be at least " + min + "!");
+            }
+            return number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("The setting \"" + key + "\" is not a number!");
+        }
+    }
+
+    /**
+     * This method is a helper method that parses a setting that is the name of an enum constant.
+     *
+     * @param settings The settings that were given.
+     * @param key The name of the setting.
+     * @param defaultValue The value of the setting if it was not given.
+     * @param fromName The enum's fromName method, which returns null for an unknown name.
+     * @param <T> The type of the enum.
+     * @return The value of the setting.
+     * @throws IllegalArgumentException If there is no constant with the given name.
+     */
+    private static <T> T parseName( Map<String, String> settings, String key, T defaultValue, Function<String, T> fromName ) {
+        String value = settings.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        T constant = fromName.apply(value);
+        if (constant == null) {
+            throw new IllegalArgumentException("Unknown " + key + " \"" + value + "\"!");
+        }
+        return constant;
+    }
+
+    /**
+     * Every setting with its value, for logging.
+     *
+     * @return The settings as named arguments, in the order they are listed in the README.
+     */
+    @Override
+    public String toString() {
+        return PORT + "=" + port + " " + MODE + "=" + mode + " " + LOOPS + "=" + eventLoops + " " + CODEC + "=" + codecType.getName()
+                + " " + MAX_BATCH + "=" + maxBatchSize + " " + FLUSH + "=" + flushPolicy.getName() + " " + WORKERS + "=" + workers
+                + " " + EXECUTION + "=" + executionPolicies + " " + CACHE_SIZE + "=" + cacheSize
+                + " " + HIGH_WATERMARK + "=" + backpressure.getHighWatermark() + " " + LOW_WATERMARK + "=" + backpressure.getLowWatermark()
+                + " " + SEND_MODE + "=" + backpressure.getSendMode().getName() + " " + WAIT_STRATEGY + "=" + waitStrategy.getName();
+    }
+
+}
@@ -1,11 +1,16 @@
 package server;
 
+import common.Metrics;
+import common.OperationExecutor;
+import common.ResultCache;
+import common.SingleFlight;
 import common.Util;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.util.LinkedList;
-import java.util.List;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static common.Util.println;
 
@@ -14,6 +19,9 @@ import static common.Util.println;
  * This server will accept multiple connections and handle them concurrently.
  * This server can also support multiple requests from a single client if the
  * ClientHandler is modified to handle multiple requests.
+ * The server can either run in blocking mode, where every client gets its own platform threads,
+ * in virtual mode, where every client gets its own virtual threads,
+ * or in nio mode, where every client is handled by a {@link NioServer}.
  *
  * @author Hunter Spragg
  * @version February 2023
@@ -21,32 +29,102 @@ import static common.Util.println;
 public class SockServer {
 
     public static void main( String[] args ) {
-        // The first thing we should always do is verify that the program is being run with the correct number of arguments
-        if (args.length != 1) {
+        // The first thing we should always do is verify that the program is being run with valid arguments.
+        // Every setting is given by name, such as "port=9999 mode=nio", and every setting that is not given keeps its default.
+        // The port can also be given on its own as the first argument, such as "9999 mode=nio".
+        // The settings are read once here, and the same settings are handed to every part of the server.
+        ServerSettings settings = null;
+        try {
+            settings = ServerSettings.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
             println("See the README.md for usage instructions");
             System.exit(1);
         }
+        println("Server settings: %s", settings);
 
-        // Next, we should parse the port number from the command line arguments
-        // We should also verify that the port number is valid
-        // We will use the Util class to do this as it is a common task for
-        // both the client and server
-        int port = Util.getPort(args[ 0 ]);
+        // Operations that may take a while are performed on a pool of workers, so that they never stall the I/O threads.
+        // Every operation chooses whether it is offloaded, which can be overridden with a list such as "1=offload,3=inline".
+        OperationExecutor executor = new OperationExecutor(settings.getWorkers());
+        try {
+            executor.setPolicies(settings.getExecutionPolicies());
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+        Util.setOperationExecutor(executor);
 
-        // Create a linked list of clients to keep track of all the clients
+        // The responses to pure operations can be cached, so that repeated requests skip the operation and its encoding.
+        // Caching is opt-in, a cache size of 0, the default, performs every request.
+        if (settings.getCacheSize() > 0) {
+            Util.setResultCache(new ResultCache(settings.getCacheSize()));
+        }
+        // Identical requests to pure operations that arrive while one of them is being performed are answered together.
+        Util.setSingleFlight(new SingleFlight());
+        // Every request is counted, and the time it spends in every stage is recorded, see the README.
+        // Recording never locks or allocates, so the metrics are always on.
+        Util.setMetrics(new Metrics());
+
+        // The server can either run in blocking mode (a platform thread per client),
+        // in virtual mode (a virtual thread per client),
+        // or in nio mode (a few event loops shared by every client).
+        // Blocking mode is the default so that all of them can be compared under the same load.
+        switch (settings.getMode()) {
+            case "blocking", "virtual" -> runBlocking(settings);
+            case "nio" -> runNio(settings);
+            default -> {
+                println("Unknown server mode: %s", settings.getMode());
+                println("See the README.md for usage instructions");
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * This method runs the non-blocking server.
+     * Every client is multiplexed over a fixed number of event loop threads.
+     *
+     * @param settings The settings of the server, which choose the port, the number of event loops,
+     *                 and the codec, write batching and watermarks of every connection.
+     */
+    private static void runNio( ServerSettings settings ) {
+        // The NioServer is closeable, so we can use a try-with-resources block
+        // to make sure every event loop is stopped when the server is shutting down.
+        try (NioServer server = new NioServer(settings)) {
+            server.serve(settings.getPort());
+        } catch (IOException e) {
+            println("Failed to create server socket", e);
+        }
+        finally {
+            println("Server closed");
+        }
+    }
+
+    /**
+     * This method runs the blocking server.
+     * Every client gets its own ClientHandler thread, which is either a platform or a virtual thread.
+     *
+     * @param settings The settings of the server, which choose the port, the kind of threads every client is handled on,
+     *                 and the codec, write batching, watermarks and wait strategy of every connection.
+     */
+    private static void runBlocking( ServerSettings settings ) {
+        // Create a set of clients to keep track of all the clients
         // that are connected to the server
-        // This is a thread safe data structure
-        // We will clear this list when the server is shutting down.
-        List<ClientHandler> clients = new LinkedList<>();
+        // This is a thread safe data structure, as every client removes itself from it once it disconnects
+        // We will interrupt every client in this set when the server is shutting down.
+        Set<ClientHandler> clients = ConcurrentHashMap.newKeySet();
 
         // Create a try-with-resources block to make sure the server socket is closed
         // A try-with-resources block is a try block that automatically closes any
         // resources that are created in the try block.
-        // In this case it's a server socket.
+        // In this case it's a server socket channel.
         // But it could be a database connection, a file, or anything else that
         // implements the AutoCloseable or Closeable interface.
-        try (ServerSocket serv = new ServerSocket(port)) {
+        // The server socket is opened as a channel, even though it is used in blocking mode,
+        // because every socket it accepts is then backed by a channel, which can write a batch of responses at once.
+        try (ServerSocketChannel serv = ServerSocketChannel.open()) {
             // create server socket on port 8888
+            serv.bind(new InetSocketAddress(settings.getPort()));
             println("Server ready for connections");
             // Loop forever to continuously accept new connections.
             // This is the main loop of the server.
@@ -60,10 +138,9 @@ public class SockServer {
                     // This method will block the main thread until a new connection is made.
                     // Once a new connection is made, it will return a new socket that is then passed
                     // to the ClientHandler constructor so that the ClientHandler can communicate with the client.
-                    ClientHandler clientHandler = new ClientHandler(serv.accept());
-
-                    // Add the new client to the list of clients
-                    clients.add(clientHandler);
+                    // The client handler adds itself to the set of clients when it is started,
+                    // and removes itself again once the client disconnects.
+                    ClientHandler clientHandler = new ClientHandler(serv.accept().socket(), settings, clients);
 
                     // Start the client handler thread.
                     // This will allow the client handler to start communicating with the client.
@@ -0,0 +1,152 @@
+package common;
+
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * This class checks that a {@link RingBuffer} hands every element from many producers to its single consumer
+ * exactly once, and in the order every producer added them, with every wait strategy.
+ * Every element is the id of its producer and its number, so the consumer can tell which element it expects next
+ * from every producer: an element that is lost, taken twice, or taken out of order is a different number.
+ * <p>
+ * The producers retry a full queue the way {@link NetworkHandlingThread} does while it waits for room in its request queue,
+ * so the queue is kept small, and the consumer only starts once a producer has found it full.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class RingBufferStressTest {
+    // The number of threads that add elements at once.
+    private static final int PRODUCERS = 4;
+    // The capacity of the queue, small so that the producers keep finding it full.
+    private static final int CAPACITY = 8;
+    // The number of elements every producer adds as fast as it can.
+    private static final int MESSAGES = 100_000;
+    // The number of elements every producer adds one at a time, pausing in between, so that the consumer keeps finding the queue empty.
+    private static final int PACED_MESSAGES = 2_000;
+    // What the number of elements is divided by for a BUSY_SPIN consumer on a single processor.
+    // The consumer only hands the processor back to the producers once its time slice ends, so only a few elements get through every time slice.
+    private static final int SINGLE_PROCESSOR_SPIN_DIVISOR = Runtime.getRuntime().availableProcessors() > 1 ? 1 : 100;
+    // How long a paced producer pauses after every element.
+    private static final long PAUSE_NANOS = 20_000;
+    // The largest number of elements the consumer takes at once.
+    private static final int MAX_DRAIN = 16;
+
+    /**
+     * Producers that add elements as fast as they can, so the queue is mostly full and they race for every free slot.
+     *
+     * @param waitStrategy How the consumer waits for an element.
+     * @throws InterruptedException If the test is interrupted.
+     */
+    @ParameterizedTest
+    @EnumSource(WaitStrategy.class)
+    @Timeout(value = 60, unit = TimeUnit.SECONDS)
+    public void deliversEveryElementOnceInOrderWhenFull( WaitStrategy waitStrategy ) throws InterruptedException {
+        LongAdder fullQueues = run(waitStrategy, MESSAGES, 0);
+        assertTrue(fullQueues.sum() > 0, "the producers never found the queue full");
+    }
+
+    /**
+     * Producers that pause after every element, so the consumer keeps finding the queue empty and waiting,
+     * which with the BLOCKING strategy means parking until a producer wakes it up.
+     *
+     * @param waitStrategy How the consumer waits for an element.
+     * @throws InterruptedException If the test is interrupted.
+     */
+    @ParameterizedTest
+    @EnumSource(WaitStrategy.class)
+    @Timeout(value = 60, unit = TimeUnit.SECONDS)
+    public void deliversEveryElementOnceInOrderWhenEmpty( WaitStrategy waitStrategy ) throws InterruptedException {
+        run(waitStrategy, PACED_MESSAGES, PAUSE_NANOS);
+    }
+
+    /**
+     * This method is a helper method that runs the producers, consumes every element on the calling thread,
+     * and checks that every element arrived exactly once and in order.
+     *
+     * @param waitStrategy How the consumer waits for an element.
+     * @param messages The number of elements every producer adds, divided for a BUSY_SPIN consumer on a single processor.
+     * @param pauseNanos How long every producer pauses after every element, 0 to never pause.
+     * @return The number of times the producers found the queue full.
+     * @throws InterruptedException If the test is interrupted.
+     */
+    private static LongAdder run( WaitStrategy waitStrategy, int messages, long pauseNanos ) throws InterruptedException {
+        int count = waitStrategy == WaitStrategy.BUSY_SPIN ? messages / SINGLE_PROCESSOR_SPIN_DIVISOR : messages;
+        RingBuffer<Long> queue = new RingBuffer<>(CAPACITY, waitStrategy);
+        LongAdder fullQueues = new LongAdder();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> producers = new ArrayList<>(PRODUCERS);
+        for (int producer = 0; producer < PRODUCERS; producer++) {
+            long id = producer;
+            Thread thread = new Thread(() -> {
+                for (long number = 0; number < count; number++) {
+                    Long element = id << 32 | number;
+                    // Retry until there is room, like NetworkHandlingThread.put() does.
+                    while (!queue.offer(element)) {
+                        fullQueues.increment();
+                        Thread.yield();
+                    }
+                    if (pauseNanos > 0) {
+                        LockSupport.parkNanos(pauseNanos);
+                    }
+                }
+            }, "Producer-" + producer);
+            thread.setUncaughtExceptionHandler(( t, e ) -> failure.compareAndSet(null, e));
+            producers.add(thread);
+        }
+        producers.forEach(Thread::start);
+
+        // Only start consuming once the queue was full, so that the producers take the full queue path for certain.
+        if (pauseNanos == 0) {
+            while (fullQueues.sum() == 0) {
+                Thread.yield();
+            }
+            assertEquals(queue.capacity(), queue.size(), "size of a full queue");
+        }
+
+        // The number every producer's next element must have.
+        long[] expected = new long[ PRODUCERS ];
+        List<Long> drained = new ArrayList<>(MAX_DRAIN);
+        long remaining = (long) PRODUCERS * count;
+        while (remaining > 0) {
+            // Wait for the next element, then take every element queued behind it, like the writer thread does.
+            drained.clear();
+            drained.add(queue.take());
+            queue.drainTo(drained, MAX_DRAIN - 1);
+            for (long element : drained) {
+                int producer = (int) (element >>> 32);
+                long number = element & 0xFFFFFFFFL;
+                assertTrue(producer < PRODUCERS, "unknown producer " + producer);
+                assertEquals(expected[ producer ], number, "element of producer " + producer);
+                expected[ producer ]++;
+            }
+            remaining -= drained.size();
+        }
+
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertNull(failure.get(), "a producer failed");
+        for (int producer = 0; producer < PRODUCERS; producer++) {
+            assertEquals(count, expected[ producer ], "elements of producer " + producer);
+        }
+        // Nothing may be left over, or taken twice.
+        assertNull(queue.poll(), "an element was left over");
+        assertTrue(queue.isEmpty(), "the queue is not empty");
+        assertEquals(0, queue.size(), "size of an empty queue");
+        return fullQueues;
+    }
+
+}
@@ -0,0 +1,131 @@
+package common.codec;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import common.BufferPool;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * This class checks that every codec decodes what it encodes back into the same message,
+ * both as a payload and as a whole frame, into heap buffers as well as direct buffers.
+ * Messages are compared as messages, and written with Gson, so that numbers that are equal
+ * but not written the same way, such as -0.0 and 0.0, are told apart.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class CodecRoundTripTest {
+    // The number of random messages that every codec encodes and decodes.
+    private static final int RANDOM_MESSAGES = 2000;
+    // The seed of the random messages, so that a failing message can be created again.
+    private static final long SEED = 20230216L;
+    // The number of triangles in the large message, whose frame is larger than the largest pooled buffer.
+    private static final int LARGE_MESSAGE_SIZE = 100_000;
+
+    // Gson without whitespace, used to tell apart numbers that are equal but not written the same way.
+    private static final Gson GSON = new Gson();
+
+    /**
+     * Random messages, as payloads and as frames, see {@link RandomMessages}.
+     *
+     * @param type The type of codec.
+     * @throws MalformedMessageException If a message could not be decoded.
+     */
+    @ParameterizedTest
+    @EnumSource(CodecType.class)
+    public void roundTripsRandomMessages( CodecType type ) throws MalformedMessageException {
+        RandomMessages messages = new RandomMessages(SEED + type.getId(), false);
+        Codec heap = type.create(false);
+        Codec direct = type.create(true);
+        for (int i = 0; i < RANDOM_MESSAGES; i++) {
+            JsonObject message = messages.next();
+            assertRoundTrips(message, heap.decode(heap.encode(message)));
+            assertRoundTrips(message, decodeFrame(heap, heap.encodeFrame(message)));
+            assertRoundTrips(message, decodeFrame(direct, direct.encodeFrame(message)));
+        }
+    }
+
+    /**
+     * A field added to an encoded message, which is how a cached response gets the id of the request it answers.
+     *
+     * @param type The type of codec.
+     * @throws MalformedMessageException If a message could not be decoded.
+     */
+    @ParameterizedTest
+    @EnumSource(CodecType.class)
+    public void roundTripsAddedField( CodecType type ) throws MalformedMessageException {
+        RandomMessages messages = new RandomMessages(SEED - type.getId(), false);
+        Codec codec = type.create();
+        for (int i = 0; i < RANDOM_MESSAGES; i++) {
+            JsonObject message = messages.next();
+            ByteBuffer payload = codec.encode(message);
+            JsonPrimitive id = new JsonPrimitive(i);
+            // The field replaces a field of the same name, as JsonObject.add() does.
+            JsonObject expected = message.deepCopy();
+            expected.add("id", id);
+            assertRoundTrips(expected, decodeFrame(codec, codec.encodeFrame(payload, "id", id)));
+        }
+    }
+
+    /**
+     * A message with long arrays of numbers, like a large bulk request, whose frame is larger than the largest pooled buffer,
+     * so the frame buffer has to grow while it is encoded and is then never pooled.
+     *
+     * @param type The type of codec.
+     * @throws MalformedMessageException If the message could not be decoded.
+     */
+    @ParameterizedTest
+    @EnumSource(CodecType.class)
+    public void roundTripsLargeMessage( CodecType type ) throws MalformedMessageException {
+        JsonArray a = new JsonArray();
+        JsonArray b = new JsonArray();
+        for (int i = 0; i < LARGE_MESSAGE_SIZE; i++) {
+            a.add(3 + i);
+            b.add(4 + i * 0.5);
+        }
+        JsonObject message = new JsonObject();
+        message.add("a", a);
+        message.add("b", b);
+        Codec codec = type.create(true);
+        assertRoundTrips(message, codec.decode(codec.encode(message)));
+        // Encode it twice, the second frame is leased at the size of the first.
+        assertRoundTrips(message, decodeFrame(codec, codec.encodeFrame(message)));
+        assertRoundTrips(message, decodeFrame(codec, codec.encodeFrame(message)));
+    }
+
+    /**
+     * This method is a helper method that checks the length prefix of a frame, decodes its payload, and releases the frame.
+     *
+     * @param codec The codec that encoded the frame.
+     * @param frame The frame, flipped and ready to be read.
+     * @return The message.
+     * @throws MalformedMessageException If the payload could not be decoded.
+     */
+    private static JsonObject decodeFrame( Codec codec, ByteBuffer frame ) throws MalformedMessageException {
+        try {
+            assertEquals(frame.remaining() - FrameBuffer.LENGTH_PREFIX_SIZE, frame.getInt(frame.position()), "length prefix");
+            return codec.decode(frame.slice(frame.position() + FrameBuffer.LENGTH_PREFIX_SIZE, frame.remaining() - FrameBuffer.LENGTH_PREFIX_SIZE));
+        } finally {
+            BufferPool.releaseBuffer(frame);
+        }
+    }
+
+    /**
+     * This method is a helper method that checks that a decoded message is the same as the message that was encoded.
+     *
+     * @param expected The message that was encoded.
+     * @param actual The message that was decoded.
+     */
+    private static void assertRoundTrips( JsonObject expected, JsonObject actual ) {
+        assertEquals(expected, actual);
+        assertEquals(GSON.toJson(expected), GSON.toJson(actual));
+    }
+
+}
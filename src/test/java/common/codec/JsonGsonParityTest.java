@@ -0,0 +1,216 @@
+package common.codec;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * This class checks that the JSON codecs are interchangeable with Gson, which the protocol was originally built on.
+ * {@link JsonByteWriter} must write exactly the bytes that Gson writes for the same message, pretty-printed or compact,
+ * and {@link JsonByteReader} must read any payload into the same message that Gson's {@link JsonParser} reads,
+ * so that a peer that still encodes and decodes with Gson can not tell the difference.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class JsonGsonParityTest {
+    // The number of random messages that are compared to Gson.
+    private static final int RANDOM_MESSAGES = 2000;
+    // The seed of the random messages, so that a failing message can be created again.
+    private static final long SEED = 20230215L;
+
+    // Gson pretty-printing, as the server encoded every message before the json codec, and Gson without whitespace like compact-json.
+    private static final Gson PRETTY_GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final Gson COMPACT_GSON = new Gson();
+
+    /**
+     * Every value that Gson writes in its own way, in a single message.
+     */
+    @Test
+    public void encodesCornerCasesLikeGson() {
+        JsonObject message = new JsonObject();
+        // Gson writes doubles that are not finite as bare words.
+        message.addProperty("nan", Double.NaN);
+        message.addProperty("infinity", Double.POSITIVE_INFINITY);
+        message.addProperty("negativeInfinity", Double.NEGATIVE_INFINITY);
+        // Negative zero keeps its sign, and a whole double keeps its ".0".
+        message.addProperty("negativeZero", -0.0);
+        message.addProperty("whole", 5.0);
+        // Doubles from 1e7 up, and below 1e-3, are written in scientific notation.
+        message.addProperty("large", 1e7);
+        message.addProperty("largest", Double.MAX_VALUE);
+        message.addProperty("small", 9.999e-4);
+        message.addProperty("float", 1.1f);
+        message.addProperty("long", Long.MIN_VALUE);
+        // The line and paragraph separators are escaped, as are HTML characters and control characters.
+        message.addProperty("separators", "a\u2028b\u2029c");
+        message.addProperty("html", "<script>&'=</script>");
+        message.addProperty("control", "\u0000\u0001\b\f\n\r\t\u001f\u007f\"\\/");
+        message.addProperty("unicode", "\u00e9\u4e2d\ud83d\ude00\ufffd");
+        // Fields whose value is null are left out, but nulls in arrays are written.
+        message.add("null", JsonNull.INSTANCE);
+        JsonArray array = new JsonArray();
+        array.add(JsonNull.INSTANCE);
+        array.add(new JsonArray());
+        array.add(new JsonObject());
+        message.add("array", array);
+        message.add("empty", new JsonObject());
+
+        assertEncodesLikeGson(message);
+    }
+
+    /**
+     * Random messages of every kind of value, see {@link RandomMessages}.
+     */
+    @Test
+    public void encodesRandomMessagesLikeGson() {
+        RandomMessages messages = new RandomMessages(SEED, true);
+        for (int i = 0; i < RANDOM_MESSAGES; i++) {
+            assertEncodesLikeGson(messages.next());
+        }
+    }
+
+    /**
+     * Every way a value can be written, some of which Gson never writes itself but still reads.
+     *
+     * @throws MalformedMessageException If a payload could not be decoded.
+     */
+    @Test
+    public void decodesCornerCasesLikeGson() throws MalformedMessageException {
+        String[] payloads = {
+                "{\"a\":-0}",
+                "{\"a\":-0.0}",
+                "{\"a\":0}",
+                "{\"a\":1E7}",
+                "{\"a\":1.0e-7}",
+                "{\"a\":10000000.0}",
+                "{\"a\":1e400}",
+                "{\"a\":123456789012345678}",
+                "{\"a\":1234567890123456789}",
+                "{\"a\":12345678901234567890}",
+                "{\"a\":-9223372036854775808}",
+                // Gson writes doubles that are not finite as bare words, and reads them back as Strings.
+                "{\"a\":NaN,\"b\":Infinity,\"c\":-Infinity}",
+                "{\"a\":\"\\u00e9\\ud83d\\ude00\\n\\t\\/\\\"\\\\\"}",
+                "{\"a\":\"\\u2028\\u2029\"}",
+                " {\n  \"a\" : [ 1 , 2.5 , true , false , null , \"x\" ] ,\r\n\t\"b\" : { } } ",
+                // The last of two fields with the same name wins.
+                "{\"a\":1,\"a\":2}",
+        };
+        for (String payload : payloads) {
+            byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+            for (CodecType type : new CodecType[]{ CodecType.JSON, CodecType.COMPACT_JSON }) {
+                assertDecodesLikeGson(type.create(), bytes, payload);
+            }
+        }
+    }
+
+    /**
+     * Bytes that are not valid UTF-8 are replaced with U+FFFD, exactly like decoding them into a String does,
+     * which is what Gson reads.
+     *
+     * @throws MalformedMessageException If a payload could not be decoded.
+     */
+    @Test
+    public void replacesInvalidUtf8LikeGson() throws MalformedMessageException {
+        byte[][] strings = {
+                // A lead byte that is missing its continuation byte.
+                { 'a', (byte) 0xC3, 'b' },
+                // A three byte sequence cut short.
+                { (byte) 0xE2, (byte) 0x82, 'c' },
+                // A four byte sequence cut short, at the end of the String.
+                { (byte) 0xF0, (byte) 0x9F, (byte) 0x98 },
+                // An encoded surrogate, which is not allowed in UTF-8.
+                { (byte) 0xED, (byte) 0xA0, (byte) 0x80 },
+                // An overlong encoding of "/".
+                { (byte) 0xC0, (byte) 0xAF },
+                // A code point past U+10FFFF.
+                { (byte) 0xF4, (byte) 0x90, (byte) 0x80, (byte) 0x80 },
+                // Continuation bytes and bytes that never appear in UTF-8.
+                { (byte) 0x80, (byte) 0xBF, (byte) 0xFE, (byte) 0xFF },
+                // A valid four byte sequence after an invalid byte.
+                { (byte) 0xFF, (byte) 0xF0, (byte) 0x9F, (byte) 0x98, (byte) 0x80 },
+        };
+        for (byte[] string : strings) {
+            byte[] bytes = new byte[ string.length + 8 ];
+            System.arraycopy("{\"s\":\"".getBytes(StandardCharsets.US_ASCII), 0, bytes, 0, 6);
+            System.arraycopy(string, 0, bytes, 6, string.length);
+            bytes[ bytes.length - 2 ] = '"';
+            bytes[ bytes.length - 1 ] = '}';
+            assertDecodesLikeGson(CodecType.JSON.create(), bytes, new String(bytes, StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    /**
+     * Random messages, as Gson writes them, pretty-printed and compact.
+     *
+     * @throws MalformedMessageException If a payload could not be decoded.
+     */
+    @Test
+    public void decodesRandomMessagesLikeGson() throws MalformedMessageException {
+        RandomMessages messages = new RandomMessages(SEED + 1, true);
+        Codec codec = CodecType.JSON.create();
+        for (int i = 0; i < RANDOM_MESSAGES; i++) {
+            JsonObject message = messages.next();
+            for (Gson gson : new Gson[]{ PRETTY_GSON, COMPACT_GSON }) {
+                String payload = gson.toJson(message);
+                assertDecodesLikeGson(codec, payload.getBytes(StandardCharsets.UTF_8), payload);
+            }
+        }
+    }
+
+    /**
+     * This method is a helper method that checks that both JSON codecs write a message exactly like Gson.
+     *
+     * @param message The message to encode.
+     */
+    private static void assertEncodesLikeGson( JsonObject message ) {
+        assertEncodesLike(PRETTY_GSON.toJson(message), CodecType.JSON.create(), message);
+        assertEncodesLike(COMPACT_GSON.toJson(message), CodecType.COMPACT_JSON.create(), message);
+    }
+
+    /**
+     * This method is a helper method that checks that a codec writes a message as the given JSON, byte for byte.
+     *
+     * @param expected The JSON that Gson writes for the message.
+     * @param codec The codec.
+     * @param message The message.
+     */
+    private static void assertEncodesLike( String expected, Codec codec, JsonObject message ) {
+        ByteBuffer payload = codec.encode(message);
+        byte[] bytes = new byte[ payload.remaining() ];
+        payload.get(bytes);
+        // Compare the text first, as its failure message shows where the two differ.
+        assertEquals(expected, new String(bytes, StandardCharsets.UTF_8), codec.getType().getName());
+        assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), bytes, codec.getType().getName());
+    }
+
+    /**
+     * This method is a helper method that checks that a codec reads a payload into the same message as Gson.
+     * Both messages are compared, and written again with Gson, so that numbers that are equal but not written
+     * the same way, such as -0 and 0, are told apart.
+     *
+     * @param codec The codec that decodes the payload.
+     * @param payload The UTF-8 encoded payload.
+     * @param description What the payload is, for the failure message.
+     * @throws MalformedMessageException If the codec could not decode the payload.
+     */
+    private static void assertDecodesLikeGson( Codec codec, byte[] payload, String description ) throws MalformedMessageException {
+        JsonElement expected = JsonParser.parseString(new String(payload, StandardCharsets.UTF_8));
+        JsonObject actual = codec.decode(ByteBuffer.wrap(payload));
+        assertEquals(expected, actual, description);
+        assertEquals(COMPACT_GSON.toJson(expected), COMPACT_GSON.toJson(actual), description);
+    }
+
+}
@@ -0,0 +1,181 @@
+package common.codec;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * This class creates random messages for the codec tests, from a seed so that a failing message can be created again.
+ * The messages are meant to reach the corners of the codecs rather than to look like requests:
+ * Strings mix control characters, HTML characters, the line and paragraph separators and supplementary characters,
+ * and numbers range over every kind of Number Gson can hold, from -0.0 to doubles written in scientific notation.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+class RandomMessages {
+    // The deepest nesting of arrays and objects in a message.
+    private static final int MAX_DEPTH = 4;
+    // The most fields of an object, and the most elements of an array.
+    private static final int MAX_SIZE = 6;
+    // The characters that every codec has to treat specially, they are picked far more often than the others.
+    private static final String SPECIAL_CHARS = "\"\\/\b\f\n\r\t\u0000\u001f\u007f<>&='\u2028\u2029\u00e9\ufffd";
+
+    // The source of every random choice.
+    private final Random random;
+    // True to add null values, floats and doubles that are not finite, which only survive a codec the way Gson changes them.
+    private final boolean gsonOnlyValues;
+
+    /**
+     * This constructor is used to create a new RandomMessages.
+     *
+     * @param seed The seed of the random choices, the same seed creates the same messages.
+     * @param gsonOnlyValues True to add null values, floats and doubles that are not finite.
+     *                       Gson leaves out fields whose value is null, reads floats back as doubles,
+     *                       and reads those doubles back as Strings, so messages with them can be compared to Gson
+     *                       but do not round trip.
+     */
+    RandomMessages( long seed, boolean gsonOnlyValues ) {
+        this.random = new Random(seed);
+        this.gsonOnlyValues = gsonOnlyValues;
+    }
+
+    /**
+     * This method is used to create the next random message.
+     *
+     * @return A message with up to {@link #MAX_SIZE} fields, nested up to {@link #MAX_DEPTH} levels deep.
+     */
+    JsonObject next() {
+        return nextObject(0);
+    }
+
+    /**
+     * This method is a helper method that creates a random object.
+     *
+     * @param depth How deeply nested the object is.
+     * @return The object.
+     */
+    private JsonObject nextObject( int depth ) {
+        JsonObject object = new JsonObject();
+        int size = random.nextInt(MAX_SIZE + 1);
+        for (int i = 0; i < size; i++) {
+            object.add(nextString(), nextValue(depth + 1));
+        }
+        return object;
+    }
+
+    /**
+     * This method is a helper method that creates a random value, nested values are only created above the deepest nesting.
+     *
+     * @param depth How deeply nested the value is.
+     * @return The value.
+     */
+    private JsonElement nextValue( int depth ) {
+        int kinds = depth < MAX_DEPTH ? 7 : 5;
+        switch (random.nextInt(kinds)) {
+            case 0:
+            case 1:
+                return new JsonPrimitive(nextString());
+            case 2:
+            case 3:
+                return new JsonPrimitive(nextNumber());
+            case 4:
+                if (gsonOnlyValues && random.nextInt(4) == 0) {
+                    return JsonNull.INSTANCE;
+                }
+                return new JsonPrimitive(random.nextBoolean());
+            case 5: {
+                JsonArray array = new JsonArray();
+                int size = random.nextInt(MAX_SIZE + 1);
+                for (int i = 0; i < size; i++) {
+                    array.add(nextValue(depth + 1));
+                }
+                return array;
+            }
+            default:
+                return nextObject(depth);
+        }
+    }
+
+    /**
+     * This method is a helper method that creates a random String, from empty to a few dozen characters.
+     *
+     * @return The String.
+     */
+    private String nextString() {
+        int length = random.nextInt(4) == 0 ? random.nextInt(64) : random.nextInt(8);
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            switch (random.nextInt(6)) {
+                case 0:
+                    sb.append(SPECIAL_CHARS.charAt(random.nextInt(SPECIAL_CHARS.length())));
+                    break;
+                case 1:
+                    // Any character of the basic multilingual plane, surrogates excluded as they only come in pairs.
+                    char c = (char) random.nextInt(0xD800);
+                    sb.append(c);
+                    break;
+                case 2:
+                    // A supplementary character, which is a surrogate pair in the String and 4 bytes in UTF-8.
+                    sb.appendCodePoint(0x10000 + random.nextInt(0x100000));
+                    break;
+                default:
+                    sb.append((char) (' ' + random.nextInt(95)));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * This method is a helper method that creates a random number, of any kind of Number Gson can hold.
+     *
+     * @return The number.
+     */
+    private Number nextNumber() {
+        switch (random.nextInt(10)) {
+            case 0:
+                return random.nextInt(201) - 100;
+            case 1:
+                return random.nextInt();
+            case 2:
+                return random.nextLong();
+            case 3:
+                // Small doubles with a short fraction, like the sides of a triangle.
+                return random.nextInt(100000) / 100.0;
+            case 4:
+                // Doubles of every magnitude, including the ones Double.toString() writes in scientific notation.
+                return random.nextGaussian() * Math.pow(10, random.nextInt(40) - 20);
+            case 5: {
+                // Any double at all, the few that are not finite are only kept if they are wanted.
+                double value = Double.longBitsToDouble(random.nextLong());
+                return Double.isFinite(value) || gsonOnlyValues ? value : Double.MIN_NORMAL;
+            }
+            case 6: {
+                double[] corners = { -0.0, 0.0, 1e7, -1e7, 9999999.999, 1e-3, 9.999e-4, Double.MIN_VALUE, Double.MAX_VALUE, (double) Long.MAX_VALUE };
+                return corners[ random.nextInt(corners.length) ];
+            }
+            case 7: {
+                // A float is read back as the double it is written as, which is not equal to the float.
+                float value = random.nextFloat() * 1000;
+                return gsonOnlyValues ? (Number) value : (Number) (double) value;
+            }
+            case 8:
+                if (gsonOnlyValues) {
+                    double[] special = { Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY };
+                    return special[ random.nextInt(special.length) ];
+                }
+                return Long.MIN_VALUE;
+            default:
+                return random.nextBoolean()
+                        ? new BigInteger(96, random).subtract(BigInteger.ONE.shiftLeft(95))
+                        : new BigDecimal(new BigInteger(64, random), random.nextInt(40) - 20);
+        }
+    }
+
+}
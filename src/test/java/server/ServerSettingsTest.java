@@ -0,0 +1,67 @@
+package server;
+
+import common.WaitStrategy;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * This class checks how the server reads its settings from the command line,
+ * both as named settings and as the bare port the server has always accepted.
+ *
+ * @author Hunter Spragg
+ * @version February 2023
+ */
+public class ServerSettingsTest {
+
+    /**
+     * Every setting that is not given keeps its default.
+     */
+    @Test
+    public void keepsDefaults() {
+        ServerSettings settings = ServerSettings.parse();
+        assertEquals(8888, settings.getPort());
+        assertEquals("blocking", settings.getMode());
+        assertEquals(WaitStrategy.BLOCKING, settings.getWaitStrategy());
+    }
+
+    /**
+     * Named settings are read in any order.
+     */
+    @Test
+    public void parsesNamedSettings() {
+        ServerSettings settings = ServerSettings.parse("waitStrategy=park", "mode=nio", "port=9999", "execution=1=offload,3=inline");
+        assertEquals(9999, settings.getPort());
+        assertEquals("nio", settings.getMode());
+        assertEquals(WaitStrategy.PARK, settings.getWaitStrategy());
+        assertEquals("1=offload,3=inline", settings.getExecutionPolicies());
+    }
+
+    /**
+     * The port on its own, which is how the server has always been started, alone or in front of named settings.
+     */
+    @Test
+    public void parsesBarePort() {
+        assertEquals(9999, ServerSettings.parse("9999").getPort());
+        ServerSettings settings = ServerSettings.parse("9999", "mode=nio");
+        assertEquals(9999, settings.getPort());
+        assertEquals("nio", settings.getMode());
+    }
+
+    /**
+     * Arguments that are not valid settings are rejected, rather than silently ignored.
+     */
+    @Test
+    public void rejectsInvalidArguments() {
+        // Only the first argument may be given without a name.
+        assertThrows(IllegalArgumentException.class, () -> ServerSettings.parse("mode=nio", "9999"));
+        // The bare port is the port setting, so it can not be given again by name.
+        assertThrows(IllegalArgumentException.class, () -> ServerSettings.parse("9999", "port=8888"));
+        assertThrows(IllegalArgumentException.class, () -> ServerSettings.parse("nio"));
+        assertThrows(IllegalArgumentException.class, () -> ServerSettings.parse("70000"));
+        assertThrows(IllegalArgumentException.class, () -> ServerSettings.parse("unknown=1"));
+        assertThrows(IllegalArgumentException.class, () -> ServerSettings.parse("waitStrategy=sleep"));
+    }
+
+}